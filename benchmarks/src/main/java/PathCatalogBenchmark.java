@@ -0,0 +1,73 @@
+package edu.brown.cs.sdn.apps.sps.benchmarks;
+
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.brown.cs.sdn.apps.sps.KShortestPaths;
+import edu.brown.cs.sdn.apps.sps.PathCatalog;
+import edu.brown.cs.sdn.apps.sps.SwitchPath;
+import edu.brown.cs.sdn.apps.sps.TopologyIndex;
+
+/**
+ * The k cheapest paths between the first and last edge switch: computed
+ * from scratch, as on a catalog miss, and looked up in a catalog that
+ * already holds them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class PathCatalogBenchmark {
+    @Param({"fattree", "leafspine", "jellyfish"})
+    public String topology;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int switches;
+
+    @Param({"4"})
+    public int k;
+
+    private TopologyIndex full;
+    private long srcDpid;
+    private long dstDpid;
+    private PathCatalog catalog;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticNetwork network = Topologies.create(this.topology, this.switches, 1, 1L);
+        this.full = network.getTopology();
+        TreeSet<Long> edges = new TreeSet<Long>(network.getEdgeSwitches());
+        this.srcDpid = edges.first();
+        this.dstDpid = edges.last();
+        this.catalog = new PathCatalog(this.k, 10000);
+        this.catalog.topologyChanged(this.full);
+        this.catalog.getPaths(this.srcDpid, this.dstDpid);
+    }
+
+    @Benchmark
+    public List<SwitchPath> compute() {
+        return new KShortestPaths(this.full).compute(this.full.indexOf(this.srcDpid),
+                this.full.indexOf(this.dstDpid), this.k);
+    }
+
+    @Benchmark
+    public List<SwitchPath> cachedLookup() {
+        return this.catalog.getPaths(this.srcDpid, this.dstDpid);
+    }
+}
@@ -0,0 +1,143 @@
+package edu.brown.cs.sdn.apps.sps.benchmarks;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler and checks them against a saved
+ * baseline: the build fails if any benchmark got slower, or allocates more
+ * per operation, than the baseline by more than the tolerance.
+ *
+ * Usage: RegressionGate [--baseline file] [--save file] [--tolerance fraction] [JMH options]
+ *
+ * --save writes this run's results as a new baseline. Benchmarks that are
+ * not in the baseline are reported but never fail the gate.
+ */
+public final class RegressionGate {
+    // Suffix of the GC profiler's bytes allocated per operation result
+    private static final String ALLOCATION_RESULT = "gc.alloc.rate.norm";
+
+    // Suffix of the baseline keys holding bytes allocated per operation
+    private static final String ALLOCATION_KEY = ".alloc";
+
+    private RegressionGate() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String baselineFile = null;
+        String saveFile = null;
+        double tolerance = 0.10;
+        List<String> jmhArgs = new ArrayList<String>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--baseline") && i + 1 < args.length) {
+                baselineFile = args[++i];
+            } else if (args[i].equals("--save") && i + 1 < args.length) {
+                saveFile = args[++i];
+            } else if (args[i].equals("--tolerance") && i + 1 < args.length) {
+                tolerance = Double.parseDouble(args[++i]);
+            } else {
+                jmhArgs.add(args[i]);
+            }
+        }
+
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(jmhArgs.toArray(new String[0])))
+                .addProfiler(GCProfiler.class)
+                .build();
+        Map<String, Double> scores = getScores(new Runner(options).run());
+
+        if (saveFile != null) {
+            Properties saved = new Properties();
+            for (Map.Entry<String, Double> entry : scores.entrySet()) {
+                saved.setProperty(entry.getKey(), Double.toString(entry.getValue()));
+            }
+            try (OutputStream out = new FileOutputStream(saveFile)) {
+                saved.store(out, "Routing benchmark baseline");
+            }
+            System.out.println("Saved baseline of " + scores.size() + " results to " + saveFile);
+        }
+
+        if (baselineFile != null) {
+            Properties baseline = new Properties();
+            try (InputStream in = new FileInputStream(baselineFile)) {
+                baseline.load(in);
+            }
+            int regressions = check(scores, baseline, tolerance);
+            if (regressions > 0) {
+                System.out.println(regressions + " regressions beyond " + tolerance * 100 + "%");
+                System.exit(1);
+            }
+            System.out.println("No regressions beyond " + tolerance * 100 + "%");
+        }
+    }
+
+    /**
+     * Get the time per operation and bytes allocated per operation of each
+     * run, keyed by benchmark and parameters.
+     */
+    private static Map<String, Double> getScores(Collection<RunResult> results) {
+        Map<String, Double> scores = new TreeMap<String, Double>();
+        for (RunResult result : results) {
+            String key = getKey(result.getParams());
+            scores.put(key, result.getPrimaryResult().getScore());
+            for (Map.Entry<String, Result> secondary : result.getSecondaryResults().entrySet()) {
+                if (secondary.getKey().endsWith(ALLOCATION_RESULT)) {
+                    scores.put(key + ALLOCATION_KEY, secondary.getValue().getScore());
+                }
+            }
+        }
+        return scores;
+    }
+
+    private static String getKey(BenchmarkParams params) {
+        StringBuilder key = new StringBuilder(params.getBenchmark());
+        for (String name : params.getParamsKeys()) {
+            key.append(':').append(name).append('=').append(params.getParam(name));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Report every result against its baseline and count those worse than it
+     * by more than the tolerance. Lower is better for both time and
+     * allocation.
+     */
+    private static int check(Map<String, Double> scores, Properties baseline, double tolerance) {
+        int regressions = 0;
+        for (Map.Entry<String, Double> entry : scores.entrySet()) {
+            String saved = baseline.getProperty(entry.getKey());
+            if (saved == null) {
+                System.out.println(String.format("NEW        %s = %.3f", entry.getKey(), entry.getValue()));
+                continue;
+            }
+            double before = Double.parseDouble(saved);
+            double change = before == 0 ? 0 : (entry.getValue() - before) / before;
+            // Allocation under a few bytes per operation is noise
+            boolean regressed = change > tolerance
+                    && !(entry.getKey().endsWith(ALLOCATION_KEY) && entry.getValue() - before < 16);
+            if (regressed) {
+                regressions++;
+            }
+            System.out.println(String.format("%-10s %s = %.3f (baseline %.3f, %+.1f%%)",
+                    regressed ? "REGRESSED" : "OK", entry.getKey(), entry.getValue(), before, change * 100));
+        }
+        return regressions;
+    }
+}
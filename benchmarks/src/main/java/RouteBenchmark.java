@@ -0,0 +1,82 @@
+package edu.brown.cs.sdn.apps.sps.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.brown.cs.sdn.apps.sps.PathEngine;
+import edu.brown.cs.sdn.apps.sps.RouteComputer;
+import edu.brown.cs.sdn.apps.sps.RouteUpdate;
+import edu.brown.cs.sdn.apps.sps.ShortestPathTrees;
+import edu.brown.cs.sdn.apps.sps.TopologyIndex;
+
+/**
+ * Shortest path computation: every tree from scratch, as on startup or a
+ * switch joining, and the incremental update after a link goes down or comes
+ * back up. The link is one from the middle of the generated link list, which
+ * for the layered shapes is a core-facing link.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class RouteBenchmark {
+    @Param({"fattree", "leafspine", "jellyfish"})
+    public String topology;
+
+    @Param({"10", "100", "1000", "10000"})
+    public int switches;
+
+    @Param({"auto", "dijkstra"})
+    public String engine;
+
+    @Param({"1"})
+    public int threads;
+
+    @Param({"false"})
+    public boolean multipath;
+
+    private RouteComputer computer;
+    private TopologyIndex full;
+    private TopologyIndex linkDown;
+    private ShortestPathTrees fullTrees;
+    private ShortestPathTrees linkDownTrees;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticNetwork network = Topologies.create(this.topology, this.switches, 1, 1L);
+        this.computer = new RouteComputer(PathEngine.forName(this.engine), this.threads, this.multipath);
+        this.full = network.getTopology();
+        this.linkDown = network.getTopologyWithout(network.getLinkCount() / 2);
+        this.fullTrees = this.computer.computeAll(this.full);
+        this.linkDownTrees = this.computer.computeAll(this.linkDown);
+    }
+
+    @Benchmark
+    public ShortestPathTrees fullRecompute() {
+        return this.computer.computeAll(this.full);
+    }
+
+    @Benchmark
+    public RouteUpdate linkDown() {
+        return this.computer.update(this.fullTrees, this.linkDown);
+    }
+
+    @Benchmark
+    public RouteUpdate linkUp() {
+        return this.computer.update(this.linkDownTrees, this.full);
+    }
+}
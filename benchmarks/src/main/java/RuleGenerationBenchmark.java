@@ -0,0 +1,167 @@
+package edu.brown.cs.sdn.apps.sps.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.brown.cs.sdn.apps.sps.FlowRule;
+import edu.brown.cs.sdn.apps.sps.FlowRuleChanges;
+import edu.brown.cs.sdn.apps.sps.FlowRuleDiff;
+import edu.brown.cs.sdn.apps.sps.FlowTableShadow;
+import edu.brown.cs.sdn.apps.sps.GroupTableShadow;
+import edu.brown.cs.sdn.apps.sps.HostAttachment;
+import edu.brown.cs.sdn.apps.sps.HostRegistry;
+import edu.brown.cs.sdn.apps.sps.PathEngine;
+import edu.brown.cs.sdn.apps.sps.RouteChanges;
+import edu.brown.cs.sdn.apps.sps.RouteComputer;
+import edu.brown.cs.sdn.apps.sps.RouteUpdate;
+import edu.brown.cs.sdn.apps.sps.RuleGenerator;
+import edu.brown.cs.sdn.apps.sps.ShortestPathTrees;
+import edu.brown.cs.sdn.apps.sps.SwitchLabels;
+import edu.brown.cs.sdn.apps.sps.TopologyIndex;
+
+/**
+ * Working out the flow-mods for each kind of event, the way the module does
+ * it: generate the desired rules and diff them against the shadow flow
+ * tables. The shadow holds every rule for the network minus one host, so
+ * the events run against a fully installed network. No flow-mods are sent.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class RuleGenerationBenchmark {
+    private static final short PRIORITY = 1;
+
+    @Param({"fattree", "leafspine", "jellyfish"})
+    public String topology;
+
+    // Host mode holds hosts x switches rules, so 10000 needs a large heap
+    @Param({"10", "100", "1000"})
+    public int switches;
+
+    @Param({"1"})
+    public int hostsPerSwitch;
+
+    @Param({"host", "aggregated"})
+    public String routingMode;
+
+    @Param({"true"})
+    public boolean multipath;
+
+    @Param({"true"})
+    public boolean fastFailover;
+
+    private ShortestPathTrees trees;
+    private ShortestPathTrees linkDownTrees;
+    private RouteChanges linkDownChanges;
+    private HostRegistry hostsBefore;
+    private HostRegistry hostsAfter;
+    private long addedHost;
+    private int addedSwitch;
+    private GroupTableShadow groups;
+    private SwitchLabels labels;
+
+    // Every rule for the network without the added host
+    private FlowTableShadow installed;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        SyntheticNetwork network = Topologies.create(this.topology, this.switches, this.hostsPerSwitch, 1L);
+        RouteComputer computer = new RouteComputer(PathEngine.forName("auto"), 1,
+                this.multipath || this.fastFailover);
+        TopologyIndex full = network.getTopology();
+        this.trees = computer.computeAll(full);
+        RouteUpdate linkDown = computer.update(this.trees, network.getTopologyWithout(network.getLinkCount() / 2));
+        this.linkDownTrees = linkDown.getTrees();
+        this.linkDownChanges = linkDown.getChanges();
+
+        this.hostsAfter = new HostRegistry(network.getHosts().size());
+        HostAttachment last = null;
+        for (HostAttachment host : network.getHosts().values()) {
+            this.hostsAfter.put(host);
+            last = host;
+        }
+        this.addedHost = last.getMac();
+        this.hostsBefore = this.hostsAfter.copy();
+        this.hostsBefore.remove(this.addedHost);
+        this.addedSwitch = full.indexOf(last.getDpid());
+        this.groups = new GroupTableShadow();
+        this.labels = new SwitchLabels();
+
+        this.installed = new FlowTableShadow();
+        FlowRuleDiff diff = new FlowRuleDiff(this.installed);
+        generator(this.trees, this.hostsBefore).expectAllSwitches(diff);
+        for (FlowRule rule : diff.getChanges().getAdditions()) {
+            this.installed.put(rule);
+        }
+    }
+
+    private RuleGenerator generator(ShortestPathTrees routes, HostRegistry hosts) {
+        return new RuleGenerator(routes, hosts, this.groups, this.labels, PRIORITY,
+                this.multipath, this.fastFailover, this.routingMode.equalsIgnoreCase("aggregated"), null);
+    }
+
+    /**
+     * Every rule for the network into empty tables, as on startup.
+     */
+    @Benchmark
+    public FlowRuleChanges initialRuleSet() {
+        FlowRuleDiff diff = new FlowRuleDiff(new FlowTableShadow());
+        generator(this.trees, this.hostsBefore).expectAllSwitches(diff);
+        return diff.getChanges();
+    }
+
+    /**
+     * Every rule for the network against tables that already hold them, as
+     * on a full resync; the diff comes out empty.
+     */
+    @Benchmark
+    public FlowRuleChanges fullResync() {
+        FlowRuleDiff diff = new FlowRuleDiff(this.installed);
+        generator(this.trees, this.hostsBefore).expectAllSwitches(diff);
+        return diff.getChanges();
+    }
+
+    @Benchmark
+    public FlowRuleChanges hostAdded() {
+        FlowRuleDiff diff = new FlowRuleDiff(this.installed);
+        generator(this.trees, this.hostsAfter).expectHost(diff, this.addedHost);
+        return diff.getChanges();
+    }
+
+    @Benchmark
+    public FlowRuleChanges linkDown() {
+        FlowRuleDiff diff = new FlowRuleDiff(this.installed);
+        RuleGenerator generator = generator(this.linkDownTrees, this.hostsBefore);
+        if (this.linkDownChanges.isFull()) {
+            generator.expectAllSwitches(diff);
+        } else {
+            generator.expectChangedRoutes(diff, this.linkDownChanges.getChangedRoutes());
+        }
+        return diff.getChanges();
+    }
+
+    /**
+     * Every rule for one switch into its empty table, as when it connects.
+     */
+    @Benchmark
+    public FlowRuleChanges switchAdded() {
+        FlowRuleDiff diff = new FlowRuleDiff(new FlowTableShadow());
+        generator(this.trees, this.hostsBefore).expectSwitch(diff, this.addedSwitch);
+        return diff.getChanges();
+    }
+}
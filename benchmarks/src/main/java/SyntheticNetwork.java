@@ -0,0 +1,158 @@
+package edu.brown.cs.sdn.apps.sps.benchmarks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import edu.brown.cs.sdn.apps.sps.HostAttachment;
+import edu.brown.cs.sdn.apps.sps.TopologyIndex;
+
+/**
+ * A generated network: switches, bidirectional links between them, and hosts
+ * attached to its edge switches. Ports are numbered from 1 on each switch,
+ * links first and then hosts.
+ */
+public final class SyntheticNetwork {
+    private final String name;
+    private final int switchCount;
+    private final long[] linkA;
+    private final long[] linkB;
+    private final int[] portA;
+    private final int[] portB;
+    private final int linkCount;
+    private final Map<Long, HostAttachment> hosts;
+    private final Set<Long> edgeSwitches;
+
+    private SyntheticNetwork(Builder builder, String name) {
+        this.name = name;
+        this.switchCount = builder.switchCount;
+        this.linkA = Arrays.copyOf(builder.linkA, builder.linkCount);
+        this.linkB = Arrays.copyOf(builder.linkB, builder.linkCount);
+        this.portA = Arrays.copyOf(builder.portA, builder.linkCount);
+        this.portB = Arrays.copyOf(builder.portB, builder.linkCount);
+        this.linkCount = builder.linkCount;
+        this.hosts = Collections.unmodifiableMap(builder.hosts);
+        this.edgeSwitches = Collections.unmodifiableSet(builder.edgeSwitches);
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public int getSwitchCount() {
+        return this.switchCount;
+    }
+
+    /**
+     * Get the number of links, each of which is two directed edges.
+     */
+    public int getLinkCount() {
+        return this.linkCount;
+    }
+
+    public Map<Long, HostAttachment> getHosts() {
+        return this.hosts;
+    }
+
+    public Set<Long> getEdgeSwitches() {
+        return this.edgeSwitches;
+    }
+
+    /**
+     * Index the whole network.
+     */
+    public TopologyIndex getTopology() {
+        return getTopologyWithout(-1);
+    }
+
+    /**
+     * Index the network with one link down.
+     */
+    public TopologyIndex getTopologyWithout(int link) {
+        TopologyIndex.Builder builder = TopologyIndex.builder();
+        for (int i = 0; i < this.switchCount; i++) {
+            builder.addSwitch(dpid(i));
+        }
+        for (int i = 0; i < this.linkCount; i++) {
+            if (i != link) {
+                builder.addLink(this.linkA[i], this.portA[i], this.linkB[i], this.portB[i]);
+                builder.addLink(this.linkB[i], this.portB[i], this.linkA[i], this.portA[i]);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Get the DPID of the switch with the given generation order.
+     */
+    static long dpid(int i) {
+        return i + 1;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d switches, %d links, %d hosts",
+                this.name, this.switchCount, this.linkCount, this.hosts.size());
+    }
+
+    static Builder builder(int switchCount) {
+        return new Builder(switchCount);
+    }
+
+    static final class Builder {
+        private final int switchCount;
+        private final int[] nextPort;
+        private long[] linkA = new long[16];
+        private long[] linkB = new long[16];
+        private int[] portA = new int[16];
+        private int[] portB = new int[16];
+        private int linkCount;
+        private final Map<Long, HostAttachment> hosts = new LinkedHashMap<Long, HostAttachment>();
+        private final Set<Long> edgeSwitches = new HashSet<Long>();
+        private long nextMac = 0x020000000001L;
+
+        private Builder(int switchCount) {
+            this.switchCount = switchCount;
+            this.nextPort = new int[switchCount];
+            Arrays.fill(this.nextPort, 1);
+        }
+
+        /**
+         * Link two switches, by generation order.
+         */
+        Builder link(int a, int b) {
+            if (this.linkCount == this.linkA.length) {
+                int capacity = this.linkCount * 2;
+                this.linkA = Arrays.copyOf(this.linkA, capacity);
+                this.linkB = Arrays.copyOf(this.linkB, capacity);
+                this.portA = Arrays.copyOf(this.portA, capacity);
+                this.portB = Arrays.copyOf(this.portB, capacity);
+            }
+            this.linkA[this.linkCount] = dpid(a);
+            this.linkB[this.linkCount] = dpid(b);
+            this.portA[this.linkCount] = this.nextPort[a]++;
+            this.portB[this.linkCount] = this.nextPort[b]++;
+            this.linkCount++;
+            return this;
+        }
+
+        /**
+         * Attach hosts to a switch, by generation order, making it an edge switch.
+         */
+        Builder attachHosts(int sw, int count) {
+            for (int i = 0; i < count; i++) {
+                long mac = this.nextMac++;
+                this.hosts.put(mac, new HostAttachment(mac, dpid(sw), this.nextPort[sw]++, 0));
+                this.edgeSwitches.add(dpid(sw));
+            }
+            return this;
+        }
+
+        SyntheticNetwork build(String name) {
+            return new SyntheticNetwork(this, name);
+        }
+    }
+}
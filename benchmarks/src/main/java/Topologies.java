@@ -0,0 +1,169 @@
+package edu.brown.cs.sdn.apps.sps.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generators for the data center topologies the benchmarks run on. Each takes
+ * an approximate switch count and picks the nearest size the shape allows.
+ */
+public final class Topologies {
+    // Ports per switch used for links in a Jellyfish network
+    private static final int JELLYFISH_DEGREE = 6;
+
+    private Topologies() {
+    }
+
+    /**
+     * Generate a network by shape name: fattree, leafspine or jellyfish.
+     *
+     * @param switches approximate number of switches
+     * @param hostsPerSwitch hosts attached to each edge switch
+     * @param seed seed for the random shapes
+     */
+    public static SyntheticNetwork create(String shape, int switches, int hostsPerSwitch, long seed) {
+        if (shape.equalsIgnoreCase("fattree")) {
+            return fatTree(fatTreeArity(switches), hostsPerSwitch);
+        } else if (shape.equalsIgnoreCase("leafspine")) {
+            int spines = Math.max(2, (int) Math.round(Math.sqrt(switches) / 2));
+            return leafSpine(Math.max(switches - spines, 1), spines, hostsPerSwitch);
+        } else if (shape.equalsIgnoreCase("jellyfish")) {
+            return jellyfish(switches, JELLYFISH_DEGREE, hostsPerSwitch, seed);
+        }
+        throw new IllegalArgumentException("Unknown topology: " + shape);
+    }
+
+    /**
+     * Get the even k whose fat-tree, with 5k^2/4 switches, comes closest to
+     * the given number of switches.
+     */
+    static int fatTreeArity(int switches) {
+        int k = 2 * (int) Math.round(Math.sqrt(switches / 5.0));
+        return Math.max(k, 2);
+    }
+
+    /**
+     * A k-ary fat-tree: k pods of k/2 edge and k/2 aggregation switches, with
+     * every edge switch linked to every aggregation switch in its pod, and
+     * (k/2)^2 core switches, each aggregation switch linked to k/2 of them.
+     * Hosts hang off the edge switches.
+     */
+    public static SyntheticNetwork fatTree(int k, int hostsPerSwitch) {
+        if (k < 2 || k % 2 != 0) {
+            throw new IllegalArgumentException("Fat-tree arity must be even: " + k);
+        }
+        int half = k / 2;
+        int podSwitches = k * k;
+        int cores = half * half;
+        SyntheticNetwork.Builder builder = SyntheticNetwork.builder(podSwitches + cores);
+        for (int pod = 0; pod < k; pod++) {
+            int firstEdge = pod * k;
+            int firstAggregation = firstEdge + half;
+            for (int e = 0; e < half; e++) {
+                for (int a = 0; a < half; a++) {
+                    builder.link(firstEdge + e, firstAggregation + a);
+                }
+                builder.attachHosts(firstEdge + e, hostsPerSwitch);
+            }
+            for (int a = 0; a < half; a++) {
+                for (int c = 0; c < half; c++) {
+                    builder.link(firstAggregation + a, podSwitches + a * half + c);
+                }
+            }
+        }
+        return builder.build(String.format("fattree(k=%d)", k));
+    }
+
+    /**
+     * A two-tier leaf-spine fabric with every leaf linked to every spine.
+     * Hosts hang off the leaves.
+     */
+    public static SyntheticNetwork leafSpine(int leaves, int spines, int hostsPerSwitch) {
+        SyntheticNetwork.Builder builder = SyntheticNetwork.builder(leaves + spines);
+        for (int leaf = 0; leaf < leaves; leaf++) {
+            for (int spine = 0; spine < spines; spine++) {
+                builder.link(leaf, leaves + spine);
+            }
+            builder.attachHosts(leaf, hostsPerSwitch);
+        }
+        return builder.build(String.format("leafspine(%d leaves, %d spines)", leaves, spines));
+    }
+
+    /**
+     * A Jellyfish network: a random regular graph of switches, each with up
+     * to degree links, built the way the Jellyfish paper does. Random pairs of
+     * switches with free ports are linked until no such pair is left
+     * unlinked; then a switch with two free ports splices itself into a
+     * random existing link. Every switch has hosts.
+     */
+    public static SyntheticNetwork jellyfish(int switches, int degree, int hostsPerSwitch, long seed) {
+        degree = Math.min(degree, switches - 1);
+        Random random = new Random(seed);
+        List<Set<Integer>> neighbours = new ArrayList<Set<Integer>>(switches);
+        for (int i = 0; i < switches; i++) {
+            neighbours.add(new HashSet<Integer>());
+        }
+        List<Integer> open = new ArrayList<Integer>();
+        for (int i = 0; i < switches; i++) {
+            open.add(i);
+        }
+
+        int stalled = 0;
+        while (open.size() > 1 && stalled < 16 * switches) {
+            int a = open.get(random.nextInt(open.size()));
+            int b = open.get(random.nextInt(open.size()));
+            if (a == b || neighbours.get(a).contains(b)) {
+                stalled++;
+                continue;
+            }
+            neighbours.get(a).add(b);
+            neighbours.get(b).add(a);
+            closeIfFull(open, neighbours, a, degree);
+            closeIfFull(open, neighbours, b, degree);
+            stalled = 0;
+        }
+
+        // Switches left with two or more free ports splice into existing links
+        for (int s : new ArrayList<Integer>(open)) {
+            for (int attempt = 0; neighbours.get(s).size() <= degree - 2 && attempt < 16 * switches; attempt++) {
+                int x = random.nextInt(switches);
+                if (x == s || neighbours.get(x).isEmpty() || neighbours.get(s).contains(x)) {
+                    continue;
+                }
+                List<Integer> candidates = new ArrayList<Integer>(neighbours.get(x));
+                int y = candidates.get(random.nextInt(candidates.size()));
+                if (y == s || neighbours.get(s).contains(y)) {
+                    continue;
+                }
+                neighbours.get(x).remove(y);
+                neighbours.get(y).remove(x);
+                neighbours.get(s).add(x);
+                neighbours.get(x).add(s);
+                neighbours.get(s).add(y);
+                neighbours.get(y).add(s);
+            }
+        }
+
+        SyntheticNetwork.Builder builder = SyntheticNetwork.builder(switches);
+        for (int a = 0; a < switches; a++) {
+            for (int b : neighbours.get(a)) {
+                if (a < b) {
+                    builder.link(a, b);
+                }
+            }
+        }
+        for (int i = 0; i < switches; i++) {
+            builder.attachHosts(i, hostsPerSwitch);
+        }
+        return builder.build(String.format("jellyfish(%d switches, degree %d)", switches, degree));
+    }
+
+    private static void closeIfFull(List<Integer> open, List<Set<Integer>> neighbours, int s, int degree) {
+        if (neighbours.get(s).size() >= degree) {
+            open.remove(Integer.valueOf(s));
+        }
+    }
+}
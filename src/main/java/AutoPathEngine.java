@@ -0,0 +1,15 @@
+package edu.brown.cs.sdn.apps.sps;
+
+/**
+ * Picks BFS when every link costs the same and Dijkstra otherwise.
+ */
+public final class AutoPathEngine implements PathEngine {
+    private final PathEngine unweighted = new BfsPathEngine();
+    private final PathEngine weighted = new DijkstraPathEngine();
+
+    @Override
+    public ShortestPathTree computeTree(TopologyIndex topology, int root) {
+        return topology.isUnitCost() ? this.unweighted.computeTree(topology, root)
+                : this.weighted.computeTree(topology, root);
+    }
+}
@@ -0,0 +1,46 @@
+package edu.brown.cs.sdn.apps.sps;
+
+/**
+ * Costs inversely proportional to link speed, as OSPF does: a link running
+ * at the reference bandwidth costs 1, one running at a tenth of it costs 10.
+ * Links whose speed is unknown cost as much as the slowest possible link.
+ */
+public final class BandwidthLinkCostProvider implements LinkCostProvider {
+
+    /**
+     * Source of the current speed of a switch port.
+     */
+    public interface PortSpeedSource {
+
+        /**
+         * Get the speed of a port in bits per second, or 0 if unknown.
+         */
+        long getPortSpeedBps(long dpid, int port);
+    }
+
+    // Cost given to links whose speed is unknown
+    private static final int UNKNOWN_SPEED_COST = 65535;
+
+    private final PortSpeedSource speeds;
+    private final long referenceBps;
+
+    public BandwidthLinkCostProvider(PortSpeedSource speeds, long referenceBps) {
+        this.speeds = speeds;
+        this.referenceBps = Math.max(referenceBps, 1);
+    }
+
+    @Override
+    public int getCost(long srcDpid, int srcPort, long dstDpid, int dstPort) {
+        long speed = this.speeds.getPortSpeedBps(srcDpid, srcPort);
+        if (speed <= 0) {
+            return UNKNOWN_SPEED_COST;
+        }
+        long cost = (this.referenceBps + speed - 1) / speed;
+        return (int) Math.max(1, Math.min(cost, UNKNOWN_SPEED_COST));
+    }
+
+    @Override
+    public boolean dependsOnPortState() {
+        return true;
+    }
+}
@@ -0,0 +1,41 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.Arrays;
+
+/**
+ * Breadth-first search over in-edges. Only correct when every link has the
+ * same cost, in which case it is the cheapest way to build a tree: each
+ * switch and each edge is looked at exactly once.
+ */
+public final class BfsPathEngine implements PathEngine {
+
+    @Override
+    public ShortestPathTree computeTree(TopologyIndex topology, int root) {
+        int switchCount = topology.size();
+        int[] distances = new int[switchCount];
+        int[] nextHops = new int[switchCount];
+        Arrays.fill(distances, ShortestPathTree.UNREACHABLE);
+        Arrays.fill(nextHops, TopologyIndex.NONE);
+
+        int[] queue = new int[switchCount];
+        int head = 0;
+        int tail = 0;
+        distances[root] = 0;
+        queue[tail++] = root;
+
+        while (head < tail) {
+            int current = queue[head++];
+            int distance = distances[current] + 1;
+            for (int i = topology.inStart(current); i < topology.inEnd(current); i++) {
+                int neighbour = topology.edgeSource(topology.inEdge(i));
+                if (distances[neighbour] == ShortestPathTree.UNREACHABLE) {
+                    distances[neighbour] = distance;
+                    nextHops[neighbour] = current;
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+
+        return new ShortestPathTree(root, distances, nextHops);
+    }
+}
@@ -0,0 +1,287 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Steers traffic around congested links using the port loads in a
+ * {@link LinkUtilization}. Each {@link #rebalance} looks for links running
+ * above the high water mark and moves the busiest destinations whose trees
+ * use them, a few at a time, onto a tree computed with every link's cost
+ * raised by its load. A destination's load is what its switch sends out of
+ * its host ports. A destination is only moved if its new tree keeps off the
+ * hot links, and only moved back to its shortest path once every link of
+ * that path is below the low water mark. Either way it then stays put for a
+ * hold time, so routes do not flap with every sample.
+ *
+ * A change to the switches or links puts every destination back on its
+ * shortest path; see {@link #release}. Not thread-safe; the routing core
+ * only calls it from its recompute thread.
+ */
+public final class CongestionRerouter {
+    // Extra cost of a fully loaded link, in multiples of the link's own cost
+    private static final int CONGESTION_PENALTY = 4;
+
+    private final LinkUtilization loads;
+    private final double highWater;
+    private final double lowWater;
+    private final int maxMoves;
+    private final long holdNanos;
+    private final boolean multipath;
+
+    // DPIDs of destinations steered off their shortest path
+    private final Set<Long> moved = new HashSet<Long>();
+
+    // DPID -> when a destination moved or moved back may change again
+    private final Map<Long, Long> heldUntilNanos = new HashMap<Long, Long>();
+
+    private int lastMoves;
+    private int lastRestores;
+
+    /**
+     * @param loads load on every switch port
+     * @param highWater utilization above which a link is congested
+     * @param lowWater utilization every link of a moved destination's shortest path must be below to move back
+     * @param maxMoves most destinations moved per rebalance
+     * @param holdMillis how long a destination stays put after moving either way
+     * @param multipath whether traffic is hashed over all equal-cost next hops, so uses all their links
+     */
+    public CongestionRerouter(LinkUtilization loads, double highWater, double lowWater, int maxMoves,
+                              long holdMillis, boolean multipath) {
+        this.loads = loads;
+        this.highWater = highWater;
+        this.lowWater = Math.min(lowWater, highWater);
+        this.maxMoves = maxMoves;
+        this.holdNanos = holdMillis * 1000000L;
+        this.multipath = multipath;
+    }
+
+    public LinkUtilization getLoads() {
+        return this.loads;
+    }
+
+    /**
+     * Get the number of destinations currently steered off their shortest path.
+     */
+    public int getMovedCount() {
+        return this.moved.size();
+    }
+
+    /**
+     * Get the number of destinations the last rebalance moved off their
+     * shortest path.
+     */
+    public int getLastMoves() {
+        return this.lastMoves;
+    }
+
+    /**
+     * Get the number of destinations the last rebalance moved back.
+     */
+    public int getLastRestores() {
+        return this.lastRestores;
+    }
+
+    /**
+     * Drop the trees of every moved destination, so that bringing the trees
+     * up to date with a new topology computes their shortest paths afresh.
+     */
+    public ShortestPathTrees release(ShortestPathTrees trees) {
+        TopologyIndex topology = trees.getTopology();
+        for (long dpid : this.moved) {
+            int root = topology.indexOf(dpid);
+            if (root != TopologyIndex.NONE) {
+                trees = trees.withTree(root, null);
+            }
+        }
+        this.moved.clear();
+        return trees;
+    }
+
+    /**
+     * Move destinations off congested links, and back once their shortest
+     * paths have cooled down.
+     *
+     * @param trees the current trees; only destinations with a tree are moved
+     * @param hosts where every host is attached
+     * @param routeComputer computes the trees
+     * @param changes where every (switch, destination) route that may have moved is added
+     * @param nowNanos current time, from {@link System#nanoTime}
+     * @return the trees with the moves applied
+     */
+    public ShortestPathTrees rebalance(ShortestPathTrees trees, HostRegistry hosts, RouteComputer routeComputer,
+                                       RouteChanges changes, long nowNanos) {
+        this.lastMoves = 0;
+        this.lastRestores = 0;
+        TopologyIndex topology = trees.getTopology();
+        double[] utilization = new double[topology.edgeCount()];
+        boolean congested = false;
+        for (int e = 0; e < utilization.length; e++) {
+            utilization[e] = this.loads.getUtilization(topology.dpid(topology.edgeSource(e)), topology.edgePort(e));
+            congested |= utilization[e] >= this.highWater;
+        }
+
+        for (Iterator<Long> iterator = this.moved.iterator(); iterator.hasNext(); ) {
+            long dpid = iterator.next();
+            int root = topology.indexOf(dpid);
+            ShortestPathTree tree = root == TopologyIndex.NONE ? null : trees.getTree(root);
+            // Gone, or put back on its shortest path since
+            if (tree == null || tree.getCosts(topology) == topology) {
+                iterator.remove();
+                continue;
+            }
+            if (isHeld(dpid, nowNanos)) {
+                continue;
+            }
+            ShortestPathTree shortest = routeComputer.computeTree(topology, root);
+            if (getMaxUtilization(shortest, topology, utilization) < this.lowWater) {
+                trees = trees.withTree(root, shortest);
+                reportRoutesTo(changes, topology, root);
+                iterator.remove();
+                this.heldUntilNanos.put(dpid, nowNanos + this.holdNanos);
+                this.lastRestores++;
+            }
+        }
+        if (!congested) {
+            return trees;
+        }
+
+        // Destinations whose trees cross a congested link, busiest first
+        final double[] destinationLoads = new double[topology.size()];
+        List<Integer> candidates = new ArrayList<Integer>();
+        for (int root = 0; root < topology.size(); root++) {
+            long dpid = topology.dpid(root);
+            ShortestPathTree tree = trees.getTree(root);
+            if (tree == null || this.moved.contains(dpid) || isHeld(dpid, nowNanos)) {
+                continue;
+            }
+            destinationLoads[root] = getDestinationLoad(hosts, dpid);
+            if (destinationLoads[root] > 0 && getMaxUtilization(tree, topology, utilization) >= this.highWater) {
+                candidates.add(root);
+            }
+        }
+        candidates.sort((a, b) -> Double.compare(destinationLoads[b], destinationLoads[a]));
+
+        for (int root : candidates) {
+            if (this.lastMoves == this.maxMoves) {
+                break;
+            }
+            TopologyIndex costs = penalize(topology, utilization);
+            ShortestPathTree steered = routeComputer.computeTree(costs, root).withCosts(costs);
+            if (getMaxUtilization(steered, costs, utilization) >= this.highWater) {
+                continue;
+            }
+            trees = trees.withTree(root, steered);
+            reportRoutesTo(changes, topology, root);
+            long dpid = topology.dpid(root);
+            this.moved.add(dpid);
+            this.heldUntilNanos.put(dpid, nowNanos + this.holdNanos);
+            this.lastMoves++;
+            // Count all of the destination's traffic on every link it now
+            // uses, so later moves do not pile onto the same ones
+            addLoad(steered, costs, utilization, destinationLoads[root]);
+        }
+        return trees;
+    }
+
+    private boolean isHeld(long dpid, long nowNanos) {
+        Long until = this.heldUntilNanos.get(dpid);
+        if (until == null) {
+            return false;
+        }
+        if (nowNanos - until >= 0) {
+            this.heldUntilNanos.remove(dpid);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the rate traffic leaves a switch towards its hosts at, in bits per second.
+     */
+    private double getDestinationLoad(HostRegistry hosts, long dpid) {
+        double load = 0;
+        LongIntHashMap counted = new LongIntHashMap();
+        for (int slot = hosts.firstAtSwitch(dpid); slot != HostRegistry.NONE; slot = hosts.nextAtSwitch(slot)) {
+            if (counted.put(hosts.getPort(slot), 1) == LongIntHashMap.MISSING) {
+                load += this.loads.getRateBps(dpid, hosts.getPort(slot));
+            }
+        }
+        return load;
+    }
+
+    /**
+     * Get the highest utilization of the links a tree sends traffic over.
+     */
+    private double getMaxUtilization(ShortestPathTree tree, TopologyIndex costs, double[] utilization) {
+        double max = 0;
+        for (int u = 0; u < costs.size(); u++) {
+            for (int e = costs.outStart(u); e < costs.outEnd(u); e++) {
+                if (uses(tree, costs, u, e)) {
+                    max = Math.max(max, utilization[e]);
+                }
+            }
+        }
+        return max;
+    }
+
+    private void addLoad(ShortestPathTree tree, TopologyIndex costs, double[] utilization, double loadBps) {
+        for (int u = 0; u < costs.size(); u++) {
+            for (int e = costs.outStart(u); e < costs.outEnd(u); e++) {
+                long speed = this.loads.getSpeedBps(costs.dpid(u), costs.edgePort(e));
+                if (speed > 0 && uses(tree, costs, u, e)) {
+                    utilization[e] += loadBps / speed;
+                }
+            }
+        }
+    }
+
+    /**
+     * Check whether a switch sends traffic for a tree's root over an edge:
+     * its next hop's, or in multipath mode any equal-cost next hop's.
+     */
+    private boolean uses(ShortestPathTree tree, TopologyIndex costs, int u, int e) {
+        int next = tree.nextHop(u);
+        if (next == TopologyIndex.NONE) {
+            return false;
+        }
+        if (!this.multipath) {
+            return costs.findEdge(u, next) == e;
+        }
+        int v = costs.edgeTarget(e);
+        return tree.isReachable(v) && costs.findEdge(u, v) == e
+                && (long) tree.distance(v) + costs.edgeCost(e) == tree.distance(u);
+    }
+
+    /**
+     * Build a copy of a topology whose links cost more the more they are
+     * loaded. It has the same switches and links, so the same indices.
+     */
+    private static TopologyIndex penalize(TopologyIndex topology, double[] utilization) {
+        TopologyIndex.Builder builder = TopologyIndex.builder();
+        for (int u = 0; u < topology.size(); u++) {
+            builder.addSwitch(topology.dpid(u));
+        }
+        for (int e = 0; e < topology.edgeCount(); e++) {
+            long penalty = Math.round(Math.min(utilization[e], 2.0) * CONGESTION_PENALTY);
+            long cost = topology.edgeCost(e) * (1 + penalty);
+            builder.addLink(topology.dpid(topology.edgeSource(e)), topology.edgePort(e),
+                    topology.dpid(topology.edgeTarget(e)), topology.edgeTargetPort(e),
+                    (int) Math.min(cost, Integer.MAX_VALUE / 2));
+        }
+        return builder.build();
+    }
+
+    private static void reportRoutesTo(RouteChanges changes, TopologyIndex topology, int root) {
+        for (int u = 0; u < topology.size(); u++) {
+            if (u != root) {
+                changes.getChangedRoutes().add(topology.dpid(u), topology.dpid(root));
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * A sink that sends nothing and counts what it is given, one message per
+ * rule or group change, as the Floodlight sink would send.
+ */
+public final class CountingRuleSink implements FlowRuleSink {
+    private final SimulatedNetwork network;
+
+    private long rulesInstalled;
+    private long rulesDeleted;
+    private long groupsInstalled;
+    private long groupsDeleted;
+    private long switchResets;
+    private long batches;
+    private long messages;
+    private long waits;
+    private int pending;
+
+    /**
+     * @param network the network whose switches count as connected
+     */
+    public CountingRuleSink(SimulatedNetwork network) {
+        this.network = network;
+    }
+
+    @Override
+    public boolean isConnected(long dpid) {
+        return this.network.hasSwitch(dpid);
+    }
+
+    @Override
+    public void installRule(FlowRule rule) {
+        this.rulesInstalled++;
+        this.pending++;
+    }
+
+    @Override
+    public void deleteRule(FlowRule rule) {
+        this.rulesDeleted++;
+        this.pending++;
+    }
+
+    @Override
+    public void installGroup(GroupEntry group) {
+        this.groupsInstalled++;
+        this.pending++;
+    }
+
+    @Override
+    public void deleteGroup(long dpid, int groupId) {
+        this.groupsDeleted++;
+        this.pending++;
+    }
+
+    @Override
+    public void resetSwitch(long dpid) {
+        this.switchResets++;
+        this.pending++;
+    }
+
+    @Override
+    public void forgetSwitch(long dpid) {
+    }
+
+    @Override
+    public int flush() {
+        int flushed = this.pending;
+        if (flushed > 0) {
+            this.batches++;
+            this.messages += flushed;
+            this.pending = 0;
+        }
+        return flushed;
+    }
+
+    /**
+     * Counts the wait; every change is applied as soon as it is flushed.
+     */
+    @Override
+    public Set<Long> awaitFlushed(Set<Long> dpids) {
+        this.waits++;
+        return Collections.emptySet();
+    }
+
+    public long getRulesInstalled() {
+        return this.rulesInstalled;
+    }
+
+    public long getRulesDeleted() {
+        return this.rulesDeleted;
+    }
+
+    public long getGroupsInstalled() {
+        return this.groupsInstalled;
+    }
+
+    public long getGroupsDeleted() {
+        return this.groupsDeleted;
+    }
+
+    public long getSwitchResets() {
+        return this.switchResets;
+    }
+
+    public long getBatches() {
+        return this.batches;
+    }
+
+    /**
+     * Get the number of messages flushed so far, every change counted once.
+     */
+    public long getMessages() {
+        return this.messages;
+    }
+
+    /**
+     * Get the number of times the core waited for its changes to be applied
+     * before sending more.
+     */
+    public long getWaits() {
+        return this.waits;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d rules installed, %d deleted, %d groups installed, %d deleted, "
+                        + "%d switch resets, %d messages in %d batches, %d waits",
+                this.rulesInstalled, this.rulesDeleted, this.groupsInstalled, this.groupsDeleted,
+                this.switchResets, this.messages, this.batches, this.waits);
+    }
+}
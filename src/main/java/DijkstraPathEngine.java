@@ -0,0 +1,45 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.Arrays;
+
+/**
+ * Dijkstra's algorithm over in-edges using an indexed binary heap, so every
+ * relaxation is a decrease-key instead of a duplicate queue entry. Handles
+ * arbitrary positive link costs.
+ */
+public final class DijkstraPathEngine implements PathEngine {
+
+    @Override
+    public ShortestPathTree computeTree(TopologyIndex topology, int root) {
+        int switchCount = topology.size();
+        int[] distances = new int[switchCount];
+        int[] nextHops = new int[switchCount];
+        Arrays.fill(distances, ShortestPathTree.UNREACHABLE);
+        Arrays.fill(nextHops, TopologyIndex.NONE);
+
+        IndexedMinHeap queue = new IndexedMinHeap(switchCount);
+        distances[root] = 0;
+        queue.insert(root, 0);
+
+        while (!queue.isEmpty()) {
+            int current = queue.pollMin();
+            long base = distances[current];
+            for (int i = topology.inStart(current); i < topology.inEnd(current); i++) {
+                int edge = topology.inEdge(i);
+                int neighbour = topology.edgeSource(edge);
+                long candidate = base + topology.edgeCost(edge);
+                if (candidate < distances[neighbour]) {
+                    distances[neighbour] = (int) Math.min(candidate, ShortestPathTree.UNREACHABLE - 1L);
+                    nextHops[neighbour] = current;
+                    if (queue.contains(neighbour)) {
+                        queue.decreaseKey(neighbour, distances[neighbour]);
+                    } else {
+                        queue.insert(neighbour, distances[neighbour]);
+                    }
+                }
+            }
+        }
+
+        return new ShortestPathTree(root, distances, nextHops);
+    }
+}
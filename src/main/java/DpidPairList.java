@@ -0,0 +1,51 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of (source DPID, destination DPID) pairs, each with an int
+ * value attached, stored in parallel primitive arrays.
+ */
+public final class DpidPairList {
+    private long[] sources = new long[8];
+    private long[] destinations = new long[8];
+    private int[] values = new int[8];
+    private int size;
+
+    public void add(long source, long destination) {
+        add(source, destination, 0);
+    }
+
+    public void add(long source, long destination, int value) {
+        if (this.size == this.sources.length) {
+            int capacity = this.size * 2;
+            this.sources = Arrays.copyOf(this.sources, capacity);
+            this.destinations = Arrays.copyOf(this.destinations, capacity);
+            this.values = Arrays.copyOf(this.values, capacity);
+        }
+        this.sources[this.size] = source;
+        this.destinations[this.size] = destination;
+        this.values[this.size] = value;
+        this.size++;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public long getSource(int i) {
+        return this.sources[i];
+    }
+
+    public long getDestination(int i) {
+        return this.destinations[i];
+    }
+
+    public int getValue(int i) {
+        return this.values[i];
+    }
+}
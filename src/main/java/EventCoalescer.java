@@ -0,0 +1,196 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Folds bursts of events into a single run of a flush task. Each submitted
+ * event pushes the flush back until no event has arrived for the quiet
+ * window, but never further than the maximum delay after the first event of
+ * the burst. Flushes run one at a time on a dedicated thread.
+ *
+ * Submitting never locks or waits, so it is safe from I/O threads: only the
+ * first event of a burst schedules anything, a check of the burst's
+ * deadline that pushes itself back until the events stop, and later events
+ * only move the time of the last event forward.
+ *
+ * Callers record what the event changed before calling {@link #submit}; the
+ * flush task then picks up everything recorded since the previous flush.
+ */
+public final class EventCoalescer {
+    private static Logger log = LoggerFactory.getLogger(EventCoalescer.class.getSimpleName());
+
+    private final Runnable flush;
+    private final long quietNanos;
+    private final long maxDelayNanos;
+    private final ScheduledExecutorService executor;
+
+    // Events in the pending burst; the one that finds none starts the burst
+    private final AtomicInteger pendingEvents = new AtomicInteger();
+    private volatile long firstPendingNanos;
+    private volatile long lastEventNanos;
+
+    // Whether an event of the pending burst asked to be flushed straight away
+    private volatile boolean urgent;
+
+    // Number of the pending burst, moved on by each flush so deadline checks
+    // left over from an earlier burst stop. Only written by the flush thread
+    private volatile long burst;
+
+    private final AtomicLong eventsSubmitted = new AtomicLong();
+    private final AtomicLong eventsCoalesced = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+
+    // How long the first event of the running or last flush waited for it
+    private volatile long lastLagNanos;
+
+    /**
+     * @param name name of the flush thread
+     * @param flush task run once per burst of events
+     * @param quietMillis how long the events must stop before flushing
+     * @param maxDelayMillis longest a flush can be put off after the first
+     *                       event of a burst
+     */
+    public EventCoalescer(final String name, Runnable flush, long quietMillis, long maxDelayMillis) {
+        this.flush = flush;
+        this.quietNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(quietMillis, 0));
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(maxDelayMillis, quietMillis));
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Note that an event happened and schedule, or push back, the flush.
+     */
+    public void submit() {
+        this.eventsSubmitted.incrementAndGet();
+        this.lastEventNanos = System.nanoTime();
+        if (this.pendingEvents.getAndIncrement() == 0) {
+            this.firstPendingNanos = this.lastEventNanos;
+            long id = this.burst;
+            this.executor.schedule(() -> checkDeadline(id), this.quietNanos, TimeUnit.NANOSECONDS);
+        } else {
+            this.eventsCoalesced.incrementAndGet();
+        }
+    }
+
+    /**
+     * Note that an event happened that should be flushed without waiting for
+     * the quiet window, as when traffic is held up until it is. It is still
+     * folded into whatever burst is pending, and a flush already running
+     * delays it only until that flush is done.
+     */
+    public void submitNow() {
+        submit();
+        this.urgent = true;
+        long id = this.burst;
+        this.executor.execute(() -> checkDeadline(id));
+    }
+
+    /**
+     * Run an event every period, submitting it like any other event so it is
+     * folded into whatever burst is in progress. Used for periodic refreshes.
+     *
+     * @param event records what the periodic event changed
+     * @param periodMillis time between events
+     */
+    public void submitPeriodically(final Runnable event, long periodMillis) {
+        this.executor.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                event.run();
+                submit();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Submit an event once, after a delay. Used to run the flush again once a
+     * deadline the flush task is waiting for has passed.
+     */
+    public void submitLater(long delayMillis) {
+        this.executor.schedule(this::submit, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Flush the pending burst if it has gone quiet, reached its maximum
+     * delay or asked to be flushed straight away, and otherwise check again
+     * when it next could be due. Runs on the flush thread.
+     *
+     * @param id number of the burst the check was scheduled for
+     */
+    private void checkDeadline(long id) {
+        if (id != this.burst || this.pendingEvents.get() == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long fireAt = this.urgent ? now
+                : Math.min(this.lastEventNanos + this.quietNanos, this.firstPendingNanos + this.maxDelayNanos);
+        if (fireAt - now > 0) {
+            this.executor.schedule(() -> checkDeadline(id), fireAt - now, TimeUnit.NANOSECONDS);
+            return;
+        }
+        runFlush();
+    }
+
+    private void runFlush() {
+        this.lastLagNanos = System.nanoTime() - this.firstPendingNanos;
+        this.urgent = false;
+        this.burst++;
+        // Events from here on start a new burst; the flush still sees the
+        // changes of any that arrive before it reads them
+        this.pendingEvents.set(0);
+        try {
+            this.flush.run();
+        } catch (RuntimeException e) {
+            log.error("Coalesced flush failed", e);
+        }
+        this.flushes.incrementAndGet();
+    }
+
+    /**
+     * Get the number of events submitted so far.
+     */
+    public long getEventsSubmitted() {
+        return this.eventsSubmitted.get();
+    }
+
+    /**
+     * Get the number of events that were folded into an already pending flush.
+     */
+    public long getEventsCoalesced() {
+        return this.eventsCoalesced.get();
+    }
+
+    /**
+     * Get the number of flushes run so far.
+     */
+    public long getFlushes() {
+        return this.flushes.get();
+    }
+
+    /**
+     * Get how long the first event of the running, or last, flush waited
+     * before the flush started.
+     */
+    public long getLastLagNanos() {
+        return this.lastLagNanos;
+    }
+
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+}
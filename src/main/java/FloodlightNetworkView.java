@@ -0,0 +1,87 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import edu.brown.cs.sdn.apps.util.Host;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscoveryService;
+import net.floodlightcontroller.routing.Link;
+
+/**
+ * The network as Floodlight currently knows it: connected switches from the
+ * provider, links from link discovery and hosts from the device events the
+ * module passes on. Hosts are resolved through the device and switch
+ * services once per event and kept in a {@link HostRegistry}, so reading
+ * them never calls back into Floodlight.
+ */
+public final class FloodlightNetworkView implements NetworkView {
+    private final IFloodlightProviderService floodlightProv;
+    private final ILinkDiscoveryService linkDiscProv;
+
+    // Written from Floodlight's event threads and read from the recompute
+    // thread, so only touched while holding its lock
+    private final HostRegistry hosts = new HostRegistry();
+
+    public FloodlightNetworkView(IFloodlightProviderService floodlightProv, ILinkDiscoveryService linkDiscProv) {
+        this.floodlightProv = floodlightProv;
+        this.linkDiscProv = linkDiscProv;
+    }
+
+    /**
+     * Record where a host is now attached, or that it is detached if it is
+     * not attached to a switch.
+     *
+     * @return whether it is attached
+     */
+    public boolean attachHost(Host host) {
+        IOFSwitch iofSwitch = host.isAttachedToSwitch() ? host.getSwitch() : null;
+        Integer port = host.getPort();
+        if (iofSwitch == null || port == null) {
+            detachHost(host.getMACAddress());
+            return false;
+        }
+        Integer ipv4 = host.getIPv4Address();
+        synchronized (this.hosts) {
+            this.hosts.put(host.getMACAddress(), iofSwitch.getId(), port, ipv4 == null ? 0 : ipv4);
+        }
+        return true;
+    }
+
+    public void detachHost(long mac) {
+        synchronized (this.hosts) {
+            this.hosts.remove(mac);
+        }
+    }
+
+    @Override
+    public Collection<Long> getSwitches() {
+        return new ArrayList<Long>(this.floodlightProv.getAllSwitchMap().keySet());
+    }
+
+    @Override
+    public Collection<SwitchLink> getLinks() {
+        List<SwitchLink> links = new ArrayList<SwitchLink>();
+        for (Link link : this.linkDiscProv.getLinks().keySet()) {
+            links.add(new SwitchLink(link.getSrc(), link.getSrcPort(), link.getDst(), link.getDstPort()));
+        }
+        return links;
+    }
+
+    @Override
+    public Collection<HostAttachment> getHosts() {
+        synchronized (this.hosts) {
+            return this.hosts.getAttachments();
+        }
+    }
+
+    @Override
+    public HostAttachment getHost(long mac) {
+        synchronized (this.hosts) {
+            return this.hosts.get(mac);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import net.floodlightcontroller.packet.Ethernet;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMatchField;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFOXMFieldType;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionGroup;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.protocol.action.OFActionPopMPLS;
+import org.openflow.protocol.action.OFActionPushMPLS;
+import org.openflow.protocol.action.OFActionSetField;
+import org.openflow.protocol.instruction.OFInstruction;
+import org.openflow.protocol.instruction.OFInstructionApplyActions;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+
+/**
+ * Turns the routing core's table changes into flow-mods and group-mods and
+ * hands each batch to the {@link FlowModDispatcher}.
+ */
+public final class FloodlightRuleSink implements FlowRuleSink {
+    // Table-miss entry of reactive mode, sending whole packets to the controller
+    private static final short TABLE_MISS_PRIORITY = 0;
+    private static final int OFPP_CONTROLLER = 0xfffffffd;
+    private static final short OFPCML_NO_BUFFER = (short) 0xffff;
+
+    private final IFloodlightProviderService floodlightProv;
+    private final FlowModDispatcher dispatcher;
+    private final byte table;
+    private final boolean groups;
+    private final boolean aggregated;
+    private final boolean reactive;
+
+    // Messages since the last flush, or null if there are none
+    private FlowModDispatcher.Batch batch;
+
+    // Batches flushed but not yet known to be applied
+    private final List<FlowModDispatcher.Batch> unapplied = new ArrayList<FlowModDispatcher.Batch>();
+
+    /**
+     * @param table switch table rules are installed in
+     * @param groups whether groups may be installed, so must be cleared on reset
+     * @param aggregated whether labelled rules may be installed, so must be cleared on reset
+     * @param reactive whether traffic without a rule is sent to the controller,
+     *                 so rules can be installed for it
+     */
+    public FloodlightRuleSink(IFloodlightProviderService floodlightProv, FlowModDispatcher dispatcher, byte table,
+                              boolean groups, boolean aggregated, boolean reactive) {
+        this.floodlightProv = floodlightProv;
+        this.dispatcher = dispatcher;
+        this.table = table;
+        this.groups = groups;
+        this.aggregated = aggregated;
+        this.reactive = reactive;
+    }
+
+    @Override
+    public boolean isConnected(long dpid) {
+        return this.floodlightProv.getSwitch(dpid) != null;
+    }
+
+    @Override
+    public void installRule(FlowRule rule) {
+        add(rule.getDpid(), FlowMods.add(this.table, rule.getPriority(), getOFMatch(rule.getMatch()),
+                getInstructions(rule), rule.getIdleTimeout(), rule.getHardTimeout()));
+    }
+
+    @Override
+    public void deleteRule(FlowRule rule) {
+        add(rule.getDpid(), FlowMods.delete(this.table, getOFMatch(rule.getMatch())));
+    }
+
+    @Override
+    public void installGroup(GroupEntry group) {
+        add(group.getDpid(), GroupCommands.add(group));
+    }
+
+    @Override
+    public void deleteGroup(long dpid, int groupId) {
+        add(dpid, GroupCommands.delete(groupId));
+    }
+
+    /**
+     * Clears the IPv4 rules, and any labelled rules and groups, from a
+     * switch's table, and in reactive mode makes sure traffic missing every
+     * rule goes to the controller. It goes through the dispatcher so it lands
+     * after anything still queued for the switch.
+     */
+    @Override
+    public void resetSwitch(long dpid) {
+        OFMatch match = new OFMatch();
+        ArrayList<OFMatchField> fieldList = new ArrayList<OFMatchField>();
+        fieldList.add(new OFMatchField(OFOXMFieldType.ETH_TYPE, Ethernet.TYPE_IPv4));
+        match.setMatchFields(fieldList);
+        add(dpid, FlowMods.delete(this.table, match));
+        if (this.aggregated) {
+            OFMatch labelled = new OFMatch();
+            ArrayList<OFMatchField> labelledFields = new ArrayList<OFMatchField>();
+            labelledFields.add(new OFMatchField(OFOXMFieldType.ETH_TYPE, FlowRule.ETH_TYPE_MPLS));
+            labelled.setMatchFields(labelledFields);
+            add(dpid, FlowMods.delete(this.table, labelled));
+        }
+        if (this.groups) {
+            add(dpid, GroupCommands.delete(GroupCommands.ALL_GROUPS));
+        }
+        if (this.reactive) {
+            List<OFAction> actions = new ArrayList<OFAction>();
+            OFActionOutput toController = new OFActionOutput();
+            toController.setPort(OFPP_CONTROLLER);
+            toController.setMaxLength(OFPCML_NO_BUFFER);
+            actions.add(toController);
+            List<OFInstruction> instructions = new ArrayList<OFInstruction>();
+            instructions.add(new OFInstructionApplyActions(actions));
+            add(dpid, FlowMods.add(this.table, TABLE_MISS_PRIORITY, new OFMatch(), instructions,
+                    FlowRule.NO_TIMEOUT, FlowRule.NO_TIMEOUT));
+        }
+    }
+
+    @Override
+    public void forgetSwitch(long dpid) {
+        this.dispatcher.forgetSwitch(dpid);
+    }
+
+    @Override
+    public int flush() {
+        if (this.batch == null) {
+            return 0;
+        }
+        FlowModDispatcher.Batch flushed = this.batch;
+        this.batch = null;
+        this.dispatcher.dispatch(flushed);
+        this.unapplied.removeIf(FlowModDispatcher.Batch::isApplied);
+        this.unapplied.add(flushed);
+        return flushed.size();
+    }
+
+    @Override
+    public Set<Long> awaitFlushed(Set<Long> dpids) {
+        Set<Long> failed = this.dispatcher.awaitApplied(this.unapplied, dpids);
+        this.unapplied.removeIf(FlowModDispatcher.Batch::isApplied);
+        return failed;
+    }
+
+    private void add(long dpid, OFMessage message) {
+        IOFSwitch iofSwitch = this.floodlightProv.getSwitch(dpid);
+        if (iofSwitch == null) {
+            return;
+        }
+        if (this.batch == null) {
+            this.batch = this.dispatcher.newBatch();
+        }
+        this.batch.add(iofSwitch, message);
+    }
+
+    /**
+     * Builds the OFMatch for a rule match.
+     */
+    private OFMatch getOFMatch(FlowMatch flowMatch) {
+        OFMatch match = new OFMatch();
+        ArrayList<OFMatchField> fieldList = new ArrayList<OFMatchField>();
+        OFMatchField ethernet = new OFMatchField(OFOXMFieldType.ETH_TYPE, flowMatch.getEthType());
+        fieldList.add(ethernet);
+        if (flowMatch.getEthDst() != FlowMatch.ANY_ETH_DST) {
+            OFMatchField macAddress = new OFMatchField(OFOXMFieldType.ETH_DST, Ethernet.toByteArray(flowMatch.getEthDst()));
+            fieldList.add(macAddress);
+        }
+        if (flowMatch.getMplsLabel() != FlowMatch.ANY_LABEL) {
+            fieldList.add(new OFMatchField(OFOXMFieldType.MPLS_LABEL, flowMatch.getMplsLabel()));
+        }
+        match.setMatchFields(fieldList);
+        return match;
+    }
+
+    /**
+     * Builds the instructions that push or pop a rule's label and then send
+     * packets matching it out of its port, or to its group.
+     */
+    private List<OFInstruction> getInstructions(FlowRule rule) {
+        ArrayList<OFAction> actions = new ArrayList<OFAction>();
+        if (rule.isPopLabel()) {
+            actions.add(new OFActionPopMPLS(FlowRule.ETH_TYPE_IPV4));
+        } else if (rule.getPushLabel() != FlowMatch.ANY_LABEL) {
+            actions.add(new OFActionPushMPLS(FlowRule.ETH_TYPE_MPLS));
+            actions.add(new OFActionSetField(new OFMatchField(OFOXMFieldType.MPLS_LABEL, rule.getPushLabel())));
+        }
+        if (rule.hasGroup()) {
+            actions.add(new OFActionGroup(rule.getGroupId()));
+        } else {
+            OFActionOutput action = new OFActionOutput();
+            action.setPort(rule.getOutPort());
+            actions.add(action);
+        }
+        OFInstructionApplyActions instructionsList = new OFInstructionApplyActions(actions);
+        ArrayList<OFInstruction> instructions = new ArrayList<OFInstruction>();
+        instructions.add(instructionsList);
+        return instructions;
+    }
+}
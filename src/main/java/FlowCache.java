@@ -0,0 +1,237 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The rules installed on demand in reactive mode, one per (switch,
+ * destination host) pair that has carried traffic, kept in least recently
+ * used order up to a fixed capacity. Adding a pair to a full cache evicts
+ * the pair used longest ago; evicted pairs are kept until the caller has
+ * taken their rules off the switches. It also holds the idle and hard
+ * timeouts the rules are installed with, so switches drop the rules of
+ * flows that stop by themselves.
+ *
+ * Lookups go through primitive maps, by switch and then by MAC, and the
+ * usage order is a chain through fixed slots. Memory is only allocated when
+ * a switch is first seen or one of these maps or the eviction list grows;
+ * touching, removing and evicting pairs otherwise allocate nothing. Not
+ * thread-safe.
+ */
+public final class FlowCache {
+    // Ends of the usage chain
+    private static final int NONE = -1;
+
+    private final int capacity;
+    private final short idleTimeout;
+    private final short hardTimeout;
+
+    // Slot of each pair: switches by DPID, then one map of MACs per switch
+    private final LongIntHashMap switchIndexes = new LongIntHashMap();
+    private final List<LongIntHashMap> slotsBySwitch = new ArrayList<LongIntHashMap>();
+
+    private final long[] dpids;
+    private final long[] macs;
+
+    // Neighbouring slots in usage order, from the oldest to the newest
+    private final int[] older;
+    private final int[] newer;
+    private int oldest = NONE;
+    private int newest = NONE;
+
+    // Slots freed by removals, reused before slots never used
+    private final int[] freeSlots;
+    private int freeCount;
+    private int used;
+    private int size;
+
+    // Pairs evicted since the last clearEvicted()
+    private long[] evictedDpids = new long[8];
+    private long[] evictedMacs = new long[8];
+    private int evictedCount;
+    private long evictions;
+
+    /**
+     * @param capacity most pairs held before the least recently used is evicted
+     * @param idleTimeout seconds without traffic before a switch drops a rule
+     * @param hardTimeout seconds before a switch drops a rule whatever its traffic
+     */
+    public FlowCache(int capacity, short idleTimeout, short hardTimeout) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Flow cache capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.idleTimeout = idleTimeout;
+        this.hardTimeout = hardTimeout;
+        this.dpids = new long[capacity];
+        this.macs = new long[capacity];
+        this.older = new int[capacity];
+        this.newer = new int[capacity];
+        this.freeSlots = new int[capacity];
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public short getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    public short getHardTimeout() {
+        return this.hardTimeout;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Get the number of pairs evicted since the cache was created.
+     */
+    public long getEvictions() {
+        return this.evictions;
+    }
+
+    public boolean contains(long dpid, long mac) {
+        int index = this.switchIndexes.get(dpid);
+        return index != LongIntHashMap.MISSING && this.slotsBySwitch.get(index).containsKey(mac);
+    }
+
+    /**
+     * Note that a switch forwards traffic to a host, making the pair the most
+     * recently used. A new pair in a full cache evicts the least recently
+     * used one.
+     *
+     * @return whether the pair is new
+     */
+    public boolean touch(long dpid, long mac) {
+        LongIntHashMap slots = slotsFor(dpid);
+        int slot = slots.get(mac);
+        if (slot != LongIntHashMap.MISSING) {
+            unlink(slot);
+            linkNewest(slot);
+            return false;
+        }
+        if (this.size == this.capacity) {
+            evict(this.oldest);
+        }
+        slot = this.freeCount > 0 ? this.freeSlots[--this.freeCount] : this.used++;
+        this.dpids[slot] = dpid;
+        this.macs[slot] = mac;
+        slots.put(mac, slot);
+        linkNewest(slot);
+        this.size++;
+        return true;
+    }
+
+    /**
+     * Forget a pair, as when the switch has dropped its rule.
+     *
+     * @return whether it was cached
+     */
+    public boolean remove(long dpid, long mac) {
+        int index = this.switchIndexes.get(dpid);
+        if (index == LongIntHashMap.MISSING) {
+            return false;
+        }
+        int slot = this.slotsBySwitch.get(index).remove(mac);
+        if (slot == LongIntHashMap.MISSING) {
+            return false;
+        }
+        free(slot);
+        return true;
+    }
+
+    /**
+     * Forget every pair of a switch, as when it disconnects.
+     */
+    public void removeSwitch(long dpid) {
+        int index = this.switchIndexes.get(dpid);
+        if (index == LongIntHashMap.MISSING) {
+            return;
+        }
+        // Walks the usage chain rather than copying out the switch's MACs
+        for (int slot = this.oldest, next; slot != NONE; slot = next) {
+            next = this.newer[slot];
+            if (this.dpids[slot] == dpid) {
+                free(slot);
+            }
+        }
+        this.slotsBySwitch.get(index).clear();
+    }
+
+    public int getEvictedCount() {
+        return this.evictedCount;
+    }
+
+    public long getEvictedDpid(int i) {
+        return this.evictedDpids[i];
+    }
+
+    public long getEvictedMac(int i) {
+        return this.evictedMacs[i];
+    }
+
+    /**
+     * Forget the pairs evicted so far, once their rules have been removed.
+     */
+    public void clearEvicted() {
+        this.evictedCount = 0;
+    }
+
+    private LongIntHashMap slotsFor(long dpid) {
+        int index = this.switchIndexes.get(dpid);
+        if (index == LongIntHashMap.MISSING) {
+            index = this.slotsBySwitch.size();
+            this.slotsBySwitch.add(new LongIntHashMap());
+            this.switchIndexes.put(dpid, index);
+        }
+        return this.slotsBySwitch.get(index);
+    }
+
+    private void evict(int slot) {
+        if (this.evictedCount == this.evictedDpids.length) {
+            this.evictedDpids = Arrays.copyOf(this.evictedDpids, this.evictedCount * 2);
+            this.evictedMacs = Arrays.copyOf(this.evictedMacs, this.evictedCount * 2);
+        }
+        this.evictedDpids[this.evictedCount] = this.dpids[slot];
+        this.evictedMacs[this.evictedCount] = this.macs[slot];
+        this.evictedCount++;
+        this.evictions++;
+        remove(this.dpids[slot], this.macs[slot]);
+    }
+
+    private void free(int slot) {
+        unlink(slot);
+        this.freeSlots[this.freeCount++] = slot;
+        this.size--;
+    }
+
+    private void linkNewest(int slot) {
+        this.older[slot] = this.newest;
+        this.newer[slot] = NONE;
+        if (this.newest != NONE) {
+            this.newer[this.newest] = slot;
+        } else {
+            this.oldest = slot;
+        }
+        this.newest = slot;
+    }
+
+    private void unlink(int slot) {
+        int previous = this.older[slot];
+        int next = this.newer[slot];
+        if (previous != NONE) {
+            this.newer[previous] = next;
+        } else {
+            this.oldest = next;
+        }
+        if (next != NONE) {
+            this.older[next] = previous;
+        } else {
+            this.newest = previous;
+        }
+    }
+}
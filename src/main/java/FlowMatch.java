@@ -0,0 +1,107 @@
+package edu.brown.cs.sdn.apps.sps;
+
+/**
+ * Match of a routing rule, independent of Floodlight's OFMatch so that rules
+ * can be compared, hashed and kept in the shadow flow tables.
+ */
+public final class FlowMatch {
+    // Value of a field the match does not constrain
+    public static final long ANY_ETH_DST = -1L;
+    public static final int ANY_LABEL = -1;
+
+    private final short ethType;
+    private final long ethDst;
+    private final int mplsLabel;
+
+    private FlowMatch(short ethType, long ethDst, int mplsLabel) {
+        this.ethType = ethType;
+        this.ethDst = ethDst;
+        this.mplsLabel = mplsLabel;
+    }
+
+    /**
+     * Match for IPv4 traffic to a host's MAC address.
+     */
+    public static FlowMatch forHost(long mac) {
+        return new FlowMatch(FlowRule.ETH_TYPE_IPV4, mac, ANY_LABEL);
+    }
+
+    /**
+     * Match for MPLS-labelled traffic to a host's MAC address, whatever the
+     * label.
+     */
+    public static FlowMatch forLabelledHost(long mac) {
+        return new FlowMatch(FlowRule.ETH_TYPE_MPLS, mac, ANY_LABEL);
+    }
+
+    /**
+     * Match for traffic carrying the MPLS label of a destination switch.
+     */
+    public static FlowMatch forSwitchLabel(int label) {
+        return new FlowMatch(FlowRule.ETH_TYPE_MPLS, ANY_ETH_DST, label);
+    }
+
+    /**
+     * Get the match with the given fields, or null if no routing rule uses
+     * that combination. Used to decode matches read back from elsewhere.
+     */
+    public static FlowMatch fromFields(short ethType, long ethDst, int mplsLabel) {
+        if (ethType == FlowRule.ETH_TYPE_IPV4 && ethDst != ANY_ETH_DST && mplsLabel == ANY_LABEL) {
+            return forHost(ethDst);
+        } else if (ethType == FlowRule.ETH_TYPE_MPLS && ethDst != ANY_ETH_DST && mplsLabel == ANY_LABEL) {
+            return forLabelledHost(ethDst);
+        } else if (ethType == FlowRule.ETH_TYPE_MPLS && ethDst == ANY_ETH_DST && mplsLabel != ANY_LABEL) {
+            return forSwitchLabel(mplsLabel);
+        }
+        return null;
+    }
+
+    public short getEthType() {
+        return this.ethType;
+    }
+
+    /**
+     * Get the destination MAC matched, or {@link #ANY_ETH_DST}.
+     */
+    public long getEthDst() {
+        return this.ethDst;
+    }
+
+    /**
+     * Get the MPLS label matched, or {@link #ANY_LABEL}.
+     */
+    public int getMplsLabel() {
+        return this.mplsLabel;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FlowMatch)) {
+            return false;
+        }
+        FlowMatch other = (FlowMatch) o;
+        return this.ethType == other.ethType && this.ethDst == other.ethDst
+                && this.mplsLabel == other.mplsLabel;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 31 * this.ethType + Long.hashCode(this.ethDst * 0x9E3779B97F4A7C15L);
+        return 31 * result + this.mplsLabel;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(String.format("eth_type=0x%04x", this.ethType));
+        if (this.ethDst != ANY_ETH_DST) {
+            text.append(String.format(",eth_dst=%012x", this.ethDst));
+        }
+        if (this.mplsLabel != ANY_LABEL) {
+            text.append(",mpls_label=").append(this.mplsLabel);
+        }
+        return text.toString();
+    }
+}
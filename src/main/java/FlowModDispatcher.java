@@ -0,0 +1,477 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import org.openflow.protocol.OFBarrierRequest;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.IOFMessageListener;
+import net.floodlightcontroller.core.IOFSwitch;
+
+/**
+ * Sends flow-mods and group-mods to switches off the caller's thread. The
+ * messages of a {@link Batch} are queued per switch; a worker pool writes
+ * each switch's queued messages with a single flush, followed by a barrier,
+ * and switches are written to in parallel. Batches for one switch are always
+ * written in the order they were dispatched, and a switch's next batch is
+ * written without waiting for the previous barrier, so installs pipeline.
+ *
+ * A batch is confirmed when its barrier reply arrives. If the switch
+ * rejects one of its messages with an error, the write fails, or no reply
+ * arrives in time, the batch fails on that switch, even if a barrier reply
+ * follows the error, and the failure listener is told the switch's DPID so
+ * its table can be resynchronised. A batch is applied once every one of its
+ * switches has confirmed or failed it. Callers that must not let later
+ * changes overtake it can {@link #awaitApplied} that for just the switches
+ * the later changes depend on.
+ */
+public final class FlowModDispatcher implements IOFMessageListener {
+    private static Logger log = LoggerFactory.getLogger(FlowModDispatcher.class.getSimpleName());
+
+    // Weight of the latest batch in the install latency average
+    private static final double LATENCY_ALPHA = 0.2;
+
+    private final String name;
+    private final ScheduledExecutorService executor;
+    private final long barrierTimeoutMillis;
+    private final LongConsumer failureListener;
+
+    private final ConcurrentMap<Long, SwitchQueue> queues = new ConcurrentHashMap<Long, SwitchQueue>();
+
+    private final AtomicLong messagesSent = new AtomicLong();
+    private final AtomicLong batchesConfirmed = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    /**
+     * @param name name of the worker threads
+     * @param threads number of switches written to at once
+     * @param barrierTimeoutMillis how long to wait for a barrier reply before
+     *                             treating the batch as failed
+     * @param failureListener told the DPID of a switch a batch failed on
+     */
+    public FlowModDispatcher(final String name, int threads, long barrierTimeoutMillis,
+                             LongConsumer failureListener) {
+        this.name = name;
+        this.barrierTimeoutMillis = barrierTimeoutMillis;
+        this.failureListener = failureListener;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(Math.max(threads, 1), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start collecting messages for one dispatch.
+     */
+    public Batch newBatch() {
+        return new Batch();
+    }
+
+    /**
+     * Queue a batch's messages on their switches and return straight away.
+     */
+    public void dispatch(Batch batch) {
+        long now = System.nanoTime();
+        for (IOFSwitch sw : batch.messages.keySet()) {
+            batch.switchLatches.put(sw.getId(), new CountDownLatch(1));
+            batch.unappliedSwitches.add(sw.getId());
+        }
+        for (Map.Entry<IOFSwitch, List<OFMessage>> entry : batch.messages.entrySet()) {
+            IOFSwitch sw = entry.getKey();
+            SwitchQueue queue = this.queues.computeIfAbsent(sw.getId(), dpid -> new SwitchQueue(sw));
+            queue.sw = sw;
+            queue.messages.add(new QueuedMessages(entry.getValue(), batch, now));
+            queue.depth.addAndGet(entry.getValue().size());
+            if (queue.scheduled.compareAndSet(false, true)) {
+                this.executor.execute(() -> drain(queue));
+            }
+        }
+    }
+
+    /**
+     * Drop everything queued or outstanding for a switch that went away.
+     */
+    public void forgetSwitch(long dpid) {
+        SwitchQueue queue = this.queues.remove(dpid);
+        if (queue != null) {
+            QueuedMessages queued;
+            while ((queued = queue.messages.poll()) != null) {
+                queued.batch.switchDone(dpid, true);
+            }
+            for (PendingBarrier pending : queue.pendingBarriers.values()) {
+                pending.batchesDone(true);
+            }
+            queue.pendingBarriers.clear();
+            queue.unconfirmedMessages.clear();
+        }
+    }
+
+    /**
+     * Wait until some switches have confirmed or failed their part of
+     * dispatched batches; the other switches of the batches are not waited
+     * for. A batch fails on a switch that has not confirmed it within the
+     * barrier timeout of being written, so the waits share one deadline of
+     * twice that, long enough for a batch queued behind another write.
+     *
+     * @return the switches among them that failed a batch, or had not
+     *         answered by the deadline or when the wait was interrupted
+     */
+    public Set<Long> awaitApplied(Collection<Batch> batches, Set<Long> dpids) {
+        Set<Long> failed = new HashSet<Long>();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2 * this.barrierTimeoutMillis);
+        for (Batch batch : batches) {
+            for (long dpid : dpids) {
+                CountDownLatch done = batch.switchLatches.get(dpid);
+                if (done == null || failed.contains(dpid)) {
+                    continue;
+                }
+                try {
+                    if (!done.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                        failed.add(dpid);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failed.add(dpid);
+                }
+                if (batch.failedSwitches.contains(dpid)) {
+                    failed.add(dpid);
+                }
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Runs on a worker; only one drain of a switch's queue runs at a time, so
+     * its batches go out in order.
+     */
+    private void drain(SwitchQueue queue) {
+        try {
+            writeQueued(queue);
+        } finally {
+            queue.scheduled.set(false);
+            // Messages queued while writing, after the queue was emptied
+            if (!queue.messages.isEmpty() && queue.scheduled.compareAndSet(false, true)) {
+                this.executor.execute(() -> drain(queue));
+            }
+        }
+    }
+
+    /**
+     * Write everything queued for a switch in one go, then a barrier.
+     */
+    private void writeQueued(SwitchQueue queue) {
+        List<OFMessage> messages = new ArrayList<OFMessage>();
+        List<Integer> xids = new ArrayList<Integer>();
+        List<Batch> batches = new ArrayList<Batch>();
+        long oldestNanos = Long.MAX_VALUE;
+        QueuedMessages queued;
+        while ((queued = queue.messages.poll()) != null) {
+            messages.addAll(queued.messages);
+            batches.add(queued.batch);
+            oldestNanos = Math.min(oldestNanos, queued.enqueuedNanos);
+        }
+        if (messages.isEmpty()) {
+            return;
+        }
+
+        IOFSwitch sw = queue.sw;
+        long dpid = sw.getId();
+        for (OFMessage message : messages) {
+            int xid = sw.getNextTransactionId();
+            message.setXid(xid);
+            xids.add(xid);
+        }
+        OFBarrierRequest barrier = FlowMods.barrier();
+        int barrierXid = sw.getNextTransactionId();
+        barrier.setXid(barrierXid);
+        PendingBarrier pending = new PendingBarrier(dpid, barrierXid, xids, batches, oldestNanos);
+        for (int xid : xids) {
+            queue.unconfirmedMessages.put(xid, pending);
+        }
+        queue.pendingBarriers.put(barrierXid, pending);
+
+        List<OFMessage> batch = new ArrayList<OFMessage>(messages);
+        batch.add(barrier);
+        try {
+            sw.write(batch, null);
+            sw.flush();
+        } catch (IOException e) {
+            log.error(String.format("Failed to write %d messages to s%d", messages.size(), dpid), e);
+            fail(queue, pending);
+            return;
+        }
+        this.messagesSent.addAndGet(messages.size());
+        log.debug(String.format("Wrote %d messages to s%d", messages.size(), dpid));
+
+        this.executor.schedule(() -> {
+            if (queue.pendingBarriers.remove(barrierXid, pending)) {
+                log.warn(String.format("No barrier reply from s%d after %d ms", dpid, this.barrierTimeoutMillis));
+                fail(queue, pending);
+            }
+        }, this.barrierTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Handles barrier replies and errors for the messages this dispatcher sent.
+     */
+    @Override
+    public Command receive(IOFSwitch sw, OFMessage msg, FloodlightContext cntx) {
+        SwitchQueue queue = this.queues.get(sw.getId());
+        if (queue == null) {
+            return Command.CONTINUE;
+        }
+        if (msg.getType() == OFType.BARRIER_REPLY) {
+            PendingBarrier pending = queue.pendingBarriers.remove(msg.getXid());
+            if (pending == null) {
+                return Command.CONTINUE;
+            }
+            confirm(queue, pending);
+            return Command.STOP;
+        }
+        if (msg.getType() == OFType.ERROR) {
+            PendingBarrier pending = queue.unconfirmedMessages.remove(msg.getXid());
+            if (pending == null) {
+                return Command.CONTINUE;
+            }
+            log.warn(String.format("s%d rejected message %d: %s", sw.getId(), msg.getXid(), msg));
+            // The switch goes on to the barrier, so its reply must not
+            // count as the batch being applied
+            pending.rejected = true;
+            this.failures.incrementAndGet();
+            this.failureListener.accept(sw.getId());
+            return Command.STOP;
+        }
+        return Command.CONTINUE;
+    }
+
+    private void confirm(SwitchQueue queue, PendingBarrier pending) {
+        forgetMessages(queue, pending);
+        queue.recordLatency(System.nanoTime() - pending.enqueuedNanos);
+        if (!pending.rejected) {
+            this.batchesConfirmed.incrementAndGet();
+        }
+        pending.batchesDone(pending.rejected);
+    }
+
+    private void fail(SwitchQueue queue, PendingBarrier pending) {
+        queue.pendingBarriers.remove(pending.barrierXid, pending);
+        forgetMessages(queue, pending);
+        this.failures.incrementAndGet();
+        this.failureListener.accept(pending.dpid);
+        pending.batchesDone(true);
+    }
+
+    private void forgetMessages(SwitchQueue queue, PendingBarrier pending) {
+        for (int xid : pending.messageXids) {
+            queue.unconfirmedMessages.remove(xid);
+        }
+        queue.depth.addAndGet(-pending.messageXids.size());
+    }
+
+    /**
+     * Get the number of messages queued or written to a switch but not yet
+     * confirmed by a barrier.
+     */
+    public int getQueueDepth(long dpid) {
+        SwitchQueue queue = this.queues.get(dpid);
+        return queue == null ? 0 : queue.depth.get();
+    }
+
+    /**
+     * Get the moving average time from a batch being dispatched to its
+     * barrier reply for a switch, in microseconds, or 0 if none has completed.
+     */
+    public long getInstallLatencyMicros(long dpid) {
+        SwitchQueue queue = this.queues.get(dpid);
+        return queue == null ? 0 : TimeUnit.NANOSECONDS.toMicros(queue.latencyNanos);
+    }
+
+    public long getMessagesSent() {
+        return this.messagesSent.get();
+    }
+
+    public long getBatchesConfirmed() {
+        return this.batchesConfirmed.get();
+    }
+
+    public long getFailures() {
+        return this.failures.get();
+    }
+
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public boolean isCallbackOrderingPrereq(OFType type, String name) {
+        return false;
+    }
+
+    @Override
+    public boolean isCallbackOrderingPostreq(OFType type, String name) {
+        return false;
+    }
+
+    /**
+     * Messages for any number of switches, to be dispatched together.
+     * Messages for one switch are sent in the order they were added.
+     */
+    public static final class Batch {
+        private final Map<IOFSwitch, List<OFMessage>> messages = new HashMap<IOFSwitch, List<OFMessage>>();
+        private int size;
+
+        // Switch -> latch released when it confirms or fails the batch, for
+        // every switch of the dispatched batch
+        private final ConcurrentMap<Long, CountDownLatch> switchLatches =
+                new ConcurrentHashMap<Long, CountDownLatch>();
+
+        // Switches yet to confirm or fail the batch, and the latch released
+        // when none are left
+        private final Set<Long> unappliedSwitches = ConcurrentHashMap.newKeySet();
+        private final CountDownLatch applied = new CountDownLatch(1);
+
+        // Switches that failed the batch
+        private final Set<Long> failedSwitches = ConcurrentHashMap.newKeySet();
+
+        private Batch() {
+        }
+
+        public void add(IOFSwitch sw, OFMessage message) {
+            List<OFMessage> forSwitch = this.messages.get(sw);
+            if (forSwitch == null) {
+                forSwitch = new ArrayList<OFMessage>();
+                this.messages.put(sw, forSwitch);
+            }
+            forSwitch.add(message);
+            this.size++;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public boolean isEmpty() {
+            return this.size == 0;
+        }
+
+        /**
+         * Check whether every switch of the dispatched batch has confirmed
+         * or failed it.
+         */
+        public boolean isApplied() {
+            return this.applied.getCount() == 0;
+        }
+
+        private void switchDone(long dpid, boolean failed) {
+            if (failed) {
+                this.failedSwitches.add(dpid);
+            }
+            if (!this.unappliedSwitches.remove(dpid)) {
+                return;
+            }
+            this.switchLatches.get(dpid).countDown();
+            if (this.unappliedSwitches.isEmpty()) {
+                this.applied.countDown();
+            }
+        }
+    }
+
+    private static final class SwitchQueue {
+        private volatile IOFSwitch sw;
+        private final Queue<QueuedMessages> messages = new ConcurrentLinkedQueue<QueuedMessages>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicInteger depth = new AtomicInteger();
+        private volatile long latencyNanos;
+
+        // Barrier xid -> batch waiting for its reply
+        private final ConcurrentMap<Integer, PendingBarrier> pendingBarriers =
+                new ConcurrentHashMap<Integer, PendingBarrier>();
+
+        // Xid of each message written but not yet confirmed by a barrier ->
+        // the barrier it was written with
+        private final ConcurrentMap<Integer, PendingBarrier> unconfirmedMessages =
+                new ConcurrentHashMap<Integer, PendingBarrier>();
+
+        SwitchQueue(IOFSwitch sw) {
+            this.sw = sw;
+        }
+
+        synchronized void recordLatency(long nanos) {
+            this.latencyNanos = this.latencyNanos == 0 ? nanos
+                    : (long) (this.latencyNanos + LATENCY_ALPHA * (nanos - this.latencyNanos));
+        }
+    }
+
+    private static final class QueuedMessages {
+        private final List<OFMessage> messages;
+        private final Batch batch;
+        private final long enqueuedNanos;
+
+        QueuedMessages(List<OFMessage> messages, Batch batch, long enqueuedNanos) {
+            this.messages = messages;
+            this.batch = batch;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+    }
+
+    private static final class PendingBarrier {
+        private final long dpid;
+        private final int barrierXid;
+        private final List<Integer> messageXids;
+        private final List<Batch> batches;
+        private final long enqueuedNanos;
+
+        // Whether the switch rejected one of the messages
+        private volatile boolean rejected;
+
+        PendingBarrier(long dpid, int barrierXid, List<Integer> messageXids, List<Batch> batches,
+                       long enqueuedNanos) {
+            this.dpid = dpid;
+            this.barrierXid = barrierXid;
+            this.messageXids = messageXids;
+            this.batches = batches;
+            this.enqueuedNanos = enqueuedNanos;
+        }
+
+        void batchesDone(boolean failed) {
+            for (Batch batch : this.batches) {
+                batch.switchDone(this.dpid, failed);
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.List;
+
+import org.openflow.protocol.OFBarrierRequest;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.instruction.OFInstruction;
+
+/**
+ * Builds OpenFlow 1.3 flow-mods and barriers without sending them, so they
+ * can be queued up and written to a switch in one batch.
+ */
+public final class FlowMods {
+    // ofp_flow_mod_command
+    private static final byte OFPFC_ADD = 0;
+    private static final byte OFPFC_DELETE = 3;
+
+    // ofp_flow_mod_flags: report the rule when it times out
+    private static final short OFPFF_SEND_FLOW_REM = 1;
+
+    // Buffer id of a flow-mod that does not release a buffered packet
+    private static final int OFP_NO_BUFFER = 0xffffffff;
+
+    // Out port and group of a delete that is not filtered by them
+    private static final int OFPP_ANY = 0xffffffff;
+    private static final int OFPG_ANY = 0xffffffff;
+
+    private FlowMods() {
+    }
+
+    /**
+     * Build a flow-mod that adds a rule, replacing any rule with the same
+     * match and priority. A rule with a timeout is reported back in a
+     * flow-removed message when the switch drops it.
+     */
+    public static OFFlowMod add(byte table, short priority, OFMatch match, List<OFInstruction> instructions,
+                                short idleTimeout, short hardTimeout) {
+        OFFlowMod flowMod = new OFFlowMod();
+        flowMod.setCommand(OFPFC_ADD);
+        flowMod.setTableId(table);
+        flowMod.setPriority(priority);
+        flowMod.setMatch(match);
+        flowMod.setInstructions(instructions);
+        flowMod.setIdleTimeout(idleTimeout);
+        flowMod.setHardTimeout(hardTimeout);
+        if (idleTimeout != 0 || hardTimeout != 0) {
+            flowMod.setFlags(OFPFF_SEND_FLOW_REM);
+        }
+        flowMod.setBufferId(OFP_NO_BUFFER);
+        flowMod.setOutPort(OFPP_ANY);
+        flowMod.setOutGroup(OFPG_ANY);
+        return flowMod;
+    }
+
+    /**
+     * Build a flow-mod that deletes every rule in a table covered by a match.
+     */
+    public static OFFlowMod delete(byte table, OFMatch match) {
+        OFFlowMod flowMod = new OFFlowMod();
+        flowMod.setCommand(OFPFC_DELETE);
+        flowMod.setTableId(table);
+        flowMod.setMatch(match);
+        flowMod.setBufferId(OFP_NO_BUFFER);
+        flowMod.setOutPort(OFPP_ANY);
+        flowMod.setOutGroup(OFPG_ANY);
+        return flowMod;
+    }
+
+    public static OFBarrierRequest barrier() {
+        return new OFBarrierRequest();
+    }
+}
@@ -0,0 +1,165 @@
+package edu.brown.cs.sdn.apps.sps;
+
+/**
+ * A routing rule as installed, or to be installed, on one switch: the switch,
+ * the match, the priority, any MPLS label pushed or popped, and either the
+ * port matching packets are sent out of or the group they are handed to.
+ * Rules installed on demand also carry the idle and hard timeouts after
+ * which the switch drops them.
+ */
+public final class FlowRule {
+    public static final short ETH_TYPE_IPV4 = 0x0800;
+    public static final short ETH_TYPE_MPLS = (short) 0x8847;
+
+    // Group id of a rule that outputs to a single port
+    public static final int NO_GROUP = -1;
+
+    // Timeout of a rule that stays until it is deleted
+    public static final short NO_TIMEOUT = 0;
+
+    private final long dpid;
+    private final FlowMatch match;
+    private final short priority;
+    private final int outPort;
+    private final int groupId;
+    private final int pushLabel;
+    private final boolean popLabel;
+    private final short idleTimeout;
+    private final short hardTimeout;
+
+    public FlowRule(long dpid, FlowMatch match, short priority, int outPort) {
+        this(dpid, match, priority, outPort, NO_GROUP);
+    }
+
+    /**
+     * @param outPort port to send out of, ignored when groupId is set
+     * @param groupId group to hand packets to, or {@link #NO_GROUP}
+     */
+    public FlowRule(long dpid, FlowMatch match, short priority, int outPort, int groupId) {
+        this(dpid, match, priority, outPort, groupId, FlowMatch.ANY_LABEL, false);
+    }
+
+    /**
+     * @param outPort port to send out of, ignored when groupId is set
+     * @param groupId group to hand packets to, or {@link #NO_GROUP}
+     * @param pushLabel MPLS label to push before forwarding, or
+     *                  {@link FlowMatch#ANY_LABEL} for none
+     * @param popLabel whether to pop the MPLS label before forwarding
+     */
+    public FlowRule(long dpid, FlowMatch match, short priority, int outPort, int groupId,
+                    int pushLabel, boolean popLabel) {
+        this(dpid, match, priority, outPort, groupId, pushLabel, popLabel, NO_TIMEOUT, NO_TIMEOUT);
+    }
+
+    /**
+     * @param idleTimeout seconds without matching traffic before the switch
+     *                    drops the rule, or {@link #NO_TIMEOUT}
+     * @param hardTimeout seconds after which the switch drops the rule
+     *                    whatever its traffic, or {@link #NO_TIMEOUT}
+     */
+    public FlowRule(long dpid, FlowMatch match, short priority, int outPort, int groupId,
+                    int pushLabel, boolean popLabel, short idleTimeout, short hardTimeout) {
+        this.dpid = dpid;
+        this.match = match;
+        this.priority = priority;
+        this.outPort = groupId == NO_GROUP ? outPort : TopologyIndex.NONE;
+        this.groupId = groupId;
+        this.pushLabel = pushLabel;
+        this.popLabel = popLabel;
+        this.idleTimeout = idleTimeout;
+        this.hardTimeout = hardTimeout;
+    }
+
+    public long getDpid() {
+        return this.dpid;
+    }
+
+    public FlowMatch getMatch() {
+        return this.match;
+    }
+
+    public short getPriority() {
+        return this.priority;
+    }
+
+    public int getOutPort() {
+        return this.outPort;
+    }
+
+    public int getGroupId() {
+        return this.groupId;
+    }
+
+    public boolean hasGroup() {
+        return this.groupId != NO_GROUP;
+    }
+
+    /**
+     * Get the MPLS label pushed, or {@link FlowMatch#ANY_LABEL} for none.
+     */
+    public int getPushLabel() {
+        return this.pushLabel;
+    }
+
+    public boolean isPopLabel() {
+        return this.popLabel;
+    }
+
+    public short getIdleTimeout() {
+        return this.idleTimeout;
+    }
+
+    public short getHardTimeout() {
+        return this.hardTimeout;
+    }
+
+    /**
+     * Check whether the switch drops the rule by itself after a timeout.
+     */
+    public boolean isTimed() {
+        return this.idleTimeout != NO_TIMEOUT || this.hardTimeout != NO_TIMEOUT;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FlowRule)) {
+            return false;
+        }
+        FlowRule other = (FlowRule) o;
+        return this.dpid == other.dpid && this.priority == other.priority
+                && this.outPort == other.outPort && this.groupId == other.groupId
+                && this.pushLabel == other.pushLabel && this.popLabel == other.popLabel
+                && this.idleTimeout == other.idleTimeout && this.hardTimeout == other.hardTimeout
+                && this.match.equals(other.match);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(this.dpid);
+        result = 31 * result + this.match.hashCode();
+        result = 31 * result + this.priority;
+        result = 31 * result + this.outPort;
+        result = 31 * result + this.groupId;
+        result = 31 * result + this.pushLabel;
+        result = 31 * result + (this.popLabel ? 1 : 0);
+        result = 31 * result + this.idleTimeout;
+        return 31 * result + this.hardTimeout;
+    }
+
+    @Override
+    public String toString() {
+        String label = this.popLabel ? "pop_mpls,"
+                : this.pushLabel != FlowMatch.ANY_LABEL ? "push_mpls:" + this.pushLabel + "," : "";
+        String timeouts = isTimed()
+                ? String.format(",idle_timeout=%d,hard_timeout=%d", this.idleTimeout, this.hardTimeout) : "";
+        if (hasGroup()) {
+            return String.format("s%d[%s,priority=%d%s -> %sgroup:%d]", this.dpid, this.match, this.priority,
+                    timeouts, label, this.groupId);
+        }
+        return String.format("s%d[%s,priority=%d%s -> %soutput:%d]", this.dpid, this.match, this.priority,
+                timeouts, label, this.outPort);
+    }
+}
@@ -0,0 +1,40 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The flow-mods needed to turn the shadow flow tables into the desired ones:
+ * rules to add, rules whose action changed, and rules to delete.
+ */
+public final class FlowRuleChanges {
+    private final List<FlowRule> additions = new ArrayList<FlowRule>();
+    private final List<FlowRule> modifications = new ArrayList<FlowRule>();
+    private final List<FlowRule> deletions = new ArrayList<FlowRule>();
+
+    public List<FlowRule> getAdditions() {
+        return this.additions;
+    }
+
+    public List<FlowRule> getModifications() {
+        return this.modifications;
+    }
+
+    public List<FlowRule> getDeletions() {
+        return this.deletions;
+    }
+
+    public int size() {
+        return this.additions.size() + this.modifications.size() + this.deletions.size();
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d added, %d modified, %d removed",
+                this.additions.size(), this.modifications.size(), this.deletions.size());
+    }
+}
@@ -0,0 +1,57 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.Map;
+
+/**
+ * Compares desired rules against a {@link FlowTableShadow} and collects the
+ * flow-mods needed to reconcile them. Callers describe the desired state
+ * either one rule at a time with {@link #expect}, which only touches that
+ * one (switch, match) entry, or a whole switch at a time with
+ * {@link #expectSwitch}, which also deletes anything not listed.
+ *
+ * The diff does not change the shadow; the shadow is updated as the
+ * resulting flow-mods are sent.
+ */
+public final class FlowRuleDiff {
+    private final FlowTableShadow shadow;
+    private final FlowRuleChanges changes = new FlowRuleChanges();
+
+    public FlowRuleDiff(FlowTableShadow shadow) {
+        this.shadow = shadow;
+    }
+
+    /**
+     * Declare the rule a switch should have for a match, or null if it
+     * should have none.
+     */
+    public void expect(long dpid, FlowMatch match, FlowRule desired) {
+        FlowRule installed = this.shadow.get(dpid, match);
+        if (desired == null) {
+            if (installed != null) {
+                this.changes.getDeletions().add(installed);
+            }
+        } else if (installed == null) {
+            this.changes.getAdditions().add(desired);
+        } else if (!installed.equals(desired)) {
+            this.changes.getModifications().add(desired);
+        }
+    }
+
+    /**
+     * Declare the complete set of rules a switch should hold, keyed by match.
+     */
+    public void expectSwitch(long dpid, Map<FlowMatch, FlowRule> desired) {
+        for (FlowRule installed : this.shadow.getTable(dpid).values()) {
+            if (!desired.containsKey(installed.getMatch())) {
+                this.changes.getDeletions().add(installed);
+            }
+        }
+        for (Map.Entry<FlowMatch, FlowRule> entry : desired.entrySet()) {
+            expect(dpid, entry.getKey(), entry.getValue());
+        }
+    }
+
+    public FlowRuleChanges getChanges() {
+        return this.changes;
+    }
+}
@@ -0,0 +1,65 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.Set;
+
+/**
+ * Where the routing core sends the changes it works out for switch tables.
+ * Calls between two {@link #flush}es form one batch; a sink may hold them
+ * until the flush, but must send each switch's changes in the order they
+ * were made. The Floodlight module turns them into flow-mods and group-mods;
+ * the simulator just counts them.
+ */
+public interface FlowRuleSink {
+
+    /**
+     * Check whether a switch is connected, so changes for it can be sent.
+     */
+    boolean isConnected(long dpid);
+
+    /**
+     * Add or replace a rule on its switch.
+     */
+    void installRule(FlowRule rule);
+
+    /**
+     * Remove a rule from its switch.
+     */
+    void deleteRule(FlowRule rule);
+
+    /**
+     * Add a group to its switch.
+     */
+    void installGroup(GroupEntry group);
+
+    /**
+     * Remove a group from a switch.
+     */
+    void deleteGroup(long dpid, int groupId);
+
+    /**
+     * Remove every rule and group this application may have on a switch.
+     */
+    void resetSwitch(long dpid);
+
+    /**
+     * Drop anything still waiting to go to a switch that has disconnected.
+     */
+    void forgetSwitch(long dpid);
+
+    /**
+     * Send the batch of changes made since the last flush.
+     *
+     * @return the number of messages the batch took
+     */
+    int flush();
+
+    /**
+     * Wait until some switches have applied, or failed to apply, everything
+     * flushed to them so far, so that changes sent next that depend on them
+     * cannot overtake it. Other switches are not waited for.
+     *
+     * @return the switches among them that failed to apply something or did
+     *         not answer in time
+     */
+    Set<Long> awaitFlushed(Set<Long> dpids);
+}
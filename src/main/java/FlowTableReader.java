@@ -0,0 +1,288 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openflow.protocol.OFBucket;
+import org.openflow.protocol.OFMatch;
+import org.openflow.protocol.OFMatchField;
+import org.openflow.protocol.OFOXMFieldType;
+import org.openflow.protocol.OFStatisticsRequest;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionGroup;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.protocol.action.OFActionPopMPLS;
+import org.openflow.protocol.action.OFActionSetField;
+import org.openflow.protocol.instruction.OFInstruction;
+import org.openflow.protocol.instruction.OFInstructionApplyActions;
+import org.openflow.protocol.statistics.OFFlowStatisticsReply;
+import org.openflow.protocol.statistics.OFFlowStatisticsRequest;
+import org.openflow.protocol.statistics.OFGroupDescriptionStatisticsReply;
+import org.openflow.protocol.statistics.OFGroupDescriptionStatisticsRequest;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.packet.Ethernet;
+
+/**
+ * Reads back what switches hold in the module's table, and their groups,
+ * with flow-stats and group-desc requests, and hands the result to the
+ * routing core to reconcile. Reads run one at a time on a dedicated thread,
+ * so a slow switch never holds up the recompute, and a periodic pass over
+ * every switch costs at most one outstanding request.
+ *
+ * A read that fails or times out is reported as a switch failure, so the
+ * switch falls back to being reset and rewritten.
+ */
+public final class FlowTableReader {
+    private static Logger log = LoggerFactory.getLogger(FlowTableReader.class.getSimpleName());
+
+    // ofp_group_type
+    private static final byte OFPGT_SELECT = 1;
+    private static final byte OFPGT_FF = 3;
+
+    // Wildcard port and group, matching entries whatever they output to
+    private static final int OFPP_ANY = 0xffffffff;
+    private static final int OFPG_ANY = 0xffffffff;
+
+    private final IFloodlightProviderService floodlightProv;
+    private final RoutingCore core;
+    private final EventCoalescer recomputeScheduler;
+    private final byte table;
+    private final long timeoutMillis;
+    private final ScheduledExecutorService executor;
+
+    /**
+     * @param name name of the reading thread
+     * @param core where tables read back, and failed reads, are reported
+     * @param recomputeScheduler submitted to after each read, so it is reconciled
+     * @param table switch table rules are installed in
+     * @param timeoutMillis how long a switch has to answer a read
+     */
+    public FlowTableReader(final String name, IFloodlightProviderService floodlightProv, RoutingCore core,
+                           EventCoalescer recomputeScheduler, byte table, long timeoutMillis) {
+        this.floodlightProv = floodlightProv;
+        this.core = core;
+        this.recomputeScheduler = recomputeScheduler;
+        this.table = table;
+        this.timeoutMillis = timeoutMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queue a read of one switch's table.
+     */
+    public void read(final long dpid) {
+        this.executor.execute(() -> readNow(dpid));
+    }
+
+    /**
+     * Read every connected switch's table in turn, once per period, to catch
+     * entries that drifted from what the module installed.
+     */
+    public void readPeriodically(long periodMillis) {
+        this.executor.scheduleWithFixedDelay(() -> {
+            for (Long dpid : new ArrayList<Long>(this.floodlightProv.getAllSwitchMap().keySet())) {
+                readNow(dpid);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    private void readNow(long dpid) {
+        IOFSwitch sw = this.floodlightProv.getSwitch(dpid);
+        if (sw == null) {
+            return;
+        }
+        try {
+            List<FlowRule> rules = readRules(sw);
+            List<GroupEntry> groups = readGroups(sw);
+            this.core.tableRead(dpid, rules, groups);
+        } catch (IOException e) {
+            log.warn(String.format("Failed to read the table of s%d, resetting it: %s", dpid, e.getMessage()));
+            this.core.switchFailed(dpid);
+        }
+        this.recomputeScheduler.submit();
+    }
+
+    /**
+     * Read the routing rules in the module's table on a switch. Entries with
+     * matches or actions the module never installs are left out.
+     */
+    private List<FlowRule> readRules(IOFSwitch sw) throws IOException {
+        OFFlowStatisticsRequest flowRequest = new OFFlowStatisticsRequest();
+        flowRequest.setTableId(this.table);
+        flowRequest.setOutPort(OFPP_ANY);
+        flowRequest.setOutGroup(OFPG_ANY);
+        flowRequest.setMatch(new OFMatch());
+        OFStatisticsRequest request = new OFStatisticsRequest();
+        request.setStatisticType(OFStatisticsType.FLOW);
+        request.setStatistics(singleton(flowRequest));
+        request.setLengthU(request.getLengthU() + flowRequest.getLength());
+
+        List<FlowRule> rules = new ArrayList<FlowRule>();
+        for (OFStatistics statistics : query(sw, request)) {
+            if (statistics instanceof OFFlowStatisticsReply) {
+                OFFlowStatisticsReply reply = (OFFlowStatisticsReply) statistics;
+                FlowRule rule = reply.getTableId() == this.table ? toFlowRule(sw.getId(), reply) : null;
+                if (rule != null) {
+                    rules.add(rule);
+                }
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Read the select and fast-failover groups on a switch.
+     */
+    private List<GroupEntry> readGroups(IOFSwitch sw) throws IOException {
+        OFGroupDescriptionStatisticsRequest groupRequest = new OFGroupDescriptionStatisticsRequest();
+        OFStatisticsRequest request = new OFStatisticsRequest();
+        request.setStatisticType(OFStatisticsType.GROUP_DESC);
+        request.setStatistics(singleton(groupRequest));
+        request.setLengthU(request.getLengthU() + groupRequest.getLength());
+
+        List<GroupEntry> groups = new ArrayList<GroupEntry>();
+        for (OFStatistics statistics : query(sw, request)) {
+            if (statistics instanceof OFGroupDescriptionStatisticsReply) {
+                GroupEntry group = toGroupEntry(sw.getId(), (OFGroupDescriptionStatisticsReply) statistics);
+                if (group != null) {
+                    groups.add(group);
+                }
+            }
+        }
+        return groups;
+    }
+
+    private List<OFStatistics> query(IOFSwitch sw, OFStatisticsRequest request) throws IOException {
+        Future<List<OFStatistics>> future = sw.queryStatistics(request);
+        try {
+            return future.get(this.timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new IOException("No reply within " + this.timeoutMillis + " ms");
+        }
+    }
+
+    private static List<OFStatistics> singleton(OFStatistics statistics) {
+        List<OFStatistics> list = new ArrayList<OFStatistics>();
+        list.add(statistics);
+        return list;
+    }
+
+    /**
+     * Decode a flow-stats entry into the rule it would have been installed
+     * from, or null if the module would not have installed it.
+     */
+    private static FlowRule toFlowRule(long dpid, OFFlowStatisticsReply reply) {
+        FlowMatch match = toFlowMatch(reply.getMatch());
+        if (match == null) {
+            return null;
+        }
+
+        int outPort = TopologyIndex.NONE;
+        int groupId = FlowRule.NO_GROUP;
+        int pushLabel = FlowMatch.ANY_LABEL;
+        boolean popLabel = false;
+        for (OFInstruction instruction : reply.getInstructions()) {
+            if (!(instruction instanceof OFInstructionApplyActions)) {
+                return null;
+            }
+            for (OFAction action : ((OFInstructionApplyActions) instruction).getActions()) {
+                if (action instanceof OFActionOutput) {
+                    outPort = ((OFActionOutput) action).getPort();
+                } else if (action instanceof OFActionGroup) {
+                    groupId = ((OFActionGroup) action).getGroupId();
+                } else if (action instanceof OFActionPopMPLS) {
+                    popLabel = true;
+                } else if (action instanceof OFActionSetField) {
+                    OFMatchField field = ((OFActionSetField) action).getField();
+                    if (field.getType() == OFOXMFieldType.MPLS_LABEL) {
+                        pushLabel = ((Number) field.getValue()).intValue();
+                    }
+                }
+            }
+        }
+        return new FlowRule(dpid, match, reply.getPriority(), outPort, groupId, pushLabel, popLabel,
+                reply.getIdleTimeout(), reply.getHardTimeout());
+    }
+
+    /**
+     * Decode an OpenFlow match into the rule match it would have been built
+     * from, or null if the module would not have built it.
+     */
+    static FlowMatch toFlowMatch(OFMatch ofMatch) {
+        short ethType = 0;
+        long ethDst = FlowMatch.ANY_ETH_DST;
+        int mplsLabel = FlowMatch.ANY_LABEL;
+        for (OFMatchField field : ofMatch.getMatchFields()) {
+            switch (field.getType()) {
+                case ETH_TYPE:
+                    ethType = ((Number) field.getValue()).shortValue();
+                    break;
+                case ETH_DST:
+                    ethDst = Ethernet.toLong((byte[]) field.getValue());
+                    break;
+                case MPLS_LABEL:
+                    mplsLabel = ((Number) field.getValue()).intValue();
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return FlowMatch.fromFields(ethType, ethDst, mplsLabel);
+    }
+
+    /**
+     * Decode a group description into a group entry, or null if it is not a
+     * group the module would have installed.
+     */
+    private static GroupEntry toGroupEntry(long dpid, OFGroupDescriptionStatisticsReply reply) {
+        GroupEntry.Type type;
+        if (reply.getGroupType() == OFPGT_SELECT) {
+            type = GroupEntry.Type.SELECT;
+        } else if (reply.getGroupType() == OFPGT_FF) {
+            type = GroupEntry.Type.FAST_FAILOVER;
+        } else {
+            return null;
+        }
+        List<OFBucket> buckets = reply.getBuckets();
+        int[] ports = new int[buckets.size()];
+        for (int i = 0; i < ports.length; i++) {
+            List<OFAction> actions = buckets.get(i).getActions();
+            if (actions.size() != 1 || !(actions.get(0) instanceof OFActionOutput)) {
+                return null;
+            }
+            ports[i] = ((OFActionOutput) actions.get(0)).getPort();
+        }
+        return new GroupEntry(dpid, reply.getGroupId(), type, ports);
+    }
+}
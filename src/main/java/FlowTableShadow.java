@@ -0,0 +1,77 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Model of the rules this module has installed in its table on each switch.
+ * It is updated as flow-mods are queued for a switch, so it always reflects
+ * what the switches were last told to hold; a switch that fails to apply
+ * them is resynchronised from scratch.
+ */
+public final class FlowTableShadow {
+    private final Map<Long, Map<FlowMatch, FlowRule>> tables = new HashMap<Long, Map<FlowMatch, FlowRule>>();
+
+    /**
+     * Get the installed rule with a match on a switch, or null.
+     */
+    public FlowRule get(long dpid, FlowMatch match) {
+        Map<FlowMatch, FlowRule> table = this.tables.get(dpid);
+        return table == null ? null : table.get(match);
+    }
+
+    /**
+     * Get all installed rules on a switch, keyed by match.
+     */
+    public Map<FlowMatch, FlowRule> getTable(long dpid) {
+        Map<FlowMatch, FlowRule> table = this.tables.get(dpid);
+        return table == null ? Collections.<FlowMatch, FlowRule>emptyMap() : Collections.unmodifiableMap(table);
+    }
+
+    /**
+     * Get the DPIDs of all switches the shadow holds rules for.
+     */
+    public Set<Long> getSwitches() {
+        return Collections.unmodifiableSet(this.tables.keySet());
+    }
+
+    public void put(FlowRule rule) {
+        Map<FlowMatch, FlowRule> table = this.tables.get(rule.getDpid());
+        if (table == null) {
+            table = new HashMap<FlowMatch, FlowRule>();
+            this.tables.put(rule.getDpid(), table);
+        }
+        table.put(rule.getMatch(), rule);
+    }
+
+    public void remove(long dpid, FlowMatch match) {
+        Map<FlowMatch, FlowRule> table = this.tables.get(dpid);
+        if (table != null) {
+            table.remove(match);
+            if (table.isEmpty()) {
+                this.tables.remove(dpid);
+            }
+        }
+    }
+
+    /**
+     * Forget everything installed on a switch, e.g. because it disconnected
+     * and its table can no longer be trusted.
+     */
+    public void clearSwitch(long dpid) {
+        this.tables.remove(dpid);
+    }
+
+    /**
+     * Get the total number of installed rules across all switches.
+     */
+    public int size() {
+        int size = 0;
+        for (Map<FlowMatch, FlowRule> table : this.tables.values()) {
+            size += table.size();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,78 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openflow.protocol.OFBucket;
+import org.openflow.protocol.OFGroupMod;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+
+/**
+ * Builds OpenFlow 1.3 group-mods, which FloodlightRuleSink queues on the
+ * FlowModDispatcher along with flow-mods.
+ */
+public final class GroupCommands {
+    // ofp_group_mod_command
+    private static final short OFPGC_ADD = 0;
+    private static final short OFPGC_DELETE = 2;
+
+    // ofp_group_type
+    private static final byte OFPGT_SELECT = 1;
+    private static final byte OFPGT_FF = 3;
+
+    // Wildcard group id, matching every group in a delete
+    public static final int ALL_GROUPS = 0xfffffffc;
+
+    // Watch group of a bucket that does not watch a group
+    private static final int OFPG_ANY = 0xffffffff;
+
+    private GroupCommands() {
+    }
+
+    /**
+     * Build a group-mod that adds a group, with one bucket per output port.
+     * Each bucket watches the port it outputs to.
+     */
+    public static OFGroupMod add(GroupEntry group) {
+        OFGroupMod groupMod = new OFGroupMod();
+        groupMod.setCommand(OFPGC_ADD);
+        groupMod.setGroupType(getGroupType(group.getType()));
+        groupMod.setGroupId(group.getGroupId());
+
+        List<OFBucket> buckets = new ArrayList<OFBucket>();
+        for (int port : group.getPorts()) {
+            List<OFAction> actions = new ArrayList<OFAction>();
+            actions.add(new OFActionOutput(port));
+            OFBucket bucket = new OFBucket();
+            bucket.setWeight((short) 1);
+            bucket.setWatchPort(port);
+            bucket.setWatchGroup(OFPG_ANY);
+            bucket.setActions(actions);
+            buckets.add(bucket);
+        }
+        groupMod.setBuckets(buckets);
+        return groupMod;
+    }
+
+    /**
+     * Build a group-mod that deletes a group.
+     */
+    public static OFGroupMod delete(int groupId) {
+        OFGroupMod groupMod = new OFGroupMod();
+        groupMod.setCommand(OFPGC_DELETE);
+        groupMod.setGroupId(groupId);
+        return groupMod;
+    }
+
+    private static byte getGroupType(GroupEntry.Type type) {
+        switch (type) {
+            case SELECT:
+                return OFPGT_SELECT;
+            case FAST_FAILOVER:
+                return OFPGT_FF;
+            default:
+                throw new IllegalArgumentException("Unknown group type: " + type);
+        }
+    }
+}
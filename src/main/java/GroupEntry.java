@@ -0,0 +1,77 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.Arrays;
+
+/**
+ * An OpenFlow group as installed, or to be installed, on one switch: the
+ * switch, the group id, the group type and one bucket per output port. Each
+ * bucket watches its own port, so a switch stops using a bucket as soon as
+ * its port goes down.
+ */
+public final class GroupEntry {
+
+    public enum Type {
+        // Each flow is hashed onto one of the live buckets
+        SELECT,
+        // All traffic goes to the first live bucket, so the ports are in order
+        // of preference
+        FAST_FAILOVER
+    }
+
+    private final long dpid;
+    private final int groupId;
+    private final Type type;
+    private final int[] ports;
+
+    public GroupEntry(long dpid, int groupId, Type type, int[] ports) {
+        this.dpid = dpid;
+        this.groupId = groupId;
+        this.type = type;
+        this.ports = ports.clone();
+    }
+
+    public long getDpid() {
+        return this.dpid;
+    }
+
+    public int getGroupId() {
+        return this.groupId;
+    }
+
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * Get the output port of each bucket, in bucket order.
+     */
+    public int[] getPorts() {
+        return this.ports.clone();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GroupEntry)) {
+            return false;
+        }
+        GroupEntry other = (GroupEntry) o;
+        return this.dpid == other.dpid && this.groupId == other.groupId
+                && this.type == other.type && Arrays.equals(this.ports, other.ports);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(this.dpid);
+        result = 31 * result + this.groupId;
+        result = 31 * result + this.type.hashCode();
+        return 31 * result + Arrays.hashCode(this.ports);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("s%d[group:%d,%s -> %s]", this.dpid, this.groupId, this.type, Arrays.toString(this.ports));
+    }
+}
@@ -0,0 +1,156 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Model of the groups this module uses on each switch. Each distinct
+ * (type, ports) combination on a switch gets one group id, so every rule
+ * that forwards over the same set of ports, or the same primary and backup
+ * port, shares one group. A group is
+ * allocated when a desired rule first needs it and marked installed once
+ * its group-mod has been handed to the switch.
+ */
+public final class GroupTableShadow {
+    private final Map<Long, SwitchGroups> switches = new HashMap<Long, SwitchGroups>();
+
+    /**
+     * Get the group a switch uses for a type and set of ports, allocating a
+     * new group id if there is none yet.
+     */
+    public GroupEntry getOrAllocate(long dpid, GroupEntry.Type type, int[] ports) {
+        SwitchGroups groups = this.switches.get(dpid);
+        if (groups == null) {
+            groups = new SwitchGroups();
+            this.switches.put(dpid, groups);
+        }
+        GroupKey key = new GroupKey(type, ports);
+        GroupEntry group = groups.byKey.get(key);
+        if (group == null) {
+            group = new GroupEntry(dpid, groups.nextId++, type, ports);
+            groups.byKey.put(key, group);
+            groups.byId.put(group.getGroupId(), group);
+        }
+        return group;
+    }
+
+    /**
+     * Get an allocated group by id, or null.
+     */
+    public GroupEntry get(long dpid, int groupId) {
+        SwitchGroups groups = this.switches.get(dpid);
+        return groups == null ? null : groups.byId.get(groupId);
+    }
+
+    /**
+     * Get every group allocated on a switch.
+     */
+    public Collection<GroupEntry> getGroups(long dpid) {
+        SwitchGroups groups = this.switches.get(dpid);
+        return groups == null ? new ArrayList<GroupEntry>() : new ArrayList<GroupEntry>(groups.byId.values());
+    }
+
+    /**
+     * Get the DPIDs of all switches that have groups allocated.
+     */
+    public Set<Long> getSwitches() {
+        return new HashSet<Long>(this.switches.keySet());
+    }
+
+    public boolean isInstalled(long dpid, int groupId) {
+        SwitchGroups groups = this.switches.get(dpid);
+        return groups != null && groups.installed.contains(groupId);
+    }
+
+    public void markInstalled(GroupEntry group) {
+        SwitchGroups groups = this.switches.get(group.getDpid());
+        if (groups != null && groups.byId.containsKey(group.getGroupId())) {
+            groups.installed.add(group.getGroupId());
+        }
+    }
+
+    /**
+     * Record a group as installed under the id it had before a restart. Ids
+     * allocated on its switch from then on come after it.
+     */
+    public void restore(GroupEntry group) {
+        SwitchGroups groups = this.switches.get(group.getDpid());
+        if (groups == null) {
+            groups = new SwitchGroups();
+            this.switches.put(group.getDpid(), groups);
+        }
+        groups.byKey.put(new GroupKey(group.getType(), group.getPorts()), group);
+        groups.byId.put(group.getGroupId(), group);
+        groups.installed.add(group.getGroupId());
+        groups.nextId = Math.max(groups.nextId, group.getGroupId() + 1);
+    }
+
+    /**
+     * Release a group, so its id is no longer handed out for its ports.
+     */
+    public void remove(long dpid, int groupId) {
+        SwitchGroups groups = this.switches.get(dpid);
+        if (groups == null) {
+            return;
+        }
+        GroupEntry group = groups.byId.remove(groupId);
+        if (group != null) {
+            groups.byKey.remove(new GroupKey(group.getType(), group.getPorts()));
+            groups.installed.remove(groupId);
+        }
+    }
+
+    /**
+     * Forget every group on a switch, e.g. because it disconnected.
+     */
+    public void clearSwitch(long dpid) {
+        this.switches.remove(dpid);
+    }
+
+    /**
+     * Get the total number of installed groups across all switches.
+     */
+    public int size() {
+        int size = 0;
+        for (SwitchGroups groups : this.switches.values()) {
+            size += groups.installed.size();
+        }
+        return size;
+    }
+
+    private static final class SwitchGroups {
+        private final Map<GroupKey, GroupEntry> byKey = new HashMap<GroupKey, GroupEntry>();
+        private final Map<Integer, GroupEntry> byId = new HashMap<Integer, GroupEntry>();
+        private final Set<Integer> installed = new HashSet<Integer>();
+        private int nextId = 1;
+    }
+
+    private static final class GroupKey {
+        private final GroupEntry.Type type;
+        private final int[] ports;
+
+        GroupKey(GroupEntry.Type type, int[] ports) {
+            this.type = type;
+            this.ports = ports;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof GroupKey)) {
+                return false;
+            }
+            GroupKey other = (GroupKey) o;
+            return this.type == other.type && Arrays.equals(this.ports, other.ports);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * this.type.hashCode() + Arrays.hashCode(this.ports);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package edu.brown.cs.sdn.apps.sps;
+
+/**
+ * Where a host was attached when it was captured: its MAC address, the
+ * switch and port it hangs off, and its IPv4 address (0 if unknown).
+ */
+public final class HostAttachment {
+    private final long mac;
+    private final long dpid;
+    private final int port;
+    private final int ipv4;
+
+    public HostAttachment(long mac, long dpid, int port, int ipv4) {
+        this.mac = mac;
+        this.dpid = dpid;
+        this.port = port;
+        this.ipv4 = ipv4;
+    }
+
+    public long getMac() {
+        return this.mac;
+    }
+
+    public long getDpid() {
+        return this.dpid;
+    }
+
+    public int getPort() {
+        return this.port;
+    }
+
+    public int getIPv4Address() {
+        return this.ipv4;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof HostAttachment)) {
+            return false;
+        }
+        HostAttachment other = (HostAttachment) o;
+        return this.mac == other.mac && this.dpid == other.dpid
+                && this.port == other.port && this.ipv4 == other.ipv4;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(this.mac);
+        result = 31 * result + Long.hashCode(this.dpid);
+        result = 31 * result + this.port;
+        return 31 * result + this.ipv4;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%012x@s%d:%d", this.mac, this.dpid, this.port);
+    }
+}
@@ -0,0 +1,316 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Where every known host is attached, indexed by MAC address and by the
+ * switch it hangs off, with primitive keys throughout. Each host sits in a
+ * slot holding its switch, port and IPv4 address, its attachment and the
+ * matches for traffic to it, built once when the host is first seen, so
+ * looking hosts up and generating their rules allocates nothing. The hosts
+ * of one switch are chained through their slots, so they can be walked
+ * without building a list.
+ *
+ * Slots are kept dense: removing a host moves the last one into its slot,
+ * so slots 0 to size() - 1 are exactly the known hosts. Not thread-safe.
+ */
+public final class HostRegistry {
+    // Slot returned for an unknown host, and ending a switch's chain
+    public static final int NONE = -1;
+
+    // Slot of each host by MAC, and of the first host of each switch by DPID
+    private final LongIntHashMap slotsByMac;
+    private final LongIntHashMap firstBySwitch;
+
+    private long[] macs;
+    private long[] dpids;
+    private int[] ports;
+    private int[] ipv4s;
+    private HostAttachment[] attachments;
+    private FlowMatch[] hostMatches;
+    private FlowMatch[] labelledMatches;
+
+    // Neighbouring slots in the chain of hosts on the same switch
+    private int[] nextAtSwitch;
+    private int[] previousAtSwitch;
+
+    private int size;
+
+    // Bumped on every change, so callers can tell whether anything moved
+    private long version;
+
+    public HostRegistry() {
+        this(16);
+    }
+
+    public HostRegistry(int expectedSize) {
+        int capacity = Math.max(expectedSize, 4);
+        this.slotsByMac = new LongIntHashMap(capacity);
+        this.firstBySwitch = new LongIntHashMap();
+        this.macs = new long[capacity];
+        this.dpids = new long[capacity];
+        this.ports = new int[capacity];
+        this.ipv4s = new int[capacity];
+        this.attachments = new HostAttachment[capacity];
+        this.hostMatches = new FlowMatch[capacity];
+        this.labelledMatches = new FlowMatch[capacity];
+        this.nextAtSwitch = new int[capacity];
+        this.previousAtSwitch = new int[capacity];
+    }
+
+    /**
+     * Copy the registry, so it can be read while this one keeps changing.
+     * The attachments and matches are immutable and shared.
+     */
+    public HostRegistry copy() {
+        HostRegistry copy = new HostRegistry(this.size);
+        for (int slot = 0; slot < this.size; slot++) {
+            copy.insert(this.attachments[slot], this.hostMatches[slot], this.labelledMatches[slot]);
+        }
+        copy.version = this.version;
+        return copy;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Get the slot of a host, or {@link #NONE} if it is unknown.
+     */
+    public int slotOf(long mac) {
+        int slot = this.slotsByMac.get(mac);
+        return slot == LongIntHashMap.MISSING ? NONE : slot;
+    }
+
+    /**
+     * Get where a host is attached, or null if it is unknown.
+     */
+    public HostAttachment get(long mac) {
+        int slot = slotOf(mac);
+        return slot == NONE ? null : this.attachments[slot];
+    }
+
+    public long getMac(int slot) {
+        return this.macs[slot];
+    }
+
+    public long getDpid(int slot) {
+        return this.dpids[slot];
+    }
+
+    public int getPort(int slot) {
+        return this.ports[slot];
+    }
+
+    public int getIPv4Address(int slot) {
+        return this.ipv4s[slot];
+    }
+
+    public HostAttachment getAttachment(int slot) {
+        return this.attachments[slot];
+    }
+
+    /**
+     * Get the match for IPv4 traffic to the host in a slot.
+     */
+    public FlowMatch getHostMatch(int slot) {
+        return this.hostMatches[slot];
+    }
+
+    /**
+     * Get the match for MPLS-labelled traffic to the host in a slot.
+     */
+    public FlowMatch getLabelledMatch(int slot) {
+        return this.labelledMatches[slot];
+    }
+
+    /**
+     * Get the slot of the first host attached to a switch, or {@link #NONE}
+     * if it has none. The rest follow through {@link #nextAtSwitch}.
+     */
+    public int firstAtSwitch(long dpid) {
+        int slot = this.firstBySwitch.get(dpid);
+        return slot == LongIntHashMap.MISSING ? NONE : slot;
+    }
+
+    /**
+     * Get the slot of the next host on the same switch as the host in a slot,
+     * or {@link #NONE} after the last.
+     */
+    public int nextAtSwitch(int slot) {
+        return this.nextAtSwitch[slot];
+    }
+
+    public boolean hasHostsAtSwitch(long dpid) {
+        return this.firstBySwitch.containsKey(dpid);
+    }
+
+    /**
+     * Get the DPIDs of the switches with hosts attached.
+     */
+    public long[] getSwitches() {
+        return this.firstBySwitch.keys();
+    }
+
+    /**
+     * Get where every host is attached, in slot order.
+     */
+    public List<HostAttachment> getAttachments() {
+        return new ArrayList<HostAttachment>(Arrays.asList(this.attachments).subList(0, this.size));
+    }
+
+    /**
+     * Record where a host is attached, adding it if it is new.
+     *
+     * @return whether anything changed
+     */
+    public boolean put(HostAttachment host) {
+        int slot = slotOf(host.getMac());
+        if (slot == NONE) {
+            insert(host, FlowMatch.forHost(host.getMac()), FlowMatch.forLabelledHost(host.getMac()));
+            this.version++;
+            return true;
+        }
+        if (this.attachments[slot].equals(host)) {
+            return false;
+        }
+        if (this.dpids[slot] != host.getDpid()) {
+            unlink(slot);
+            this.dpids[slot] = host.getDpid();
+            link(slot);
+        }
+        this.ports[slot] = host.getPort();
+        this.ipv4s[slot] = host.getIPv4Address();
+        this.attachments[slot] = host;
+        this.version++;
+        return true;
+    }
+
+    /**
+     * Record where a host is attached, adding it if it is new.
+     *
+     * @return whether anything changed
+     */
+    public boolean put(long mac, long dpid, int port, int ipv4) {
+        int slot = slotOf(mac);
+        if (slot != NONE && this.dpids[slot] == dpid && this.ports[slot] == port && this.ipv4s[slot] == ipv4) {
+            return false;
+        }
+        return put(new HostAttachment(mac, dpid, port, ipv4));
+    }
+
+    /**
+     * Forget a host.
+     *
+     * @return whether it was known
+     */
+    public boolean remove(long mac) {
+        int slot = slotOf(mac);
+        if (slot == NONE) {
+            return false;
+        }
+        unlink(slot);
+        this.slotsByMac.remove(mac);
+        int last = --this.size;
+        if (slot != last) {
+            // Move the last host into the freed slot, keeping its place in
+            // its switch's chain
+            unlink(last);
+            this.macs[slot] = this.macs[last];
+            this.dpids[slot] = this.dpids[last];
+            this.ports[slot] = this.ports[last];
+            this.ipv4s[slot] = this.ipv4s[last];
+            this.attachments[slot] = this.attachments[last];
+            this.hostMatches[slot] = this.hostMatches[last];
+            this.labelledMatches[slot] = this.labelledMatches[last];
+            this.slotsByMac.put(this.macs[slot], slot);
+            link(slot);
+        }
+        this.attachments[last] = null;
+        this.hostMatches[last] = null;
+        this.labelledMatches[last] = null;
+        this.version++;
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(this.attachments, 0, this.size, null);
+        Arrays.fill(this.hostMatches, 0, this.size, null);
+        Arrays.fill(this.labelledMatches, 0, this.size, null);
+        this.slotsByMac.clear();
+        this.firstBySwitch.clear();
+        this.size = 0;
+        this.version++;
+    }
+
+    private void insert(HostAttachment host, FlowMatch hostMatch, FlowMatch labelledMatch) {
+        if (this.size == this.macs.length) {
+            grow(this.size * 2);
+        }
+        int slot = this.size++;
+        this.macs[slot] = host.getMac();
+        this.dpids[slot] = host.getDpid();
+        this.ports[slot] = host.getPort();
+        this.ipv4s[slot] = host.getIPv4Address();
+        this.attachments[slot] = host;
+        this.hostMatches[slot] = hostMatch;
+        this.labelledMatches[slot] = labelledMatch;
+        this.slotsByMac.put(host.getMac(), slot);
+        link(slot);
+    }
+
+    /**
+     * Add a slot to the head of its switch's chain.
+     */
+    private void link(int slot) {
+        int first = firstAtSwitch(this.dpids[slot]);
+        this.previousAtSwitch[slot] = NONE;
+        this.nextAtSwitch[slot] = first;
+        if (first != NONE) {
+            this.previousAtSwitch[first] = slot;
+        }
+        this.firstBySwitch.put(this.dpids[slot], slot);
+    }
+
+    /**
+     * Take a slot out of its switch's chain, dropping the switch once it has
+     * no hosts left.
+     */
+    private void unlink(int slot) {
+        int previous = this.previousAtSwitch[slot];
+        int next = this.nextAtSwitch[slot];
+        if (next != NONE) {
+            this.previousAtSwitch[next] = previous;
+        }
+        if (previous != NONE) {
+            this.nextAtSwitch[previous] = next;
+        } else if (next != NONE) {
+            this.firstBySwitch.put(this.dpids[slot], next);
+        } else {
+            this.firstBySwitch.remove(this.dpids[slot]);
+        }
+    }
+
+    private void grow(int capacity) {
+        this.macs = Arrays.copyOf(this.macs, capacity);
+        this.dpids = Arrays.copyOf(this.dpids, capacity);
+        this.ports = Arrays.copyOf(this.ports, capacity);
+        this.ipv4s = Arrays.copyOf(this.ipv4s, capacity);
+        this.attachments = Arrays.copyOf(this.attachments, capacity);
+        this.hostMatches = Arrays.copyOf(this.hostMatches, capacity);
+        this.labelledMatches = Arrays.copyOf(this.labelledMatches, capacity);
+        this.nextAtSwitch = Arrays.copyOf(this.nextAtSwitch, capacity);
+        this.previousAtSwitch = Arrays.copyOf(this.previousAtSwitch, capacity);
+    }
+}
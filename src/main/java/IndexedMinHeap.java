@@ -0,0 +1,105 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.Arrays;
+
+/**
+ * Binary min-heap of int items in [0, capacity) keyed by int priorities,
+ * with a position index so that an item's key can be lowered in place.
+ */
+final class IndexedMinHeap {
+    private final int[] heap;
+    private final int[] positions;
+    private final int[] keys;
+    private int size;
+
+    IndexedMinHeap(int capacity) {
+        this.heap = new int[capacity];
+        this.positions = new int[capacity];
+        this.keys = new int[capacity];
+        Arrays.fill(this.positions, -1);
+    }
+
+    boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    boolean contains(int item) {
+        return this.positions[item] >= 0;
+    }
+
+    void insert(int item, int key) {
+        this.keys[item] = key;
+        this.heap[this.size] = item;
+        this.positions[item] = this.size;
+        siftUp(this.size++);
+    }
+
+    void decreaseKey(int item, int key) {
+        this.keys[item] = key;
+        siftUp(this.positions[item]);
+    }
+
+    /**
+     * Remove every item, in time proportional to how many there are.
+     */
+    void clear() {
+        for (int i = 0; i < this.size; i++) {
+            this.positions[this.heap[i]] = -1;
+        }
+        this.size = 0;
+    }
+
+    /**
+     * Remove and return the item with the smallest key.
+     */
+    int pollMin() {
+        int min = this.heap[0];
+        this.positions[min] = -1;
+        if (--this.size > 0) {
+            int last = this.heap[this.size];
+            this.heap[0] = last;
+            this.positions[last] = 0;
+            siftDown(0);
+        }
+        return min;
+    }
+
+    private void siftUp(int position) {
+        int item = this.heap[position];
+        int key = this.keys[item];
+        while (position > 0) {
+            int parent = (position - 1) >>> 1;
+            int parentItem = this.heap[parent];
+            if (this.keys[parentItem] <= key) {
+                break;
+            }
+            this.heap[position] = parentItem;
+            this.positions[parentItem] = position;
+            position = parent;
+        }
+        this.heap[position] = item;
+        this.positions[item] = position;
+    }
+
+    private void siftDown(int position) {
+        int item = this.heap[position];
+        int key = this.keys[item];
+        int half = this.size >>> 1;
+        while (position < half) {
+            int child = 2 * position + 1;
+            int right = child + 1;
+            if (right < this.size && this.keys[this.heap[right]] < this.keys[this.heap[child]]) {
+                child = right;
+            }
+            int childItem = this.heap[child];
+            if (key <= this.keys[childItem]) {
+                break;
+            }
+            this.heap[position] = childItem;
+            this.positions[childItem] = position;
+            position = child;
+        }
+        this.heap[position] = item;
+        this.positions[item] = position;
+    }
+}
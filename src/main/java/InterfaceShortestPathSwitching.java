@@ -0,0 +1,84 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.List;
+
+import net.floodlightcontroller.core.module.IFloodlightService;
+
+public interface InterfaceShortestPathSwitching extends IFloodlightService {
+    /**
+     * Get the table in which this application installs rules.
+     */
+    public byte getTable();
+
+    /**
+     * Get the most recently published routing state. Snapshots are immutable,
+     * so callers that need several answers to agree should query one snapshot.
+     */
+    public RoutingSnapshot getRoutingSnapshot();
+
+    /**
+     * Get the port a switch sends traffic for another switch out of, or
+     * {@link RoutingSnapshot#NO_ROUTE}.
+     */
+    public int getNextHopPort(long srcDpid, long dstDpid);
+
+    /**
+     * Get the port a switch sends traffic for a host out of, or
+     * {@link RoutingSnapshot#NO_ROUTE}.
+     */
+    public int getNextHopPortToHost(long srcDpid, long hostMac);
+
+    /**
+     * Get the DPIDs of the switches on the shortest path between two
+     * switches, both ends included, or null if there is no route.
+     */
+    public long[] getPath(long srcDpid, long dstDpid);
+
+    /**
+     * Get the cost of the shortest path between two switches, or
+     * {@link RoutingSnapshot#NO_ROUTE}.
+     */
+    public int getDistance(long srcDpid, long dstDpid);
+
+    /**
+     * Get up to k cheapest loop-free paths between two switches, cheapest
+     * first, k being the kPaths setting. Paths are cached between topology
+     * changes, so repeated lookups are cheap.
+     */
+    public List<SwitchPath> getKShortestPaths(long srcDpid, long dstDpid);
+
+    /**
+     * Record a latency measurement for the link leaving a switch port. Only
+     * used when link costs are based on latency.
+     */
+    public void recordLinkLatency(long srcDpid, int srcPort, long micros);
+
+    /**
+     * Get the number of switch, link, host and flow events waiting for the
+     * next recompute.
+     */
+    public int getEventQueueDepth();
+
+    /**
+     * Get the number of flow-mods queued for a switch or written to it but
+     * not yet confirmed.
+     */
+    public int getFlowModQueueDepth(long dpid);
+
+    /**
+     * Get the moving average time from dispatching a batch of flow-mods to a
+     * switch to the switch confirming it, in microseconds.
+     */
+    public long getFlowModInstallLatencyMicros(long dpid);
+
+    /**
+     * Get recompute timings, flow-mod counts and network size.
+     */
+    public RoutingMetrics getMetrics();
+
+    /**
+     * Dump every host, switch, link and shortest path tree, for debugging.
+     * This is expensive on large networks.
+     */
+    public String dumpState();
+}
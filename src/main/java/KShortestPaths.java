@@ -0,0 +1,246 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Yen's algorithm for the k cheapest loop-free paths between two switches
+ * of a topology. Paths go from switch to adjacent switch over the link
+ * {@link TopologyIndex#findEdge} picks, so parallel links never make two
+ * paths out of one. Each path after the first is found by branching off an
+ * earlier one: for every switch along it, a search from that switch to the
+ * destination that keeps off the switches before it, and off the next hops
+ * of every path found so far that shares the part before it.
+ *
+ * The searches are Dijkstra's algorithm over in-edges from the destination,
+ * stopping as soon as they reach the switch they branch off from. Their
+ * scratch arrays are reused between searches, so an instance is not
+ * thread-safe; it is cheap to make one per computation.
+ */
+public final class KShortestPaths {
+    // Cheapest first, then fewest hops, then by switch index so ties are
+    // broken the same way every time
+    private static final Comparator<Candidate> ORDER = new Comparator<Candidate>() {
+        @Override
+        public int compare(Candidate a, Candidate b) {
+            if (a.cost != b.cost) {
+                return Long.compare(a.cost, b.cost);
+            }
+            if (a.nodes.length != b.nodes.length) {
+                return Integer.compare(a.nodes.length, b.nodes.length);
+            }
+            for (int i = 0; i < a.nodes.length; i++) {
+                if (a.nodes[i] != b.nodes[i]) {
+                    return Integer.compare(a.nodes[i], b.nodes[i]);
+                }
+            }
+            return 0;
+        }
+    };
+
+    private final TopologyIndex topology;
+
+    // Scratch space of the searches. An entry only counts if it holds the
+    // current search's stamp, so nothing needs clearing between searches
+    private final int[] distances;
+    private final int[] nextHops;
+    private final int[] reachedStamps;
+    private final int[] blockedStamps;
+    private final int[] blockedNextHopStamps;
+    private final IndexedMinHeap queue;
+    private int stamp;
+
+    public KShortestPaths(TopologyIndex topology) {
+        this.topology = topology;
+        int switchCount = topology.size();
+        this.distances = new int[switchCount];
+        this.nextHops = new int[switchCount];
+        this.reachedStamps = new int[switchCount];
+        this.blockedStamps = new int[switchCount];
+        this.blockedNextHopStamps = new int[switchCount];
+        this.queue = new IndexedMinHeap(switchCount);
+    }
+
+    public TopologyIndex getTopology() {
+        return this.topology;
+    }
+
+    /**
+     * Find the k cheapest loop-free paths from one switch to another.
+     *
+     * @param src index of the source switch
+     * @param dst index of the destination switch
+     * @param k most paths to find
+     * @return the paths, cheapest first; fewer than k if there are no more,
+     *         and none if the destination cannot be reached
+     */
+    public List<SwitchPath> compute(int src, int dst, int k) {
+        if (k <= 0) {
+            return Collections.emptyList();
+        }
+        List<Candidate> accepted = new ArrayList<Candidate>();
+        if (src == dst) {
+            accepted.add(new Candidate(new int[] { src }, 0));
+            return toPaths(accepted);
+        }
+
+        nextSearch();
+        Candidate first = search(src, dst, new int[0], 0);
+        if (first == null) {
+            return Collections.emptyList();
+        }
+        accepted.add(first);
+
+        PriorityQueue<Candidate> candidates = new PriorityQueue<Candidate>(ORDER);
+        Set<Candidate> seen = new HashSet<Candidate>();
+        seen.add(first);
+        while (accepted.size() < k) {
+            int[] last = accepted.get(accepted.size() - 1).nodes;
+            long rootCost = 0;
+            for (int i = 0; i < last.length - 1; i++) {
+                int spur = last[i];
+                nextSearch();
+                for (int j = 0; j < i; j++) {
+                    this.blockedStamps[last[j]] = this.stamp;
+                }
+                for (Candidate path : accepted) {
+                    if (path.nodes.length > i + 1 && sharesPrefix(path.nodes, last, i + 1)) {
+                        this.blockedNextHopStamps[path.nodes[i + 1]] = this.stamp;
+                    }
+                }
+                Candidate candidate = search(spur, dst, Arrays.copyOf(last, i), rootCost);
+                if (candidate != null && seen.add(candidate)) {
+                    candidates.add(candidate);
+                }
+                rootCost += this.topology.edgeCost(this.topology.findEdge(spur, last[i + 1]));
+            }
+            if (candidates.isEmpty()) {
+                break;
+            }
+            accepted.add(candidates.poll());
+        }
+        return toPaths(accepted);
+    }
+
+    private void nextSearch() {
+        if (this.stamp == Integer.MAX_VALUE) {
+            Arrays.fill(this.reachedStamps, 0);
+            Arrays.fill(this.blockedStamps, 0);
+            Arrays.fill(this.blockedNextHopStamps, 0);
+            this.stamp = 0;
+        }
+        this.stamp++;
+    }
+
+    /**
+     * Find the cheapest path from a switch to the destination that keeps off
+     * the blocked switches, and off the blocked next hops of the switch it
+     * starts from, and put it after a root path.
+     */
+    private Candidate search(int spur, int dst, int[] root, long rootCost) {
+        this.distances[dst] = 0;
+        this.nextHops[dst] = TopologyIndex.NONE;
+        this.reachedStamps[dst] = this.stamp;
+        this.queue.insert(dst, 0);
+
+        boolean found = false;
+        while (!this.queue.isEmpty()) {
+            int current = this.queue.pollMin();
+            if (current == spur) {
+                found = true;
+                break;
+            }
+            long base = this.distances[current];
+            boolean blockedNextHop = this.blockedNextHopStamps[current] == this.stamp;
+            for (int i = this.topology.inStart(current); i < this.topology.inEnd(current); i++) {
+                int edge = this.topology.inEdge(i);
+                int neighbour = this.topology.edgeSource(edge);
+                if (this.blockedStamps[neighbour] == this.stamp || (neighbour == spur && blockedNextHop)) {
+                    continue;
+                }
+                long candidate = base + this.topology.edgeCost(edge);
+                boolean reached = this.reachedStamps[neighbour] == this.stamp;
+                if (!reached || candidate < this.distances[neighbour]) {
+                    this.distances[neighbour] = (int) Math.min(candidate, ShortestPathTree.UNREACHABLE - 1L);
+                    this.nextHops[neighbour] = current;
+                    this.reachedStamps[neighbour] = this.stamp;
+                    if (this.queue.contains(neighbour)) {
+                        this.queue.decreaseKey(neighbour, this.distances[neighbour]);
+                    } else if (!reached) {
+                        this.queue.insert(neighbour, this.distances[neighbour]);
+                    }
+                }
+            }
+        }
+        this.queue.clear();
+        if (!found) {
+            return null;
+        }
+
+        int length = root.length;
+        for (int current = spur; current != TopologyIndex.NONE; current = this.nextHops[current]) {
+            length++;
+        }
+        int[] nodes = Arrays.copyOf(root, length);
+        int position = root.length;
+        for (int current = spur; current != TopologyIndex.NONE; current = this.nextHops[current]) {
+            nodes[position++] = current;
+        }
+        return new Candidate(nodes, rootCost + this.distances[spur]);
+    }
+
+    private static boolean sharesPrefix(int[] a, int[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private List<SwitchPath> toPaths(List<Candidate> candidates) {
+        List<SwitchPath> paths = new ArrayList<SwitchPath>(candidates.size());
+        for (Candidate candidate : candidates) {
+            int[] nodes = candidate.nodes;
+            long[] dpids = new long[nodes.length];
+            int[] ports = new int[nodes.length - 1];
+            for (int i = 0; i < nodes.length; i++) {
+                dpids[i] = this.topology.dpid(nodes[i]);
+                if (i > 0) {
+                    ports[i - 1] = this.topology.portTo(nodes[i - 1], nodes[i]);
+                }
+            }
+            paths.add(new SwitchPath(dpids, ports, candidate.cost));
+        }
+        return paths;
+    }
+
+    /**
+     * Path by switch index, with its cost. Equal if it visits the same switches.
+     */
+    private static final class Candidate {
+        private final int[] nodes;
+        private final long cost;
+
+        Candidate(int[] nodes, long cost) {
+            this.nodes = nodes;
+            this.cost = cost;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Candidate && Arrays.equals(this.nodes, ((Candidate) o).nodes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(this.nodes);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations with power-of-two microsecond buckets:
+ * bucket i counts durations in [2^(i-1), 2^i) microseconds. Recording is a
+ * couple of atomic increments, so it can sit on the hot path; percentiles
+ * are accurate to within a factor of two.
+ */
+public final class LatencyHistogram {
+    // Up to 2^40 microseconds, about 12 days
+    private static final int BUCKETS = 41;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(nanos, 0));
+        int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKETS - 1);
+        this.counts.incrementAndGet(bucket);
+        this.count.incrementAndGet();
+        this.totalMicros.addAndGet(micros);
+        this.maxMicros.accumulateAndGet(micros, Math::max);
+    }
+
+    public long getCount() {
+        return this.count.get();
+    }
+
+    public long getMaxMicros() {
+        return this.maxMicros.get();
+    }
+
+    public long getMeanMicros() {
+        long count = this.count.get();
+        return count == 0 ? 0 : this.totalMicros.get() / count;
+    }
+
+    /**
+     * Get an upper bound on the given percentile (0-100) of the recorded
+     * durations, in microseconds, or 0 if nothing has been recorded.
+     */
+    public long getPercentileMicros(double percentile) {
+        long count = this.count.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * Math.min(Math.max(percentile, 0), 100) / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) {
+                return Math.min(i == 0 ? 0 : 1L << i, getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+}
@@ -0,0 +1,69 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Costs from measured link latency. Samples are fed in through
+ * {@link #recordLatency} and smoothed with an exponentially weighted moving
+ * average; a link costs one unit per {@code granularityMicros} of smoothed
+ * latency. Links with no samples yet cost the default.
+ */
+public final class LatencyLinkCostProvider implements LinkCostProvider {
+    // Weight of a new sample in the moving average
+    private static final double ALPHA = 0.2;
+
+    // (src DPID, src port) -> smoothed latency in microseconds
+    private final ConcurrentMap<LinkKey, Double> latencies = new ConcurrentHashMap<LinkKey, Double>();
+
+    private final long granularityMicros;
+    private final int defaultCost;
+
+    public LatencyLinkCostProvider(long granularityMicros, int defaultCost) {
+        this.granularityMicros = Math.max(granularityMicros, 1);
+        this.defaultCost = Math.max(defaultCost, 1);
+    }
+
+    /**
+     * Record a latency measurement for the link leaving a switch port.
+     */
+    public void recordLatency(long srcDpid, int srcPort, long micros) {
+        final double sample = Math.max(micros, 0);
+        this.latencies.merge(new LinkKey(srcDpid, srcPort), sample,
+                (old, latest) -> old + ALPHA * (latest - old));
+    }
+
+    @Override
+    public int getCost(long srcDpid, int srcPort, long dstDpid, int dstPort) {
+        Double latency = this.latencies.get(new LinkKey(srcDpid, srcPort));
+        if (latency == null) {
+            return this.defaultCost;
+        }
+        long cost = Math.round(latency / this.granularityMicros);
+        return (int) Math.max(1, Math.min(cost, Integer.MAX_VALUE / 2));
+    }
+
+    private static final class LinkKey {
+        private final long dpid;
+        private final int port;
+
+        LinkKey(long dpid, int port) {
+            this.dpid = dpid;
+            this.port = port;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LinkKey)) {
+                return false;
+            }
+            LinkKey other = (LinkKey) o;
+            return this.dpid == other.dpid && this.port == other.port;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(this.dpid) + this.port;
+        }
+    }
+}
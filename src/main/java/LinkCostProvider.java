@@ -0,0 +1,21 @@
+package edu.brown.cs.sdn.apps.sps;
+
+/**
+ * Supplies the cost of each directed switch-to-switch link when the topology
+ * index is built. Costs must be at least 1; lower is better.
+ */
+public interface LinkCostProvider {
+
+    /**
+     * Get the cost of the link leaving a switch port towards another switch.
+     */
+    int getCost(long srcDpid, int srcPort, long dstDpid, int dstPort);
+
+    /**
+     * Check whether costs depend on port state, such as speed, so that port
+     * changes should trigger a cost refresh.
+     */
+    default boolean dependsOnPortState() {
+        return false;
+    }
+}
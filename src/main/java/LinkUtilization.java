@@ -0,0 +1,117 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Load on every switch port, from its transmitted byte counter sampled
+ * every so often through {@link #recordPortCounters}. Each sample after the
+ * first gives the rate since the one before; the first rate is taken as is
+ * and later ones are smoothed into it with an exponentially weighted moving
+ * average, which divided by the port speed is the utilization. A counter
+ * that goes backwards, as after a switch restart, starts the port over.
+ *
+ * Samples may be recorded from any thread while the rates are read.
+ */
+public final class LinkUtilization {
+    // Weight of a new sample in the moving average
+    private static final double ALPHA = 0.3;
+
+    // (DPID, port) -> load
+    private final ConcurrentMap<PortKey, PortLoad> ports = new ConcurrentHashMap<PortKey, PortLoad>();
+
+    /**
+     * Record the transmitted byte counter of a switch port.
+     *
+     * @param speedBps speed of the port in bits per second, or 0 if unknown
+     * @param nanos when the counter was read, from {@link System#nanoTime} or any other clock
+     */
+    public void recordPortCounters(long dpid, int port, long txBytes, long speedBps, long nanos) {
+        PortLoad load = this.ports.computeIfAbsent(new PortKey(dpid, port), key -> new PortLoad());
+        load.sample(txBytes, speedBps, nanos);
+    }
+
+    /**
+     * Get the smoothed rate a switch port transmits at, in bits per second,
+     * or 0 before it has two samples.
+     */
+    public double getRateBps(long dpid, int port) {
+        PortLoad load = this.ports.get(new PortKey(dpid, port));
+        return load == null ? 0 : load.rateBps;
+    }
+
+    /**
+     * Get the smoothed fraction of a switch port's speed it transmits at, or
+     * 0 if its speed or rate is unknown.
+     */
+    public double getUtilization(long dpid, int port) {
+        PortLoad load = this.ports.get(new PortKey(dpid, port));
+        return load == null || load.speedBps <= 0 ? 0 : load.rateBps / load.speedBps;
+    }
+
+    /**
+     * Get the speed of a switch port in bits per second, or 0 if unknown.
+     */
+    public long getSpeedBps(long dpid, int port) {
+        PortLoad load = this.ports.get(new PortKey(dpid, port));
+        return load == null ? 0 : load.speedBps;
+    }
+
+    /**
+     * Forget the ports of a switch, as when it disconnects.
+     */
+    public void removeSwitch(long dpid) {
+        this.ports.keySet().removeIf(key -> key.dpid == dpid);
+    }
+
+    private static final class PortLoad {
+        // Last sample, the baseline for the next rate
+        private long lastBytes;
+        private long lastNanos;
+        private boolean sampled;
+        private boolean rated;
+
+        private volatile double rateBps;
+        private volatile long speedBps;
+
+        synchronized void sample(long txBytes, long speedBps, long nanos) {
+            this.speedBps = speedBps;
+            long elapsed = nanos - this.lastNanos;
+            if (this.sampled && txBytes >= this.lastBytes && elapsed > 0) {
+                double rate = (txBytes - this.lastBytes) * 8e9 / elapsed;
+                this.rateBps = this.rated ? this.rateBps + ALPHA * (rate - this.rateBps) : rate;
+                this.rated = true;
+            } else if (txBytes < this.lastBytes) {
+                this.rateBps = 0;
+                this.rated = false;
+            }
+            this.lastBytes = txBytes;
+            this.lastNanos = nanos;
+            this.sampled = true;
+        }
+    }
+
+    private static final class PortKey {
+        private final long dpid;
+        private final int port;
+
+        PortKey(long dpid, int port) {
+            this.dpid = dpid;
+            this.port = port;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PortKey)) {
+                return false;
+            }
+            PortKey other = (PortKey) o;
+            return this.dpid == other.dpid && this.port == other.port;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(this.dpid) + this.port;
+        }
+    }
+}
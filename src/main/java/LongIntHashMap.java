@@ -0,0 +1,207 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map from primitive long keys to primitive int values.
+ * Used for DPID and MAC lookups on the routing hot path so that no keys or
+ * values are ever boxed.
+ */
+public final class LongIntHashMap {
+    // Value returned by get() when a key is absent
+    public static final int MISSING = -1;
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // Key 0 marks a free slot, so a real 0 key is kept on the side
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private boolean hasZeroKey;
+    private int zeroValue;
+
+    public LongIntHashMap() {
+        this(16);
+    }
+
+    public LongIntHashMap(int expectedSize) {
+        int capacity = tableSizeFor((int) Math.ceil(Math.max(expectedSize, 2) / LOAD_FACTOR));
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Get the value mapped to a key, or {@link #MISSING} if there is none.
+     */
+    public int get(long key) {
+        if (key == 0) {
+            return this.hasZeroKey ? this.zeroValue : MISSING;
+        }
+        int slot = mix(key) & this.mask;
+        while (this.keys[slot] != 0) {
+            if (this.keys[slot] == key) {
+                return this.values[slot];
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return MISSING;
+    }
+
+    public boolean containsKey(long key) {
+        if (key == 0) {
+            return this.hasZeroKey;
+        }
+        int slot = mix(key) & this.mask;
+        while (this.keys[slot] != 0) {
+            if (this.keys[slot] == key) {
+                return true;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return false;
+    }
+
+    /**
+     * Map a key to a value, returning the previous value or {@link #MISSING}.
+     */
+    public int put(long key, int value) {
+        if (key == 0) {
+            int previous = this.hasZeroKey ? this.zeroValue : MISSING;
+            if (!this.hasZeroKey) {
+                this.hasZeroKey = true;
+                this.size++;
+            }
+            this.zeroValue = value;
+            return previous;
+        }
+        int slot = mix(key) & this.mask;
+        while (this.keys[slot] != 0) {
+            if (this.keys[slot] == key) {
+                int previous = this.values[slot];
+                this.values[slot] = value;
+                return previous;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        this.keys[slot] = key;
+        this.values[slot] = value;
+        if (++this.size > this.keys.length * LOAD_FACTOR) {
+            rehash(this.keys.length * 2);
+        }
+        return MISSING;
+    }
+
+    /**
+     * Remove a key, returning its value or {@link #MISSING} if it was absent.
+     */
+    public int remove(long key) {
+        if (key == 0) {
+            if (!this.hasZeroKey) {
+                return MISSING;
+            }
+            this.hasZeroKey = false;
+            this.size--;
+            return this.zeroValue;
+        }
+        int slot = mix(key) & this.mask;
+        while (this.keys[slot] != 0) {
+            if (this.keys[slot] == key) {
+                int previous = this.values[slot];
+                shiftKeys(slot);
+                this.size--;
+                return previous;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return MISSING;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Get every key in the map, in no particular order.
+     */
+    public long[] keys() {
+        long[] result = new long[this.size];
+        int count = 0;
+        if (this.hasZeroKey) {
+            result[count++] = 0;
+        }
+        for (long key : this.keys) {
+            if (key != 0) {
+                result[count++] = key;
+            }
+        }
+        return result;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(this.keys, 0L);
+        this.hasZeroKey = false;
+        this.size = 0;
+    }
+
+    /**
+     * Close the gap left by a removed slot so linear probing still finds
+     * every key that was displaced past it.
+     */
+    private void shiftKeys(int slot) {
+        int last;
+        while (true) {
+            last = slot;
+            slot = (slot + 1) & this.mask;
+            long key;
+            while (true) {
+                key = this.keys[slot];
+                if (key == 0) {
+                    this.keys[last] = 0;
+                    return;
+                }
+                int home = mix(key) & this.mask;
+                if (last <= slot ? (last >= home || home > slot) : (last >= home && home > slot)) {
+                    break;
+                }
+                slot = (slot + 1) & this.mask;
+            }
+            this.keys[last] = key;
+            this.values[last] = this.values[slot];
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = this.keys;
+        int[] oldValues = this.values;
+        this.keys = new long[capacity];
+        this.values = new int[capacity];
+        this.mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != 0) {
+                int slot = mix(key) & this.mask;
+                while (this.keys[slot] != 0) {
+                    slot = (slot + 1) & this.mask;
+                }
+                this.keys[slot] = key;
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int tableSizeFor(int n) {
+        int capacity = Integer.highestOneBit(Math.max(n - 1, 1)) << 1;
+        return Math.max(capacity, 4);
+    }
+}
@@ -0,0 +1,36 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.Collection;
+
+/**
+ * The network as the routing core sees it: which switches are connected,
+ * which links join them and where hosts are attached. The core reads the
+ * switches and links once per recompute, so each recompute works from one
+ * consistent view, and reads hosts one at a time as they are reported
+ * changed.
+ * The Floodlight module reads it from the controller's services; the
+ * simulator keeps its own.
+ */
+public interface NetworkView {
+
+    /**
+     * Get the DPIDs of the connected switches.
+     */
+    Collection<Long> getSwitches();
+
+    /**
+     * Get the directed links between switches, both directions of a link
+     * listed separately.
+     */
+    Collection<SwitchLink> getLinks();
+
+    /**
+     * Get where each host attached to a switch is attached.
+     */
+    Collection<HostAttachment> getHosts();
+
+    /**
+     * Get where a host is attached, or null if it is unknown or detached.
+     */
+    HostAttachment getHost(long mac);
+}
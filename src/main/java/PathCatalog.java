@@ -0,0 +1,310 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The k cheapest loop-free paths between pairs of switches, computed with
+ * {@link KShortestPaths} the first time a pair is looked up and cached up to
+ * a fixed number of pairs, least recently used evicted first. Lookups of a
+ * cached pair only take a lock and a hash lookup, so they can be made from
+ * any thread as often as needed; misses compute outside the lock.
+ *
+ * The routing core hands every new topology to {@link #topologyChanged},
+ * which only drops the pairs the change can affect. A pair whose paths use
+ * an adjacency that went away, got more expensive or moved ports is
+ * dropped. For an adjacency that appeared or got cheaper, the cheapest path
+ * through it is bounded below by the distances to and from its ends, and
+ * only the pairs where that bound beats their k-th path are dropped. Every
+ * other pair keeps its paths: they are unchanged, and every other path
+ * costs at least as much as before.
+ */
+public final class PathCatalog {
+    // Beyond this many improved adjacencies in one change, bounding each is
+    // more work than recomputing the pairs as they are looked up again
+    private static final int MAX_IMPROVED = 16;
+
+    private final int k;
+    private final int capacity;
+
+    // (source, destination) -> paths, in least recently used order
+    private final LinkedHashMap<Key, List<SwitchPath>> entries;
+
+    // Topology the cached paths are over, or null before the first one
+    private TopologyIndex topology;
+
+    // Held by topologyChanged throughout, so changes apply one at a time
+    private final Object changeLock = new Object();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param k most paths kept per pair of switches
+     * @param capacity most pairs cached before the least recently used is evicted
+     */
+    public PathCatalog(int k, final int capacity) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("Number of paths per pair must be positive: " + k);
+        }
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Path catalog capacity must be positive: " + capacity);
+        }
+        this.k = k;
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Key, List<SwitchPath>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, List<SwitchPath>> eldest) {
+                if (size() <= capacity) {
+                    return false;
+                }
+                PathCatalog.this.evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    public int getK() {
+        return this.k;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    public long getEvictions() {
+        return this.evictions.get();
+    }
+
+    /**
+     * Get the number of pairs dropped because the topology changed.
+     */
+    public long getInvalidations() {
+        return this.invalidations.get();
+    }
+
+    /**
+     * Get the k cheapest loop-free paths from one switch to another over the
+     * last topology handed to {@link #topologyChanged}.
+     *
+     * @return the paths, cheapest first and unmodifiable; fewer than k if
+     *         there are no more, and none if either switch is unknown or the
+     *         destination cannot be reached
+     */
+    public List<SwitchPath> getPaths(long srcDpid, long dstDpid) {
+        Key key = new Key(srcDpid, dstDpid);
+        TopologyIndex current;
+        synchronized (this) {
+            List<SwitchPath> paths = this.entries.get(key);
+            if (paths != null) {
+                this.hits.incrementAndGet();
+                return paths;
+            }
+            current = this.topology;
+        }
+        this.misses.incrementAndGet();
+        int src = current == null ? TopologyIndex.NONE : current.indexOf(srcDpid);
+        int dst = current == null ? TopologyIndex.NONE : current.indexOf(dstDpid);
+        if (src == TopologyIndex.NONE || dst == TopologyIndex.NONE) {
+            return Collections.emptyList();
+        }
+        List<SwitchPath> paths = Collections.unmodifiableList(new KShortestPaths(current).compute(src, dst, this.k));
+        synchronized (this) {
+            // Paths over a topology replaced in the meantime are returned,
+            // but not cached
+            if (this.topology == current) {
+                this.entries.put(key, paths);
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Move to a new topology, dropping the pairs whose paths it can change.
+     * The distances bounding improved adjacencies are computed without
+     * holding the lock, so lookups go on meanwhile, over the old topology;
+     * the lock is only taken to swap topologies and drop pairs.
+     */
+    public void topologyChanged(TopologyIndex after) {
+        synchronized (this.changeLock) {
+            TopologyIndex before;
+            synchronized (this) {
+                before = this.topology;
+                if (before == null || before == after || this.entries.isEmpty() || before.hasSameLinks(after)) {
+                    this.topology = after;
+                    return;
+                }
+            }
+            TopologyDelta delta = TopologyDelta.between(before, after);
+            if (delta.getImproved().size() > MAX_IMPROVED) {
+                synchronized (this) {
+                    this.topology = after;
+                    this.invalidations.addAndGet(this.entries.size());
+                    this.entries.clear();
+                }
+                return;
+            }
+
+            // Adjacencies that went away, got more expensive or moved ports, by
+            // their switch indices in the old topology
+            LongIntHashMap changed = new LongIntHashMap();
+            addAdjacencies(changed, before, delta.getWorsened());
+            addAdjacencies(changed, before, delta.getRerouted());
+
+            // For each improved adjacency, the distance of every switch to its
+            // source and from its target
+            DpidPairList improved = delta.getImproved();
+            ShortestPathTree[] toSources = new ShortestPathTree[improved.size()];
+            int[][] fromTargets = new int[improved.size()][];
+            PathEngine engine = new DijkstraPathEngine();
+            for (int i = 0; i < improved.size(); i++) {
+                toSources[i] = engine.computeTree(after, after.indexOf(improved.getSource(i)));
+                fromTargets[i] = distancesFrom(after, after.indexOf(improved.getDestination(i)));
+            }
+
+            // Pairs cached meanwhile are over the old topology too, so are
+            // checked along with the rest
+            synchronized (this) {
+                this.topology = after;
+                for (Iterator<Map.Entry<Key, List<SwitchPath>>> iterator = this.entries.entrySet().iterator();
+                     iterator.hasNext(); ) {
+                    Map.Entry<Key, List<SwitchPath>> entry = iterator.next();
+                    int src = after.indexOf(entry.getKey().srcDpid);
+                    int dst = after.indexOf(entry.getKey().dstDpid);
+                    if (src == TopologyIndex.NONE || dst == TopologyIndex.NONE
+                            || usesAny(entry.getValue(), before, changed)
+                            || canImprove(entry.getValue(), src, dst, improved, toSources, fromTargets)) {
+                        iterator.remove();
+                        this.invalidations.incrementAndGet();
+                    }
+                }
+            }
+        }
+    }
+
+    private static void addAdjacencies(LongIntHashMap adjacencies, TopologyIndex topology, DpidPairList pairs) {
+        for (int i = 0; i < pairs.size(); i++) {
+            adjacencies.put(adjacencyKey(topology.indexOf(pairs.getSource(i)),
+                    topology.indexOf(pairs.getDestination(i))), 1);
+        }
+    }
+
+    private static boolean usesAny(List<SwitchPath> paths, TopologyIndex topology, LongIntHashMap adjacencies) {
+        if (adjacencies.isEmpty()) {
+            return false;
+        }
+        for (SwitchPath path : paths) {
+            long[] dpids = path.getDpids();
+            for (int i = 0; i + 1 < dpids.length; i++) {
+                long key = adjacencyKey(topology.indexOf(dpids[i]), topology.indexOf(dpids[i + 1]));
+                if (adjacencies.containsKey(key)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether a path through an improved adjacency could be cheaper
+     * than a pair's k-th path, or be a path the pair did not have at all.
+     */
+    private boolean canImprove(List<SwitchPath> paths, int src, int dst, DpidPairList improved,
+                               ShortestPathTree[] toSources, int[][] fromTargets) {
+        if (src == dst) {
+            return false;
+        }
+        long worst = paths.size() < this.k ? Long.MAX_VALUE : paths.get(this.k - 1).getCost();
+        for (int i = 0; i < improved.size(); i++) {
+            if (!toSources[i].isReachable(src) || fromTargets[i][dst] == ShortestPathTree.UNREACHABLE) {
+                continue;
+            }
+            long bound = (long) toSources[i].distance(src) + improved.getValue(i) + fromTargets[i][dst];
+            if (bound < worst) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Get the cost of the cheapest path from a switch to every other, over out-edges.
+     */
+    private static int[] distancesFrom(TopologyIndex topology, int source) {
+        int[] distances = new int[topology.size()];
+        Arrays.fill(distances, ShortestPathTree.UNREACHABLE);
+        IndexedMinHeap queue = new IndexedMinHeap(topology.size());
+        distances[source] = 0;
+        queue.insert(source, 0);
+        while (!queue.isEmpty()) {
+            int current = queue.pollMin();
+            long base = distances[current];
+            for (int e = topology.outStart(current); e < topology.outEnd(current); e++) {
+                int neighbour = topology.edgeTarget(e);
+                long candidate = base + topology.edgeCost(e);
+                if (candidate < distances[neighbour]) {
+                    distances[neighbour] = (int) Math.min(candidate, ShortestPathTree.UNREACHABLE - 1L);
+                    if (queue.contains(neighbour)) {
+                        queue.decreaseKey(neighbour, distances[neighbour]);
+                    } else {
+                        queue.insert(neighbour, distances[neighbour]);
+                    }
+                }
+            }
+        }
+        return distances;
+    }
+
+    private static long adjacencyKey(int src, int dst) {
+        return ((long) src << 32) | (dst & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d pairs, %d hits, %d misses, %d evictions, %d invalidations",
+                this.entries.size(), getHits(), getMisses(), getEvictions(), getInvalidations());
+    }
+
+    private static final class Key {
+        private final long srcDpid;
+        private final long dstDpid;
+
+        Key(long srcDpid, long dstDpid) {
+            this.srcDpid = srcDpid;
+            this.dstDpid = dstDpid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return this.srcDpid == other.srcDpid && this.dstDpid == other.dstDpid;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(this.srcDpid) + Long.hashCode(this.dstDpid);
+        }
+    }
+}
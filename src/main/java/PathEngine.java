@@ -0,0 +1,33 @@
+package edu.brown.cs.sdn.apps.sps;
+
+/**
+ * Computes a single destination-rooted shortest path tree over a topology.
+ * Implementations must be thread-safe, since trees for different roots are
+ * computed in parallel.
+ */
+public interface PathEngine {
+
+    /**
+     * Compute the tree of shortest paths from every switch to a root switch.
+     *
+     * @param topology topology to search
+     * @param root index of the switch the tree is rooted at
+     */
+    ShortestPathTree computeTree(TopologyIndex topology, int root);
+
+    /**
+     * Get the engine configured by name: "bfs" for hop-count routing,
+     * "dijkstra" for weighted links, or "auto" (the default) to use BFS
+     * whenever every link has unit cost.
+     */
+    static PathEngine forName(String name) {
+        if (name == null || name.isEmpty() || name.equalsIgnoreCase("auto")) {
+            return new AutoPathEngine();
+        } else if (name.equalsIgnoreCase("bfs")) {
+            return new BfsPathEngine();
+        } else if (name.equalsIgnoreCase("dijkstra")) {
+            return new DijkstraPathEngine();
+        }
+        throw new IllegalArgumentException("Unknown path engine: " + name);
+    }
+}
@@ -0,0 +1,167 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openflow.protocol.OFStatisticsRequest;
+import org.openflow.protocol.statistics.OFPortStatisticsReply;
+import org.openflow.protocol.statistics.OFPortStatisticsRequest;
+import org.openflow.protocol.statistics.OFStatistics;
+import org.openflow.protocol.statistics.OFStatisticsType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.floodlightcontroller.core.IFloodlightProviderService;
+import net.floodlightcontroller.core.IOFSwitch;
+
+/**
+ * Samples the port counters of every connected switch with port-stats
+ * requests into a {@link LinkUtilization}, and tells the routing core after
+ * each pass over the switches so it can move destinations off congested
+ * links. Switches are polled one at a time on a dedicated thread, spread
+ * evenly over the period, so there is never more than one request
+ * outstanding and the switches see a steady trickle rather than a burst.
+ *
+ * Samples are best effort: a switch that does not answer in time is skipped
+ * until the next pass.
+ */
+public final class PortStatsCollector {
+    private static Logger log = LoggerFactory.getLogger(PortStatsCollector.class.getSimpleName());
+
+    // Wildcard port, asking for the counters of every port
+    private static final int OFPP_ANY = 0xffffffff;
+
+    private final IFloodlightProviderService floodlightProv;
+    private final RoutingCore core;
+    private final EventCoalescer recomputeScheduler;
+    private final LinkUtilization loads;
+    private final BandwidthLinkCostProvider.PortSpeedSource speeds;
+    private final long periodMillis;
+    private final long timeoutMillis;
+    private final ScheduledExecutorService executor;
+
+    // Switches still to poll in the current pass, and how many it started
+    // with. Only touched from the polling thread
+    private final Deque<Long> pending = new ArrayDeque<Long>();
+    private int passSize;
+
+    /**
+     * @param name name of the polling thread
+     * @param core told after each pass that the loads were sampled again
+     * @param recomputeScheduler submitted to after each pass, so the loads are acted on
+     * @param loads where the counters are recorded
+     * @param speeds current speed of each port
+     * @param periodMillis how long a pass over every switch takes
+     * @param timeoutMillis how long a switch has to answer
+     */
+    public PortStatsCollector(final String name, IFloodlightProviderService floodlightProv, RoutingCore core,
+                              EventCoalescer recomputeScheduler, LinkUtilization loads,
+                              BandwidthLinkCostProvider.PortSpeedSource speeds, long periodMillis,
+                              long timeoutMillis) {
+        this.floodlightProv = floodlightProv;
+        this.core = core;
+        this.recomputeScheduler = recomputeScheduler;
+        this.loads = loads;
+        this.speeds = speeds;
+        this.periodMillis = periodMillis;
+        this.timeoutMillis = timeoutMillis;
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Start polling, one period from now.
+     */
+    public void start() {
+        this.executor.schedule(this::pollNext, this.periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        this.executor.shutdownNow();
+    }
+
+    private void pollNext() {
+        try {
+            if (this.pending.isEmpty()) {
+                this.pending.addAll(this.floodlightProv.getAllSwitchMap().keySet());
+                this.passSize = this.pending.size();
+            }
+            Long dpid = this.pending.poll();
+            if (dpid != null) {
+                poll(dpid);
+            }
+            if (this.pending.isEmpty() && this.passSize > 0) {
+                this.core.linkLoadsUpdated();
+                this.recomputeScheduler.submit();
+            }
+        } finally {
+            if (!this.executor.isShutdown()) {
+                long delay = this.passSize == 0 ? this.periodMillis : Math.max(this.periodMillis / this.passSize, 1);
+                this.executor.schedule(this::pollNext, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private void poll(long dpid) {
+        IOFSwitch sw = this.floodlightProv.getSwitch(dpid);
+        if (sw == null) {
+            return;
+        }
+        List<OFStatistics> replies;
+        try {
+            replies = queryPorts(sw);
+        } catch (IOException e) {
+            log.debug(String.format("Skipping the port counters of s%d: %s", dpid, e.getMessage()));
+            return;
+        }
+        long now = System.nanoTime();
+        for (OFStatistics statistics : replies) {
+            if (statistics instanceof OFPortStatisticsReply) {
+                OFPortStatisticsReply reply = (OFPortStatisticsReply) statistics;
+                int port = reply.getPortNumber();
+                this.loads.recordPortCounters(dpid, port, reply.getTransmitBytes(),
+                        this.speeds.getPortSpeedBps(dpid, port), now);
+            }
+        }
+    }
+
+    private List<OFStatistics> queryPorts(IOFSwitch sw) throws IOException {
+        OFPortStatisticsRequest portRequest = new OFPortStatisticsRequest();
+        portRequest.setPortNumber(OFPP_ANY);
+        OFStatisticsRequest request = new OFStatisticsRequest();
+        request.setStatisticType(OFStatisticsType.PORT);
+        List<OFStatistics> statistics = new ArrayList<OFStatistics>();
+        statistics.add(portRequest);
+        request.setStatistics(statistics);
+        request.setLengthU(request.getLengthU() + portRequest.getLength());
+
+        Future<List<OFStatistics>> future = sw.queryStatistics(request);
+        try {
+            return future.get(this.timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new IOException("No reply within " + this.timeoutMillis + " ms");
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import org.openflow.protocol.OFFlowRemoved;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFType;
+
+import edu.brown.cs.sdn.apps.util.SwitchCommands;
+import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.IOFMessageListener;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.packet.Ethernet;
+
+/**
+ * Drives reactive mode from the switches' messages. An IPv4 packet that
+ * missed every rule in the module's table comes in as a packet-in: the
+ * flow is reported to the routing core, which installs the rules along its
+ * path without waiting for the usual quiet window, and the packet itself is
+ * sent on towards its destination so it is not lost meanwhile. A rule the
+ * switch timed out comes in as a flow-removed message and is reported to
+ * the core, so it is installed again on the flow's next packet.
+ */
+public final class ReactiveFlowListener implements IOFMessageListener {
+    private final String name;
+    private final RoutingCore core;
+    private final EventCoalescer recomputeScheduler;
+    private final byte table;
+
+    /**
+     * @param name name of the listener
+     * @param core where flows and expired rules are reported
+     * @param recomputeScheduler submitted to after each report, so it is acted on
+     * @param table switch table rules are installed in
+     */
+    public ReactiveFlowListener(String name, RoutingCore core, EventCoalescer recomputeScheduler, byte table) {
+        this.name = name;
+        this.core = core;
+        this.recomputeScheduler = recomputeScheduler;
+        this.table = table;
+    }
+
+    @Override
+    public Command receive(IOFSwitch sw, OFMessage msg, FloodlightContext cntx) {
+        if (msg.getType() == OFType.PACKET_IN) {
+            return packetIn(sw, (OFPacketIn) msg);
+        }
+        if (msg.getType() == OFType.FLOW_REMOVED) {
+            return flowRemoved(sw, (OFFlowRemoved) msg);
+        }
+        return Command.CONTINUE;
+    }
+
+    private Command packetIn(IOFSwitch sw, OFPacketIn packetIn) {
+        if (packetIn.getTableId() != this.table) {
+            return Command.CONTINUE;
+        }
+        byte[] data = packetIn.getPacketData();
+        Ethernet packet = new Ethernet();
+        packet.deserialize(data, 0, data.length);
+        if (packet.getEtherType() != Ethernet.TYPE_IPv4) {
+            return Command.CONTINUE;
+        }
+
+        long mac = Ethernet.toLong(packet.getDestinationMACAddress());
+        this.core.flowRequested(sw.getId(), mac);
+        this.recomputeScheduler.submitNow();
+
+        int port = this.core.getRoutingSnapshot().getNextHopPortToHost(sw.getId(), mac);
+        if (port == RoutingSnapshot.NO_ROUTE) {
+            return Command.CONTINUE;
+        }
+        SwitchCommands.sendPacket(sw, port, packet);
+        return Command.STOP;
+    }
+
+    private Command flowRemoved(IOFSwitch sw, OFFlowRemoved flowRemoved) {
+        // Rules the module deletes itself are already gone from its shadow
+        if (flowRemoved.getTableId() != this.table
+                || (flowRemoved.getReason() != OFFlowRemoved.OFFlowRemovedReason.OFPRR_IDLE_TIMEOUT
+                && flowRemoved.getReason() != OFFlowRemoved.OFFlowRemovedReason.OFPRR_HARD_TIMEOUT)) {
+            return Command.CONTINUE;
+        }
+        FlowMatch match = FlowTableReader.toFlowMatch(flowRemoved.getMatch());
+        if (match == null) {
+            return Command.CONTINUE;
+        }
+        this.core.ruleExpired(sw.getId(), match);
+        this.recomputeScheduler.submit();
+        return Command.STOP;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public boolean isCallbackOrderingPrereq(OFType type, String name) {
+        return false;
+    }
+
+    @Override
+    public boolean isCallbackOrderingPostreq(OFType type, String name) {
+        return false;
+    }
+}
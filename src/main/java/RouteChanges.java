@@ -0,0 +1,39 @@
+package edu.brown.cs.sdn.apps.sps;
+
+/**
+ * Routes whose next hop changed in a route update, as (switch DPID,
+ * destination switch DPID) pairs: the rule on the first switch for every
+ * host attached to the second one needs rewriting. A full change means every
+ * route may have changed and the caller should not rely on the pairs.
+ */
+public final class RouteChanges {
+    private final boolean full;
+    private final DpidPairList changedRoutes = new DpidPairList();
+
+    private RouteChanges(boolean full) {
+        this.full = full;
+    }
+
+    static RouteChanges full() {
+        return new RouteChanges(true);
+    }
+
+    static RouteChanges incremental() {
+        return new RouteChanges(false);
+    }
+
+    public boolean isFull() {
+        return this.full;
+    }
+
+    /**
+     * Get the changed (switch, destination switch) pairs.
+     */
+    public DpidPairList getChangedRoutes() {
+        return this.changedRoutes;
+    }
+
+    public boolean isEmpty() {
+        return !this.full && this.changedRoutes.isEmpty();
+    }
+}
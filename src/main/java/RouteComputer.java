@@ -0,0 +1,315 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.LongPredicate;
+
+/**
+ * Computes the shortest path trees for the switches in a topology: every
+ * switch, or only the destinations, the switches traffic is routed to. The
+ * trees do not depend on one another, so the roots are split across a
+ * ForkJoin pool and computed in parallel.
+ *
+ * After a topology change, {@link #update} keeps every tree the change
+ * cannot affect and recomputes only the rest: trees that route over an
+ * adjacency that went away or got more expensive, and trees in which a new
+ * or cheaper adjacency gives some switch a strictly shorter path. Trees for
+ * switches that became destinations are computed and trees for switches
+ * that stopped being one are dropped, with every route to them reported.
+ *
+ * In multipath mode a route is the whole set of equal-cost next hops rather
+ * than the single next hop, so the changes reported are wider: every switch
+ * of a recomputed tree, and every tree for a switch whose adjacency changed.
+ * The same goes for fast failover, whose alternate ports depend on the
+ * distances of all of a switch's neighbours.
+ */
+public final class RouteComputer {
+    // Below this many trees the work is not worth handing to the pool
+    private static final int SEQUENTIAL_THRESHOLD = 64;
+
+    private final PathEngine engine;
+    private final ForkJoinPool pool;
+    private final boolean multipath;
+
+    public RouteComputer(PathEngine engine, int parallelism) {
+        this(engine, parallelism, false);
+    }
+
+    /**
+     * @param multipath report changes to the set of equal-cost next hops, or
+     *                  to anything else that depends on the distances of a
+     *                  switch's neighbours, not just to the next hop in each tree
+     */
+    public RouteComputer(PathEngine engine, int parallelism, boolean multipath) {
+        this.engine = engine;
+        this.pool = new ForkJoinPool(Math.max(parallelism, 1));
+        this.multipath = multipath;
+    }
+
+    public PathEngine getEngine() {
+        return this.engine;
+    }
+
+    /**
+     * Compute the tree rooted at every switch of a topology.
+     */
+    public ShortestPathTrees computeAll(TopologyIndex topology) {
+        ShortestPathTree[] trees = new ShortestPathTree[topology.size()];
+        computeRoots(topology, trees, null, trees.length);
+        return new ShortestPathTrees(topology, trees);
+    }
+
+    /**
+     * Compute the tree rooted at one switch of a topology.
+     */
+    public ShortestPathTree computeTree(TopologyIndex topology, int root) {
+        return this.engine.computeTree(topology, root);
+    }
+
+    /**
+     * Bring a tree for every switch up to date with a new topology,
+     * recomputing only the trees the change affects.
+     *
+     * @param previous trees for the previous topology, or null
+     * @param topology the new topology
+     */
+    public RouteUpdate update(ShortestPathTrees previous, TopologyIndex topology) {
+        return update(previous, topology, dpid -> true);
+    }
+
+    /**
+     * Bring the trees for the destination switches up to date with a new
+     * topology, recomputing only the trees the change affects.
+     *
+     * @param previous trees for the previous topology, or null
+     * @param topology the new topology
+     * @param destinations whether a switch DPID needs a tree
+     */
+    public RouteUpdate update(ShortestPathTrees previous, TopologyIndex topology, LongPredicate destinations) {
+        if (previous == null) {
+            ShortestPathTree[] trees = new ShortestPathTree[topology.size()];
+            int[] roots = new int[trees.length];
+            int count = 0;
+            for (int root = 0; root < trees.length; root++) {
+                if (destinations.test(topology.dpid(root))) {
+                    roots[count++] = root;
+                }
+            }
+            computeRoots(topology, trees, roots, count);
+            return new RouteUpdate(new ShortestPathTrees(topology, trees), RouteChanges.full(), count);
+        }
+
+        TopologyIndex before = previous.getTopology();
+        TopologyDelta delta = TopologyDelta.between(before, topology);
+        int switchCount = topology.size();
+        ShortestPathTree[] trees = new ShortestPathTree[switchCount];
+        ShortestPathTree[] oldTrees = new ShortestPathTree[switchCount];
+        int[] stale = new int[switchCount];
+        int staleCount = 0;
+
+        int[] dropped = new int[switchCount];
+        int droppedCount = 0;
+
+        for (int root = 0; root < switchCount; root++) {
+            ShortestPathTree oldTree = previous.getTree(before.indexOf(topology.dpid(root)));
+            oldTrees[root] = oldTree;
+            if (!destinations.test(topology.dpid(root))) {
+                if (oldTree != null) {
+                    dropped[droppedCount++] = root;
+                }
+            } else if (oldTree == null || isAffected(oldTree, before, delta)) {
+                stale[staleCount++] = root;
+            } else if (delta.hasSameSwitches()) {
+                trees[root] = oldTree;
+            } else {
+                trees[root] = remap(oldTree, before, topology);
+            }
+        }
+        computeRoots(topology, trees, stale, staleCount);
+
+        // Report every switch whose next hop moved in a recomputed tree
+        RouteChanges changes = RouteChanges.incremental();
+        LongIntHashMap reported = new LongIntHashMap();
+        for (int i = 0; i < staleCount; i++) {
+            int root = stale[i];
+            ShortestPathTree oldTree = oldTrees[root];
+            ShortestPathTree tree = trees[root];
+            for (int u = 0; u < switchCount; u++) {
+                if (u == root) {
+                    continue;
+                }
+                int oldIndex = before.indexOf(topology.dpid(u));
+                int oldNext = oldTree == null || oldIndex == TopologyIndex.NONE
+                        ? TopologyIndex.NONE : oldTree.nextHop(oldIndex);
+                boolean changed;
+                if (this.multipath) {
+                    // Distances moved, so any switch's equal-cost set may have too
+                    changed = oldNext != TopologyIndex.NONE || tree.isReachable(u);
+                } else if (oldNext == TopologyIndex.NONE) {
+                    changed = tree.nextHop(u) != TopologyIndex.NONE;
+                } else {
+                    // The old next hop may be a switch that no longer exists
+                    int mapped = topology.indexOf(before.dpid(oldNext));
+                    changed = mapped == TopologyIndex.NONE || mapped != tree.nextHop(u);
+                }
+                if (changed) {
+                    report(changes, reported, topology, u, root);
+                }
+            }
+        }
+
+        // Every route to a switch that is no longer a destination goes
+        for (int i = 0; i < droppedCount; i++) {
+            int root = dropped[i];
+            for (int u = 0; u < switchCount; u++) {
+                int oldIndex = before.indexOf(topology.dpid(u));
+                if (u != root && oldIndex != TopologyIndex.NONE && oldTrees[root].isReachable(oldIndex)) {
+                    report(changes, reported, topology, u, root);
+                }
+            }
+        }
+
+        // A surviving adjacency may now use a different port even where the
+        // next switch did not change
+        reportPortChanges(changes, reported, topology, trees, delta.getRerouted());
+        reportPortChanges(changes, reported, topology, trees, delta.getImproved());
+        reportPortChanges(changes, reported, topology, trees, delta.getWorsened());
+
+        return new RouteUpdate(new ShortestPathTrees(topology, trees), changes, staleCount);
+    }
+
+    /**
+     * Check whether a tree may no longer be correct after a topology change.
+     */
+    private static boolean isAffected(ShortestPathTree tree, TopologyIndex before, TopologyDelta delta) {
+        DpidPairList worsened = delta.getWorsened();
+        for (int i = 0; i < worsened.size(); i++) {
+            int u = before.indexOf(worsened.getSource(i));
+            int v = before.indexOf(worsened.getDestination(i));
+            if (u != TopologyIndex.NONE && v != TopologyIndex.NONE && tree.nextHop(u) == v) {
+                return true;
+            }
+        }
+
+        DpidPairList improved = delta.getImproved();
+        for (int i = 0; i < improved.size(); i++) {
+            int v = before.indexOf(improved.getDestination(i));
+            if (v == TopologyIndex.NONE || !tree.isReachable(v)) {
+                continue;
+            }
+            int u = before.indexOf(improved.getSource(i));
+            long distance = u == TopologyIndex.NONE ? ShortestPathTree.UNREACHABLE : tree.distance(u);
+            if ((long) tree.distance(v) + improved.getValue(i) < distance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Carry a still-valid tree over to the indices of a new topology.
+     * Switches new to the topology start out unreachable.
+     */
+    private static ShortestPathTree remap(ShortestPathTree tree, TopologyIndex before, TopologyIndex after) {
+        int switchCount = after.size();
+        int[] distances = new int[switchCount];
+        int[] nextHops = new int[switchCount];
+        for (int u = 0; u < switchCount; u++) {
+            int old = before.indexOf(after.dpid(u));
+            if (old == TopologyIndex.NONE) {
+                distances[u] = ShortestPathTree.UNREACHABLE;
+                nextHops[u] = TopologyIndex.NONE;
+            } else {
+                distances[u] = tree.distance(old);
+                int oldNext = tree.nextHop(old);
+                nextHops[u] = oldNext == TopologyIndex.NONE ? TopologyIndex.NONE
+                        : after.indexOf(before.dpid(oldNext));
+            }
+        }
+        return new ShortestPathTree(after.indexOf(before.dpid(tree.getRoot())), distances, nextHops);
+    }
+
+    private void reportPortChanges(RouteChanges changes, LongIntHashMap reported,
+                                   TopologyIndex topology, ShortestPathTree[] trees,
+                                   DpidPairList adjacencies) {
+        for (int i = 0; i < adjacencies.size(); i++) {
+            int u = topology.indexOf(adjacencies.getSource(i));
+            int v = topology.indexOf(adjacencies.getDestination(i));
+            if (u == TopologyIndex.NONE || v == TopologyIndex.NONE) {
+                continue;
+            }
+            for (int root = 0; root < trees.length; root++) {
+                if (trees[root] == null) {
+                    continue;
+                }
+                if (trees[root].nextHop(u) == v || (this.multipath && trees[root].isReachable(u))) {
+                    report(changes, reported, topology, u, root);
+                }
+            }
+        }
+    }
+
+    private static void report(RouteChanges changes, LongIntHashMap reported,
+                               TopologyIndex topology, int u, int root) {
+        long key = ((long) u << 32) | root;
+        if (reported.put(key, 1) == LongIntHashMap.MISSING) {
+            changes.getChangedRoutes().add(topology.dpid(u), topology.dpid(root));
+        }
+    }
+
+    /**
+     * Compute the trees for the given roots (or for every switch when roots
+     * is null) into trees, using the pool when there are enough of them.
+     */
+    private void computeRoots(TopologyIndex topology, ShortestPathTree[] trees, int[] roots, int count) {
+        TreeTask task = new TreeTask(topology, trees, roots, 0, count,
+                Math.max(1, count / (this.pool.getParallelism() * 4)));
+        if (count < SEQUENTIAL_THRESHOLD) {
+            task.computeRange();
+        } else {
+            this.pool.invoke(task);
+        }
+    }
+
+    /**
+     * Computes the trees for a range of roots, splitting the range in half
+     * until it is small enough to do directly.
+     */
+    private final class TreeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final TopologyIndex topology;
+        private final ShortestPathTree[] trees;
+        private final int[] roots;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        TreeTask(TopologyIndex topology, ShortestPathTree[] trees, int[] roots, int from, int to, int grain) {
+            this.topology = topology;
+            this.trees = trees;
+            this.roots = roots;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= this.grain) {
+                computeRange();
+            } else {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new TreeTask(this.topology, this.trees, this.roots, this.from, middle, this.grain),
+                        new TreeTask(this.topology, this.trees, this.roots, middle, this.to, this.grain));
+            }
+        }
+
+        void computeRange() {
+            for (int i = this.from; i < this.to; i++) {
+                int root = this.roots == null ? i : this.roots[i];
+                this.trees[root] = engine.computeTree(this.topology, root);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package edu.brown.cs.sdn.apps.sps;
+
+/**
+ * Result of bringing the shortest path trees up to date with a topology:
+ * the new trees, the routes that changed, and how many trees had to be
+ * recomputed to get there.
+ */
+public final class RouteUpdate {
+    private final ShortestPathTrees trees;
+    private final RouteChanges changes;
+    private final int recomputedTrees;
+
+    RouteUpdate(ShortestPathTrees trees, RouteChanges changes, int recomputedTrees) {
+        this.trees = trees;
+        this.changes = changes;
+        this.recomputedTrees = recomputedTrees;
+    }
+
+    public ShortestPathTrees getTrees() {
+        return this.trees;
+    }
+
+    public RouteChanges getChanges() {
+        return this.changes;
+    }
+
+    public int getRecomputedTrees() {
+        return this.recomputedTrees;
+    }
+}
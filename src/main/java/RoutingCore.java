@@ -0,0 +1,1304 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The routing logic, with no controller attached: it reads the network from
+ * a {@link NetworkView}, keeps shortest path trees and shadow flow and group
+ * tables up to date with it, and sends the differences to a
+ * {@link FlowRuleSink}. Everything is in terms of DPIDs, ports and MACs.
+ *
+ * Event methods may be called from any thread and never block: they only
+ * offer the event to a bounded, lock-free {@link RoutingEventQueue}.
+ * {@link #processPendingEvents} drains it and applies everything recorded
+ * since the last call, and must only ever run on one thread at a time;
+ * routes, shadow tables and the pending changes themselves are only touched
+ * from there. The Floodlight module runs it on its recompute scheduler; the
+ * simulator calls it directly.
+ *
+ * When the queue is full, flow requests are turned away first, leaving a
+ * quarter of it to switch, link and host events; the switches ask again on
+ * their next packet. If even those are turned away, the next run rereads
+ * every switch and host from the network view instead.
+ *
+ * After a controller restart the core can {@link #restore} the tables,
+ * labels and hosts it had saved with {@link #captureState}. It then holds off
+ * recomputing until the saved switches and links are back, treats the
+ * tables of reconnecting switches as still installed, and keeps routing
+ * saved hosts until they are seen again, so the switches only get deltas.
+ *
+ * A switch's table can also be read back and handed to {@link #tableRead}:
+ * the shadow is replaced with what the switch really holds, and only the
+ * entries that are missing, stale or extra are fixed. A switch that
+ * reconnects with its table being read is not reset; it waits for the read.
+ *
+ * In reactive mode host rules are only installed along the path of flows
+ * reported through {@link #flowRequested}, with timeouts, and tracked in a
+ * {@link FlowCache}. Rules the switches time out are reported back through
+ * {@link #ruleExpired}, and rules evicted from the cache are removed, so
+ * table occupancy follows the traffic rather than the number of hosts.
+ *
+ * With a {@link CongestionRerouter}, every {@link #linkLoadsUpdated} lets
+ * it move the busiest destinations whose routes cross congested links onto
+ * less loaded paths, and back once their shortest paths cool down. Only the
+ * rules for the moved destinations are rewritten.
+ *
+ * With consistent updates, the rules a recompute installs are sent in
+ * {@link UpdateRounds}, each destination's nearest switches first, and the
+ * core waits for every switch to apply a round before sending the next.
+ * Rules that are no longer needed are only removed once all of them are
+ * in, so traffic is never sent towards a switch that has not been given its
+ * new rule, or has already lost its old one.
+ *
+ * With a {@link PathCatalog}, every published topology is handed to it, so
+ * the alternative paths it caches for lookups stay current.
+ */
+public final class RoutingCore {
+    private static Logger log = LoggerFactory.getLogger(RoutingCore.class.getSimpleName());
+
+    // Types of queued events; each carries a DPID and a MAC where it needs them
+    private static final int TOPOLOGY_CHANGED = 0;
+    private static final int SWITCH_ADDED = 1;
+    private static final int SWITCH_REMOVED = 2;
+    private static final int HOST_CHANGED = 3;
+    private static final int SWITCH_FAILED = 4;
+    private static final int FLOW_REQUESTED = 5;
+    private static final int RULE_EXPIRED = 6;
+    private static final int LINK_LOADS_UPDATED = 7;
+
+    private final NetworkView network;
+    private final FlowRuleSink sink;
+
+    // Computes shortest path trees for all switches in parallel
+    private final RouteComputer routeComputer;
+
+    // Cost of each switch-to-switch link, applied whenever the topology is rebuilt
+    private final LinkCostProvider linkCosts;
+
+    // Priority of routing rules
+    private final short priority;
+
+    // Whether traffic is hashed over all equal-cost next hops rather than one
+    private final boolean multipath;
+
+    // Whether single next hops are backed by a fast-failover group with a
+    // downstream alternate port
+    private final boolean fastFailover;
+
+    // Whether transit switches forward on a per-destination-switch MPLS label
+    // rather than holding a rule for every host
+    private final boolean aggregated;
+
+    // Host rules installed on demand in reactive mode, or null when every
+    // host rule is installed up front
+    private final FlowCache flowCache;
+
+    // Moves destinations off congested links, or null to route on costs alone
+    private final CongestionRerouter rerouter;
+
+    // Whether installs go out in rounds that wait for the switches to apply
+    // the last, with removals after them all
+    private final boolean consistentUpdates;
+
+    // The k cheapest paths between switches, kept up to date for lookups, or null
+    private final PathCatalog pathCatalog;
+
+    // Shortest path trees rooted at each switch, giving every other switch's next hop towards it.
+    // Only touched from the recompute thread; everyone else reads routingSnapshot
+    private ShortestPathTrees shortestPaths;
+
+    // Where each host is attached as of the current recompute. Read in full
+    // from the network view once, then only for hosts reported changed
+    private final HostRegistry hosts = new HostRegistry();
+    private boolean hostsRead;
+
+    // Copy of hosts published with the routing snapshot, replaced only when
+    // they change
+    private HostRegistry publishedHosts = new HostRegistry();
+
+    // Routing state published after every recompute, for lock-free queries
+    private final AtomicReference<RoutingSnapshot> routingSnapshot =
+            new AtomicReference<RoutingSnapshot>(RoutingSnapshot.EMPTY);
+
+    // Rules this module has installed on each switch
+    private final FlowTableShadow installedRules = new FlowTableShadow();
+
+    // Select and fast-failover groups the rules forward to, by switch
+    private final GroupTableShadow installedGroups = new GroupTableShadow();
+
+    // MPLS label of each destination switch, in aggregated mode
+    private final SwitchLabels switchLabels = new SwitchLabels();
+
+    // Compact adjacency of the current switch topology, rebuilt on every topology change
+    private TopologyIndex topology;
+
+    // Recompute timings, flow-mod counts and network size
+    private final RoutingMetrics metrics = new RoutingMetrics();
+
+    // Flow-mods sent to add or change and to remove rules in the running recompute
+    private int recomputeFlowModsSent;
+    private int recomputeFlowModsRemoved;
+
+    // Bumped whenever the shadow tables or host attachments change, so callers
+    // know when the saved state is out of date
+    private long stateVersion;
+
+    // Switches and links saved before a restart that must be seen again
+    // before the first recompute, and when to stop waiting for them. Only
+    // touched from the recompute thread once restore() has returned
+    private boolean holdingForRestore;
+    private final Set<Long> restoredSwitches = new HashSet<Long>();
+    private final Set<SwitchLink> restoredLinks = new HashSet<SwitchLink>();
+    private long restoreHoldUntilNanos;
+
+    // MACs of hosts saved before a restart that the network view has not
+    // reported since, still routed until restoredHostsUntilNanos
+    private final Set<Long> restoredHosts = new HashSet<Long>();
+    private long restoredHostsUntilNanos;
+
+    // Events offered by event methods, waiting for the next recompute, and
+    // whether any was turned away by a full queue since the last one
+    private final RoutingEventQueue events;
+    private final int flowEventLimit;
+    private final AtomicBoolean eventsOverflowed = new AtomicBoolean();
+
+    // Changes drained from the queue and not yet applied, as while holding
+    // for a restore. Only touched from the recompute thread
+    private boolean topologyChanged;
+    private boolean linkLoadsUpdated;
+    private final Set<Long> changedHosts = new HashSet<Long>();
+    private final Set<Long> addedSwitches = new HashSet<Long>();
+    private final Set<Long> removedSwitches = new HashSet<Long>();
+    private final Set<Long> failedSwitches = new HashSet<Long>();
+
+    // Switches connected as far as the drained events tell, checked against
+    // the network view after events were turned away
+    private final Set<Long> connectedSwitches = new HashSet<Long>();
+
+    // Tables read back, carrying the rules and groups read, by switch
+    private final Map<Long, TableRead> tableReads = new ConcurrentHashMap<Long, TableRead>();
+
+    // Switches that connected and whose tables are being read back, so must
+    // not be reset; removed when the read, or a failure, is processed
+    private final Set<Long> tablesBeingRead = ConcurrentHashMap.newKeySet();
+
+    // Destination MACs of flows seen arriving at each switch, and of host
+    // rules each switch has timed out, in reactive mode
+    private final Map<Long, Set<Long>> requestedFlows = new HashMap<Long, Set<Long>>();
+    private final Map<Long, Set<Long>> expiredFlows = new HashMap<Long, Set<Long>>();
+
+    /**
+     * @param network where switches, links and hosts are read from
+     * @param sink where table changes are sent
+     * @param routeComputer computes the shortest path trees
+     * @param linkCosts cost of each link
+     * @param priority priority of routing rules
+     * @param multipath whether to hash traffic over all equal-cost next hops
+     * @param fastFailover whether to back single next hops with an alternate
+     *                     port; the route computer must then report changes
+     *                     as in multipath mode
+     * @param aggregated whether transit switches forward on switch labels
+     * @param flowCache host rules to install on demand in reactive mode, or
+     *                  null to install every host rule up front
+     * @param eventQueueSize most events held between recomputes
+     * @param rerouter moves destinations off congested links, or null
+     * @param consistentUpdates whether to send installs in rounds that wait
+     *                          for the switches to apply the one before
+     * @param pathCatalog alternative paths to keep up to date with the topology, or null
+     */
+    public RoutingCore(NetworkView network, FlowRuleSink sink, RouteComputer routeComputer,
+                       LinkCostProvider linkCosts, short priority, boolean multipath, boolean fastFailover,
+                       boolean aggregated, FlowCache flowCache, int eventQueueSize, CongestionRerouter rerouter,
+                       boolean consistentUpdates, PathCatalog pathCatalog) {
+        this.network = network;
+        this.sink = sink;
+        this.routeComputer = routeComputer;
+        this.linkCosts = linkCosts;
+        this.priority = priority;
+        this.multipath = multipath;
+        this.fastFailover = fastFailover;
+        this.aggregated = aggregated;
+        this.flowCache = flowCache;
+        this.rerouter = rerouter;
+        this.consistentUpdates = consistentUpdates;
+        this.pathCatalog = pathCatalog;
+        this.events = new RoutingEventQueue(eventQueueSize);
+        this.flowEventLimit = this.events.getCapacity() - this.events.getCapacity() / 4;
+    }
+
+    public LinkCostProvider getLinkCosts() {
+        return this.linkCosts;
+    }
+
+    /**
+     * Get the rerouter moving destinations off congested links, or null.
+     */
+    public CongestionRerouter getRerouter() {
+        return this.rerouter;
+    }
+
+    /**
+     * Get the catalog of alternative paths, or null.
+     */
+    public PathCatalog getPathCatalog() {
+        return this.pathCatalog;
+    }
+
+    public RoutingMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Get the most recently published routing state.
+     */
+    public RoutingSnapshot getRoutingSnapshot() {
+        return this.routingSnapshot.get();
+    }
+
+    /**
+     * Get the number of events waiting for the next recompute.
+     */
+    public int getEventQueueDepth() {
+        return this.events.size();
+    }
+
+    /**
+     * Get the number of rules the shadow tables hold across all switches.
+     */
+    public int getInstalledRuleCount() {
+        return this.installedRules.size();
+    }
+
+    /**
+     * Get a number that changes whenever the state {@link #captureState}
+     * returns does.
+     */
+    public long getStateVersion() {
+        return this.stateVersion;
+    }
+
+    /**
+     * Capture the topology, hosts, labels and shadow tables, to be saved and
+     * handed to {@link #restore} after a restart. Must be called from the
+     * thread that runs {@link #processPendingEvents}.
+     */
+    public RoutingState captureState() {
+        List<Long> switches = new ArrayList<Long>();
+        List<SwitchLink> links = new ArrayList<SwitchLink>();
+        TopologyIndex current = this.shortestPaths == null ? null : this.shortestPaths.getTopology();
+        if (current != null) {
+            for (int u = 0; u < current.size(); u++) {
+                switches.add(current.dpid(u));
+                for (int e = current.outStart(u); e < current.outEnd(u); e++) {
+                    links.add(new SwitchLink(current.dpid(u), current.edgePort(e),
+                            current.dpid(current.edgeTarget(e)), current.edgeTargetPort(e)));
+                }
+            }
+        }
+        Map<Long, Integer> labels = new HashMap<Long, Integer>();
+        for (long dpid : this.switchLabels.getSwitches()) {
+            labels.put(dpid, this.switchLabels.labelFor(dpid));
+        }
+        List<GroupEntry> groups = new ArrayList<GroupEntry>();
+        for (long dpid : this.installedGroups.getSwitches()) {
+            for (GroupEntry group : this.installedGroups.getGroups(dpid)) {
+                if (this.installedGroups.isInstalled(dpid, group.getGroupId())) {
+                    groups.add(group);
+                }
+            }
+        }
+        // Rules that time out are left to expire; a restarted core would not
+        // know when they do
+        List<FlowRule> rules = new ArrayList<FlowRule>(this.installedRules.size());
+        for (long dpid : this.installedRules.getSwitches()) {
+            for (FlowRule rule : this.installedRules.getTable(dpid).values()) {
+                if (!rule.isTimed()) {
+                    rules.add(rule);
+                }
+            }
+        }
+        return new RoutingState(System.currentTimeMillis(), switches, links,
+                this.hosts.getAttachments(), labels, groups, rules);
+    }
+
+    /**
+     * Start from a state saved before a restart rather than from empty
+     * tables. Must be called before the first {@link #processPendingEvents}.
+     *
+     * @param holdMillis longest to wait for the saved switches and links to
+     *                   come back before recomputing with whatever is there
+     * @param hostMillis how long saved hosts stay routed without the network
+     *                   view reporting them
+     */
+    public void restore(RoutingState state, long holdMillis, long hostMillis) {
+        for (Map.Entry<Long, Integer> label : state.getLabels().entrySet()) {
+            this.switchLabels.restore(label.getKey(), label.getValue());
+        }
+        for (GroupEntry group : state.getGroups()) {
+            this.installedGroups.restore(group);
+        }
+        for (FlowRule rule : state.getRules()) {
+            this.installedRules.put(rule);
+        }
+        for (HostAttachment host : state.getHosts()) {
+            this.hosts.put(host);
+            this.restoredHosts.add(host.getMac());
+        }
+        this.restoredSwitches.addAll(state.getSwitches());
+        this.restoredSwitches.addAll(this.installedRules.getSwitches());
+        this.restoredLinks.addAll(state.getLinks());
+        long now = System.nanoTime();
+        this.restoreHoldUntilNanos = now + holdMillis * 1000000L;
+        this.restoredHostsUntilNanos = now + hostMillis * 1000000L;
+        this.holdingForRestore = true;
+        log.info(String.format("Restored %d rules, %d groups and %d hosts on %d switches, saved at %tc",
+                state.getRules().size(), state.getGroups().size(), state.getHosts().size(),
+                this.restoredSwitches.size(), state.getSavedAtMillis()));
+    }
+
+    /**
+     * Note that switches or links changed, or link costs may have.
+     */
+    public void topologyChanged() {
+        offer(TOPOLOGY_CHANGED, 0, 0);
+    }
+
+    public void switchAdded(long dpid) {
+        switchAdded(dpid, false);
+    }
+
+    /**
+     * Note that a switch connected.
+     *
+     * @param readingTable whether its table is being read back, in which case
+     *                     it is left as it is until {@link #tableRead} reports
+     *                     what it holds, rather than being reset
+     */
+    public void switchAdded(long dpid, boolean readingTable) {
+        if (readingTable) {
+            this.tablesBeingRead.add(dpid);
+        }
+        offer(SWITCH_ADDED, dpid, 0);
+    }
+
+    public void switchRemoved(long dpid) {
+        offer(SWITCH_REMOVED, dpid, 0);
+    }
+
+    /**
+     * Note that a host was attached, moved or detached.
+     */
+    public void hostChanged(long mac) {
+        offer(HOST_CHANGED, 0, mac);
+    }
+
+    /**
+     * Note that a switch failed to apply changes, so its table no longer
+     * matches the shadow and must be resynchronised.
+     */
+    public void switchFailed(long dpid) {
+        this.metrics.recordRuleInstallFailure();
+        offer(SWITCH_FAILED, dpid, 0);
+    }
+
+    /**
+     * Note that traffic for a host reached a switch that had no rule for it,
+     * so in reactive mode the rules along its path are installed. Ignored
+     * otherwise.
+     */
+    public void flowRequested(long dpid, long mac) {
+        if (this.flowCache != null && !this.events.offer(FLOW_REQUESTED, dpid, mac, this.flowEventLimit)) {
+            this.metrics.recordEventShed();
+        }
+    }
+
+    /**
+     * Note that a switch dropped a rule when it timed out, so it is no longer
+     * installed. Only host rules are installed with timeouts.
+     */
+    public void ruleExpired(long dpid, FlowMatch match) {
+        if (this.flowCache != null && match.getEthType() == FlowRule.ETH_TYPE_IPV4
+                && match.getEthDst() != FlowMatch.ANY_ETH_DST
+                && !this.events.offer(RULE_EXPIRED, dpid, match.getEthDst(), this.flowEventLimit)) {
+            this.metrics.recordEventShed();
+        }
+    }
+
+    /**
+     * Note that port loads were sampled again, so destinations may be moved
+     * off congested links or back. Ignored without a rerouter.
+     */
+    public void linkLoadsUpdated() {
+        if (this.rerouter != null) {
+            offer(LINK_LOADS_UPDATED, 0, 0);
+        }
+    }
+
+    private void offer(int type, long dpid, long mac) {
+        if (!this.events.offer(type, dpid, mac)) {
+            this.eventsOverflowed.set(true);
+            this.metrics.recordEventOverflow();
+        }
+    }
+
+    /**
+     * Note what a switch's table and groups were read back to hold. Only the
+     * routing rules and groups this module installs should be included.
+     */
+    public void tableRead(long dpid, List<FlowRule> rules, List<GroupEntry> groups) {
+        this.tableReads.put(dpid, new TableRead(rules, groups));
+    }
+
+    /**
+     * Applies every change recorded since the last run in one go.
+     *
+     * Host events never touch the switch topology, so they reuse the cached
+     * shortest path trees and only rewrite the rules for the hosts involved.
+     *
+     * @param lagNanos how long the first of the changes waited for this run
+     */
+    public void processPendingEvents(long lagNanos) {
+        int drained = this.events.drain(this::applyEvent);
+        this.metrics.recordEventQueue(drained);
+        if (this.eventsOverflowed.getAndSet(false)) {
+            rereadNetwork();
+        }
+        if (this.holdingForRestore && !isRestoredTopologyBack()) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        this.recomputeFlowModsSent = 0;
+        this.recomputeFlowModsRemoved = 0;
+        boolean topology = this.topologyChanged || this.shortestPaths == null;
+        this.topologyChanged = false;
+        boolean loads = this.linkLoadsUpdated;
+        this.linkLoadsUpdated = false;
+        List<Long> added = drain(this.addedSwitches);
+        List<Long> removed = drain(this.removedSwitches);
+        List<Long> hosts = drain(this.changedHosts);
+        List<Long> failed = drain(this.failedSwitches);
+        Map<Long, TableRead> reads = new HashMap<Long, TableRead>();
+        for (Long dpid : new ArrayList<Long>(this.tableReads.keySet())) {
+            reads.put(dpid, this.tableReads.remove(dpid));
+        }
+        Map<Long, List<Long>> expiredFlows = drainFlows(this.expiredFlows);
+        Map<Long, List<Long>> requestedFlows = drainFlows(this.requestedFlows);
+        long hostsVersion = this.hosts.getVersion();
+        long[] previousEdges = this.aggregated ? this.hosts.getSwitches() : null;
+        updateHosts(hosts);
+        hosts.addAll(mergeRestoredHosts());
+        boolean hostsChanged = this.hosts.getVersion() != hostsVersion;
+        if (hostsChanged) {
+            this.stateVersion++;
+            this.publishedHosts = this.hosts.copy();
+        }
+
+        for (long switchId : removed) {
+            this.installedRules.clearSwitch(switchId);
+            this.installedGroups.clearSwitch(switchId);
+            if (this.flowCache != null) {
+                this.flowCache.removeSwitch(switchId);
+            }
+            if (this.rerouter != null) {
+                this.rerouter.getLoads().removeSwitch(switchId);
+            }
+            this.sink.forgetSwitch(switchId);
+            // Unless it is already back, as after a control channel blip
+            if (!this.sink.isConnected(switchId)) {
+                this.tablesBeingRead.remove(switchId);
+            }
+            this.stateVersion++;
+        }
+        for (long switchId : added) {
+            // A switch whose table was restored, or is being read, still holds it
+            if (!this.restoredSwitches.contains(switchId) && !this.tablesBeingRead.contains(switchId)) {
+                resetSwitchTable(switchId);
+            }
+        }
+        this.restoredSwitches.clear();
+
+        if (topology) {
+            updateRoutes();
+            for (long switchId : added) {
+                if (!this.tablesBeingRead.contains(switchId)) {
+                    setFlowTableRulesForSwitch(switchId);
+                }
+            }
+        } else if (hostsChanged) {
+            updateDestinations();
+        }
+        for (long mac : hosts) {
+            setRoutingRulesForHost(mac);
+        }
+        // A switch that failed to apply a batch, or to be read, no longer
+        // matches the shadow
+        for (long switchId : failed) {
+            this.tablesBeingRead.remove(switchId);
+            if (!removed.contains(switchId)) {
+                resetSwitchTable(switchId);
+                setFlowTableRulesForSwitch(switchId);
+            }
+        }
+        for (Map.Entry<Long, TableRead> read : reads.entrySet()) {
+            long switchId = read.getKey();
+            this.tablesBeingRead.remove(switchId);
+            if (!removed.contains(switchId) && !failed.contains(switchId) && this.sink.isConnected(switchId)) {
+                reconcileSwitch(switchId, read.getValue());
+            }
+        }
+        if (this.aggregated && hostsChanged) {
+            // A switch that gained its first host or lost its last one needs
+            // its per-host tagging rules added or removed
+            LongIntHashMap wasEdge = new LongIntHashMap(previousEdges.length);
+            for (long switchId : previousEdges) {
+                wasEdge.put(switchId, 0);
+                if (!this.hosts.hasHostsAtSwitch(switchId)) {
+                    setFlowTableRulesForSwitch(switchId);
+                }
+            }
+            for (long switchId : this.hosts.getSwitches()) {
+                if (!wasEdge.containsKey(switchId)) {
+                    setFlowTableRulesForSwitch(switchId);
+                }
+            }
+        }
+
+        boolean rerouted = loads && rebalance();
+
+        if (this.flowCache != null) {
+            setFlowTableRulesForFlows(expiredFlows, requestedFlows);
+        }
+
+        // A pass that only installed rules for flows is not a recompute, and
+        // comes at the rate of new flows
+        boolean recomputed = topology || hostsChanged || rerouted || !added.isEmpty() || !removed.isEmpty()
+                || !hosts.isEmpty() || !failed.isEmpty() || !reads.isEmpty();
+        if (recomputed) {
+            if (this.pathCatalog != null && this.shortestPaths != null) {
+                this.pathCatalog.topologyChanged(this.shortestPaths.getTopology());
+            }
+            RoutingSnapshot previous = this.routingSnapshot.get();
+            this.routingSnapshot.set(new RoutingSnapshot(previous.getVersion() + 1,
+                    this.shortestPaths, this.publishedHosts, this.routeComputer));
+            this.metrics.recordRecompute(System.nanoTime() - startNanos, lagNanos,
+                    this.recomputeFlowModsSent, this.recomputeFlowModsRemoved);
+        } else {
+            this.metrics.recordFlowMods(this.recomputeFlowModsSent, this.recomputeFlowModsRemoved);
+        }
+        TopologyIndex current = getTopology();
+        this.metrics.recordTopology(current.size(), current.edgeCount(), this.hosts.size(),
+                this.installedRules.size());
+        if (recomputed) {
+            log.info(String.format("Recomputed routes: %s", this.metrics));
+        }
+    }
+
+    /**
+     * Checks whether every switch and link saved before a restart has come
+     * back, or the wait for them has timed out. Switches that did not come
+     * back may have lost their tables, so their restored state is dropped.
+     */
+    private boolean isRestoredTopologyBack() {
+        int switches = 0;
+        for (long dpid : this.restoredSwitches) {
+            if (this.sink.isConnected(dpid)) {
+                switches++;
+            }
+        }
+        int links = 0;
+        Set<SwitchLink> current = new HashSet<SwitchLink>(this.network.getLinks());
+        for (SwitchLink link : this.restoredLinks) {
+            if (current.contains(link)) {
+                links++;
+            }
+        }
+        boolean back = switches == this.restoredSwitches.size() && links == this.restoredLinks.size();
+        boolean expired = System.nanoTime() - this.restoreHoldUntilNanos >= 0;
+        if (!back && !expired) {
+            log.info(String.format("Waiting for the restored topology: %d of %d switches, %d of %d links",
+                    switches, this.restoredSwitches.size(), links, this.restoredLinks.size()));
+            return false;
+        }
+
+        log.info(String.format("Restored topology %s with %d of %d switches and %d of %d links",
+                back ? "confirmed" : "timed out", switches, this.restoredSwitches.size(),
+                links, this.restoredLinks.size()));
+        for (Iterator<Long> iterator = this.restoredSwitches.iterator(); iterator.hasNext(); ) {
+            long dpid = iterator.next();
+            if (!this.sink.isConnected(dpid)) {
+                this.installedRules.clearSwitch(dpid);
+                this.installedGroups.clearSwitch(dpid);
+                iterator.remove();
+            }
+        }
+        this.restoredLinks.clear();
+        this.holdingForRestore = false;
+        this.topologyChanged = true;
+        return true;
+    }
+
+    /**
+     * Brings the hosts in line with the network view. The first recompute
+     * reads every host; after that only the hosts reported changed are read
+     * again, so a host event costs the same however many hosts there are.
+     */
+    private void updateHosts(List<Long> changed) {
+        if (!this.hostsRead) {
+            for (HostAttachment host : this.network.getHosts()) {
+                this.hosts.put(host);
+            }
+            this.hostsRead = true;
+            return;
+        }
+        for (long mac : changed) {
+            HostAttachment host = this.network.getHost(mac);
+            if (host != null) {
+                this.hosts.put(host);
+            } else {
+                this.hosts.remove(mac);
+                this.restoredHosts.remove(mac);
+            }
+        }
+    }
+
+    /**
+     * Checks the hosts saved before a restart against the network view. Once
+     * a saved host is reported it is routed from the view alone; once the
+     * saved hosts time out, those never reported are dropped.
+     *
+     * @return MACs of hosts dropped or moved now, whose rules must be rewritten
+     */
+    private List<Long> mergeRestoredHosts() {
+        List<Long> changed = new ArrayList<Long>();
+        if (this.restoredHosts.isEmpty()) {
+            return changed;
+        }
+        boolean expired = System.nanoTime() - this.restoredHostsUntilNanos >= 0;
+        int dropped = 0;
+        for (Iterator<Long> iterator = this.restoredHosts.iterator(); iterator.hasNext(); ) {
+            long mac = iterator.next();
+            HostAttachment host = this.network.getHost(mac);
+            if (host != null) {
+                if (this.hosts.put(host)) {
+                    changed.add(mac);
+                }
+                iterator.remove();
+            } else if (expired) {
+                this.hosts.remove(mac);
+                changed.add(mac);
+                dropped++;
+                iterator.remove();
+            }
+        }
+        if (dropped > 0) {
+            log.info(String.format("Dropped %d restored hosts that were not seen again", dropped));
+        }
+        return changed;
+    }
+
+    /**
+     * Records one event drained from the queue as a pending change.
+     */
+    private void applyEvent(int type, long dpid, long mac) {
+        switch (type) {
+            case TOPOLOGY_CHANGED:
+                this.topologyChanged = true;
+                break;
+            case SWITCH_ADDED:
+                this.addedSwitches.add(dpid);
+                this.connectedSwitches.add(dpid);
+                this.topologyChanged = true;
+                break;
+            case SWITCH_REMOVED:
+                this.removedSwitches.add(dpid);
+                this.connectedSwitches.remove(dpid);
+                this.topologyChanged = true;
+                break;
+            case HOST_CHANGED:
+                this.changedHosts.add(mac);
+                break;
+            case SWITCH_FAILED:
+                this.failedSwitches.add(dpid);
+                break;
+            case FLOW_REQUESTED:
+                this.requestedFlows.computeIfAbsent(dpid, key -> new HashSet<Long>()).add(mac);
+                break;
+            case RULE_EXPIRED:
+                this.expiredFlows.computeIfAbsent(dpid, key -> new HashSet<Long>()).add(mac);
+                break;
+            case LINK_LOADS_UPDATED:
+                this.linkLoadsUpdated = true;
+                break;
+            default:
+                throw new IllegalStateException("Unknown routing event type " + type);
+        }
+    }
+
+    /**
+     * Makes up for events turned away by a full queue: switches that came or
+     * went according to the network view are added or removed, every host is
+     * reread and routes are recomputed. A switch that reconnected meanwhile
+     * keeps its table until it is next read back or fails.
+     */
+    private void rereadNetwork() {
+        log.warn("Routing events were turned away by a full event queue; rereading the network");
+        Set<Long> present = new HashSet<Long>(this.network.getSwitches());
+        for (long dpid : present) {
+            if (this.connectedSwitches.add(dpid)) {
+                this.addedSwitches.add(dpid);
+            }
+        }
+        for (Iterator<Long> iterator = this.connectedSwitches.iterator(); iterator.hasNext(); ) {
+            long dpid = iterator.next();
+            if (!present.contains(dpid)) {
+                this.removedSwitches.add(dpid);
+                iterator.remove();
+            }
+        }
+        for (int slot = 0; slot < this.hosts.size(); slot++) {
+            this.changedHosts.add(this.hosts.getMac(slot));
+        }
+        for (HostAttachment host : this.network.getHosts()) {
+            this.changedHosts.add(host.getMac());
+        }
+        this.topologyChanged = true;
+    }
+
+    /**
+     * Brings the rules installed on demand in line with traffic: forgets the
+     * rules switches timed out, then caches every switch on the path of each
+     * requested flow and installs its rule. Rules evicted from the cache to
+     * make room are removed.
+     *
+     * @param expired destination MACs of the rules each switch timed out
+     * @param requested destination MACs of the flows seen at each switch
+     */
+    private void setFlowTableRulesForFlows(Map<Long, List<Long>> expired, Map<Long, List<Long>> requested) {
+        int expiredCount = 0;
+        for (Map.Entry<Long, List<Long>> entry : expired.entrySet()) {
+            long switchId = entry.getKey();
+            for (long mac : entry.getValue()) {
+                FlowRule rule = this.installedRules.get(switchId, FlowMatch.forHost(mac));
+                if (rule != null && rule.isTimed()) {
+                    this.installedRules.remove(switchId, rule.getMatch());
+                }
+                this.flowCache.remove(switchId, mac);
+                expiredCount++;
+            }
+        }
+        if (requested.isEmpty() || this.shortestPaths == null) {
+            this.metrics.recordFlows(0, expiredCount, 0);
+            return;
+        }
+
+        // Every (switch, MAC) pair added to or evicted from the cache, each
+        // declared once after all the requests are in
+        Map<Long, Set<Long>> changed = new HashMap<Long, Set<Long>>();
+        TopologyIndex topology = this.shortestPaths.getTopology();
+        int requestCount = 0;
+        for (Map.Entry<Long, List<Long>> entry : requested.entrySet()) {
+            int index = topology.indexOf(entry.getKey());
+            for (long mac : entry.getValue()) {
+                requestCount++;
+                int slot = this.hosts.slotOf(mac);
+                ShortestPathTree tree = slot == HostRegistry.NONE
+                        ? null : this.shortestPaths.getTreeForSwitch(this.hosts.getDpid(slot));
+                if (index == TopologyIndex.NONE || tree == null || !tree.isReachable(index)) {
+                    continue;
+                }
+                for (int hop = index; hop != TopologyIndex.NONE; hop = tree.nextHop(hop)) {
+                    long switchId = topology.dpid(hop);
+                    boolean added = this.flowCache.touch(switchId, mac);
+                    if (!added && hop == index) {
+                        // The switch asked although its rule is cached, so the
+                        // rule expired unreported or is still on its way; send it again
+                        FlowRule rule = this.installedRules.get(switchId, this.hosts.getHostMatch(slot));
+                        if (rule != null && rule.isTimed()) {
+                            this.installedRules.remove(switchId, rule.getMatch());
+                        }
+                        added = true;
+                    }
+                    if (added) {
+                        changed.computeIfAbsent(switchId, key -> new HashSet<Long>()).add(mac);
+                    }
+                }
+            }
+        }
+        int evicted = this.flowCache.getEvictedCount();
+        for (int i = 0; i < evicted; i++) {
+            changed.computeIfAbsent(this.flowCache.getEvictedDpid(i), key -> new HashSet<Long>())
+                    .add(this.flowCache.getEvictedMac(i));
+        }
+        this.flowCache.clearEvicted();
+
+        FlowRuleDiff diff = new FlowRuleDiff(this.installedRules);
+        RuleGenerator generator = getRuleGenerator();
+        for (Map.Entry<Long, Set<Long>> entry : changed.entrySet()) {
+            for (long mac : entry.getValue()) {
+                generator.expectHostAtSwitch(diff, entry.getKey(), mac);
+            }
+        }
+        this.metrics.recordFlows(requestCount, expiredCount, evicted);
+        applyFlowRuleChanges(diff.getChanges(), true);
+    }
+
+    /**
+     * Removes and returns everything in a map of sets, keyed as in the map.
+     */
+    private static Map<Long, List<Long>> drainFlows(Map<Long, Set<Long>> pending) {
+        Map<Long, List<Long>> drained = new HashMap<Long, List<Long>>();
+        for (Map.Entry<Long, Set<Long>> entry : pending.entrySet()) {
+            drained.put(entry.getKey(), new ArrayList<Long>(entry.getValue()));
+        }
+        pending.clear();
+        return drained;
+    }
+
+    /**
+     * Removes and returns everything in a set.
+     */
+    private static <T> List<T> drain(Set<T> pending) {
+        List<T> drained = new ArrayList<T>(pending);
+        pending.clear();
+        return drained;
+    }
+
+    /**
+     * Rebuild the topology index from the switches and links in the network
+     * view. Called once per topology change; everything that walks the
+     * topology afterwards reads only the index.
+     */
+    private void rebuildTopology() {
+        TopologyIndex.Builder builder = TopologyIndex.builder();
+        for (long dpid : this.network.getSwitches()) {
+            builder.addSwitch(dpid);
+        }
+        for (SwitchLink link : this.network.getLinks()) {
+            builder.addLink(link.getSrc(), link.getSrcPort(), link.getDst(), link.getDstPort(),
+                    this.linkCosts.getCost(link.getSrc(), link.getSrcPort(), link.getDst(), link.getDstPort()));
+        }
+        this.topology = builder.build();
+    }
+
+    /**
+     * Get the current topology index, building it if no topology event has
+     * been seen yet.
+     */
+    private TopologyIndex getTopology() {
+        if (this.topology == null) {
+            rebuildTopology();
+        }
+        return this.topology;
+    }
+
+    /**
+     * Rebuilds the topology index and brings shortestPaths up to date with it.
+     * Only the trees the change can affect are recomputed, and only the rules
+     * for routes that actually changed are rewritten.
+     */
+    private void updateRoutes() {
+        rebuildTopology();
+        // Destinations moved off congested links get their shortest paths
+        // back once anything changes, as their trees were over the old links
+        ShortestPathTrees previous = this.shortestPaths;
+        if (this.rerouter != null && previous != null && !previous.getTopology().hasSameLinks(getTopology())) {
+            previous = this.rerouter.release(previous);
+        }
+        RouteUpdate update = this.routeComputer.update(previous, getTopology(), this.hosts::hasHostsAtSwitch);
+        this.shortestPaths = update.getTrees();
+        log.info(String.format("Recomputed %d of %d shortest path trees, %s routes changed",
+                update.getRecomputedTrees(), getTopology().size(),
+                update.getChanges().isFull() ? "all" : String.valueOf(update.getChanges().getChangedRoutes().size())));
+        setFlowTableRulesForChangedRoutes(update.getChanges());
+    }
+
+    /**
+     * Lets the rerouter move the busiest destinations off congested links,
+     * and moved ones back once their shortest paths have cooled down, then
+     * rewrites the routes to the destinations that moved.
+     *
+     * @return whether any destination moved
+     */
+    private boolean rebalance() {
+        if (this.rerouter == null || this.shortestPaths == null) {
+            return false;
+        }
+        RouteChanges changes = RouteChanges.incremental();
+        this.shortestPaths = this.rerouter.rebalance(this.shortestPaths, this.hosts, this.routeComputer, changes,
+                System.nanoTime());
+        int moves = this.rerouter.getLastMoves();
+        int restores = this.rerouter.getLastRestores();
+        this.metrics.recordReroutes(moves, restores, this.rerouter.getMovedCount());
+        if (moves == 0 && restores == 0) {
+            return false;
+        }
+        log.info(String.format("Moved %d destinations off congested links and %d back", moves, restores));
+        setFlowTableRulesForChangedRoutes(changes);
+        return true;
+    }
+
+    /**
+     * Keeps trees only for the switches with hosts when the topology did not
+     * change: computes the tree of a switch that gained its first host and
+     * releases the tree of one that lost its last. The rules for the hosts
+     * themselves are rewritten host by host; in aggregated mode every
+     * switch's label rule for those switches is rewritten here.
+     */
+    private void updateDestinations() {
+        TopologyIndex topology = this.shortestPaths.getTopology();
+        RouteChanges changes = RouteChanges.incremental();
+        ShortestPathTrees trees = this.shortestPaths;
+        for (int root = 0; root < topology.size(); root++) {
+            boolean destination = this.hosts.hasHostsAtSwitch(topology.dpid(root));
+            if (destination == (trees.getTree(root) != null)) {
+                continue;
+            }
+            trees = trees.withTree(root, destination ? this.routeComputer.computeTree(topology, root) : null);
+            for (int u = 0; u < topology.size() && this.aggregated; u++) {
+                if (u != root) {
+                    changes.getChangedRoutes().add(topology.dpid(u), topology.dpid(root));
+                }
+            }
+        }
+        if (trees == this.shortestPaths) {
+            return;
+        }
+        this.shortestPaths = trees;
+        setFlowTableRulesForChangedRoutes(changes);
+    }
+
+    /**
+     * Brings every switch's table in line with the current routes: computes
+     * the rules each switch should hold for all hosts, diffs them against the
+     * installed rules and sends only the differences.
+     */
+    private void setAllFlowTableRulesForAllHosts() {
+        if (shortestPaths == null) {
+            return;
+        }
+        TopologyIndex topology = shortestPaths.getTopology();
+        FlowRuleDiff diff = new FlowRuleDiff(this.installedRules);
+        getRuleGenerator().expectAllSwitches(diff);
+
+        // Switches that left the topology took their rules with them
+        for (Long dpid : new ArrayList<Long>(this.installedRules.getSwitches())) {
+            if (topology.indexOf(dpid) == TopologyIndex.NONE) {
+                this.installedRules.clearSwitch(dpid);
+                this.installedGroups.clearSwitch(dpid);
+            }
+        }
+
+        applyFlowRuleChanges(diff.getChanges());
+    }
+
+    /**
+     * Brings one switch's table in line with the current routes to all hosts.
+     */
+    private void setFlowTableRulesForSwitch(long switchId) {
+        if (shortestPaths == null) {
+            return;
+        }
+        int index = shortestPaths.getTopology().indexOf(switchId);
+        if (index == TopologyIndex.NONE) {
+            return;
+        }
+        FlowRuleDiff diff = new FlowRuleDiff(this.installedRules);
+        getRuleGenerator().expectSwitch(diff, index);
+        applyFlowRuleChanges(diff.getChanges());
+    }
+
+    /**
+     * Brings the rules for traffic to one host in line with the current routes
+     * on every switch. A host that is no longer attached has its rules removed.
+     */
+    private void setRoutingRulesForHost(long mac) {
+        if (shortestPaths == null) {
+            return;
+        }
+        FlowRuleDiff diff = new FlowRuleDiff(this.installedRules);
+        getRuleGenerator().expectHost(diff, mac);
+        applyFlowRuleChanges(diff.getChanges());
+    }
+
+    /**
+     * Brings in line only the routes a topology update changed: for each
+     * changed (switch, destination switch) pair, the rule on that switch for
+     * every host attached to the destination.
+     */
+    private void setFlowTableRulesForChangedRoutes(RouteChanges changes) {
+        if (changes.isFull()) {
+            setAllFlowTableRulesForAllHosts();
+            return;
+        }
+        FlowRuleDiff diff = new FlowRuleDiff(this.installedRules);
+        getRuleGenerator().expectChangedRoutes(diff, changes.getChangedRoutes());
+        applyFlowRuleChanges(diff.getChanges());
+    }
+
+    /**
+     * Gets a generator for the rules of the current routes and hosts.
+     */
+    private RuleGenerator getRuleGenerator() {
+        return new RuleGenerator(shortestPaths, this.hosts, this.installedGroups, this.switchLabels,
+                this.priority, this.multipath, this.fastFailover, this.aggregated, this.flowCache);
+    }
+
+    /**
+     * Sends a set of rule changes to the sink as one batch and records them
+     * in the shadow tables straight away, so the next diff builds on them.
+     * If a switch fails to apply them, it is reported through
+     * {@link #switchFailed} and its table is resynchronised from scratch.
+     * Groups are added before the first rule that uses them and removed once
+     * no installed rule uses them any more. Switches whose tables are being
+     * read get nothing until the read is reconciled, which sends all they need.
+     * With consistent updates, the installs are sent in rounds and the
+     * removals after them, each once the switches it forwards through have
+     * applied the last. A switch that fails a round gets nothing more from
+     * the update and is not waited for again.
+     */
+    private void applyFlowRuleChanges(FlowRuleChanges changes) {
+        applyFlowRuleChanges(changes, false);
+    }
+
+    /**
+     * @param onDemand whether the changes only install or remove rules for
+     *                 flows in reactive mode; these come at the rate of new
+     *                 flows, are not saved, and are only logged at debug level
+     */
+    private void applyFlowRuleChanges(FlowRuleChanges changes, boolean onDemand) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        if (!onDemand) {
+            this.stateVersion++;
+        }
+
+        List<FlowRule> installs = new ArrayList<FlowRule>(changes.getAdditions());
+        installs.addAll(changes.getModifications());
+        List<List<FlowRule>> rounds = this.consistentUpdates && !onDemand
+                ? UpdateRounds.split(installs, this.shortestPaths, this.hosts, this.switchLabels)
+                : Collections.singletonList(installs);
+        int messages = 0;
+        Set<Long> failed = new HashSet<Long>();
+        for (int round = 0; round < rounds.size(); round++) {
+            if (round > 0) {
+                messages += this.sink.flush();
+                awaitFlushed(getNextSwitches(rounds.get(round)), failed);
+            }
+            for (FlowRule rule : rounds.get(round)) {
+                if (!this.sink.isConnected(rule.getDpid()) || this.tablesBeingRead.contains(rule.getDpid())
+                        || failed.contains(rule.getDpid()) || (rule.hasGroup() && !installGroup(rule))) {
+                    continue;
+                }
+                this.sink.installRule(rule);
+                this.installedRules.put(rule);
+                this.recomputeFlowModsSent++;
+            }
+        }
+
+        Set<Long> installed = new HashSet<Long>();
+        for (FlowRule rule : installs) {
+            installed.add(rule.getDpid());
+        }
+        Set<Long> touched = new HashSet<Long>(installed);
+        for (FlowRule rule : changes.getDeletions()) {
+            touched.add(rule.getDpid());
+        }
+
+        // Deletions go last so traffic moves onto new rules before old ones go
+        if (this.consistentUpdates && !onDemand && !installs.isEmpty() && !changes.getDeletions().isEmpty()
+                && touched.size() > 1) {
+            messages += this.sink.flush();
+            awaitFlushed(installed, failed);
+        }
+        for (FlowRule rule : changes.getDeletions()) {
+            if (this.sink.isConnected(rule.getDpid()) && !this.tablesBeingRead.contains(rule.getDpid())
+                    && !failed.contains(rule.getDpid())) {
+                this.sink.deleteRule(rule);
+                this.recomputeFlowModsRemoved++;
+            }
+            this.installedRules.remove(rule.getDpid(), rule.getMatch());
+        }
+        for (long dpid : touched) {
+            releaseUnusedGroups(dpid);
+        }
+
+        messages += this.sink.flush();
+        if (!onDemand) {
+            String staged = rounds.size() > 1 ? String.format(" in %d rounds", rounds.size()) : "";
+            log.info(String.format("Flow tables updated: %s, %d messages dispatched%s", changes, messages, staged));
+        } else if (log.isDebugEnabled()) {
+            log.debug(String.format("Flow tables updated for flows: %s, %d messages dispatched", changes, messages));
+        }
+    }
+
+    /**
+     * Waits for some switches to apply everything sent to them so far, so
+     * the changes sent next cannot overtake it. A switch that fails or does
+     * not answer in time is added to failed, and will be resynchronised; the
+     * update carries on without it. Switches already in failed are not
+     * waited for again, so one dead switch costs an update one timeout.
+     */
+    private void awaitFlushed(Set<Long> dpids, Set<Long> failed) {
+        Set<Long> waitFor = new HashSet<Long>(dpids);
+        waitFor.removeAll(failed);
+        if (waitFor.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        Set<Long> newlyFailed = this.sink.awaitFlushed(waitFor);
+        this.metrics.recordUpdateWait(System.nanoTime() - start, newlyFailed.isEmpty());
+        if (!newlyFailed.isEmpty()) {
+            failed.addAll(newlyFailed);
+            log.warn(String.format("Switches %s did not confirm a round of rule changes; "
+                    + "sending the rest of the update without them", newlyFailed));
+        }
+    }
+
+    /**
+     * Gets the switches a set of rules send traffic to: the neighbour out of
+     * each rule's port, or out of every port of its group.
+     */
+    private Set<Long> getNextSwitches(List<FlowRule> rules) {
+        TopologyIndex topology = this.shortestPaths.getTopology();
+        Set<Long> next = new HashSet<Long>();
+        for (FlowRule rule : rules) {
+            int u = topology.indexOf(rule.getDpid());
+            if (u == TopologyIndex.NONE) {
+                continue;
+            }
+            GroupEntry group = rule.hasGroup() ? this.installedGroups.get(rule.getDpid(), rule.getGroupId()) : null;
+            for (int e = topology.outStart(u); e < topology.outEnd(u); e++) {
+                int port = topology.edgePort(e);
+                if (group == null ? port == rule.getOutPort() : contains(group.getPorts(), port)) {
+                    next.add(topology.dpid(topology.edgeTarget(e)));
+                }
+            }
+        }
+        return next;
+    }
+
+    private static boolean contains(int[] ports, int port) {
+        for (int p : ports) {
+            if (p == port) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces what the shadow tables say a switch holds with what it was
+     * read back to hold, then brings it in line with the current routes, so
+     * only the missing, stale and extra entries are sent. A switch that holds
+     * no routing rules at all has lost its table, so it is reset instead, in
+     * case it kept groups the read did not report.
+     */
+    private void reconcileSwitch(long dpid, TableRead read) {
+        int sentBefore = this.recomputeFlowModsSent + this.recomputeFlowModsRemoved;
+        if (read.rules.isEmpty()) {
+            resetSwitchTable(dpid);
+        } else {
+            this.stateVersion++;
+            this.installedRules.clearSwitch(dpid);
+            this.installedGroups.clearSwitch(dpid);
+            for (GroupEntry group : read.groups) {
+                this.installedGroups.restore(group);
+            }
+            for (FlowRule rule : read.rules) {
+                this.installedRules.put(rule);
+            }
+        }
+        setFlowTableRulesForSwitch(dpid);
+        releaseUnusedGroups(dpid);
+        this.sink.flush();
+
+        int repairs = this.recomputeFlowModsSent + this.recomputeFlowModsRemoved - sentBefore;
+        this.metrics.recordReconciliation(repairs);
+        if (repairs > 0 || read.rules.isEmpty()) {
+            log.info(String.format("Reconciled s%d: read %d rules and %d groups, sent %d repairs",
+                    dpid, read.rules.size(), read.groups.size(), repairs));
+        }
+    }
+
+    /**
+     * Makes sure the group a rule hands packets to is on the switch, sending
+     * it if it is not.
+     *
+     * @return true if the group is, or will be, installed
+     */
+    private boolean installGroup(FlowRule rule) {
+        if (this.installedGroups.isInstalled(rule.getDpid(), rule.getGroupId())) {
+            return true;
+        }
+        GroupEntry group = this.installedGroups.get(rule.getDpid(), rule.getGroupId());
+        if (group == null) {
+            return false;
+        }
+        this.sink.installGroup(group);
+        this.installedGroups.markInstalled(group);
+        return true;
+    }
+
+    /**
+     * Removes the groups on a switch that no installed rule uses any more.
+     */
+    private void releaseUnusedGroups(long dpid) {
+        Set<Integer> used = new HashSet<Integer>();
+        for (FlowRule rule : this.installedRules.getTable(dpid).values()) {
+            if (rule.hasGroup()) {
+                used.add(rule.getGroupId());
+            }
+        }
+        boolean connected = this.sink.isConnected(dpid);
+        for (GroupEntry group : this.installedGroups.getGroups(dpid)) {
+            if (used.contains(group.getGroupId())) {
+                continue;
+            }
+            if (this.installedGroups.isInstalled(dpid, group.getGroupId()) && connected) {
+                this.sink.deleteGroup(dpid, group.getGroupId());
+            }
+            this.installedGroups.remove(dpid, group.getGroupId());
+        }
+    }
+
+    /**
+     * Forgets what was installed on a (re)connecting switch and clears its
+     * table, so it is treated as empty by the next diff.
+     */
+    private void resetSwitchTable(long switchId) {
+        this.stateVersion++;
+        this.installedRules.clearSwitch(switchId);
+        this.installedGroups.clearSwitch(switchId);
+        if (this.sink.isConnected(switchId)) {
+            this.sink.resetSwitch(switchId);
+            this.sink.flush();
+        }
+    }
+
+    /**
+     * What a switch's table and groups were read back to hold.
+     */
+    private static final class TableRead {
+        private final List<FlowRule> rules;
+        private final List<GroupEntry> groups;
+
+        TableRead(List<FlowRule> rules, List<GroupEntry> groups) {
+            this.rules = rules;
+            this.groups = groups;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, lock-free queue of routing events from any number of threads to
+ * the single thread that applies them. An event is a type code and two
+ * primitive arguments, kept in parallel arrays, so offering one allocates
+ * nothing and never waits: a producer claims a slot with a compare-and-set
+ * on the tail and publishes it by advancing the slot's sequence number, and
+ * a full queue turns the event away rather than blocking the caller.
+ *
+ * Offers may come from any thread; {@link #drain} must only ever run on one
+ * thread at a time.
+ */
+public final class RoutingEventQueue {
+
+    /**
+     * Receives the drained events in the order they were offered.
+     */
+    public interface Handler {
+        void handle(int type, long dpid, long value);
+    }
+
+    private final int capacity;
+    private final int mask;
+
+    // Sequence of each slot: its position when free to write, its position
+    // plus one when written and not yet drained
+    private final AtomicLongArray sequences;
+    private final int[] types;
+    private final long[] dpids;
+    private final long[] values;
+
+    // Next position to write, claimed by producers
+    private final AtomicLong tail = new AtomicLong();
+
+    // Next position to drain, only advanced by the draining thread
+    private volatile long head;
+
+    /**
+     * @param capacity most events held; rounded up to a power of two
+     */
+    public RoutingEventQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Event queue capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = this.capacity - 1;
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            this.sequences.set(i, i);
+        }
+        this.types = new int[this.capacity];
+        this.dpids = new long[this.capacity];
+        this.values = new long[this.capacity];
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Get the number of events waiting to be drained. Only an estimate while
+     * events are being offered.
+     */
+    public int size() {
+        long size = this.tail.get() - this.head;
+        return (int) Math.max(0, Math.min(size, this.capacity));
+    }
+
+    /**
+     * Add an event unless the queue is full.
+     *
+     * @return whether the event was added
+     */
+    public boolean offer(int type, long dpid, long value) {
+        return offer(type, dpid, value, this.capacity);
+    }
+
+    /**
+     * Add an event unless the queue already holds limit events, leaving the
+     * rest of the capacity to events offered with a higher limit.
+     *
+     * @return whether the event was added
+     */
+    public boolean offer(int type, long dpid, long value, int limit) {
+        long position = this.tail.get();
+        while (true) {
+            int slot = (int) position & this.mask;
+            long difference = this.sequences.get(slot) - position;
+            if (difference < 0 || (difference == 0 && position - this.head >= limit)) {
+                return false;
+            }
+            if (difference == 0 && this.tail.compareAndSet(position, position + 1)) {
+                this.types[slot] = type;
+                this.dpids[slot] = dpid;
+                this.values[slot] = value;
+                this.sequences.set(slot, position + 1);
+                return true;
+            }
+            position = this.tail.get();
+        }
+    }
+
+    /**
+     * Hand every event published so far to a handler, oldest first.
+     *
+     * @return number of events drained
+     */
+    public int drain(Handler handler) {
+        long position = this.head;
+        int drained = 0;
+        while (true) {
+            int slot = (int) position & this.mask;
+            if (this.sequences.get(slot) != position + 1) {
+                break;
+            }
+            int type = this.types[slot];
+            long dpid = this.dpids[slot];
+            long value = this.values[slot];
+            this.sequences.set(slot, position + this.capacity);
+            position++;
+            this.head = position;
+            drained++;
+            handler.handle(type, dpid, value);
+        }
+        return drained;
+    }
+}
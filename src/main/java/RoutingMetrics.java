@@ -0,0 +1,383 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counters, gauges and histograms describing how routing is keeping up:
+ * how long recomputes take, how long events wait before one starts, how
+ * many flow-mods each one sends, and how big the network is. Written by the
+ * recompute thread and read from anywhere, including over JMX.
+ */
+public final class RoutingMetrics implements RoutingMetricsMBean {
+    private static Logger log = LoggerFactory.getLogger(RoutingMetrics.class.getSimpleName());
+
+    public static final String OBJECT_NAME = "edu.brown.cs.sdn.apps.sps:type=RoutingMetrics";
+
+    private final LatencyHistogram recomputeDuration = new LatencyHistogram();
+    private final LatencyHistogram eventLag = new LatencyHistogram();
+
+    private final AtomicLong eventsSubmitted = new AtomicLong();
+    private final AtomicLong eventsCoalesced = new AtomicLong();
+    private final AtomicLong flowModsSent = new AtomicLong();
+    private final AtomicLong flowModsRemoved = new AtomicLong();
+    private final AtomicLong ruleInstallFailures = new AtomicLong();
+    private final AtomicLong reconciliations = new AtomicLong();
+    private final AtomicLong reconciliationRepairs = new AtomicLong();
+    private final AtomicLong flowRequests = new AtomicLong();
+    private final AtomicLong flowsExpired = new AtomicLong();
+    private final AtomicLong flowCacheEvictions = new AtomicLong();
+    private final AtomicLong eventsShed = new AtomicLong();
+    private final AtomicLong eventQueueOverflows = new AtomicLong();
+    private final AtomicLong destinationsRerouted = new AtomicLong();
+    private final AtomicLong destinationsRestored = new AtomicLong();
+    private final AtomicLong updateWaits = new AtomicLong();
+    private final AtomicLong updateWaitNanos = new AtomicLong();
+    private final AtomicLong updateWaitTimeouts = new AtomicLong();
+
+    // Gauges, as of the last recompute
+    private volatile int lastFlowModsSent;
+    private volatile int lastFlowModsRemoved;
+    private volatile int switchCount;
+    private volatile int linkCount;
+    private volatile int hostCount;
+    private volatile int installedRuleCount;
+
+    // Events drained from the queue by the last recompute, and the most ever
+    private volatile int lastEventBatch;
+    private volatile int maxEventBatch;
+
+    // Destinations steered off their shortest path as of the last rebalance
+    private volatile int destinationsSteered;
+
+    /**
+     * Record one pass of moving destinations off congested links.
+     *
+     * @param moved destinations moved off their shortest path
+     * @param restored destinations moved back onto it
+     * @param steered destinations off their shortest path after the pass
+     */
+    public void recordReroutes(int moved, int restored, int steered) {
+        this.destinationsRerouted.addAndGet(moved);
+        this.destinationsRestored.addAndGet(restored);
+        this.destinationsSteered = steered;
+    }
+
+    /**
+     * Record one wait for the switches to apply a round of rule changes
+     * before the next is sent.
+     *
+     * @param nanos how long the wait took
+     * @param applied whether every switch confirmed or failed the round in time
+     */
+    public void recordUpdateWait(long nanos, boolean applied) {
+        this.updateWaits.incrementAndGet();
+        this.updateWaitNanos.addAndGet(nanos);
+        if (!applied) {
+            this.updateWaitTimeouts.incrementAndGet();
+        }
+    }
+
+    /**
+     * Record one recompute.
+     *
+     * @param durationNanos how long the recompute took
+     * @param lagNanos how long its first event waited before it started
+     * @param sent flow-mods it sent to add or change rules
+     * @param removed flow-mods it sent to remove rules
+     */
+    public void recordRecompute(long durationNanos, long lagNanos, int sent, int removed) {
+        this.recomputeDuration.record(durationNanos);
+        this.eventLag.record(lagNanos);
+        this.flowModsSent.addAndGet(sent);
+        this.flowModsRemoved.addAndGet(removed);
+        this.lastFlowModsSent = sent;
+        this.lastFlowModsRemoved = removed;
+    }
+
+    /**
+     * Record flow-mods sent outside a recompute, to install or remove rules
+     * for flows in reactive mode.
+     */
+    public void recordFlowMods(int sent, int removed) {
+        this.flowModsSent.addAndGet(sent);
+        this.flowModsRemoved.addAndGet(removed);
+    }
+
+    /**
+     * Record one pass over the flows seen in reactive mode.
+     *
+     * @param requests flows reported arriving at switches without a rule
+     * @param expired rules switches reported timing out
+     * @param evicted rules removed to make room in the flow cache
+     */
+    public void recordFlows(int requests, int expired, int evicted) {
+        this.flowRequests.addAndGet(requests);
+        this.flowsExpired.addAndGet(expired);
+        this.flowCacheEvictions.addAndGet(evicted);
+    }
+
+    /**
+     * Record the events one recompute drained from the event queue.
+     */
+    public void recordEventQueue(int drained) {
+        this.lastEventBatch = drained;
+        if (drained > this.maxEventBatch) {
+            this.maxEventBatch = drained;
+        }
+    }
+
+    /**
+     * Record a flow request or expiry turned away to leave room in the event
+     * queue for switch, link and host events.
+     */
+    public void recordEventShed() {
+        this.eventsShed.incrementAndGet();
+    }
+
+    /**
+     * Record a switch, link or host event turned away by a full event queue.
+     */
+    public void recordEventOverflow() {
+        this.eventQueueOverflows.incrementAndGet();
+    }
+
+    public void recordEvents(long submitted, long coalesced) {
+        this.eventsSubmitted.set(submitted);
+        this.eventsCoalesced.set(coalesced);
+    }
+
+    public void recordTopology(int switches, int links, int hosts, int installedRules) {
+        this.switchCount = switches;
+        this.linkCount = links;
+        this.hostCount = hosts;
+        this.installedRuleCount = installedRules;
+    }
+
+    public void recordRuleInstallFailure() {
+        this.ruleInstallFailures.incrementAndGet();
+    }
+
+    /**
+     * Record one switch's table being read back and brought in line.
+     *
+     * @param repairs flow-mods it took to fix the entries that were wrong
+     */
+    public void recordReconciliation(int repairs) {
+        this.reconciliations.incrementAndGet();
+        this.reconciliationRepairs.addAndGet(repairs);
+    }
+
+    public LatencyHistogram getRecomputeDuration() {
+        return this.recomputeDuration;
+    }
+
+    public LatencyHistogram getEventLag() {
+        return this.eventLag;
+    }
+
+    /**
+     * Make the metrics visible over JMX. Failing to do so is logged but not
+     * fatal, since routing works the same without them.
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (JMException e) {
+            log.warn("Could not register routing metrics with JMX", e);
+        }
+    }
+
+    @Override
+    public long getRecomputeCount() {
+        return this.recomputeDuration.getCount();
+    }
+
+    @Override
+    public long getRecomputeMeanMicros() {
+        return this.recomputeDuration.getMeanMicros();
+    }
+
+    @Override
+    public long getRecomputeP50Micros() {
+        return this.recomputeDuration.getPercentileMicros(50);
+    }
+
+    @Override
+    public long getRecomputeP99Micros() {
+        return this.recomputeDuration.getPercentileMicros(99);
+    }
+
+    @Override
+    public long getRecomputeMaxMicros() {
+        return this.recomputeDuration.getMaxMicros();
+    }
+
+    @Override
+    public long getEventLagP50Micros() {
+        return this.eventLag.getPercentileMicros(50);
+    }
+
+    @Override
+    public long getEventLagP99Micros() {
+        return this.eventLag.getPercentileMicros(99);
+    }
+
+    @Override
+    public long getEventLagMaxMicros() {
+        return this.eventLag.getMaxMicros();
+    }
+
+    @Override
+    public long getEventsSubmitted() {
+        return this.eventsSubmitted.get();
+    }
+
+    @Override
+    public long getEventsCoalesced() {
+        return this.eventsCoalesced.get();
+    }
+
+    @Override
+    public int getLastEventBatch() {
+        return this.lastEventBatch;
+    }
+
+    @Override
+    public int getMaxEventBatch() {
+        return this.maxEventBatch;
+    }
+
+    @Override
+    public long getEventsShed() {
+        return this.eventsShed.get();
+    }
+
+    @Override
+    public long getEventQueueOverflows() {
+        return this.eventQueueOverflows.get();
+    }
+
+    @Override
+    public long getFlowModsSent() {
+        return this.flowModsSent.get();
+    }
+
+    @Override
+    public long getFlowModsRemoved() {
+        return this.flowModsRemoved.get();
+    }
+
+    @Override
+    public int getLastRecomputeFlowModsSent() {
+        return this.lastFlowModsSent;
+    }
+
+    @Override
+    public int getLastRecomputeFlowModsRemoved() {
+        return this.lastFlowModsRemoved;
+    }
+
+    @Override
+    public long getRuleInstallFailures() {
+        return this.ruleInstallFailures.get();
+    }
+
+    @Override
+    public long getReconciliations() {
+        return this.reconciliations.get();
+    }
+
+    @Override
+    public long getReconciliationRepairs() {
+        return this.reconciliationRepairs.get();
+    }
+
+    @Override
+    public long getFlowRequests() {
+        return this.flowRequests.get();
+    }
+
+    @Override
+    public long getFlowsExpired() {
+        return this.flowsExpired.get();
+    }
+
+    @Override
+    public long getFlowCacheEvictions() {
+        return this.flowCacheEvictions.get();
+    }
+
+    @Override
+    public long getDestinationsRerouted() {
+        return this.destinationsRerouted.get();
+    }
+
+    @Override
+    public long getDestinationsRestored() {
+        return this.destinationsRestored.get();
+    }
+
+    @Override
+    public int getDestinationsSteered() {
+        return this.destinationsSteered;
+    }
+
+    @Override
+    public long getUpdateWaits() {
+        return this.updateWaits.get();
+    }
+
+    @Override
+    public long getUpdateWaitMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(this.updateWaitNanos.get());
+    }
+
+    @Override
+    public long getUpdateWaitTimeouts() {
+        return this.updateWaitTimeouts.get();
+    }
+
+    @Override
+    public int getSwitchCount() {
+        return this.switchCount;
+    }
+
+    @Override
+    public int getLinkCount() {
+        return this.linkCount;
+    }
+
+    @Override
+    public int getHostCount() {
+        return this.hostCount;
+    }
+
+    @Override
+    public int getInstalledRuleCount() {
+        return this.installedRuleCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("recompute p50=%dus p99=%dus max=%dus (%d), event lag p99=%dus, "
+                        + "flow-mods %d sent %d removed (last %d/%d), %d failures, "
+                        + "%d switches %d links %d hosts %d rules",
+                getRecomputeP50Micros(), getRecomputeP99Micros(), getRecomputeMaxMicros(), getRecomputeCount(),
+                getEventLagP99Micros(), getFlowModsSent(), getFlowModsRemoved(), this.lastFlowModsSent,
+                this.lastFlowModsRemoved, getRuleInstallFailures(), this.switchCount, this.linkCount,
+                this.hostCount, this.installedRuleCount);
+    }
+}
@@ -0,0 +1,75 @@
+package edu.brown.cs.sdn.apps.sps;
+
+/**
+ * JMX view of {@link RoutingMetrics}. Durations are in microseconds.
+ */
+public interface RoutingMetricsMBean {
+
+    long getRecomputeCount();
+
+    long getRecomputeMeanMicros();
+
+    long getRecomputeP50Micros();
+
+    long getRecomputeP99Micros();
+
+    long getRecomputeMaxMicros();
+
+    long getEventLagP50Micros();
+
+    long getEventLagP99Micros();
+
+    long getEventLagMaxMicros();
+
+    long getEventsSubmitted();
+
+    long getEventsCoalesced();
+
+    int getLastEventBatch();
+
+    int getMaxEventBatch();
+
+    long getEventsShed();
+
+    long getEventQueueOverflows();
+
+    long getFlowModsSent();
+
+    long getFlowModsRemoved();
+
+    int getLastRecomputeFlowModsSent();
+
+    int getLastRecomputeFlowModsRemoved();
+
+    long getRuleInstallFailures();
+
+    long getReconciliations();
+
+    long getReconciliationRepairs();
+
+    long getFlowRequests();
+
+    long getFlowsExpired();
+
+    long getFlowCacheEvictions();
+
+    long getDestinationsRerouted();
+
+    long getDestinationsRestored();
+
+    int getDestinationsSteered();
+
+    long getUpdateWaits();
+
+    long getUpdateWaitMicros();
+
+    long getUpdateWaitTimeouts();
+
+    int getSwitchCount();
+
+    int getLinkCount();
+
+    int getHostCount();
+
+    int getInstalledRuleCount();
+}
@@ -0,0 +1,256 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays a trace of network events through the routing core in-process, as
+ * fast as it can, against a {@link SimulatedNetwork} and a
+ * {@link CountingRuleSink}. Events are grouped into recomputes the way the
+ * module's {@link EventCoalescer} would group them at the trace's own
+ * timing, so the counts match what the module would have sent, while the
+ * time taken is only the routing work.
+ *
+ * Usage: RoutingSimulator trace [name=value ...]
+ *
+ * The options are the module's: pathEngine, pathThreads, multipath,
+ * fastFailover, routingMode, recomputeQuietMs, recomputeMaxDelayMs, linkCost (unit or
+ * static), linkCosts, flowIdleTimeout, flowHardTimeout, flowCacheSize,
+ * eventQueueSize, congestionPollMs (only whether it is 0), congestionHighWater,
+ * congestionLowWater, congestionMaxMoves, congestionHoldMs and
+ * consistentUpdates. In
+ * reactive mode rules are installed for the trace's FLOW_REQUESTED events,
+ * which are flushed straight away as the module does; rules never time out.
+ * The trace's PORT_COUNTERS events are sampled at the trace's own timing,
+ * but hold times run on the wall clock, so a destination moved off a
+ * congested link is only moved back within a replay if the hold is short.
+ */
+public final class RoutingSimulator {
+    private final SimulatedNetwork network = new SimulatedNetwork();
+    private final CountingRuleSink sink = new CountingRuleSink(this.network);
+    private final RoutingCore core;
+    private final long quietMillis;
+    private final long maxDelayMillis;
+
+    // Longest single recompute, the time to converge after its burst of events
+    private long maxRecomputeNanos;
+    private long totalRecomputeNanos;
+    private int events;
+
+    /**
+     * @param routeComputer computes the shortest path trees
+     * @param linkCosts cost of each link
+     * @param multipath whether to hash traffic over all equal-cost next hops
+     * @param fastFailover whether to back single next hops with an alternate port
+     * @param aggregated whether transit switches forward on switch labels
+     * @param flowCache host rules to install on demand in reactive mode, or null
+     * @param eventQueueSize most events held between recomputes
+     * @param rerouter moves destinations off congested links, or null
+     * @param consistentUpdates whether to send installs in rounds that wait
+     *                          for the switches to apply the one before
+     * @param quietMillis events closer together than this are one recompute
+     * @param maxDelayMillis longest a burst can put off its recompute
+     */
+    public RoutingSimulator(RouteComputer routeComputer, LinkCostProvider linkCosts, boolean multipath,
+                            boolean fastFailover, boolean aggregated, FlowCache flowCache, int eventQueueSize,
+                            CongestionRerouter rerouter, boolean consistentUpdates, long quietMillis,
+                            long maxDelayMillis) {
+        this.core = new RoutingCore(this.network, this.sink, routeComputer, linkCosts, (short) 1,
+                multipath, fastFailover, aggregated, flowCache, eventQueueSize, rerouter, consistentUpdates, null);
+        this.quietMillis = quietMillis;
+        this.maxDelayMillis = Math.max(maxDelayMillis, quietMillis);
+    }
+
+    public RoutingCore getCore() {
+        return this.core;
+    }
+
+    public CountingRuleSink getSink() {
+        return this.sink;
+    }
+
+    public SimulatedNetwork getNetwork() {
+        return this.network;
+    }
+
+    /**
+     * Apply one event to the network and record it with the core, without
+     * recomputing.
+     */
+    public void apply(TraceEvent event) {
+        this.events++;
+        switch (event.getType()) {
+            case SWITCH_ADDED:
+                this.network.addSwitch(event.getDpid());
+                this.core.switchAdded(event.getDpid());
+                break;
+            case SWITCH_REMOVED:
+                this.network.removeSwitch(event.getDpid());
+                this.core.switchRemoved(event.getDpid());
+                break;
+            case LINK_UPDATED:
+                this.network.updateLink(event.getLink());
+                this.core.topologyChanged();
+                break;
+            case LINK_REMOVED:
+                this.network.removeLink(event.getLink());
+                this.core.topologyChanged();
+                break;
+            case HOST_UPDATED:
+                this.network.attachHost(new HostAttachment(event.getMac(), event.getDpid(), event.getPort(),
+                        event.getIPv4Address()));
+                this.core.hostChanged(event.getMac());
+                break;
+            case HOST_REMOVED:
+                this.network.detachHost(event.getMac());
+                this.core.hostChanged(event.getMac());
+                break;
+            case FLOW_REQUESTED:
+                this.core.flowRequested(event.getDpid(), event.getMac());
+                break;
+            case PORT_COUNTERS:
+                if (this.core.getRerouter() != null) {
+                    this.core.getRerouter().getLoads().recordPortCounters(event.getDpid(), event.getPort(),
+                            event.getTransmitBytes(), event.getSpeedBps(), event.getTimeMillis() * 1000000L);
+                    this.core.linkLoadsUpdated();
+                }
+                break;
+        }
+    }
+
+    /**
+     * Recompute with everything applied so far.
+     *
+     * @param lagMillis how long, in trace time, the first event waited
+     */
+    public void recompute(long lagMillis) {
+        long start = System.nanoTime();
+        this.core.processPendingEvents(lagMillis * 1000000L);
+        long elapsed = System.nanoTime() - start;
+        this.totalRecomputeNanos += elapsed;
+        this.maxRecomputeNanos = Math.max(this.maxRecomputeNanos, elapsed);
+    }
+
+    /**
+     * Replay a trace, recomputing once per burst of events.
+     */
+    public void replay(List<TraceEvent> trace) {
+        long burstStart = 0;
+        long fireAt = 0;
+        boolean pending = false;
+        for (TraceEvent event : trace) {
+            long now = event.getTimeMillis();
+            if (pending && now >= fireAt) {
+                recompute(fireAt - burstStart);
+                pending = false;
+            }
+            if (!pending) {
+                burstStart = now;
+                fireAt = now + this.quietMillis;
+                pending = true;
+            } else {
+                fireAt = Math.min(now + this.quietMillis, burstStart + this.maxDelayMillis);
+            }
+            apply(event);
+            // Traffic is held up until its rules are in, so it is not coalesced
+            if (event.getType() == TraceEvent.Type.FLOW_REQUESTED) {
+                fireAt = now;
+            }
+        }
+        if (pending) {
+            recompute(fireAt - burstStart);
+        }
+    }
+
+    @Override
+    public String toString() {
+        RoutingMetrics metrics = this.core.getMetrics();
+        LatencyHistogram durations = metrics.getRecomputeDuration();
+        return String.format("%d events in %d recomputes, %.1f ms routing in total; recompute p50 %d us, "
+                        + "p99 %d us, max %d us; %s; %d rules installed at the end",
+                this.events, durations.getCount(), this.totalRecomputeNanos / 1e6,
+                durations.getPercentileMicros(50), durations.getPercentileMicros(99),
+                this.maxRecomputeNanos / 1000, this.sink, this.core.getInstalledRuleCount());
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: RoutingSimulator trace [name=value ...]");
+            System.exit(2);
+        }
+        Map<String, String> config = new HashMap<String, String>();
+        for (int i = 1; i < args.length; i++) {
+            int split = args[i].indexOf('=');
+            if (split < 0) {
+                throw new IllegalArgumentException("Expected name=value: " + args[i]);
+            }
+            config.put(args[i].substring(0, split), args[i].substring(split + 1));
+        }
+
+        int pathThreads = config.containsKey("pathThreads")
+                ? Integer.parseInt(config.get("pathThreads"))
+                : Runtime.getRuntime().availableProcessors();
+        boolean multipath = !config.containsKey("multipath") || Boolean.parseBoolean(config.get("multipath"));
+        boolean fastFailover = !config.containsKey("fastFailover")
+                || Boolean.parseBoolean(config.get("fastFailover"));
+        String routingMode = config.containsKey("routingMode") ? config.get("routingMode") : "host";
+        if (!"host".equals(routingMode) && !"aggregated".equals(routingMode) && !"reactive".equals(routingMode)) {
+            throw new IllegalArgumentException("Unknown routing mode: " + routingMode);
+        }
+        FlowCache flowCache = null;
+        if ("reactive".equals(routingMode)) {
+            short idleTimeout = config.containsKey("flowIdleTimeout")
+                    ? Short.parseShort(config.get("flowIdleTimeout")) : 10;
+            short hardTimeout = config.containsKey("flowHardTimeout")
+                    ? Short.parseShort(config.get("flowHardTimeout")) : 300;
+            int flowCacheSize = config.containsKey("flowCacheSize")
+                    ? Integer.parseInt(config.get("flowCacheSize")) : 100000;
+            flowCache = new FlowCache(flowCacheSize, idleTimeout, hardTimeout);
+        }
+        int eventQueueSize = config.containsKey("eventQueueSize")
+                ? Integer.parseInt(config.get("eventQueueSize")) : 65536;
+        CongestionRerouter rerouter = null;
+        if (!config.containsKey("congestionPollMs") || Long.parseLong(config.get("congestionPollMs")) > 0) {
+            double highWater = config.containsKey("congestionHighWater")
+                    ? Double.parseDouble(config.get("congestionHighWater")) : 0.8;
+            double lowWater = config.containsKey("congestionLowWater")
+                    ? Double.parseDouble(config.get("congestionLowWater")) : 0.5;
+            int maxMoves = config.containsKey("congestionMaxMoves")
+                    ? Integer.parseInt(config.get("congestionMaxMoves")) : 4;
+            long holdMillis = config.containsKey("congestionHoldMs")
+                    ? Long.parseLong(config.get("congestionHoldMs")) : 60000;
+            rerouter = new CongestionRerouter(new LinkUtilization(), highWater, lowWater, maxMoves, holdMillis,
+                    multipath);
+        }
+        boolean consistentUpdates = !config.containsKey("consistentUpdates")
+                || Boolean.parseBoolean(config.get("consistentUpdates"));
+        String linkCost = config.containsKey("linkCost") ? config.get("linkCost") : "unit";
+        LinkCostProvider linkCosts;
+        if ("unit".equalsIgnoreCase(linkCost)) {
+            linkCosts = new UnitLinkCostProvider();
+        } else if ("static".equalsIgnoreCase(linkCost)) {
+            linkCosts = new StaticLinkCostProvider(config.get("linkCosts"), 1);
+        } else {
+            throw new IllegalArgumentException("The simulator only supports unit and static link costs");
+        }
+        long quietMillis = config.containsKey("recomputeQuietMs")
+                ? Long.parseLong(config.get("recomputeQuietMs")) : 50;
+        long maxDelayMillis = config.containsKey("recomputeMaxDelayMs")
+                ? Long.parseLong(config.get("recomputeMaxDelayMs")) : 500;
+
+        List<TraceEvent> trace;
+        try (Reader reader = new FileReader(args[0])) {
+            trace = TraceEvent.read(reader);
+        }
+        RoutingSimulator simulator = new RoutingSimulator(
+                new RouteComputer(PathEngine.forName(config.get("pathEngine")), pathThreads, multipath || fastFailover),
+                linkCosts, multipath, fastFailover, "aggregated".equals(routingMode), flowCache, eventQueueSize,
+                rerouter, consistentUpdates, quietMillis, maxDelayMillis);
+        simulator.replay(trace);
+        System.out.println(simulator);
+    }
+}
@@ -0,0 +1,169 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Immutable view of the routing state as of one recompute: the topology,
+ * the shortest path trees over it, and where every host was attached. A new
+ * snapshot is published after every recompute, and readers query whichever
+ * snapshot they picked up without any locking, so every answer they get is
+ * consistent with a single state of the network.
+ *
+ * Trees are only kept for switches with hosts attached. A query towards
+ * any other switch computes its tree on first use and keeps it for the
+ * life of the snapshot.
+ */
+public final class RoutingSnapshot {
+    // Returned by the queries when there is no route
+    public static final int NO_ROUTE = -1;
+
+    static final RoutingSnapshot EMPTY = new RoutingSnapshot(0,
+            new ShortestPathTrees(TopologyIndex.builder().build(), new ShortestPathTree[0]),
+            new HostRegistry(), null);
+
+    private final long version;
+    private final ShortestPathTrees trees;
+    private final HostRegistry hosts;
+    private final RouteComputer routeComputer;
+
+    // Trees computed on demand for switches without one, by switch index
+    private final ConcurrentMap<Integer, ShortestPathTree> extraTrees =
+            new ConcurrentHashMap<Integer, ShortestPathTree>();
+
+    /**
+     * @param hosts where every host was attached; never changed afterwards
+     * @param routeComputer computes the trees missing from trees when asked for
+     */
+    RoutingSnapshot(long version, ShortestPathTrees trees, HostRegistry hosts, RouteComputer routeComputer) {
+        this.version = version;
+        this.trees = trees;
+        this.hosts = hosts;
+        this.routeComputer = routeComputer;
+    }
+
+    /**
+     * Get the sequence number of this snapshot; later snapshots have larger ones.
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    public TopologyIndex getTopology() {
+        return this.trees.getTopology();
+    }
+
+    public ShortestPathTrees getTrees() {
+        return this.trees;
+    }
+
+    /**
+     * Get where a host is attached, or null if it is unknown or detached.
+     */
+    public HostAttachment getHost(long mac) {
+        return this.hosts.get(mac);
+    }
+
+    public Collection<HostAttachment> getHosts() {
+        return Collections.unmodifiableList(this.hosts.getAttachments());
+    }
+
+    /**
+     * Get the port a switch sends traffic for another switch out of, or
+     * {@link #NO_ROUTE}.
+     */
+    public int getNextHopPort(long srcDpid, long dstDpid) {
+        TopologyIndex topology = getTopology();
+        int src = topology.indexOf(srcDpid);
+        int dst = topology.indexOf(dstDpid);
+        if (src == TopologyIndex.NONE || dst == TopologyIndex.NONE) {
+            return NO_ROUTE;
+        }
+        ShortestPathTree tree = getTreeTo(dst);
+        int port = tree == null ? TopologyIndex.NONE : tree.nextHopPort(topology, src);
+        return port == TopologyIndex.NONE ? NO_ROUTE : port;
+    }
+
+    /**
+     * Get the port a switch sends traffic for a host out of, or
+     * {@link #NO_ROUTE}.
+     */
+    public int getNextHopPortToHost(long srcDpid, long mac) {
+        int slot = this.hosts.slotOf(mac);
+        if (slot == HostRegistry.NONE) {
+            return NO_ROUTE;
+        }
+        if (this.hosts.getDpid(slot) == srcDpid) {
+            return this.hosts.getPort(slot);
+        }
+        return getNextHopPort(srcDpid, this.hosts.getDpid(slot));
+    }
+
+    /**
+     * Get the cost of the path traffic between two switches takes, the
+     * shortest unless it is steered around congestion, or {@link #NO_ROUTE}.
+     */
+    public int getDistance(long srcDpid, long dstDpid) {
+        TopologyIndex topology = getTopology();
+        int src = topology.indexOf(srcDpid);
+        ShortestPathTree tree = getTreeTo(topology.indexOf(dstDpid));
+        if (src == TopologyIndex.NONE || tree == null || !tree.isReachable(src)) {
+            return NO_ROUTE;
+        }
+        TopologyIndex costs = tree.getCosts(topology);
+        if (costs == topology) {
+            return tree.distance(src);
+        }
+        // A tree steered around congestion has its own costs; add up the real ones
+        int distance = 0;
+        for (int current = src; tree.nextHop(current) != TopologyIndex.NONE; current = tree.nextHop(current)) {
+            distance += topology.edgeCost(costs.findEdge(current, tree.nextHop(current)));
+        }
+        return distance;
+    }
+
+    /**
+     * Get the DPIDs of the switches on the path traffic between two switches
+     * takes, both ends included, or null if there is no route.
+     */
+    public long[] getPath(long srcDpid, long dstDpid) {
+        TopologyIndex topology = getTopology();
+        int src = topology.indexOf(srcDpid);
+        ShortestPathTree tree = getTreeTo(topology.indexOf(dstDpid));
+        if (src == TopologyIndex.NONE || tree == null || !tree.isReachable(src)) {
+            return null;
+        }
+        long[] path = new long[8];
+        int length = 0;
+        for (int current = src; current != TopologyIndex.NONE; current = tree.nextHop(current)) {
+            if (length == path.length) {
+                path = Arrays.copyOf(path, length * 2);
+            }
+            path[length++] = topology.dpid(current);
+        }
+        return Arrays.copyOf(path, length);
+    }
+
+    /**
+     * Get the tree rooted at a switch index, computing it if the switch has
+     * no hosts, or null if the switch is not in the topology.
+     */
+    private ShortestPathTree getTreeTo(int dst) {
+        ShortestPathTree tree = this.trees.getTree(dst);
+        if (tree != null || dst == TopologyIndex.NONE || this.routeComputer == null) {
+            return tree;
+        }
+        tree = this.extraTrees.get(dst);
+        if (tree == null) {
+            tree = this.routeComputer.computeTree(getTopology(), dst);
+            ShortestPathTree raced = this.extraTrees.putIfAbsent(dst, tree);
+            if (raced != null) {
+                tree = raced;
+            }
+        }
+        return tree;
+    }
+}
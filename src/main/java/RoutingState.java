@@ -0,0 +1,242 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the routing core knew about the network and had installed on it, as
+ * saved to disk so that a restarted controller can pick up where it left
+ * off: the switches and links of the topology, where each host was
+ * attached, the MPLS label of each switch, and the groups and rules in the
+ * shadow tables.
+ *
+ * The file is a versioned binary layout, written to a temporary file and
+ * moved into place so a crash never leaves a half-written state behind:
+ *
+ *     int magic, int version, long saved-at millis
+ *     int n, n x long dpid                                      switches
+ *     int n, n x (long src, int port, long dst, int port)       links
+ *     int n, n x (long mac, long dpid, int port, int ipv4)      hosts
+ *     int n, n x (long dpid, int label)                         labels
+ *     int n, n x (long dpid, int id, byte type, int k, k x int port)   groups
+ *     int n, n x (long dpid, short eth type, long eth dst, int label,
+ *                 short priority, int port, int group, int push, boolean pop)   rules
+ */
+public final class RoutingState {
+    private static final int MAGIC = 0x53505352;
+    private static final int VERSION = 1;
+
+    private final long savedAtMillis;
+    private final List<Long> switches;
+    private final List<SwitchLink> links;
+    private final List<HostAttachment> hosts;
+    private final Map<Long, Integer> labels;
+    private final List<GroupEntry> groups;
+    private final List<FlowRule> rules;
+
+    public RoutingState(long savedAtMillis, List<Long> switches, List<SwitchLink> links,
+                        List<HostAttachment> hosts, Map<Long, Integer> labels, List<GroupEntry> groups,
+                        List<FlowRule> rules) {
+        this.savedAtMillis = savedAtMillis;
+        this.switches = Collections.unmodifiableList(switches);
+        this.links = Collections.unmodifiableList(links);
+        this.hosts = Collections.unmodifiableList(hosts);
+        this.labels = Collections.unmodifiableMap(labels);
+        this.groups = Collections.unmodifiableList(groups);
+        this.rules = Collections.unmodifiableList(rules);
+    }
+
+    public long getSavedAtMillis() {
+        return this.savedAtMillis;
+    }
+
+    public List<Long> getSwitches() {
+        return this.switches;
+    }
+
+    public List<SwitchLink> getLinks() {
+        return this.links;
+    }
+
+    public List<HostAttachment> getHosts() {
+        return this.hosts;
+    }
+
+    /**
+     * Get the MPLS label of each switch that had one, by DPID.
+     */
+    public Map<Long, Integer> getLabels() {
+        return this.labels;
+    }
+
+    /**
+     * Get every group that was installed.
+     */
+    public List<GroupEntry> getGroups() {
+        return this.groups;
+    }
+
+    /**
+     * Get every rule that was installed.
+     */
+    public List<FlowRule> getRules() {
+        return this.rules;
+    }
+
+    /**
+     * Write the state to a file, replacing it in one step.
+     */
+    public void save(Path path) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            write(out);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a state saved by {@link #save}.
+     *
+     * @throws IOException if the file cannot be read, is not a routing state,
+     *                     or was written by an unknown version
+     */
+    public static RoutingState load(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            return read(in);
+        }
+    }
+
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(this.savedAtMillis);
+
+        out.writeInt(this.switches.size());
+        for (long dpid : this.switches) {
+            out.writeLong(dpid);
+        }
+        out.writeInt(this.links.size());
+        for (SwitchLink link : this.links) {
+            out.writeLong(link.getSrc());
+            out.writeInt(link.getSrcPort());
+            out.writeLong(link.getDst());
+            out.writeInt(link.getDstPort());
+        }
+        out.writeInt(this.hosts.size());
+        for (HostAttachment host : this.hosts) {
+            out.writeLong(host.getMac());
+            out.writeLong(host.getDpid());
+            out.writeInt(host.getPort());
+            out.writeInt(host.getIPv4Address());
+        }
+        out.writeInt(this.labels.size());
+        for (Map.Entry<Long, Integer> label : this.labels.entrySet()) {
+            out.writeLong(label.getKey());
+            out.writeInt(label.getValue());
+        }
+        out.writeInt(this.groups.size());
+        for (GroupEntry group : this.groups) {
+            out.writeLong(group.getDpid());
+            out.writeInt(group.getGroupId());
+            out.writeByte(group.getType().ordinal());
+            int[] ports = group.getPorts();
+            out.writeInt(ports.length);
+            for (int port : ports) {
+                out.writeInt(port);
+            }
+        }
+        out.writeInt(this.rules.size());
+        for (FlowRule rule : this.rules) {
+            FlowMatch match = rule.getMatch();
+            out.writeLong(rule.getDpid());
+            out.writeShort(match.getEthType());
+            out.writeLong(match.getEthDst());
+            out.writeInt(match.getMplsLabel());
+            out.writeShort(rule.getPriority());
+            out.writeInt(rule.getOutPort());
+            out.writeInt(rule.getGroupId());
+            out.writeInt(rule.getPushLabel());
+            out.writeBoolean(rule.isPopLabel());
+        }
+        out.flush();
+    }
+
+    public static RoutingState read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a routing state file");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported routing state version " + version);
+        }
+        long savedAtMillis = in.readLong();
+
+        int count = in.readInt();
+        List<Long> switches = new ArrayList<Long>(count);
+        for (int i = 0; i < count; i++) {
+            switches.add(in.readLong());
+        }
+        count = in.readInt();
+        List<SwitchLink> links = new ArrayList<SwitchLink>(count);
+        for (int i = 0; i < count; i++) {
+            links.add(new SwitchLink(in.readLong(), in.readInt(), in.readLong(), in.readInt()));
+        }
+        count = in.readInt();
+        List<HostAttachment> hosts = new ArrayList<HostAttachment>(count);
+        for (int i = 0; i < count; i++) {
+            hosts.add(new HostAttachment(in.readLong(), in.readLong(), in.readInt(), in.readInt()));
+        }
+        count = in.readInt();
+        Map<Long, Integer> labels = new HashMap<Long, Integer>();
+        for (int i = 0; i < count; i++) {
+            labels.put(in.readLong(), in.readInt());
+        }
+        count = in.readInt();
+        GroupEntry.Type[] types = GroupEntry.Type.values();
+        List<GroupEntry> groups = new ArrayList<GroupEntry>(count);
+        for (int i = 0; i < count; i++) {
+            long dpid = in.readLong();
+            int groupId = in.readInt();
+            int type = in.readByte();
+            if (type < 0 || type >= types.length) {
+                throw new IOException("Unknown group type " + type);
+            }
+            int[] ports = new int[in.readInt()];
+            for (int p = 0; p < ports.length; p++) {
+                ports[p] = in.readInt();
+            }
+            groups.add(new GroupEntry(dpid, groupId, types[type], ports));
+        }
+        count = in.readInt();
+        List<FlowRule> rules = new ArrayList<FlowRule>(count);
+        for (int i = 0; i < count; i++) {
+            long dpid = in.readLong();
+            short ethType = in.readShort();
+            long ethDst = in.readLong();
+            int label = in.readInt();
+            FlowMatch match = FlowMatch.fromFields(ethType, ethDst, label);
+            if (match == null) {
+                throw new IOException(String.format("Unknown match eth_type=0x%04x,eth_dst=%x,label=%d",
+                        ethType, ethDst, label));
+            }
+            rules.add(new FlowRule(dpid, match, in.readShort(), in.readInt(), in.readInt(), in.readInt(),
+                    in.readBoolean()));
+        }
+        return new RoutingState(savedAtMillis, switches, links, hosts, labels, groups, rules);
+    }
+}
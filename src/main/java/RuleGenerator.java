@@ -0,0 +1,305 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Works out the rules every switch should hold for one routing state, the
+ * shortest path trees plus where each host is attached, and declares them
+ * to a {@link FlowRuleDiff}. It does not talk to switches, so it can be run
+ * and measured without a controller.
+ *
+ * In host mode every switch holds one rule per host. In aggregated mode only
+ * the host's own switch and switches with hosts of their own hold rules for
+ * the host: the latter tag its traffic with the MPLS label of its switch,
+ * and every switch forwards labelled traffic with one rule per destination
+ * switch.
+ *
+ * With fast failover, a rule whose traffic has a single next hop hands it to
+ * a fast-failover group that falls back to a downstream alternate port, so
+ * the switch reroutes around a failed link by itself until the controller
+ * has recomputed.
+ *
+ * In reactive mode a switch only holds the host rules in the
+ * {@link FlowCache}, those of flows that have crossed it, and they carry the
+ * cache's timeouts.
+ */
+public final class RuleGenerator {
+    private final ShortestPathTrees trees;
+    private final TopologyIndex topology;
+    private final HostRegistry hosts;
+    private final GroupTableShadow groups;
+    private final SwitchLabels labels;
+    private final short priority;
+
+    // Priority of the rules that pop the label off traffic for a local host,
+    // above the label rules so stale labels still reach the host
+    private final short labelledDeliveryPriority;
+    private final boolean multipath;
+    private final boolean fastFailover;
+    private final boolean aggregated;
+
+    // Host rules installed on demand, or null to install every host rule
+    private final FlowCache flows;
+    private final short idleTimeout;
+    private final short hardTimeout;
+
+    /**
+     * @param trees shortest path trees to route over
+     * @param hosts where each host is attached
+     * @param groups where select and fast-failover groups are allocated
+     * @param labels MPLS labels of destination switches, for aggregated mode
+     * @param priority priority of routing rules
+     * @param multipath whether to hash over all equal-cost next hops
+     * @param fastFailover whether to back single next hops with an alternate port
+     * @param aggregated whether transit switches forward on switch labels
+     * @param flows host rules to hold in reactive mode, or null to hold all
+     */
+    public RuleGenerator(ShortestPathTrees trees, HostRegistry hosts, GroupTableShadow groups,
+                         SwitchLabels labels, short priority, boolean multipath, boolean fastFailover,
+                         boolean aggregated, FlowCache flows) {
+        this.trees = trees;
+        this.topology = trees.getTopology();
+        this.hosts = hosts;
+        this.groups = groups;
+        this.labels = labels;
+        this.priority = priority;
+        this.labelledDeliveryPriority = (short) (priority + 1);
+        this.multipath = multipath;
+        this.fastFailover = fastFailover;
+        this.aggregated = aggregated;
+        this.flows = flows;
+        this.idleTimeout = flows == null ? FlowRule.NO_TIMEOUT : flows.getIdleTimeout();
+        this.hardTimeout = flows == null ? FlowRule.NO_TIMEOUT : flows.getHardTimeout();
+    }
+
+    /**
+     * Declares the complete set of rules every switch should hold.
+     */
+    public void expectAllSwitches(FlowRuleDiff diff) {
+        ShortestPathTree[] hostTrees = getHostTrees();
+        for (int index = 0; index < this.topology.size(); index++) {
+            expectSwitchRules(diff, index, hostTrees);
+        }
+    }
+
+    /**
+     * Declares the complete set of rules the switch with the given topology
+     * index should hold.
+     */
+    public void expectSwitch(FlowRuleDiff diff, int index) {
+        expectSwitchRules(diff, index, getHostTrees());
+    }
+
+    /**
+     * Declares the rules for traffic to one host on every switch. A host
+     * that is no longer attached has its rules removed.
+     */
+    public void expectHost(FlowRuleDiff diff, long mac) {
+        int slot = this.hosts.slotOf(mac);
+        ShortestPathTree tree = slot == HostRegistry.NONE
+                ? null : this.trees.getTreeForSwitch(this.hosts.getDpid(slot));
+        FlowMatch match = slot == HostRegistry.NONE ? FlowMatch.forHost(mac) : this.hosts.getHostMatch(slot);
+        FlowMatch labelled = slot == HostRegistry.NONE
+                ? FlowMatch.forLabelledHost(mac) : this.hosts.getLabelledMatch(slot);
+        for (int index = 0; index < this.topology.size(); index++) {
+            long dpid = this.topology.dpid(index);
+            boolean routed = tree != null;
+            diff.expect(dpid, match, routed ? getHostRule(slot, tree, index) : null);
+            if (this.aggregated) {
+                diff.expect(dpid, labelled, routed ? getLabelledDeliveryRule(slot, tree, index) : null);
+            }
+        }
+    }
+
+    /**
+     * Declares the rule one switch should hold for traffic to one host, as
+     * when a flow to the host starts or stops crossing it in reactive mode.
+     */
+    public void expectHostAtSwitch(FlowRuleDiff diff, long dpid, long mac) {
+        int index = this.topology.indexOf(dpid);
+        if (index == TopologyIndex.NONE) {
+            return;
+        }
+        int slot = this.hosts.slotOf(mac);
+        if (slot == HostRegistry.NONE) {
+            diff.expect(dpid, FlowMatch.forHost(mac), null);
+            return;
+        }
+        ShortestPathTree tree = this.trees.getTreeForSwitch(this.hosts.getDpid(slot));
+        diff.expect(dpid, this.hosts.getHostMatch(slot), tree == null ? null : getHostRule(slot, tree, index));
+    }
+
+    /**
+     * Declares only the rules for changed routes: for each changed (switch,
+     * destination switch) pair, the rule on that switch for every host
+     * attached to the destination, and its label rule in aggregated mode.
+     * The destination's own rules delivering to its hosts are declared too,
+     * so a switch that just became a destination gets them in the same
+     * update as the routes that lead to it.
+     */
+    public void expectChangedRoutes(FlowRuleDiff diff, DpidPairList changedRoutes) {
+        LongIntHashMap destinations = new LongIntHashMap();
+        for (int i = 0; i < changedRoutes.size(); i++) {
+            long dpid = changedRoutes.getSource(i);
+            long destination = changedRoutes.getDestination(i);
+            ShortestPathTree tree = this.trees.getTreeForSwitch(destination);
+            if (destinations.put(destination, 0) == LongIntHashMap.MISSING && tree != null) {
+                expectDeliveryRules(diff, destination, tree);
+            }
+            int index = this.topology.indexOf(dpid);
+            if (this.aggregated) {
+                int label = this.labels.labelFor(destination);
+                diff.expect(dpid, FlowMatch.forSwitchLabel(label), getLabelRule(tree, index));
+            }
+            for (int slot = this.hosts.firstAtSwitch(destination); slot != HostRegistry.NONE;
+                 slot = this.hosts.nextAtSwitch(slot)) {
+                diff.expect(dpid, this.hosts.getHostMatch(slot), tree == null ? null : getHostRule(slot, tree, index));
+                if (this.aggregated) {
+                    diff.expect(dpid, this.hosts.getLabelledMatch(slot),
+                            tree == null ? null : getLabelledDeliveryRule(slot, tree, index));
+                }
+            }
+        }
+    }
+
+    /**
+     * Declares the rules a destination switch holds for its own hosts.
+     */
+    private void expectDeliveryRules(FlowRuleDiff diff, long dpid, ShortestPathTree tree) {
+        int root = tree.getRoot();
+        for (int slot = this.hosts.firstAtSwitch(dpid); slot != HostRegistry.NONE;
+             slot = this.hosts.nextAtSwitch(slot)) {
+            diff.expect(dpid, this.hosts.getHostMatch(slot), getHostRule(slot, tree, root));
+            if (this.aggregated) {
+                diff.expect(dpid, this.hosts.getLabelledMatch(slot), getLabelledDeliveryRule(slot, tree, root));
+            }
+        }
+    }
+
+    /**
+     * Gets the shortest path tree rooted at each host's switch, by host slot;
+     * null for hosts whose switch is not in the topology.
+     */
+    private ShortestPathTree[] getHostTrees() {
+        ShortestPathTree[] hostTrees = new ShortestPathTree[this.hosts.size()];
+        for (int slot = 0; slot < hostTrees.length; slot++) {
+            hostTrees[slot] = this.trees.getTreeForSwitch(this.hosts.getDpid(slot));
+        }
+        return hostTrees;
+    }
+
+    private void expectSwitchRules(FlowRuleDiff diff, int index, ShortestPathTree[] hostTrees) {
+        Map<FlowMatch, FlowRule> desired = new HashMap<FlowMatch, FlowRule>();
+        for (int slot = 0; slot < hostTrees.length; slot++) {
+            if (hostTrees[slot] == null) {
+                continue;
+            }
+            FlowRule rule = getHostRule(slot, hostTrees[slot], index);
+            if (rule != null) {
+                desired.put(rule.getMatch(), rule);
+            }
+            if (this.aggregated) {
+                FlowRule delivery = getLabelledDeliveryRule(slot, hostTrees[slot], index);
+                if (delivery != null) {
+                    desired.put(delivery.getMatch(), delivery);
+                }
+            }
+        }
+        if (this.aggregated) {
+            for (int root = 0; root < this.topology.size(); root++) {
+                FlowRule rule = getLabelRule(this.trees.getTree(root), index);
+                if (rule != null) {
+                    desired.put(rule.getMatch(), rule);
+                }
+            }
+        }
+        diff.expectSwitch(this.topology.dpid(index), desired);
+    }
+
+    /**
+     * Gets the rule the switch with the given topology index should hold for
+     * IPv4 traffic to the host in a slot, or null if it should hold none.
+     */
+    private FlowRule getHostRule(int slot, ShortestPathTree tree, int index) {
+        long dpid = this.topology.dpid(index);
+        if (this.flows != null && !this.flows.contains(dpid, this.hosts.getMac(slot))) {
+            return null;
+        }
+        FlowMatch match = this.hosts.getHostMatch(slot);
+
+        //if this is the switch our host is attached to, just send packet to the host
+        //else send packet to the next switch in our shortest path route
+        if (index == tree.getRoot()) {
+            return new FlowRule(dpid, match, this.priority, this.hosts.getPort(slot), FlowRule.NO_GROUP,
+                    FlowMatch.ANY_LABEL, false, this.idleTimeout, this.hardTimeout);
+        } else if (!this.aggregated) {
+            return getForwardingRule(tree, index, match, FlowMatch.ANY_LABEL);
+        } else if (this.hosts.hasHostsAtSwitch(dpid)) {
+            return getForwardingRule(tree, index, match, this.labels.labelFor(this.topology.dpid(tree.getRoot())));
+        }
+        return null;
+    }
+
+    /**
+     * Gets the rule that pops the label off traffic for the host in a slot
+     * and delivers it, held only by the host's own switch in aggregated mode.
+     */
+    private FlowRule getLabelledDeliveryRule(int slot, ShortestPathTree tree, int index) {
+        if (index != tree.getRoot()) {
+            return null;
+        }
+        return new FlowRule(this.topology.dpid(index), this.hosts.getLabelledMatch(slot),
+                this.labelledDeliveryPriority, this.hosts.getPort(slot), FlowRule.NO_GROUP, FlowMatch.ANY_LABEL, true);
+    }
+
+    /**
+     * Gets the rule the switch with the given topology index should hold for
+     * traffic labelled for the root of a tree, or null if it should hold none.
+     */
+    private FlowRule getLabelRule(ShortestPathTree tree, int index) {
+        if (tree == null || index == tree.getRoot()) {
+            return null;
+        }
+        int label = this.labels.labelFor(this.topology.dpid(tree.getRoot()));
+        return getForwardingRule(tree, index, FlowMatch.forSwitchLabel(label), FlowMatch.ANY_LABEL);
+    }
+
+    /**
+     * Gets a rule that sends traffic from the switch with the given topology
+     * index on towards the root of a tree, or null if there is no route. In
+     * multipath mode a switch with several equal-cost next hops hands the
+     * traffic to a select group over all of them. With fast failover, a
+     * switch with one next hop and a downstream alternate hands it to a
+     * fast-failover group over the two.
+     *
+     * @param pushLabel label to tag the traffic with, or {@link FlowMatch#ANY_LABEL}
+     */
+    private FlowRule getForwardingRule(ShortestPathTree tree, int index, FlowMatch match, int pushLabel) {
+        int nextSwitch = tree.nextHop(index);
+        if (nextSwitch == TopologyIndex.NONE) {
+            return null;
+        }
+        long dpid = this.topology.dpid(index);
+        if (this.multipath) {
+            int[] ports = tree.equalCostPorts(this.topology, index);
+            if (ports.length > 1) {
+                GroupEntry group = this.groups.getOrAllocate(dpid, GroupEntry.Type.SELECT, ports);
+                return new FlowRule(dpid, match, this.priority, TopologyIndex.NONE, group.getGroupId(),
+                        pushLabel, false, this.idleTimeout, this.hardTimeout);
+            }
+        }
+        int port = tree.nextHopPort(this.topology, index);
+        if (this.fastFailover) {
+            int alternate = tree.downstreamAlternatePort(this.topology, index);
+            if (alternate != TopologyIndex.NONE) {
+                GroupEntry group = this.groups.getOrAllocate(dpid, GroupEntry.Type.FAST_FAILOVER,
+                        new int[] {port, alternate});
+                return new FlowRule(dpid, match, this.priority, TopologyIndex.NONE, group.getGroupId(),
+                        pushLabel, false, this.idleTimeout, this.hardTimeout);
+            }
+        }
+        return new FlowRule(dpid, match, this.priority, port, FlowRule.NO_GROUP, pushLabel, false,
+                this.idleTimeout, this.hardTimeout);
+    }
+}
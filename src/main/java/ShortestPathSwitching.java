@@ -1,17 +1,13 @@
 package edu.brown.cs.sdn.apps.sps;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 import edu.brown.cs.sdn.apps.util.SwitchCommands;
-import net.floodlightcontroller.packet.Ethernet;
-import org.openflow.protocol.OFMatch;
-import org.openflow.protocol.OFMatchField;
-import org.openflow.protocol.OFOXMFieldType;
-import org.openflow.protocol.action.OFAction;
-import org.openflow.protocol.action.OFActionOutput;
-import org.openflow.protocol.instruction.OFInstruction;
-import org.openflow.protocol.instruction.OFInstructionApplyActions;
+import org.openflow.protocol.OFType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,6 +25,7 @@ import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.devicemanager.IDevice;
 import net.floodlightcontroller.devicemanager.IDeviceListener;
 import net.floodlightcontroller.devicemanager.IDeviceService;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.UpdateOperation;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscoveryListener;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscoveryService;
 import net.floodlightcontroller.routing.Link;
@@ -52,11 +49,36 @@ public class ShortestPathSwitching implements IFloodlightModule, IOFSwitchListen
     // Switch table in which rules should be installed
     private byte table;
 
-    // Map of hosts to devices
-    private Map<IDevice, Host> knownHosts;
+    // Switches, links and where every known host is attached, as the core reads them
+    private FloodlightNetworkView networkView;
 
-    // Hash table containing the shortest Paths for each switch to every other switch in the network
-    public HashMap<IOFSwitch, HashMap<IOFSwitch, IOFSwitch>> shortestPaths;
+    // Routes, shadow tables and rule generation, with no Floodlight types
+    private RoutingCore routingCore;
+
+    // Folds bursts of events into a single recompute
+    private EventCoalescer recomputeScheduler;
+
+    // Writes flow-mods to switches in batches, off the recompute thread
+    private FlowModDispatcher flowModDispatcher;
+
+    // Records every event for replay in the simulator, or null
+    private TraceRecorder traceRecorder;
+
+    // Reads switch tables back so they can be reconciled, or null
+    private FlowTableReader tableReader;
+
+    // Reports flows and expired rules in reactive mode, or null
+    private ReactiveFlowListener reactiveListener;
+
+    // Samples port loads for congestion-aware rerouting, or null
+    private PortStatsCollector portStatsCollector;
+
+    // Where routing state is saved for a warm restart, or null
+    private Path stateFile;
+
+    // State version of the core when it was last saved or restored; the
+    // core starts at 0, so nothing is written until something changes
+    private long savedStateVersion;
 
     Map<String, String> config;
 
@@ -75,13 +97,110 @@ public class ShortestPathSwitching implements IFloodlightModule, IOFSwitchListen
         this.linkDiscProv = context.getServiceImpl(ILinkDiscoveryService.class);
         this.deviceProv = context.getServiceImpl(IDeviceService.class);
 
-        this.knownHosts = new ConcurrentHashMap<IDevice, Host>();
+        this.networkView = new FloodlightNetworkView(this.floodlightProv, this.linkDiscProv);
 
         /*********************************************************************/
         /* TODO: Initialize other class variables, if necessary              */
 
         /*********************************************************************/
-        this.shortestPaths = new HashMap<IOFSwitch, HashMap<IOFSwitch, IOFSwitch>>();
+        int pathThreads = config.containsKey("pathThreads")
+                ? Integer.parseInt(config.get("pathThreads"))
+                : Runtime.getRuntime().availableProcessors();
+        boolean multipath = !config.containsKey("multipath") || Boolean.parseBoolean(config.get("multipath"));
+        boolean fastFailover = !config.containsKey("fastFailover")
+                || Boolean.parseBoolean(config.get("fastFailover"));
+        RouteComputer routeComputer = new RouteComputer(PathEngine.forName(config.get("pathEngine")), pathThreads,
+                multipath || fastFailover);
+
+        String routingMode = config.containsKey("routingMode") ? config.get("routingMode") : "host";
+        if (!"host".equals(routingMode) && !"aggregated".equals(routingMode) && !"reactive".equals(routingMode)) {
+            throw new FloodlightModuleException("Unknown routing mode: " + routingMode);
+        }
+        boolean aggregated = "aggregated".equals(routingMode);
+        FlowCache flowCache = null;
+        if ("reactive".equals(routingMode)) {
+            short idleTimeout = config.containsKey("flowIdleTimeout")
+                    ? Short.parseShort(config.get("flowIdleTimeout")) : 10;
+            short hardTimeout = config.containsKey("flowHardTimeout")
+                    ? Short.parseShort(config.get("flowHardTimeout")) : 300;
+            int flowCacheSize = config.containsKey("flowCacheSize")
+                    ? Integer.parseInt(config.get("flowCacheSize")) : 100000;
+            flowCache = new FlowCache(flowCacheSize, idleTimeout, hardTimeout);
+        }
+        int eventQueueSize = config.containsKey("eventQueueSize")
+                ? Integer.parseInt(config.get("eventQueueSize")) : 65536;
+        boolean consistentUpdates = !config.containsKey("consistentUpdates")
+                || Boolean.parseBoolean(config.get("consistentUpdates"));
+        int kPaths = config.containsKey("kPaths") ? Integer.parseInt(config.get("kPaths")) : 4;
+        int pathCatalogSize = config.containsKey("pathCatalogSize")
+                ? Integer.parseInt(config.get("pathCatalogSize")) : 10000;
+        long congestionPollMillis = config.containsKey("congestionPollMs")
+                ? Long.parseLong(config.get("congestionPollMs")) : 10000;
+        CongestionRerouter rerouter = null;
+        if (congestionPollMillis > 0) {
+            double highWater = config.containsKey("congestionHighWater")
+                    ? Double.parseDouble(config.get("congestionHighWater")) : 0.8;
+            double lowWater = config.containsKey("congestionLowWater")
+                    ? Double.parseDouble(config.get("congestionLowWater")) : 0.5;
+            int maxMoves = config.containsKey("congestionMaxMoves")
+                    ? Integer.parseInt(config.get("congestionMaxMoves")) : 4;
+            long holdMillis = config.containsKey("congestionHoldMs")
+                    ? Long.parseLong(config.get("congestionHoldMs")) : 60000;
+            rerouter = new CongestionRerouter(new LinkUtilization(), highWater, lowWater, maxMoves, holdMillis,
+                    multipath);
+        }
+
+        long quietMillis = config.containsKey("recomputeQuietMs")
+                ? Long.parseLong(config.get("recomputeQuietMs")) : 50;
+        long maxDelayMillis = config.containsKey("recomputeMaxDelayMs")
+                ? Long.parseLong(config.get("recomputeMaxDelayMs")) : 500;
+        this.recomputeScheduler = new EventCoalescer(MODULE_NAME + "-recompute",
+                this::processPendingEvents, quietMillis, maxDelayMillis);
+        LinkCostProvider linkCosts = createLinkCostProvider(config.containsKey("linkCost")
+                ? config.get("linkCost") : "unit");
+
+        int dispatchThreads = config.containsKey("dispatchThreads")
+                ? Integer.parseInt(config.get("dispatchThreads")) : pathThreads;
+        long barrierTimeoutMillis = config.containsKey("barrierTimeoutMs")
+                ? Long.parseLong(config.get("barrierTimeoutMs")) : 5000;
+        this.flowModDispatcher = new FlowModDispatcher(MODULE_NAME + "-dispatch", dispatchThreads,
+                barrierTimeoutMillis, switchId -> {
+                    this.routingCore.switchFailed(switchId);
+                    this.recomputeScheduler.submit();
+                });
+
+        this.routingCore = new RoutingCore(
+                this.networkView,
+                new FloodlightRuleSink(this.floodlightProv, this.flowModDispatcher, this.table,
+                        multipath || fastFailover, aggregated, flowCache != null),
+                routeComputer, linkCosts, SwitchCommands.DEFAULT_PRIORITY, multipath, fastFailover, aggregated,
+                flowCache, eventQueueSize, rerouter, consistentUpdates, new PathCatalog(kPaths, pathCatalogSize));
+        if (flowCache != null) {
+            this.reactiveListener = new ReactiveFlowListener(MODULE_NAME + "-reactive", this.routingCore,
+                    this.recomputeScheduler, this.table);
+        }
+
+        if (rerouter != null) {
+            this.portStatsCollector = new PortStatsCollector(MODULE_NAME + "-portstats", this.floodlightProv,
+                    this.routingCore, this.recomputeScheduler, rerouter.getLoads(), this::getPortSpeedBps,
+                    congestionPollMillis, barrierTimeoutMillis);
+        }
+
+        if (!config.containsKey("reconcile") || Boolean.parseBoolean(config.get("reconcile"))) {
+            this.tableReader = new FlowTableReader(MODULE_NAME + "-reconcile", this.floodlightProv,
+                    this.routingCore, this.recomputeScheduler, this.table, barrierTimeoutMillis);
+        }
+
+        if (config.containsKey("eventTraceFile")) {
+            try {
+                this.traceRecorder = new TraceRecorder(config.get("eventTraceFile"));
+            } catch (IOException e) {
+                throw new FloodlightModuleException("Cannot open event trace: " + e.getMessage());
+            }
+        }
+        if (config.containsKey("stateFile")) {
+            this.stateFile = Paths.get(config.get("stateFile"));
+        }
     }
 
     /**
@@ -91,14 +210,121 @@ public class ShortestPathSwitching implements IFloodlightModule, IOFSwitchListen
     public void startUp(FloodlightModuleContext context)
             throws FloodlightModuleException {
         log.info(String.format("Starting %s...", MODULE_NAME));
+        restoreState();
         this.floodlightProv.addOFSwitchListener(this);
         this.linkDiscProv.addListener(this);
         this.deviceProv.addListener(this);
+        this.floodlightProv.addOFMessageListener(OFType.BARRIER_REPLY, this.flowModDispatcher);
+        this.floodlightProv.addOFMessageListener(OFType.ERROR, this.flowModDispatcher);
+        if (this.reactiveListener != null) {
+            this.floodlightProv.addOFMessageListener(OFType.PACKET_IN, this.reactiveListener);
+            this.floodlightProv.addOFMessageListener(OFType.FLOW_REMOVED, this.reactiveListener);
+        }
+        this.routingCore.getMetrics().register();
 
         /*********************************************************************/
         /* TODO: Perform other tasks, if necessary                           */
 
         /*********************************************************************/
+        // Costs that change on their own are re-read periodically. The refresh
+        // goes through the incremental update, so if no path changes no rule is sent
+        LinkCostProvider linkCosts = this.routingCore.getLinkCosts();
+        long defaultRefreshMillis = linkCosts instanceof UnitLinkCostProvider
+                || linkCosts instanceof StaticLinkCostProvider ? 0 : 10000;
+        long refreshMillis = config.containsKey("linkCostRefreshMs")
+                ? Long.parseLong(config.get("linkCostRefreshMs")) : defaultRefreshMillis;
+        if (refreshMillis > 0) {
+            this.recomputeScheduler.submitPeriodically(this.routingCore::topologyChanged, refreshMillis);
+        }
+
+        long reconcileMillis = config.containsKey("reconcileIntervalMs")
+                ? Long.parseLong(config.get("reconcileIntervalMs")) : 300000;
+        if (this.tableReader != null && reconcileMillis > 0) {
+            this.tableReader.readPeriodically(reconcileMillis);
+        }
+        if (this.portStatsCollector != null) {
+            this.portStatsCollector.start();
+        }
+    }
+
+    /**
+     * Picks up the routing state saved before the controller last stopped,
+     * if there is one, so that switches keep their rules and only get
+     * deltas. The recompute is re-run once each wait the core does on the
+     * restored state has run out, in case no event comes along to run it.
+     */
+    private void restoreState() {
+        if (this.stateFile == null || !Files.exists(this.stateFile)) {
+            return;
+        }
+        RoutingState state;
+        try {
+            state = RoutingState.load(this.stateFile);
+        } catch (IOException e) {
+            log.warn(String.format("Ignoring routing state %s: %s", this.stateFile, e.getMessage()));
+            return;
+        }
+        long holdMillis = config.containsKey("warmRestartHoldMs")
+                ? Long.parseLong(config.get("warmRestartHoldMs")) : 10000;
+        long hostMillis = config.containsKey("warmRestartHostMs")
+                ? Long.parseLong(config.get("warmRestartHostMs")) : 300000;
+        this.routingCore.restore(state, holdMillis, hostMillis);
+        this.recomputeScheduler.submitLater(holdMillis);
+        this.recomputeScheduler.submitLater(hostMillis);
+    }
+
+    /**
+     * Saves the routing state if it changed since it was last saved. Runs on
+     * the recompute thread, after the changes have been handed to the
+     * switches.
+     */
+    private void saveState() {
+        long version = this.routingCore.getStateVersion();
+        if (this.stateFile == null || version == this.savedStateVersion) {
+            return;
+        }
+        try {
+            this.routingCore.captureState().save(this.stateFile);
+            this.savedStateVersion = version;
+        } catch (IOException e) {
+            log.warn(String.format("Failed to save routing state to %s: %s", this.stateFile, e.getMessage()));
+        }
+    }
+
+    /**
+     * Creates the link cost provider named in the configuration.
+     */
+    private LinkCostProvider createLinkCostProvider(String name)
+            throws FloodlightModuleException {
+        switch (name.toLowerCase()) {
+            case "unit":
+                return new UnitLinkCostProvider();
+            case "static":
+                return new StaticLinkCostProvider(config.get("linkCosts"), 1);
+            case "bandwidth":
+                long referenceBps = config.containsKey("referenceBandwidthBps")
+                        ? Long.parseLong(config.get("referenceBandwidthBps")) : 100000000000L;
+                return new BandwidthLinkCostProvider(this::getPortSpeedBps, referenceBps);
+            case "latency":
+                long granularityMicros = config.containsKey("latencyCostMicros")
+                        ? Long.parseLong(config.get("latencyCostMicros")) : 100;
+                return new LatencyLinkCostProvider(granularityMicros, 1);
+            default:
+                throw new FloodlightModuleException("Unknown link cost provider: " + name);
+        }
+    }
+
+    /**
+     * Get the current speed of a switch port in bits per second, or 0 if the
+     * switch or port is unknown.
+     */
+    private long getPortSpeedBps(long dpid, int port) {
+        IOFSwitch iofSwitch = this.floodlightProv.getSwitch(dpid);
+        ImmutablePort switchPort = iofSwitch == null ? null : iofSwitch.getPort(port);
+        if (switchPort == null || switchPort.getCurrentPortSpeed() == null) {
+            return 0;
+        }
+        return switchPort.getCurrentPortSpeed().getSpeedBps();
     }
 
     /**
@@ -109,10 +335,71 @@ public class ShortestPathSwitching implements IFloodlightModule, IOFSwitchListen
     }
 
     /**
-     * Get a list of all known hosts in the network.
+     * Get the most recently published routing state.
      */
-    private Collection<Host> getHosts() {
-        return this.knownHosts.values();
+    @Override
+    public RoutingSnapshot getRoutingSnapshot() {
+        return this.routingCore.getRoutingSnapshot();
+    }
+
+    @Override
+    public int getNextHopPort(long srcDpid, long dstDpid) {
+        return this.routingCore.getRoutingSnapshot().getNextHopPort(srcDpid, dstDpid);
+    }
+
+    @Override
+    public int getNextHopPortToHost(long srcDpid, long hostMac) {
+        return this.routingCore.getRoutingSnapshot().getNextHopPortToHost(srcDpid, hostMac);
+    }
+
+    @Override
+    public long[] getPath(long srcDpid, long dstDpid) {
+        return this.routingCore.getRoutingSnapshot().getPath(srcDpid, dstDpid);
+    }
+
+    @Override
+    public int getDistance(long srcDpid, long dstDpid) {
+        return this.routingCore.getRoutingSnapshot().getDistance(srcDpid, dstDpid);
+    }
+
+    @Override
+    public List<SwitchPath> getKShortestPaths(long srcDpid, long dstDpid) {
+        return this.routingCore.getPathCatalog().getPaths(srcDpid, dstDpid);
+    }
+
+    @Override
+    public RoutingMetrics getMetrics() {
+        return this.routingCore.getMetrics();
+    }
+
+    @Override
+    public int getEventQueueDepth() {
+        return this.routingCore.getEventQueueDepth();
+    }
+
+    @Override
+    public int getFlowModQueueDepth(long dpid) {
+        return this.flowModDispatcher.getQueueDepth(dpid);
+    }
+
+    @Override
+    public long getFlowModInstallLatencyMicros(long dpid) {
+        return this.flowModDispatcher.getInstallLatencyMicros(dpid);
+    }
+
+    @Override
+    public void recordLinkLatency(long srcDpid, int srcPort, long micros) {
+        LinkCostProvider linkCosts = this.routingCore.getLinkCosts();
+        if (linkCosts instanceof LatencyLinkCostProvider) {
+            ((LatencyLinkCostProvider) linkCosts).recordLatency(srcDpid, srcPort, micros);
+        }
+    }
+
+    /**
+     * Get where every known host is attached.
+     */
+    private Collection<HostAttachment> getHosts() {
+        return this.networkView.getHosts();
     }
 
     /**
@@ -139,18 +426,16 @@ public class ShortestPathSwitching implements IFloodlightModule, IOFSwitchListen
     public void deviceAdded(IDevice device) {
         Host host = new Host(device, this.floodlightProv);
         // We only care about a new host if we know its IP
-        if (host.getIPv4Address() != null) {
+        if (host.getIPv4Address() != null && this.networkView.attachHost(host)) {
             log.info(String.format("Host %s added", host.getName()));
-            this.knownHosts.put(device, host);
 
             /*****************************************************************/
             /* TODO: Update routing: add rules to route to new host          */
 
             /*****************************************************************/
-            this.shortestPaths = dijkstraPaths();
-            removeAllFlowTableRules();
-            setAllFlowTableRulesForAllHosts();
-            logData();
+            recordHostEvent(host);
+            this.routingCore.hostChanged(host.getMACAddress());
+            this.recomputeScheduler.submit();
         }
     }
 
@@ -161,11 +446,8 @@ public class ShortestPathSwitching implements IFloodlightModule, IOFSwitchListen
      */
     @Override
     public void deviceRemoved(IDevice device) {
-        Host host = this.knownHosts.get(device);
-        if (null == host) {
-            host = new Host(device, this.floodlightProv);
-            this.knownHosts.put(device, host);
-        }
+        Host host = new Host(device, this.floodlightProv);
+        this.networkView.detachHost(device.getMACAddress());
 
         log.info(String.format("Host %s is no longer attached to a switch",
                 host.getName()));
@@ -174,10 +456,11 @@ public class ShortestPathSwitching implements IFloodlightModule, IOFSwitchListen
         /* TODO: Update routing: remove rules to route to host               */
 
         /*********************************************************************/
-        this.shortestPaths = dijkstraPaths();
-        removeAllFlowTableRules();
-        setAllFlowTableRulesForAllHosts();
-        logData();
+        if (this.traceRecorder != null) {
+            this.traceRecorder.record(TraceEvent.hostRemoved(System.currentTimeMillis(), host.getMACAddress()));
+        }
+        this.routingCore.hostChanged(host.getMACAddress());
+        this.recomputeScheduler.submit();
     }
 
     /**
@@ -187,13 +470,8 @@ public class ShortestPathSwitching implements IFloodlightModule, IOFSwitchListen
      */
     @Override
     public void deviceMoved(IDevice device) {
-        Host host = this.knownHosts.get(device);
-        if (null == host) {
-            host = new Host(device, this.floodlightProv);
-            this.knownHosts.put(device, host);
-        }
-
-        if (!host.isAttachedToSwitch()) {
+        Host host = new Host(device, this.floodlightProv);
+        if (!this.networkView.attachHost(host)) {
             this.deviceRemoved(device);
             return;
         }
@@ -204,10 +482,9 @@ public class ShortestPathSwitching implements IFloodlightModule, IOFSwitchListen
         /* TODO: Update routing: change rules to route to host               */
 
         /*********************************************************************/
-        this.shortestPaths = dijkstraPaths();
-        removeAllFlowTableRules();
-        setAllFlowTableRulesForAllHosts();
-        logData();
+        recordHostEvent(host);
+        this.routingCore.hostChanged(host.getMACAddress());
+        this.recomputeScheduler.submit();
     }
 
     /**
@@ -224,10 +501,16 @@ public class ShortestPathSwitching implements IFloodlightModule, IOFSwitchListen
         /* TODO: Update routing: change routing rules for all hosts          */
 
         /*********************************************************************/
-        this.shortestPaths = dijkstraPaths();
-        removeAllFlowTableRules();
-        setAllFlowTableRulesForAllHosts();
-        logData();
+        if (this.traceRecorder != null) {
+            this.traceRecorder.record(TraceEvent.switchAdded(System.currentTimeMillis(), switchId));
+        }
+        // A switch that already holds rules, e.g. after a control channel
+        // blip, only has the wrong ones fixed once its table is read back
+        this.routingCore.switchAdded(switchId, this.tableReader != null);
+        if (this.tableReader != null) {
+            this.tableReader.read(switchId);
+        }
+        this.recomputeScheduler.submit();
     }
 
     /**
@@ -244,10 +527,11 @@ public class ShortestPathSwitching implements IFloodlightModule, IOFSwitchListen
         /* TODO: Update routing: change routing rules for all hosts          */
 
         /*********************************************************************/
-        this.shortestPaths = dijkstraPaths();
-        removeAllFlowTableRules();
-        setAllFlowTableRulesForAllHosts();
-        logData();
+        if (this.traceRecorder != null) {
+            this.traceRecorder.record(TraceEvent.switchRemoved(System.currentTimeMillis(), switchId));
+        }
+        this.routingCore.switchRemoved(switchId);
+        this.recomputeScheduler.submit();
     }
 
     /**
@@ -269,6 +553,7 @@ public class ShortestPathSwitching implements IFloodlightModule, IOFSwitchListen
                 log.info(String.format("Link s%s:%d -> %s:%d updated",
                         update.getSrc(), update.getSrcPort(),
                         update.getDst(), update.getDstPort()));
+                recordLinkEvent(update);
             }
         }
 
@@ -276,10 +561,8 @@ public class ShortestPathSwitching implements IFloodlightModule, IOFSwitchListen
         /* TODO: Update routing: change routing rules for all hosts          */
 
         /*********************************************************************/
-        this.shortestPaths = dijkstraPaths();
-        removeAllFlowTableRules();
-        setAllFlowTableRulesForAllHosts();
-        logData();
+        this.routingCore.topologyChanged();
+        this.recomputeScheduler.submit();
     }
 
     /**
@@ -336,7 +619,14 @@ public class ShortestPathSwitching implements IFloodlightModule, IOFSwitchListen
      */
     @Override
     public void switchPortChanged(long switchId, ImmutablePort port,
-                                  PortChangeType type) { /* Nothing we need to do, since we'll get a linkDiscoveryUpdate event */ }
+                                  PortChangeType type) {
+        // Links going up or down arrive as a linkDiscoveryUpdate event, but a
+        // port changing speed only shows up here
+        if (type == PortChangeType.OTHER_UPDATE && this.routingCore.getLinkCosts().dependsOnPortState()) {
+            this.routingCore.topologyChanged();
+            this.recomputeScheduler.submit();
+        }
+    }
 
     /**
      * Gets a name for this module.
@@ -405,27 +695,32 @@ public class ShortestPathSwitching implements IFloodlightModule, IOFSwitchListen
         return modules;
     }
 
-    private void logData() {
+    /**
+     * Dumps every host, switch, link and shortest path tree. This is
+     * O(switches^2), so it is only logged at debug level; otherwise it is
+     * built on demand.
+     */
+    @Override
+    public String dumpState() {
         StringBuilder message = new StringBuilder();
         message.append("\n##################### LOG DATA #######################################");
         message.append("\n#############TABLE#############\n");
-        message.append(String.valueOf(Byte.parseByte(config.get("table"))) + "\n");
+        message.append(String.valueOf(this.table) + "\n");
         message.append(getHostsAsString(this.getHosts()));
         message.append(getSwitchesAsString(this.getSwitches()));
         message.append(getLinksAsString(this.getLinks()));
-        message.append(getShortestPathsAsString(this.shortestPaths));
-        log.info(message.toString());
+        message.append(getShortestPathsAsString(this.routingCore.getRoutingSnapshot().getTrees()));
+        return message.toString();
     }
 
-    private String getHostsAsString(Collection<Host> hosts) {
+    private String getHostsAsString(Collection<HostAttachment> hosts) {
         StringBuilder message = new StringBuilder();
         message.append("\n#############HOSTS#############\n");
-        for (Host host : hosts) {
-            message.append("Host Name: " + host.getName() + "  ");
-            message.append("MACAddress: " + host.getMACAddress() + "  ");
+        for (HostAttachment host : hosts) {
+            message.append("MACAddress: " + host.getMac() + "  ");
             message.append("IPv4: " + host.getIPv4Address() + "  ");
             message.append("Port: " + host.getPort() + "  ");
-            message.append("Switch: " + host.getSwitch() + "  ");
+            message.append("Switch: " + host.getDpid() + "  ");
             message.append("\n");
         }
         return message.toString();
@@ -452,25 +747,27 @@ public class ShortestPathSwitching implements IFloodlightModule, IOFSwitchListen
         return message.toString();
     }
 
-    private String getShortestPathsAsString(HashMap<IOFSwitch, HashMap<IOFSwitch, IOFSwitch>> shortestPaths) {
+    private String getShortestPathsAsString(ShortestPathTrees shortestPaths) {
         StringBuilder message = new StringBuilder();
         message.append("\n#############ShortestPaths#############\n");
+        if (shortestPaths == null) {
+            return message.toString();
+        }
 
-        for (Map.Entry<IOFSwitch, HashMap<IOFSwitch, IOFSwitch>> inner : shortestPaths.entrySet()) {
-            Iterator<Map.Entry<IOFSwitch, IOFSwitch>> iterator2 = inner.getValue().entrySet().iterator();
-            message.append(inner.getKey().getStringId()).append(": {");
+        TopologyIndex topology = shortestPaths.getTopology();
+        for (int root = 0; root < topology.size(); root++) {
+            ShortestPathTree tree = shortestPaths.getTree(root);
+            if (tree == null) {
+                continue;
+            }
+            message.append(topology.dpid(root)).append(": {");
             message.append("\n");
-            while (iterator2.hasNext()) {
-                Map.Entry<IOFSwitch, IOFSwitch> inner2 = iterator2.next();
+            for (int index = 0; index < topology.size(); index++) {
                 message.append("{ ");
-                if (inner2.getKey() != null && inner2.getKey().getStringId() != null) {
-                    message.append(inner2.getKey().getStringId());
-                } else {
-                    message.append("null");
-                }
+                message.append(topology.dpid(index));
                 message.append(" : ");
-                if (inner2.getValue() != null) {
-                    message.append(inner2.getValue().getStringId());
+                if (tree.nextHop(index) != TopologyIndex.NONE) {
+                    message.append(topology.dpid(tree.nextHop(index)));
                 } else {
                     message.append("null");
                 }
@@ -482,202 +779,50 @@ public class ShortestPathSwitching implements IFloodlightModule, IOFSwitchListen
         return message.toString();
     }
 
-    /*
-    Code implemented at:
-    https://github.com/vnatesh/SDN-Controller/blob/b762e3476a6cc85b72b5d083096b2c17023f6ac6/ShortestPathSwitching.java#L101
-
-		Calculates shortest paths from each switch to all other switches using Dijkstra's
-		shortest path algorithm. Results are stored in a hash table of the form;
-
-			{switch1 : {switch1 : null, switch2 : switch1, ...},
-			switch2 : {switch1: switch2, switch2 : null, ...}, ...}
-
-		The inner hash tables store the parent switches for each switch along the path
-		from switch x to all other switches. Link costs are all assumed to be 1.
-
-		Variable d represents the distance vector. Variable q represents the priority
-		queue used in dijkstra.
-	*/
-    public HashMap<IOFSwitch, HashMap<IOFSwitch, IOFSwitch>> dijkstraPaths() {
-
-        Collection<IOFSwitch> switches = getSwitches().values();
-        HashMap<IOFSwitch, HashMap<IOFSwitch, IOFSwitch>> shortestPaths = new HashMap<IOFSwitch, HashMap<IOFSwitch, IOFSwitch>>();
-
-        for (IOFSwitch iofSwtich : switches) {
-
-            // Initialize distances, parent switch for all switches.
-            // q represents a priority queue to track switches that haven't
-            // been processed by the algorithm yet
-            HashMap<IOFSwitch, Integer> distances = new HashMap<IOFSwitch, Integer>();
-            HashMap<IOFSwitch, IOFSwitch> parent = new HashMap<IOFSwitch, IOFSwitch>();
-            HashMap<IOFSwitch, Integer> unProcessedSwitches = new HashMap<IOFSwitch, Integer>();
-
-            for (IOFSwitch sw2 : switches) {
-                distances.put(sw2, Integer.MAX_VALUE - 1);
-                unProcessedSwitches.put(sw2, Integer.MAX_VALUE - 1);
-                parent.put(sw2, null);
-            }
-
-            distances.put(iofSwtich, 0);
-            unProcessedSwitches.put(iofSwtich, 0);
-
-            for (Link link : getLinks()) {
-                IOFSwitch source = getSwitches().get(link.getSrc());
-                IOFSwitch dest = getSwitches().get(link.getDst());
-
-                if (source == iofSwtich) {
-                    distances.put(dest, 1);
-                    unProcessedSwitches.put(dest, 1);
-                    parent.put(dest, source);
-                }
-            }
-
-            Set<IOFSwitch> minCostSwitches = new HashSet<IOFSwitch>();
-            IOFSwitch minCostSwitch;
-
-            while (!unProcessedSwitches.isEmpty()) {
-                minCostSwitch = getMinCostSwitch(unProcessedSwitches);
-                unProcessedSwitches.remove(minCostSwitch);
-                minCostSwitches.add(minCostSwitch);
-                for (Link link : getLinks()) {
-                    IOFSwitch source = getSwitches().get(link.getSrc());
-                    IOFSwitch adj = getSwitches().get(link.getDst());
-
-                    if (source == minCostSwitch && !minCostSwitches.contains(adj)) {
-                        if (distances.get(minCostSwitch) + 1 < distances.get(adj)) {
-                            distances.put(adj, distances.get(minCostSwitch) + 1);
-                            unProcessedSwitches.put(adj, distances.get(minCostSwitch) + 1);
-                            parent.put(adj, minCostSwitch);
-                        }
-
-                    }
-                }
-            }
-
-            shortestPaths.put(iofSwtich, parent);
-        }
-
-        return shortestPaths;
-    }
-
-    /*
-		Retrieves switch with minimum link cost (priority) in the priority queue q
-	*/
-    private IOFSwitch getMinCostSwitch(HashMap<IOFSwitch, Integer> unProcessedSwitches) {
-
-        Integer min = Integer.MAX_VALUE - 1;
-        IOFSwitch answer = null;
-
-        for (IOFSwitch key : unProcessedSwitches.keySet()) {
-            if (unProcessedSwitches.get(key) <= min) {
-                min = unProcessedSwitches.get(key);
-                answer = key;
-            }
-        }
-
-        return answer;
-    }
-
-    public void setAllFlowTableRulesForAllHostsLinear() {
-        for (Host host : getHosts()) {
-            setRoutingRulesFromHostToSwitch(host, host.getSwitch());
-        }
-    }
-
-    public void setRoutingRulesFromHostToSwitch(Host host, IOFSwitch iofSwitch) {
-        if (host.isAttachedToSwitch()) {
-            OFMatch match = new OFMatch();
-            ArrayList<OFMatchField> fieldList = new ArrayList<OFMatchField>();
-            OFMatchField ethernet = new OFMatchField(OFOXMFieldType.ETH_TYPE, Ethernet.TYPE_IPv4);
-            OFMatchField macAddress = new OFMatchField(OFOXMFieldType.ETH_DST, Ethernet.toByteArray(host.getMACAddress()));
-            fieldList.add(ethernet);
-            fieldList.add(macAddress);
-            match.setMatchFields(fieldList);
-
-            OFActionOutput action = new OFActionOutput();
-            action.setPort(host.getPort());
-            ArrayList<OFAction> actions = new ArrayList<OFAction>();
-            actions.add(action);
-
-            OFInstructionApplyActions instructionsList = new OFInstructionApplyActions(actions);
-            ArrayList<OFInstruction> instructions = new ArrayList<OFInstruction>();
-            instructions.add(instructionsList);
-
-            boolean setCommand = SwitchCommands.installRule(iofSwitch, this.table, SwitchCommands.DEFAULT_PRIORITY, match, instructions, SwitchCommands.NO_TIMEOUT, SwitchCommands.NO_TIMEOUT);
-            log.info("\n!!!!!!!!!!!!!!!!!!SETTING ROUTING RULES!!!!!!!!!!!!!!!!!!!!!!!!!!!!!"
-                    + instructions + " Successful: " + setCommand + "\n");
+    /**
+     * Records a host being attached or moved in the event trace, if one is
+     * being kept.
+     */
+    private void recordHostEvent(Host host) {
+        if (this.traceRecorder == null || !host.isAttachedToSwitch()
+                || host.getSwitch() == null || host.getPort() == null) {
+            return;
         }
+        Integer ipv4 = host.getIPv4Address();
+        this.traceRecorder.record(TraceEvent.hostUpdated(System.currentTimeMillis(), host.getMACAddress(),
+                host.getSwitch().getId(), host.getPort(), ipv4 == null ? 0 : ipv4));
     }
 
-    public void setAllFlowTableRulesForAllHosts() {
-        for (Host host : getHosts()) {
-            setRoutingRulesForAHost(host);
+    /**
+     * Records one direction of a switch-to-switch link being discovered or
+     * removed in the event trace, if one is being kept.
+     */
+    private void recordLinkEvent(LDUpdate update) {
+        if (this.traceRecorder == null) {
+            return;
         }
-    }
-
-    public void setRoutingRulesForAHost(Host host) {
-        if (host.isAttachedToSwitch()) {
-            OFMatch match = new OFMatch();
-            ArrayList<OFMatchField> fieldList = new ArrayList<OFMatchField>();
-            OFMatchField ethernet = new OFMatchField(OFOXMFieldType.ETH_TYPE, Ethernet.TYPE_IPv4);
-            OFMatchField macAddress = new OFMatchField(OFOXMFieldType.ETH_DST, Ethernet.toByteArray(host.getMACAddress()));
-            fieldList.add(ethernet);
-            fieldList.add(macAddress);
-            match.setMatchFields(fieldList);
-
-
-            for (IOFSwitch iofSwitch : getSwitches().values()) {
-
-                OFActionOutput action = new OFActionOutput();
-
-                //if this is the switch our host is attached to, just send packet to the host
-                //else send packet to the next switch in our shortest path route
-                if (iofSwitch.getId() == host.getSwitch().getId()) {
-                    action.setPort(host.getPort());
-                } else {
-
-                    IOFSwitch nextSwitch = shortestPaths.get(host.getSwitch()).get(iofSwitch);
-                    for (Link link : getLinks()) {
-                        if (link.getSrc() == iofSwitch.getId() && link.getDst() == nextSwitch.getId()) {
-                            action.setPort(link.getSrcPort());
-                            break;
-                        }
-                    }
-                }
-
-                ArrayList<OFAction> actions = new ArrayList<OFAction>();
-                actions.add(action);
-                OFInstructionApplyActions instructionsList = new OFInstructionApplyActions(actions);
-                ArrayList<OFInstruction> instructions = new ArrayList<OFInstruction>();
-                instructions.add(instructionsList);
-
-                boolean setCommand = SwitchCommands.installRule(iofSwitch, this.table, SwitchCommands.DEFAULT_PRIORITY, match, instructions, SwitchCommands.NO_TIMEOUT, SwitchCommands.NO_TIMEOUT);
-                log.info("\n!!!!!!!!!!!!!!!!!!SETTING ROUTING RULES!!!!!!!!!!!!!!!!!!!!!!!!!!!!!"
-                        + instructions + " Successful: " + setCommand + "\n");
-            }
-
-
+        long now = System.currentTimeMillis();
+        if (update.getOperation() == UpdateOperation.LINK_UPDATED) {
+            this.traceRecorder.record(TraceEvent.linkUpdated(now, update.getSrc(), update.getSrcPort(),
+                    update.getDst(), update.getDstPort()));
+        } else if (update.getOperation() == UpdateOperation.LINK_REMOVED) {
+            this.traceRecorder.record(TraceEvent.linkRemoved(now, update.getSrc(), update.getSrcPort(),
+                    update.getDst(), update.getDstPort()));
         }
     }
 
-    public void removeAllFlowTableRules() {
-        for (Host host : getHosts()) {
-            OFMatch match = new OFMatch();
-            ArrayList<OFMatchField> fieldList = new ArrayList<OFMatchField>();
-            OFMatchField ethernet = new OFMatchField(OFOXMFieldType.ETH_TYPE, Ethernet.TYPE_IPv4);
-            OFMatchField macAddress = new OFMatchField(OFOXMFieldType.ETH_DST, Ethernet.toByteArray(host.getMACAddress()));
-            fieldList.add(ethernet);
-            fieldList.add(macAddress);
-            match.setMatchFields(fieldList);
-
-            for (IOFSwitch sw : getSwitches().values()) {
-                SwitchCommands.removeRules(sw, this.table, match);
-            }
+    /**
+     * Applies every change recorded since the last run in one go. Runs on the
+     * recompute scheduler's thread once a burst of events has died down, so
+     * routes and installed rules are only ever touched from that one thread.
+     */
+    private void processPendingEvents() {
+        this.routingCore.getMetrics().recordEvents(this.recomputeScheduler.getEventsSubmitted(),
+                this.recomputeScheduler.getEventsCoalesced());
+        this.routingCore.processPendingEvents(this.recomputeScheduler.getLastLagNanos());
+        saveState();
+        if (log.isDebugEnabled()) {
+            log.debug(dumpState());
         }
-        log.info("\n!!!!!!!!!!!!!!!!!!REMOVED ROUTING RULES!!!!!!!!!!!!!!!!!!!!!!!!!!!!!" + "\n");
     }
 }
-
-
-
-
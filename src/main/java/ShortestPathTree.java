@@ -0,0 +1,163 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.Arrays;
+
+/**
+ * Shortest path tree rooted at one switch, oriented towards the root: for
+ * every switch u it holds the cost of the best path from u to the root and
+ * the next switch on that path. All switches are referred to by their
+ * {@link TopologyIndex} index.
+ *
+ * A tree can be computed over costs other than the routing topology's, as
+ * when congestion is steered around: it then keeps the topology it was
+ * computed over, with the same switches and links, and its ports and
+ * equal-cost sets follow those costs.
+ */
+public final class ShortestPathTree {
+    // Distance of a switch that has no path to the root
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final int root;
+    private final int[] distances;
+    private final int[] nextHops;
+
+    // Topology the distances are over when its costs are not the routing
+    // topology's, or null
+    private final TopologyIndex costs;
+
+    ShortestPathTree(int root, int[] distances, int[] nextHops) {
+        this(root, distances, nextHops, null);
+    }
+
+    private ShortestPathTree(int root, int[] distances, int[] nextHops, TopologyIndex costs) {
+        this.root = root;
+        this.distances = distances;
+        this.nextHops = nextHops;
+        this.costs = costs;
+    }
+
+    /**
+     * Get this tree marked as computed over the link costs of another
+     * topology with the same switches and links as the routing topology.
+     */
+    ShortestPathTree withCosts(TopologyIndex costs) {
+        return new ShortestPathTree(this.root, this.distances, this.nextHops, costs);
+    }
+
+    /**
+     * Get the topology whose link costs this tree follows: the one it was
+     * computed over, or the given routing topology if that is the same.
+     */
+    public TopologyIndex getCosts(TopologyIndex topology) {
+        return this.costs == null ? topology : this.costs;
+    }
+
+    /**
+     * Get the index of the switch this tree is rooted at.
+     */
+    public int getRoot() {
+        return this.root;
+    }
+
+    /**
+     * Get the number of switches the tree covers.
+     */
+    public int size() {
+        return this.distances.length;
+    }
+
+    /**
+     * Get the cost of the path from a switch to the root, or
+     * {@link #UNREACHABLE}.
+     */
+    public int distance(int index) {
+        return this.distances[index];
+    }
+
+    /**
+     * Get the next switch from a switch towards the root, or
+     * {@link TopologyIndex#NONE} for the root itself and unreachable switches.
+     */
+    public int nextHop(int index) {
+        return this.nextHops[index];
+    }
+
+    public boolean isReachable(int index) {
+        return this.distances[index] != UNREACHABLE;
+    }
+
+    /**
+     * Get the port a switch sends out of towards {@link #nextHop}, or
+     * {@link TopologyIndex#NONE} for the root and unreachable switches.
+     */
+    public int nextHopPort(TopologyIndex topology, int index) {
+        int next = this.nextHops[index];
+        return next == TopologyIndex.NONE ? TopologyIndex.NONE : getCosts(topology).portTo(index, next);
+    }
+
+    /**
+     * Get the ports a switch can send out of to stay on a shortest path to
+     * the root: the port to every adjacent switch whose distance plus the
+     * cost of the link equals this switch's distance. The port towards
+     * {@link #nextHop} is always among them. Ports are in ascending order;
+     * the array is empty for the root and for unreachable switches.
+     */
+    public int[] equalCostPorts(TopologyIndex routing, int index) {
+        if (index == this.root || !isReachable(index)) {
+            return new int[0];
+        }
+        TopologyIndex topology = getCosts(routing);
+        int[] ports = new int[topology.outEnd(index) - topology.outStart(index)];
+        int count = 0;
+        for (int e = topology.outStart(index); e < topology.outEnd(index); e++) {
+            int v = topology.edgeTarget(e);
+            // Only the edge the adjacency uses, not every parallel link
+            if (isReachable(v) && topology.findEdge(index, v) == e
+                    && (long) this.distances[v] + topology.edgeCost(e) == this.distances[index]) {
+                ports[count++] = topology.edgePort(e);
+            }
+        }
+        int[] result = Arrays.copyOf(ports, count);
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Get a port a switch can fall back to when the port towards
+     * {@link #nextHop} fails, or {@link TopologyIndex#NONE} if it has none.
+     *
+     * Only downstream alternates qualify: the port must lead to a switch
+     * strictly closer to the root than this one, so traffic sent there can
+     * never come back and loop, even if several links fail at once. This
+     * needs only this tree's distances, unlike the general loop-free
+     * alternate condition. The cheapest alternate is chosen, preferring one
+     * that avoids the next switch as well as the link, then the lowest port.
+     */
+    public int downstreamAlternatePort(TopologyIndex routing, int index) {
+        int next = this.nextHops[index];
+        if (next == TopologyIndex.NONE) {
+            return TopologyIndex.NONE;
+        }
+        TopologyIndex topology = getCosts(routing);
+        int primary = topology.portTo(index, next);
+        int best = TopologyIndex.NONE;
+        long bestCost = Long.MAX_VALUE;
+        boolean bestAvoidsNext = false;
+        for (int e = topology.outStart(index); e < topology.outEnd(index); e++) {
+            int v = topology.edgeTarget(e);
+            int port = topology.edgePort(e);
+            if (port == primary || !isReachable(v) || this.distances[v] >= this.distances[index]) {
+                continue;
+            }
+            long cost = (long) this.distances[v] + topology.edgeCost(e);
+            boolean avoidsNext = v != next;
+            if (cost < bestCost || (cost == bestCost && avoidsNext && !bestAvoidsNext)
+                    || (cost == bestCost && avoidsNext == bestAvoidsNext && port < best)) {
+                best = port;
+                bestCost = cost;
+                bestAvoidsNext = avoidsNext;
+            }
+        }
+        return best;
+    }
+}
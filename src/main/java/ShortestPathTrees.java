@@ -0,0 +1,71 @@
+package edu.brown.cs.sdn.apps.sps;
+
+/**
+ * Shortest path trees for a topology, one per root switch. The tree rooted
+ * at switch d answers "which way to d" for every other switch, so routing to
+ * a host only ever needs the tree of the host's switch. The routing core
+ * only keeps trees for destinations, the switches with hosts attached;
+ * every other root has none.
+ */
+public final class ShortestPathTrees {
+    private final TopologyIndex topology;
+    private final ShortestPathTree[] trees;
+
+    ShortestPathTrees(TopologyIndex topology, ShortestPathTree[] trees) {
+        this.topology = topology;
+        this.trees = trees;
+    }
+
+    /**
+     * Get the topology the trees were computed over.
+     */
+    public TopologyIndex getTopology() {
+        return this.topology;
+    }
+
+    /**
+     * Get the tree rooted at a switch index, or null if there is none.
+     */
+    public ShortestPathTree getTree(int root) {
+        return root < 0 || root >= this.trees.length ? null : this.trees[root];
+    }
+
+    /**
+     * Get the tree rooted at a switch DPID, or null if there is none.
+     */
+    public ShortestPathTree getTreeForSwitch(long dpid) {
+        return getTree(this.topology.indexOf(dpid));
+    }
+
+    /**
+     * Get a copy of these trees with the tree rooted at one switch index
+     * replaced, or dropped when tree is null. The other trees are shared.
+     */
+    public ShortestPathTrees withTree(int root, ShortestPathTree tree) {
+        ShortestPathTree[] trees = this.trees.clone();
+        trees[root] = tree;
+        return new ShortestPathTrees(this.topology, trees);
+    }
+
+    /**
+     * Get the number of roots that have a tree.
+     */
+    public int getTreeCount() {
+        int count = 0;
+        for (ShortestPathTree tree : this.trees) {
+            if (tree != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the next switch on the shortest path from src to dst, or
+     * {@link TopologyIndex#NONE} if dst is unreachable or src == dst.
+     */
+    public int nextHop(int src, int dst) {
+        ShortestPathTree tree = getTree(dst);
+        return tree == null ? TopologyIndex.NONE : tree.nextHop(src);
+    }
+}
@@ -0,0 +1,75 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A network held in memory for the simulator, changed directly by replayed
+ * events rather than discovered. Removing a switch also removes its links,
+ * as link discovery would; hosts on it stay where they are until they are
+ * moved or removed, as with the device manager.
+ */
+public final class SimulatedNetwork implements NetworkView {
+    private final Set<Long> switches = new LinkedHashSet<Long>();
+    private final Set<SwitchLink> links = new LinkedHashSet<SwitchLink>();
+    private final Map<Long, HostAttachment> hosts = new LinkedHashMap<Long, HostAttachment>();
+
+    public boolean hasSwitch(long dpid) {
+        return this.switches.contains(dpid);
+    }
+
+    public void addSwitch(long dpid) {
+        this.switches.add(dpid);
+    }
+
+    public void removeSwitch(long dpid) {
+        this.switches.remove(dpid);
+        for (Iterator<SwitchLink> iterator = this.links.iterator(); iterator.hasNext(); ) {
+            SwitchLink link = iterator.next();
+            if (link.getSrc() == dpid || link.getDst() == dpid) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public void updateLink(SwitchLink link) {
+        this.links.add(link);
+    }
+
+    public void removeLink(SwitchLink link) {
+        this.links.remove(link);
+    }
+
+    public void attachHost(HostAttachment host) {
+        this.hosts.put(host.getMac(), host);
+    }
+
+    public void detachHost(long mac) {
+        this.hosts.remove(mac);
+    }
+
+    @Override
+    public Collection<Long> getSwitches() {
+        return new ArrayList<Long>(this.switches);
+    }
+
+    @Override
+    public Collection<SwitchLink> getLinks() {
+        return new ArrayList<SwitchLink>(this.links);
+    }
+
+    @Override
+    public Collection<HostAttachment> getHosts() {
+        return new ArrayList<HostAttachment>(this.hosts.values());
+    }
+
+    @Override
+    public HostAttachment getHost(long mac) {
+        return this.hosts.get(mac);
+    }
+}
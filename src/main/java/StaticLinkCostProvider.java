@@ -0,0 +1,70 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fixed per-link costs from configuration. The configuration is a comma
+ * separated list of entries of the form {@code src-dst=cost}, or
+ * {@code src:port-dst=cost} to pin the cost of one of several parallel
+ * links, with DPIDs in decimal. Links without an entry cost the default.
+ */
+public final class StaticLinkCostProvider implements LinkCostProvider {
+    // src DPID -> (dst DPID -> cost)
+    private final Map<Long, LongIntHashMap> switchCosts = new HashMap<Long, LongIntHashMap>();
+
+    // src DPID -> (src port -> cost)
+    private final Map<Long, LongIntHashMap> portCosts = new HashMap<Long, LongIntHashMap>();
+
+    private final int defaultCost;
+
+    public StaticLinkCostProvider(String spec, int defaultCost) {
+        this.defaultCost = Math.max(defaultCost, 1);
+        if (spec == null) {
+            return;
+        }
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int equals = entry.indexOf('=');
+            int dash = entry.indexOf('-');
+            if (equals < 0 || dash < 0 || dash > equals) {
+                throw new IllegalArgumentException("Bad link cost entry: " + entry);
+            }
+            String src = entry.substring(0, dash).trim();
+            long dst = Long.parseLong(entry.substring(dash + 1, equals).trim());
+            int cost = Math.max(Integer.parseInt(entry.substring(equals + 1).trim()), 1);
+            int colon = src.indexOf(':');
+            if (colon < 0) {
+                costsFor(this.switchCosts, Long.parseLong(src)).put(dst, cost);
+            } else {
+                long srcDpid = Long.parseLong(src.substring(0, colon).trim());
+                costsFor(this.portCosts, srcDpid).put(Integer.parseInt(src.substring(colon + 1).trim()), cost);
+            }
+        }
+    }
+
+    @Override
+    public int getCost(long srcDpid, int srcPort, long dstDpid, int dstPort) {
+        LongIntHashMap ports = this.portCosts.get(srcDpid);
+        if (ports != null && ports.containsKey(srcPort)) {
+            return ports.get(srcPort);
+        }
+        LongIntHashMap switches = this.switchCosts.get(srcDpid);
+        if (switches != null && switches.containsKey(dstDpid)) {
+            return switches.get(dstDpid);
+        }
+        return this.defaultCost;
+    }
+
+    private static LongIntHashMap costsFor(Map<Long, LongIntHashMap> costs, long dpid) {
+        LongIntHashMap map = costs.get(dpid);
+        if (map == null) {
+            map = new LongIntHashMap();
+            costs.put(dpid, map);
+        }
+        return map;
+    }
+}
@@ -0,0 +1,59 @@
+package edu.brown.cs.sdn.apps.sps;
+
+/**
+ * Hands out the MPLS label that identifies each destination switch in
+ * aggregated routing mode. A switch keeps its label for the life of the
+ * controller, so a switch that reconnects does not force every other
+ * switch's label rule for it to be rewritten.
+ */
+public final class SwitchLabels {
+    // Labels 0-15 are reserved by MPLS
+    private static final int FIRST_LABEL = 16;
+    private static final int MAX_LABEL = (1 << 20) - 1;
+
+    private final LongIntHashMap labels = new LongIntHashMap();
+    private int nextLabel = FIRST_LABEL;
+
+    /**
+     * Get the label of a switch, allocating one the first time it is asked for.
+     */
+    public int labelFor(long dpid) {
+        int label = this.labels.get(dpid);
+        if (label == LongIntHashMap.MISSING) {
+            if (this.nextLabel > MAX_LABEL) {
+                throw new IllegalStateException("Out of MPLS labels for switches");
+            }
+            label = this.nextLabel++;
+            this.labels.put(dpid, label);
+        }
+        return label;
+    }
+
+    /**
+     * Get the label of a switch, or {@link LongIntHashMap#MISSING} if it has
+     * none yet.
+     */
+    public int getLabel(long dpid) {
+        return this.labels.get(dpid);
+    }
+
+    /**
+     * Get the DPID of every switch that has a label.
+     */
+    public long[] getSwitches() {
+        return this.labels.keys();
+    }
+
+    /**
+     * Give a switch the label it had before a restart. Labels allocated from
+     * then on come after it.
+     */
+    public void restore(long dpid, int label) {
+        this.labels.put(dpid, label);
+        this.nextLabel = Math.max(this.nextLabel, label + 1);
+    }
+
+    public int size() {
+        return this.labels.size();
+    }
+}
@@ -0,0 +1,61 @@
+package edu.brown.cs.sdn.apps.sps;
+
+/**
+ * A directed switch-to-switch link: the switch and port it leaves from and
+ * the switch and port it arrives on.
+ */
+public final class SwitchLink {
+    private final long src;
+    private final int srcPort;
+    private final long dst;
+    private final int dstPort;
+
+    public SwitchLink(long src, int srcPort, long dst, int dstPort) {
+        this.src = src;
+        this.srcPort = srcPort;
+        this.dst = dst;
+        this.dstPort = dstPort;
+    }
+
+    public long getSrc() {
+        return this.src;
+    }
+
+    public int getSrcPort() {
+        return this.srcPort;
+    }
+
+    public long getDst() {
+        return this.dst;
+    }
+
+    public int getDstPort() {
+        return this.dstPort;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SwitchLink)) {
+            return false;
+        }
+        SwitchLink other = (SwitchLink) o;
+        return this.src == other.src && this.srcPort == other.srcPort
+                && this.dst == other.dst && this.dstPort == other.dstPort;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(this.src);
+        result = 31 * result + this.srcPort;
+        result = 31 * result + Long.hashCode(this.dst);
+        return 31 * result + this.dstPort;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("s%d:%d -> s%d:%d", this.src, this.srcPort, this.dst, this.dstPort);
+    }
+}
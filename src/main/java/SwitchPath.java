@@ -0,0 +1,99 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.Arrays;
+
+/**
+ * Immutable loop-free path between two switches: the switches it visits,
+ * source first, the port each of them but the last sends out of, and the
+ * total cost of its links.
+ */
+public final class SwitchPath {
+    private final long[] dpids;
+    private final int[] ports;
+    private final long cost;
+
+    public SwitchPath(long[] dpids, int[] ports, long cost) {
+        if (ports.length != dpids.length - 1) {
+            throw new IllegalArgumentException("Need one port per hop, got " + ports.length
+                    + " for " + dpids.length + " switches");
+        }
+        this.dpids = dpids.clone();
+        this.ports = ports.clone();
+        this.cost = cost;
+    }
+
+    public long getSource() {
+        return this.dpids[0];
+    }
+
+    public long getDestination() {
+        return this.dpids[this.dpids.length - 1];
+    }
+
+    /**
+     * Get the DPIDs of the switches on the path, source first.
+     */
+    public long[] getDpids() {
+        return this.dpids.clone();
+    }
+
+    /**
+     * Get the port each switch but the destination sends out of.
+     */
+    public int[] getPorts() {
+        return this.ports.clone();
+    }
+
+    public long getCost() {
+        return this.cost;
+    }
+
+    /**
+     * Get the number of links on the path.
+     */
+    public int getHops() {
+        return this.ports.length;
+    }
+
+    /**
+     * Check whether the path goes directly from one switch to another.
+     */
+    public boolean uses(long srcDpid, long dstDpid) {
+        for (int i = 0; i < this.ports.length; i++) {
+            if (this.dpids[i] == srcDpid && this.dpids[i + 1] == dstDpid) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SwitchPath)) {
+            return false;
+        }
+        SwitchPath other = (SwitchPath) o;
+        return this.cost == other.cost && Arrays.equals(this.dpids, other.dpids)
+                && Arrays.equals(this.ports, other.ports);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(this.dpids) + Arrays.hashCode(this.ports);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < this.dpids.length; i++) {
+            if (i > 0) {
+                builder.append(String.format(" -%d-> ", this.ports[i - 1]));
+            }
+            builder.append("s").append(this.dpids[i]);
+        }
+        return builder.append(String.format(" (cost %d)", this.cost)).toString();
+    }
+}
@@ -0,0 +1,186 @@
+package edu.brown.cs.sdn.apps.sps;
+
+/**
+ * Difference between two topology indexes, at the level of adjacencies: an
+ * adjacency is an ordered pair of directly linked switches, using the edge
+ * {@link TopologyIndex#findEdge} would pick.
+ *
+ * An adjacency that disappeared or got more expensive is "worsened", one
+ * that appeared or got cheaper is "improved" (with its new cost), and one
+ * whose cost is unchanged but whose port moved is "rerouted". So is one
+ * whose parallel links changed around an unchanged edge, since fast
+ * failover may fall back to those links.
+ */
+public final class TopologyDelta {
+    private final boolean sameSwitches;
+    private final DpidPairList worsened = new DpidPairList();
+    private final DpidPairList improved = new DpidPairList();
+    private final DpidPairList rerouted = new DpidPairList();
+
+    private TopologyDelta(boolean sameSwitches) {
+        this.sameSwitches = sameSwitches;
+    }
+
+    /**
+     * Check whether both topologies have exactly the same switches, and so
+     * the same switch indices.
+     */
+    public boolean hasSameSwitches() {
+        return this.sameSwitches;
+    }
+
+    public DpidPairList getWorsened() {
+        return this.worsened;
+    }
+
+    /**
+     * Get the improved adjacencies; each pair's value is its new cost.
+     */
+    public DpidPairList getImproved() {
+        return this.improved;
+    }
+
+    public DpidPairList getRerouted() {
+        return this.rerouted;
+    }
+
+    public boolean isEmpty() {
+        return this.sameSwitches && this.worsened.isEmpty()
+                && this.improved.isEmpty() && this.rerouted.isEmpty();
+    }
+
+    /**
+     * Compute what changed going from one topology to another.
+     */
+    public static TopologyDelta between(TopologyIndex before, TopologyIndex after) {
+        TopologyDelta delta = new TopologyDelta(sameSwitches(before, after));
+
+        // Switches that went away take all their adjacencies with them
+        for (int u = 0; u < before.size(); u++) {
+            if (after.indexOf(before.dpid(u)) == TopologyIndex.NONE) {
+                for (int e = before.outStart(u); e < before.outEnd(u); e = runEnd(before, e, before.outEnd(u))) {
+                    delta.worsened.add(before.dpid(u), before.dpid(before.edgeTarget(e)));
+                }
+            }
+        }
+
+        for (int u = 0; u < after.size(); u++) {
+            int old = before.indexOf(after.dpid(u));
+            if (old == TopologyIndex.NONE) {
+                for (int e = after.outStart(u); e < after.outEnd(u); e = runEnd(after, e, after.outEnd(u))) {
+                    int best = cheapest(after, e, runEnd(after, e, after.outEnd(u)));
+                    delta.improved.add(after.dpid(u), after.dpid(after.edgeTarget(e)), after.edgeCost(best));
+                }
+            } else {
+                delta.compareAdjacencies(before, old, after, u);
+            }
+        }
+
+        return delta;
+    }
+
+    /**
+     * Merge the adjacencies of one switch in both topologies. Edges are
+     * ordered by target index, and indices follow DPID order, so walking both
+     * lists together lines up the same neighbours.
+     */
+    private void compareAdjacencies(TopologyIndex before, int oldIndex, TopologyIndex after, int newIndex) {
+        long dpid = after.dpid(newIndex);
+        int i = before.outStart(oldIndex);
+        int iEnd = before.outEnd(oldIndex);
+        int j = after.outStart(newIndex);
+        int jEnd = after.outEnd(newIndex);
+
+        while (i < iEnd || j < jEnd) {
+            int cmp;
+            if (i >= iEnd) {
+                cmp = 1;
+            } else if (j >= jEnd) {
+                cmp = -1;
+            } else {
+                cmp = Long.compare(before.dpid(before.edgeTarget(i)), after.dpid(after.edgeTarget(j)));
+            }
+
+            if (cmp < 0) {
+                this.worsened.add(dpid, before.dpid(before.edgeTarget(i)));
+                i = runEnd(before, i, iEnd);
+            } else if (cmp > 0) {
+                int jRun = runEnd(after, j, jEnd);
+                this.improved.add(dpid, after.dpid(after.edgeTarget(j)), after.edgeCost(cheapest(after, j, jRun)));
+                j = jRun;
+            } else {
+                int iRun = runEnd(before, i, iEnd);
+                int jRun = runEnd(after, j, jEnd);
+                int oldEdge = cheapest(before, i, iRun);
+                int newEdge = cheapest(after, j, jRun);
+                long target = after.dpid(after.edgeTarget(j));
+                if (after.edgeCost(newEdge) < before.edgeCost(oldEdge)) {
+                    this.improved.add(dpid, target, after.edgeCost(newEdge));
+                } else if (after.edgeCost(newEdge) > before.edgeCost(oldEdge)) {
+                    this.worsened.add(dpid, target);
+                } else if (after.edgePort(newEdge) != before.edgePort(oldEdge)
+                        || !sameLinks(before, i, iRun, after, j, jRun)) {
+                    this.rerouted.add(dpid, target);
+                }
+                i = iRun;
+                j = jRun;
+            }
+        }
+    }
+
+    /**
+     * Get the end of the run of parallel edges starting at an edge.
+     */
+    private static int runEnd(TopologyIndex topology, int edge, int end) {
+        int target = topology.edgeTarget(edge);
+        int e = edge + 1;
+        while (e < end && topology.edgeTarget(e) == target) {
+            e++;
+        }
+        return e;
+    }
+
+    /**
+     * Get the edge of a parallel run that findEdge would choose.
+     */
+    private static int cheapest(TopologyIndex topology, int from, int to) {
+        int best = from;
+        for (int e = from + 1; e < to; e++) {
+            if (topology.edgeCost(e) < topology.edgeCost(best)) {
+                best = e;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Check whether two runs of parallel edges have the same ports and costs.
+     */
+    private static boolean sameLinks(TopologyIndex before, int i, int iEnd, TopologyIndex after, int j, int jEnd) {
+        if (iEnd - i != jEnd - j) {
+            return false;
+        }
+        for (int e = j; e < jEnd; e++) {
+            boolean found = false;
+            for (int old = i; old < iEnd && !found; old++) {
+                found = before.edgePort(old) == after.edgePort(e) && before.edgeCost(old) == after.edgeCost(e);
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameSwitches(TopologyIndex before, TopologyIndex after) {
+        if (before.size() != after.size()) {
+            return false;
+        }
+        for (int i = 0; i < before.size(); i++) {
+            if (before.dpid(i) != after.dpid(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
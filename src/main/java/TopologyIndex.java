@@ -0,0 +1,353 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.Arrays;
+
+/**
+ * Immutable, compact index of the switch topology. Switches are mapped from
+ * DPIDs to dense int indices (in ascending DPID order, so the same set of
+ * switches always gets the same indices) and links are stored as a CSR
+ * adjacency: the out-edges of switch u are the edge ids in
+ * [outStart(u), outEnd(u)), each with its target switch, source port and
+ * cost. A second CSR over the same edge ids lists the in-edges of each
+ * switch, which is what destination-rooted path searches walk.
+ *
+ * An index is built once per topology change and then only read, so it can
+ * be shared freely between threads.
+ */
+public final class TopologyIndex {
+    // Returned when a DPID or an edge is not part of the topology
+    public static final int NONE = -1;
+
+    // Switch index -> DPID, sorted ascending
+    private final long[] dpids;
+
+    // DPID -> switch index
+    private final LongIntHashMap indexOf;
+
+    // Out-edges of switch u are [outOffsets[u], outOffsets[u + 1])
+    private final int[] outOffsets;
+    private final int[] edgeSrc;
+    private final int[] edgeDst;
+    private final int[] edgeSrcPort;
+    private final int[] edgeDstPort;
+    private final int[] edgeCost;
+
+    // In-edges of switch v are inEdges[inOffsets[v]] .. inEdges[inOffsets[v + 1] - 1]
+    private final int[] inOffsets;
+    private final int[] inEdges;
+
+    // (src index << 32 | dst index) -> edge findEdge picks between them
+    private final LongIntHashMap adjacencyEdges;
+
+    // True if every edge has cost 1, so hop count is the path cost
+    private final boolean unitCost;
+
+    private TopologyIndex(long[] dpids, LongIntHashMap indexOf, int[] outOffsets,
+                          int[] edgeSrc, int[] edgeDst, int[] edgeSrcPort, int[] edgeDstPort,
+                          int[] edgeCost, int[] inOffsets, int[] inEdges, LongIntHashMap adjacencyEdges) {
+        this.dpids = dpids;
+        this.indexOf = indexOf;
+        this.outOffsets = outOffsets;
+        this.edgeSrc = edgeSrc;
+        this.edgeDst = edgeDst;
+        this.edgeSrcPort = edgeSrcPort;
+        this.edgeDstPort = edgeDstPort;
+        this.edgeCost = edgeCost;
+        this.inOffsets = inOffsets;
+        this.inEdges = inEdges;
+        this.adjacencyEdges = adjacencyEdges;
+        boolean unit = true;
+        for (int cost : edgeCost) {
+            unit &= cost == 1;
+        }
+        this.unitCost = unit;
+    }
+
+    /**
+     * Get the number of switches in the topology.
+     */
+    public int size() {
+        return this.dpids.length;
+    }
+
+    /**
+     * Get the number of directed switch-to-switch edges in the topology.
+     */
+    public int edgeCount() {
+        return this.edgeDst.length;
+    }
+
+    /**
+     * Get the DPID of the switch with the given index.
+     */
+    public long dpid(int index) {
+        return this.dpids[index];
+    }
+
+    /**
+     * Get the index of a switch, or {@link #NONE} if it is not in the topology.
+     */
+    public int indexOf(long dpid) {
+        return this.indexOf.get(dpid);
+    }
+
+    public int outStart(int index) {
+        return this.outOffsets[index];
+    }
+
+    public int outEnd(int index) {
+        return this.outOffsets[index + 1];
+    }
+
+    public int edgeSource(int edge) {
+        return this.edgeSrc[edge];
+    }
+
+    public int edgeTarget(int edge) {
+        return this.edgeDst[edge];
+    }
+
+    /**
+     * Get the port on the source switch that an edge leaves through.
+     */
+    public int edgePort(int edge) {
+        return this.edgeSrcPort[edge];
+    }
+
+    /**
+     * Get the port on the target switch that an edge arrives on.
+     */
+    public int edgeTargetPort(int edge) {
+        return this.edgeDstPort[edge];
+    }
+
+    /**
+     * Get the cost of an edge. Costs are always at least 1.
+     */
+    public int edgeCost(int edge) {
+        return this.edgeCost[edge];
+    }
+
+    /**
+     * Check whether every edge has cost 1.
+     */
+    public boolean isUnitCost() {
+        return this.unitCost;
+    }
+
+    public int inStart(int index) {
+        return this.inOffsets[index];
+    }
+
+    public int inEnd(int index) {
+        return this.inOffsets[index + 1];
+    }
+
+    /**
+     * Get the edge id at a position of the in-edge CSR.
+     */
+    public int inEdge(int position) {
+        return this.inEdges[position];
+    }
+
+    /**
+     * Find the edge used to get from one switch to an adjacent one, or
+     * {@link #NONE}. When switches are joined by parallel links this is the
+     * cheapest of them, with ties going to the lowest port. This is a single
+     * lookup in an index built with the topology.
+     */
+    public int findEdge(int src, int dst) {
+        return this.adjacencyEdges.get(adjacencyKey(src, dst));
+    }
+
+    /**
+     * Get the port a switch should send out of to reach an adjacent switch,
+     * or {@link #NONE} if the two are not directly linked.
+     */
+    public int portTo(int src, int dst) {
+        int edge = findEdge(src, dst);
+        return edge == NONE ? NONE : this.edgeSrcPort[edge];
+    }
+
+    /**
+     * Get the port a switch should send out of to reach an adjacent switch,
+     * by DPID, or {@link #NONE} if either is unknown or they are not linked.
+     */
+    public int portToSwitch(long srcDpid, long dstDpid) {
+        int src = this.indexOf.get(srcDpid);
+        int dst = this.indexOf.get(dstDpid);
+        return src == NONE || dst == NONE ? NONE : portTo(src, dst);
+    }
+
+    /**
+     * Check whether another index has exactly the same switches and links,
+     * parallel links included, at the same costs.
+     */
+    public boolean hasSameLinks(TopologyIndex other) {
+        return Arrays.equals(this.dpids, other.dpids) && Arrays.equals(this.edgeSrc, other.edgeSrc)
+                && Arrays.equals(this.edgeDst, other.edgeDst) && Arrays.equals(this.edgeSrcPort, other.edgeSrcPort)
+                && Arrays.equals(this.edgeDstPort, other.edgeDstPort) && Arrays.equals(this.edgeCost, other.edgeCost);
+    }
+
+    private static long adjacencyKey(int src, int dst) {
+        return ((long) src << 32) | (dst & 0xFFFFFFFFL);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Collects switches and links, then packs them into a {@link TopologyIndex}.
+     * Links whose endpoints were never added as switches are dropped, just as
+     * the old code skipped links to switches missing from the switch map.
+     */
+    public static final class Builder {
+        private long[] switches = new long[16];
+        private int switchCount;
+        private long[] linkSrc = new long[16];
+        private long[] linkDst = new long[16];
+        private int[] linkSrcPort = new int[16];
+        private int[] linkDstPort = new int[16];
+        private int[] linkCost = new int[16];
+        private int linkCount;
+
+        private Builder() {
+        }
+
+        public Builder addSwitch(long dpid) {
+            if (this.switchCount == this.switches.length) {
+                this.switches = Arrays.copyOf(this.switches, this.switchCount * 2);
+            }
+            this.switches[this.switchCount++] = dpid;
+            return this;
+        }
+
+        public Builder addLink(long srcDpid, int srcPort, long dstDpid, int dstPort) {
+            return addLink(srcDpid, srcPort, dstDpid, dstPort, 1);
+        }
+
+        public Builder addLink(long srcDpid, int srcPort, long dstDpid, int dstPort, int cost) {
+            if (this.linkCount == this.linkSrc.length) {
+                int capacity = this.linkCount * 2;
+                this.linkSrc = Arrays.copyOf(this.linkSrc, capacity);
+                this.linkDst = Arrays.copyOf(this.linkDst, capacity);
+                this.linkSrcPort = Arrays.copyOf(this.linkSrcPort, capacity);
+                this.linkDstPort = Arrays.copyOf(this.linkDstPort, capacity);
+                this.linkCost = Arrays.copyOf(this.linkCost, capacity);
+            }
+            this.linkSrc[this.linkCount] = srcDpid;
+            this.linkDst[this.linkCount] = dstDpid;
+            this.linkSrcPort[this.linkCount] = srcPort;
+            this.linkDstPort[this.linkCount] = dstPort;
+            this.linkCost[this.linkCount] = Math.max(cost, 1);
+            this.linkCount++;
+            return this;
+        }
+
+        public TopologyIndex build() {
+            long[] sorted = Arrays.copyOf(this.switches, this.switchCount);
+            Arrays.sort(sorted);
+            int n = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (n == 0 || sorted[n - 1] != sorted[i]) {
+                    sorted[n++] = sorted[i];
+                }
+            }
+            long[] dpids = Arrays.copyOf(sorted, n);
+            LongIntHashMap indexOf = new LongIntHashMap(n);
+            for (int i = 0; i < n; i++) {
+                indexOf.put(dpids[i], i);
+            }
+
+            // Count out-degrees, then lay the edges out grouped by source
+            int[] src = new int[this.linkCount];
+            int[] dst = new int[this.linkCount];
+            int[] outOffsets = new int[n + 1];
+            int m = 0;
+            for (int i = 0; i < this.linkCount; i++) {
+                int s = indexOf.get(this.linkSrc[i]);
+                int d = indexOf.get(this.linkDst[i]);
+                src[i] = s;
+                dst[i] = d;
+                if (s != NONE && d != NONE && s != d) {
+                    outOffsets[s + 1]++;
+                    m++;
+                }
+            }
+            for (int i = 0; i < n; i++) {
+                outOffsets[i + 1] += outOffsets[i];
+            }
+
+            int[] edgeSrc = new int[m];
+            int[] edgeDst = new int[m];
+            int[] edgeSrcPort = new int[m];
+            int[] edgeDstPort = new int[m];
+            int[] edgeCost = new int[m];
+            int[] next = Arrays.copyOf(outOffsets, n);
+            for (int i = 0; i < this.linkCount; i++) {
+                int s = src[i];
+                int d = dst[i];
+                if (s != NONE && d != NONE && s != d) {
+                    int e = next[s]++;
+                    edgeSrc[e] = s;
+                    edgeDst[e] = d;
+                    edgeSrcPort[e] = this.linkSrcPort[i];
+                    edgeDstPort[e] = this.linkDstPort[i];
+                    edgeCost[e] = this.linkCost[i];
+                }
+            }
+
+            // Order each switch's edges by target and port, so rebuilding an
+            // unchanged topology yields an identical index
+            for (int u = 0; u < n; u++) {
+                for (int i = outOffsets[u] + 1; i < outOffsets[u + 1]; i++) {
+                    int d = edgeDst[i];
+                    int sp = edgeSrcPort[i];
+                    int dp = edgeDstPort[i];
+                    int c = edgeCost[i];
+                    int j = i - 1;
+                    while (j >= outOffsets[u] && (edgeDst[j] > d
+                            || (edgeDst[j] == d && edgeSrcPort[j] > sp))) {
+                        edgeDst[j + 1] = edgeDst[j];
+                        edgeSrcPort[j + 1] = edgeSrcPort[j];
+                        edgeDstPort[j + 1] = edgeDstPort[j];
+                        edgeCost[j + 1] = edgeCost[j];
+                        j--;
+                    }
+                    edgeDst[j + 1] = d;
+                    edgeSrcPort[j + 1] = sp;
+                    edgeDstPort[j + 1] = dp;
+                    edgeCost[j + 1] = c;
+                }
+            }
+
+            // Reverse CSR over the same edge ids, grouped by target
+            int[] inOffsets = new int[n + 1];
+            for (int e = 0; e < m; e++) {
+                inOffsets[edgeDst[e] + 1]++;
+            }
+            for (int i = 0; i < n; i++) {
+                inOffsets[i + 1] += inOffsets[i];
+            }
+            int[] inEdges = new int[m];
+            int[] nextIn = Arrays.copyOf(inOffsets, n);
+            for (int e = 0; e < m; e++) {
+                inEdges[nextIn[edgeDst[e]]++] = e;
+            }
+
+            // Pick the edge used for each adjacency: cheapest, then lowest port
+            LongIntHashMap adjacencyEdges = new LongIntHashMap(m);
+            for (int e = 0; e < m; e++) {
+                long key = adjacencyKey(edgeSrc[e], edgeDst[e]);
+                int best = adjacencyEdges.get(key);
+                if (best == NONE || edgeCost[e] < edgeCost[best]) {
+                    adjacencyEdges.put(key, e);
+                }
+            }
+
+            return new TopologyIndex(dpids, indexOf, outOffsets, edgeSrc, edgeDst,
+                    edgeSrcPort, edgeDstPort, edgeCost, inOffsets, inEdges, adjacencyEdges);
+        }
+    }
+}
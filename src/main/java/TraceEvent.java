@@ -0,0 +1,249 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One recorded network event, as the module saw it: a switch connecting or
+ * disconnecting, one direction of a link being discovered or removed, or a
+ * host being attached somewhere or detached. Traces are text, one event per
+ * line, with decimal numbers. In reactive mode a trace can also hold the
+ * flows seen arriving at switches without a rule for them, and for
+ * congestion-aware rerouting the port counters sampled from switches:
+ *
+ *     <millis> SWITCH_ADDED <dpid>
+ *     <millis> SWITCH_REMOVED <dpid>
+ *     <millis> LINK_UPDATED <src dpid> <src port> <dst dpid> <dst port>
+ *     <millis> LINK_REMOVED <src dpid> <src port> <dst dpid> <dst port>
+ *     <millis> HOST_UPDATED <mac> <dpid> <port> <ipv4>
+ *     <millis> HOST_REMOVED <mac>
+ *     <millis> FLOW_REQUESTED <dpid> <dst mac>
+ *     <millis> PORT_COUNTERS <dpid> <port> <tx bytes> <speed bps>
+ *
+ * Blank lines and lines starting with # are ignored.
+ */
+public final class TraceEvent {
+
+    public enum Type {
+        SWITCH_ADDED,
+        SWITCH_REMOVED,
+        LINK_UPDATED,
+        LINK_REMOVED,
+        HOST_UPDATED,
+        HOST_REMOVED,
+        FLOW_REQUESTED,
+        PORT_COUNTERS
+    }
+
+    private final long timeMillis;
+    private final Type type;
+    private final long dpid;
+    private final int port;
+    private final long peerDpid;
+    private final int peerPort;
+    private final long mac;
+    private final int ipv4;
+    private final long txBytes;
+    private final long speedBps;
+
+    private TraceEvent(long timeMillis, Type type, long dpid, int port, long peerDpid, int peerPort,
+                       long mac, int ipv4) {
+        this(timeMillis, type, dpid, port, peerDpid, peerPort, mac, ipv4, 0, 0);
+    }
+
+    private TraceEvent(long timeMillis, Type type, long dpid, int port, long peerDpid, int peerPort,
+                       long mac, int ipv4, long txBytes, long speedBps) {
+        this.timeMillis = timeMillis;
+        this.type = type;
+        this.dpid = dpid;
+        this.port = port;
+        this.peerDpid = peerDpid;
+        this.peerPort = peerPort;
+        this.mac = mac;
+        this.ipv4 = ipv4;
+        this.txBytes = txBytes;
+        this.speedBps = speedBps;
+    }
+
+    public static TraceEvent switchAdded(long timeMillis, long dpid) {
+        return new TraceEvent(timeMillis, Type.SWITCH_ADDED, dpid, 0, 0, 0, 0, 0);
+    }
+
+    public static TraceEvent switchRemoved(long timeMillis, long dpid) {
+        return new TraceEvent(timeMillis, Type.SWITCH_REMOVED, dpid, 0, 0, 0, 0, 0);
+    }
+
+    public static TraceEvent linkUpdated(long timeMillis, long src, int srcPort, long dst, int dstPort) {
+        return new TraceEvent(timeMillis, Type.LINK_UPDATED, src, srcPort, dst, dstPort, 0, 0);
+    }
+
+    public static TraceEvent linkRemoved(long timeMillis, long src, int srcPort, long dst, int dstPort) {
+        return new TraceEvent(timeMillis, Type.LINK_REMOVED, src, srcPort, dst, dstPort, 0, 0);
+    }
+
+    public static TraceEvent hostUpdated(long timeMillis, long mac, long dpid, int port, int ipv4) {
+        return new TraceEvent(timeMillis, Type.HOST_UPDATED, dpid, port, 0, 0, mac, ipv4);
+    }
+
+    public static TraceEvent hostRemoved(long timeMillis, long mac) {
+        return new TraceEvent(timeMillis, Type.HOST_REMOVED, 0, 0, 0, 0, mac, 0);
+    }
+
+    public static TraceEvent flowRequested(long timeMillis, long dpid, long mac) {
+        return new TraceEvent(timeMillis, Type.FLOW_REQUESTED, dpid, 0, 0, 0, mac, 0);
+    }
+
+    public static TraceEvent portCounters(long timeMillis, long dpid, int port, long txBytes, long speedBps) {
+        return new TraceEvent(timeMillis, Type.PORT_COUNTERS, dpid, port, 0, 0, 0, 0, txBytes, speedBps);
+    }
+
+    public long getTimeMillis() {
+        return this.timeMillis;
+    }
+
+    public Type getType() {
+        return this.type;
+    }
+
+    /**
+     * Get the switch the event is about, the source of a link, the switch
+     * a host is attached to, the switch a flow arrived at, or the switch
+     * whose counters were sampled.
+     */
+    public long getDpid() {
+        return this.dpid;
+    }
+
+    /**
+     * Get the source port of a link, the port a host is attached to, or the
+     * port whose counters were sampled.
+     */
+    public int getPort() {
+        return this.port;
+    }
+
+    /**
+     * Get the destination switch of a link.
+     */
+    public long getPeerDpid() {
+        return this.peerDpid;
+    }
+
+    /**
+     * Get the destination port of a link.
+     */
+    public int getPeerPort() {
+        return this.peerPort;
+    }
+
+    public long getMac() {
+        return this.mac;
+    }
+
+    public int getIPv4Address() {
+        return this.ipv4;
+    }
+
+    /**
+     * Get the bytes a sampled port had transmitted.
+     */
+    public long getTransmitBytes() {
+        return this.txBytes;
+    }
+
+    /**
+     * Get the speed of a sampled port in bits per second, or 0 if unknown.
+     */
+    public long getSpeedBps() {
+        return this.speedBps;
+    }
+
+    /**
+     * Get the link a link event is about.
+     */
+    public SwitchLink getLink() {
+        return new SwitchLink(this.dpid, this.port, this.peerDpid, this.peerPort);
+    }
+
+    /**
+     * Parse one line of a trace.
+     *
+     * @throws IllegalArgumentException if the line is not a valid event
+     */
+    public static TraceEvent parse(String line) {
+        String[] fields = line.trim().split("\\s+");
+        try {
+            long time = Long.parseLong(fields[0]);
+            Type type = Type.valueOf(fields[1]);
+            switch (type) {
+                case SWITCH_ADDED:
+                    return switchAdded(time, Long.parseLong(fields[2]));
+                case SWITCH_REMOVED:
+                    return switchRemoved(time, Long.parseLong(fields[2]));
+                case LINK_UPDATED:
+                    return linkUpdated(time, Long.parseLong(fields[2]), Integer.parseInt(fields[3]),
+                            Long.parseLong(fields[4]), Integer.parseInt(fields[5]));
+                case LINK_REMOVED:
+                    return linkRemoved(time, Long.parseLong(fields[2]), Integer.parseInt(fields[3]),
+                            Long.parseLong(fields[4]), Integer.parseInt(fields[5]));
+                case HOST_UPDATED:
+                    return hostUpdated(time, Long.parseLong(fields[2]), Long.parseLong(fields[3]),
+                            Integer.parseInt(fields[4]), Integer.parseInt(fields[5]));
+                case FLOW_REQUESTED:
+                    return flowRequested(time, Long.parseLong(fields[2]), Long.parseLong(fields[3]));
+                case PORT_COUNTERS:
+                    return portCounters(time, Long.parseLong(fields[2]), Integer.parseInt(fields[3]),
+                            Long.parseLong(fields[4]), Long.parseLong(fields[5]));
+                default:
+                    return hostRemoved(time, Long.parseLong(fields[2]));
+            }
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid trace event: " + line, e);
+        }
+    }
+
+    /**
+     * Read every event of a trace, in order.
+     */
+    public static List<TraceEvent> read(Reader reader) throws IOException {
+        List<TraceEvent> events = new ArrayList<TraceEvent>();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                events.add(parse(trimmed));
+            }
+        }
+        return events;
+    }
+
+    /**
+     * Format the event as a line of a trace.
+     */
+    @Override
+    public String toString() {
+        switch (this.type) {
+            case SWITCH_ADDED:
+            case SWITCH_REMOVED:
+                return String.format("%d %s %d", this.timeMillis, this.type, this.dpid);
+            case LINK_UPDATED:
+            case LINK_REMOVED:
+                return String.format("%d %s %d %d %d %d", this.timeMillis, this.type,
+                        this.dpid, this.port, this.peerDpid, this.peerPort);
+            case HOST_UPDATED:
+                return String.format("%d %s %d %d %d %d", this.timeMillis, this.type,
+                        this.mac, this.dpid, this.port, this.ipv4);
+            case FLOW_REQUESTED:
+                return String.format("%d %s %d %d", this.timeMillis, this.type, this.dpid, this.mac);
+            case PORT_COUNTERS:
+                return String.format("%d %s %d %d %d %d", this.timeMillis, this.type, this.dpid, this.port,
+                        this.txBytes, this.speedBps);
+            default:
+                return String.format("%d %s %d", this.timeMillis, this.type, this.mac);
+        }
+    }
+}
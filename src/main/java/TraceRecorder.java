@@ -0,0 +1,96 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends network events to a trace file as they happen, for replaying
+ * through the {@link RoutingSimulator}. Events may be recorded from any
+ * thread; they are written on a dedicated thread, so recording never waits
+ * on the disk. If the writer falls more than a bounded number of events
+ * behind, further events are dropped rather than queued. A write failure is
+ * logged once and recording stops, so a full disk never gets in the way of
+ * routing.
+ */
+public final class TraceRecorder {
+    private static Logger log = LoggerFactory.getLogger(TraceRecorder.class.getSimpleName());
+
+    // Most events waiting to be written
+    private static final int QUEUE_SIZE = 65536;
+
+    private final Writer writer;
+    private final ThreadPoolExecutor executor;
+
+    // Only touched from the writing thread
+    private boolean failed;
+
+    // Whether events were dropped since the writer last said so
+    private volatile boolean dropping;
+
+    /**
+     * Open a trace file, appending to it if it exists.
+     */
+    public TraceRecorder(String path) throws IOException {
+        this.writer = new BufferedWriter(new FileWriter(path, true));
+        this.executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, TraceRecorder.class.getSimpleName());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    public void record(TraceEvent event) {
+        try {
+            this.executor.execute(() -> write(event));
+        } catch (RejectedExecutionException e) {
+            this.dropping = true;
+        }
+    }
+
+    public void close() {
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(1, TimeUnit.SECONDS);
+            this.writer.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            log.warn("Failed to close event trace", e);
+        }
+    }
+
+    private void write(TraceEvent event) {
+        if (this.failed) {
+            return;
+        }
+        if (this.dropping) {
+            log.warn("Event trace fell behind and dropped events; it is incomplete from here");
+            this.dropping = false;
+        }
+        try {
+            this.writer.write(event.toString());
+            this.writer.write('\n');
+            // Only flushed once the backlog is written
+            if (this.executor.getQueue().isEmpty()) {
+                this.writer.flush();
+            }
+        } catch (IOException e) {
+            log.error("Failed to record event trace, recording stopped", e);
+            this.failed = true;
+        }
+    }
+}
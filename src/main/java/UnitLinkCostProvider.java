@@ -0,0 +1,12 @@
+package edu.brown.cs.sdn.apps.sps;
+
+/**
+ * Every link costs 1, so routes minimise hop count.
+ */
+public final class UnitLinkCostProvider implements LinkCostProvider {
+
+    @Override
+    public int getCost(long srcDpid, int srcPort, long dstDpid, int dstPort) {
+        return 1;
+    }
+}
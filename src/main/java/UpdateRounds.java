@@ -0,0 +1,122 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits the rules one update installs into rounds, so that traffic never
+ * reaches a switch that has not been given its new rule yet. Every rule
+ * forwards towards one destination switch, and a switch only ever sends
+ * traffic for a destination to neighbours strictly closer to it in the
+ * destination's tree: its next hops, equal-cost or not, and its downstream
+ * alternate. So the rules for each destination go out nearest first, one
+ * round per distance, and the rounds of different destinations go out
+ * together. Once a round is applied everywhere, every switch a rule of the
+ * next round can send traffic to is already on the new routes, so traffic
+ * moves from the old routes to the new ones without loops or drops.
+ *
+ * Rules the trees cannot place, and the rules of an update to a single
+ * switch, all go in the first round.
+ *
+ * New rules are not installed beside the old ones at a higher priority.
+ * Without a version tag in the packets, a higher-priority rule takes over
+ * as soon as it is installed, just as a same-match add replaces a rule in
+ * one step, so it would still need this ordering between switches. It
+ * would also need room for both sets of rules in the table, and priorities
+ * alternating between updates, while the shadow tables key rules by match.
+ */
+public final class UpdateRounds {
+    private UpdateRounds() {
+    }
+
+    /**
+     * @param installs rules to add or change
+     * @param trees the trees the rules were generated from, or null
+     * @param hosts where every host is attached
+     * @param labels MPLS labels of destination switches, for aggregated mode
+     * @return the rules by round, in the order to send them
+     */
+    public static List<List<FlowRule>> split(List<FlowRule> installs, ShortestPathTrees trees, HostRegistry hosts,
+                                             SwitchLabels labels) {
+        List<List<FlowRule>> rounds = new ArrayList<List<FlowRule>>();
+        if (trees == null || isSingleSwitch(installs)) {
+            rounds.add(installs);
+            return rounds;
+        }
+
+        // Destination of every rule, and its distance to it
+        TopologyIndex topology = trees.getTopology();
+        final int[] roots = new int[installs.size()];
+        final int[] distances = new int[installs.size()];
+        LongIntHashMap labelRoots = null;
+        for (int i = 0; i < roots.length; i++) {
+            FlowRule rule = installs.get(i);
+            FlowMatch match = rule.getMatch();
+            int root = TopologyIndex.NONE;
+            if (match.getEthDst() != FlowMatch.ANY_ETH_DST) {
+                int slot = hosts.slotOf(match.getEthDst());
+                root = slot == HostRegistry.NONE ? TopologyIndex.NONE : topology.indexOf(hosts.getDpid(slot));
+            } else if (match.getMplsLabel() != FlowMatch.ANY_LABEL) {
+                if (labelRoots == null) {
+                    labelRoots = getLabelRoots(topology, labels);
+                }
+                int labelRoot = labelRoots.get(match.getMplsLabel());
+                root = labelRoot == LongIntHashMap.MISSING ? TopologyIndex.NONE : labelRoot;
+            }
+            ShortestPathTree tree = root == TopologyIndex.NONE ? null : trees.getTree(root);
+            int index = topology.indexOf(rule.getDpid());
+            if (tree == null || index == TopologyIndex.NONE || !tree.isReachable(index)) {
+                root = TopologyIndex.NONE;
+            }
+            roots[i] = root;
+            distances[i] = root == TopologyIndex.NONE ? 0 : tree.distance(index);
+        }
+
+        Integer[] order = new Integer[roots.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> roots[a] != roots[b]
+                ? Integer.compare(roots[a], roots[b]) : Integer.compare(distances[a], distances[b]));
+
+        // A destination's rules move to the next round at every new distance
+        int round = 0;
+        for (int k = 0; k < order.length; k++) {
+            int i = order[k];
+            if (k == 0 || roots[i] != roots[order[k - 1]]) {
+                round = 0;
+            } else if (roots[i] != TopologyIndex.NONE && distances[i] != distances[order[k - 1]]) {
+                round++;
+            }
+            if (round == rounds.size()) {
+                rounds.add(new ArrayList<FlowRule>());
+            }
+            rounds.get(round).add(installs.get(i));
+        }
+        return rounds;
+    }
+
+    private static boolean isSingleSwitch(List<FlowRule> installs) {
+        for (FlowRule rule : installs) {
+            if (rule.getDpid() != installs.get(0).getDpid()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Map the label of every switch of a topology that has one to its index.
+     */
+    private static LongIntHashMap getLabelRoots(TopologyIndex topology, SwitchLabels labels) {
+        LongIntHashMap labelRoots = new LongIntHashMap();
+        for (int root = 0; root < topology.size(); root++) {
+            int label = labels.getLabel(topology.dpid(root));
+            if (label != LongIntHashMap.MISSING) {
+                labelRoots.put(label, root);
+            }
+        }
+        return labelRoots;
+    }
+}
@@ -0,0 +1,160 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that the reactive flow cache evicts pairs in least recently used
+ * order, reuses the slots of removed pairs, and reports each eviction once.
+ */
+public class FlowCacheTest {
+    private static final short IDLE_TIMEOUT = 10;
+    private static final short HARD_TIMEOUT = 300;
+
+    @Test
+    public void fullCacheEvictsLeastRecentlyUsed() {
+        FlowCache cache = new FlowCache(3, IDLE_TIMEOUT, HARD_TIMEOUT);
+        assertTrue(cache.touch(1, 0xa));
+        assertTrue(cache.touch(1, 0xb));
+        assertTrue(cache.touch(2, 0xa));
+        assertFalse(cache.touch(1, 0xa));
+        assertEquals(0, cache.getEvictedCount());
+
+        // s1 to b is now the oldest, then s2 to a
+        assertTrue(cache.touch(2, 0xc));
+        assertEvicted(cache, 1, 0xb);
+        assertFalse(cache.contains(1, 0xb));
+        cache.clearEvicted();
+        assertTrue(cache.touch(3, 0xa));
+        assertEvicted(cache, 2, 0xa);
+        assertEquals(3, cache.size());
+        assertEquals(2, cache.getEvictions());
+        assertTrue(cache.contains(1, 0xa));
+        assertTrue(cache.contains(2, 0xc));
+        assertTrue(cache.contains(3, 0xa));
+    }
+
+    @Test
+    public void evictionsAreKeptUntilCleared() {
+        FlowCache cache = new FlowCache(2, IDLE_TIMEOUT, HARD_TIMEOUT);
+        for (long mac = 1; mac <= 12; mac++) {
+            cache.touch(1, mac);
+        }
+        // More evictions than the list first holds, in eviction order
+        assertEquals(10, cache.getEvictedCount());
+        for (int i = 0; i < 10; i++) {
+            assertEquals(1, cache.getEvictedDpid(i));
+            assertEquals(i + 1, cache.getEvictedMac(i));
+        }
+        cache.clearEvicted();
+        assertEquals(0, cache.getEvictedCount());
+        assertEquals(10, cache.getEvictions());
+        cache.touch(1, 13);
+        assertEvicted(cache, 1, 11);
+    }
+
+    @Test
+    public void removedPairsFreeTheirSlots() {
+        FlowCache cache = new FlowCache(3, IDLE_TIMEOUT, HARD_TIMEOUT);
+        cache.touch(1, 0xa);
+        cache.touch(1, 0xb);
+        cache.touch(1, 0xc);
+        assertTrue(cache.remove(1, 0xb));
+        assertFalse(cache.remove(1, 0xb));
+        assertFalse(cache.remove(2, 0xa));
+        assertEquals(2, cache.size());
+
+        // The freed slot takes a new pair without evicting, and the order of
+        // the others is kept round it
+        assertTrue(cache.touch(2, 0xb));
+        assertEquals(0, cache.getEvictedCount());
+        assertTrue(cache.touch(2, 0xd));
+        assertEvicted(cache, 1, 0xa);
+        cache.clearEvicted();
+        assertTrue(cache.touch(2, 0xe));
+        assertEvicted(cache, 1, 0xc);
+    }
+
+    @Test
+    public void removedSwitchFreesEveryPairOfIt() {
+        FlowCache cache = new FlowCache(4, IDLE_TIMEOUT, HARD_TIMEOUT);
+        cache.touch(1, 0xa);
+        cache.touch(2, 0xa);
+        cache.touch(1, 0xb);
+        cache.touch(2, 0xb);
+        cache.removeSwitch(1);
+        cache.removeSwitch(3);
+        assertEquals(2, cache.size());
+        assertFalse(cache.contains(1, 0xa));
+        assertFalse(cache.contains(1, 0xb));
+
+        assertTrue(cache.touch(1, 0xa));
+        assertTrue(cache.touch(3, 0xa));
+        assertEquals(0, cache.getEvictedCount());
+        cache.touch(3, 0xb);
+        assertEvicted(cache, 2, 0xa);
+    }
+
+    @Test
+    public void matchesAccessOrderedSetUnderRandomUse() {
+        Random random = new Random(1);
+        int capacity = 64;
+        FlowCache cache = new FlowCache(capacity, IDLE_TIMEOUT, HARD_TIMEOUT);
+        // Pairs from least to most recently used
+        LinkedHashSet<List<Long>> expected = new LinkedHashSet<List<Long>>();
+        for (int i = 0; i < 100000; i++) {
+            long dpid = random.nextInt(6);
+            long mac = random.nextInt(40);
+            List<Long> pair = pair(dpid, mac);
+            int action = random.nextInt(20);
+            if (action == 0) {
+                cache.removeSwitch(dpid);
+                expected.removeIf(p -> p.get(0) == dpid);
+            } else if (action < 5) {
+                assertEquals(expected.remove(pair), cache.remove(dpid, mac));
+            } else {
+                boolean added = !expected.remove(pair);
+                List<Long> oldest = null;
+                if (added && expected.size() == capacity) {
+                    Iterator<List<Long>> it = expected.iterator();
+                    oldest = it.next();
+                    it.remove();
+                }
+                expected.add(pair);
+                assertEquals(added, cache.touch(dpid, mac));
+                if (oldest != null) {
+                    assertEvicted(cache, oldest.get(0), oldest.get(1));
+                } else {
+                    assertEquals(0, cache.getEvictedCount());
+                }
+                cache.clearEvicted();
+            }
+            assertEquals(expected.size(), cache.size());
+        }
+        for (List<Long> pair : expected) {
+            assertTrue(pair.toString(), cache.contains(pair.get(0), pair.get(1)));
+        }
+    }
+
+    private static void assertEvicted(FlowCache cache, long dpid, long mac) {
+        assertEquals(1, cache.getEvictedCount());
+        assertEquals(dpid, cache.getEvictedDpid(0));
+        assertEquals(mac, cache.getEvictedMac(0));
+    }
+
+    private static List<Long> pair(long dpid, long mac) {
+        List<Long> pair = new ArrayList<Long>(2);
+        pair.add(dpid);
+        pair.add(mac);
+        return pair;
+    }
+}
@@ -0,0 +1,206 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.openflow.protocol.OFBarrierReply;
+import org.openflow.protocol.OFError;
+import org.openflow.protocol.OFFlowMod;
+import org.openflow.protocol.OFMessage;
+
+import net.floodlightcontroller.core.IListener.Command;
+import net.floodlightcontroller.core.IOFSwitch;
+
+/**
+ * Checks that a batch counts as applied on a switch only when its barrier
+ * reply comes without the switch having rejected any of its messages.
+ */
+public class FlowModDispatcherTest {
+    // Long enough that no barrier times out while a test answers it
+    private static final long BARRIER_TIMEOUT_MILLIS = 10000;
+
+    private final Queue<Long> failures = new ConcurrentLinkedQueue<Long>();
+
+    @Test
+    public void barrierReplyConfirmsBatch() throws InterruptedException {
+        FlowModDispatcher dispatcher = newDispatcher();
+        try {
+            FakeSwitch s1 = new FakeSwitch(1);
+            FakeSwitch s2 = new FakeSwitch(2);
+            FlowModDispatcher.Batch batch = dispatcher.newBatch();
+            batch.add(s1.sw, new OFFlowMod());
+            batch.add(s1.sw, new OFFlowMod());
+            batch.add(s2.sw, new OFFlowMod());
+            dispatcher.dispatch(batch);
+
+            List<OFMessage> written = s1.nextWrite();
+            assertEquals(3, written.size());
+            assertEquals(2, dispatcher.getQueueDepth(1));
+            assertEquals(Command.STOP, dispatcher.receive(s1.sw, barrierReply(written), null));
+            assertEquals(Command.STOP, dispatcher.receive(s2.sw, barrierReply(s2.nextWrite()), null));
+
+            assertEquals(Collections.emptySet(), dispatcher.awaitApplied(Arrays.asList(batch), switches(1, 2)));
+            assertTrue(batch.isApplied());
+            assertEquals(2, dispatcher.getBatchesConfirmed());
+            assertEquals(0, dispatcher.getFailures());
+            assertEquals(0, dispatcher.getQueueDepth(1));
+            assertTrue(this.failures.isEmpty());
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void rejectedMessageFailsBatchDespiteBarrierReply() throws InterruptedException {
+        FlowModDispatcher dispatcher = newDispatcher();
+        try {
+            FakeSwitch s1 = new FakeSwitch(1);
+            FakeSwitch s2 = new FakeSwitch(2);
+            FlowModDispatcher.Batch batch = dispatcher.newBatch();
+            batch.add(s1.sw, new OFFlowMod());
+            batch.add(s1.sw, new OFFlowMod());
+            batch.add(s2.sw, new OFFlowMod());
+            dispatcher.dispatch(batch);
+
+            // s1 rejects its second flow-mod, then still answers the barrier
+            List<OFMessage> written = s1.nextWrite();
+            assertEquals(Command.STOP, dispatcher.receive(s1.sw, error(written.get(1).getXid()), null));
+            assertEquals(Arrays.asList(1L), new ArrayList<Long>(this.failures));
+            assertEquals(Command.STOP, dispatcher.receive(s1.sw, barrierReply(written), null));
+            assertEquals(Command.STOP, dispatcher.receive(s2.sw, barrierReply(s2.nextWrite()), null));
+
+            assertEquals(switches(1), dispatcher.awaitApplied(Arrays.asList(batch), switches(1, 2)));
+            assertTrue(batch.isApplied());
+            assertEquals(1, dispatcher.getBatchesConfirmed());
+            assertEquals(1, dispatcher.getFailures());
+            assertEquals(0, dispatcher.getQueueDepth(1));
+
+            // Once confirmed, the switch's later errors are not ours
+            assertEquals(Command.CONTINUE, dispatcher.receive(s1.sw, error(written.get(0).getXid()), null));
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void rejectionOnlyFailsTheBatchItWasWrittenWith() throws InterruptedException {
+        FlowModDispatcher dispatcher = newDispatcher();
+        try {
+            FakeSwitch s1 = new FakeSwitch(1);
+            FlowModDispatcher.Batch first = dispatcher.newBatch();
+            first.add(s1.sw, new OFFlowMod());
+            dispatcher.dispatch(first);
+            List<OFMessage> firstWrite = s1.nextWrite();
+
+            FlowModDispatcher.Batch second = dispatcher.newBatch();
+            second.add(s1.sw, new OFFlowMod());
+            dispatcher.dispatch(second);
+            List<OFMessage> secondWrite = s1.nextWrite();
+
+            assertEquals(Command.STOP, dispatcher.receive(s1.sw, error(secondWrite.get(0).getXid()), null));
+            assertEquals(Command.STOP, dispatcher.receive(s1.sw, barrierReply(firstWrite), null));
+            assertEquals(Command.STOP, dispatcher.receive(s1.sw, barrierReply(secondWrite), null));
+
+            assertEquals(Collections.emptySet(), dispatcher.awaitApplied(Arrays.asList(first), switches(1)));
+            assertEquals(switches(1), dispatcher.awaitApplied(Arrays.asList(second), switches(1)));
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    private FlowModDispatcher newDispatcher() {
+        return new FlowModDispatcher("dispatcher-test", 2, BARRIER_TIMEOUT_MILLIS, this.failures::add);
+    }
+
+    private static OFMessage barrierReply(List<OFMessage> written) {
+        OFBarrierReply reply = new OFBarrierReply();
+        reply.setXid(written.get(written.size() - 1).getXid());
+        return reply;
+    }
+
+    private static OFMessage error(int xid) {
+        OFError error = new OFError();
+        error.setXid(xid);
+        return error;
+    }
+
+    private static Set<Long> switches(long... dpids) {
+        Set<Long> switches = new HashSet<Long>();
+        for (long dpid : dpids) {
+            switches.add(dpid);
+        }
+        return switches;
+    }
+
+    /**
+     * A switch that hands out transaction ids and records each list of
+     * messages written to it.
+     */
+    private static final class FakeSwitch implements InvocationHandler {
+        private final long dpid;
+        private final IOFSwitch sw;
+        private final AtomicInteger xids = new AtomicInteger();
+        private final BlockingQueue<List<OFMessage>> writes = new LinkedBlockingQueue<List<OFMessage>>();
+
+        FakeSwitch(long dpid) {
+            this.dpid = dpid;
+            this.sw = (IOFSwitch) Proxy.newProxyInstance(IOFSwitch.class.getClassLoader(),
+                    new Class<?>[] { IOFSwitch.class }, this);
+        }
+
+        List<OFMessage> nextWrite() throws InterruptedException {
+            List<OFMessage> written = this.writes.poll(BARRIER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            assertNotNull("nothing written to s" + this.dpid, written);
+            return written;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "getId":
+                    return this.dpid;
+                case "getNextTransactionId":
+                    return this.xids.incrementAndGet();
+                case "write":
+                    List<OFMessage> written = new ArrayList<OFMessage>();
+                    if (args[0] instanceof List) {
+                        for (Object message : (List<?>) args[0]) {
+                            written.add((OFMessage) message);
+                        }
+                    } else {
+                        written.add((OFMessage) args[0]);
+                    }
+                    this.writes.add(written);
+                    return null;
+                case "flush":
+                    return null;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "s" + this.dpid;
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that diffing desired rules against the shadow tables gives exactly
+ * the additions, modifications and deletions needed, and leaves the shadow
+ * as it was.
+ */
+public class FlowRuleDiffTest {
+    private static final short PRIORITY = 1;
+
+    private static final FlowMatch HOST_A = FlowMatch.forHost(0xaL);
+    private static final FlowMatch HOST_B = FlowMatch.forHost(0xbL);
+    private static final FlowMatch HOST_C = FlowMatch.forHost(0xcL);
+
+    private FlowTableShadow shadow;
+
+    @Before
+    public void setUp() {
+        this.shadow = new FlowTableShadow();
+        this.shadow.put(new FlowRule(1, HOST_A, PRIORITY, 2));
+        this.shadow.put(new FlowRule(1, HOST_B, PRIORITY, 3));
+        this.shadow.put(new FlowRule(2, HOST_A, PRIORITY, 1));
+    }
+
+    @Test
+    public void missingRuleIsAdded() {
+        FlowRule desired = new FlowRule(1, HOST_C, PRIORITY, 4);
+        FlowRuleChanges changes = diff(1, HOST_C, desired);
+        assertEquals(Arrays.asList(desired), changes.getAdditions());
+        assertEquals(1, changes.size());
+    }
+
+    @Test
+    public void ruleWithNewPortIsModified() {
+        FlowRule desired = new FlowRule(1, HOST_A, PRIORITY, 5);
+        FlowRuleChanges changes = diff(1, HOST_A, desired);
+        assertEquals(Arrays.asList(desired), changes.getModifications());
+        assertEquals(1, changes.size());
+    }
+
+    @Test
+    public void unchangedRuleSendsNothing() {
+        assertTrue(diff(1, HOST_A, new FlowRule(1, HOST_A, PRIORITY, 2)).isEmpty());
+    }
+
+    @Test
+    public void unwantedRuleIsDeleted() {
+        FlowRuleChanges changes = diff(1, HOST_B, null);
+        assertEquals(Arrays.asList(new FlowRule(1, HOST_B, PRIORITY, 3)), changes.getDeletions());
+        assertEquals(1, changes.size());
+        assertTrue(diff(1, HOST_C, null).isEmpty());
+    }
+
+    @Test
+    public void sameMatchOnAnotherSwitchIsSeparate() {
+        FlowRule desired = new FlowRule(3, HOST_A, PRIORITY, 2);
+        assertEquals(Arrays.asList(desired), diff(3, HOST_A, desired).getAdditions());
+    }
+
+    @Test
+    public void ruleWithNewPriorityIsModified() {
+        FlowRule desired = new FlowRule(1, HOST_A, (short) (PRIORITY + 1), 2);
+        assertEquals(Arrays.asList(desired), diff(1, HOST_A, desired).getModifications());
+    }
+
+    @Test
+    public void ruleMovedToOrBetweenGroupsIsModified() {
+        FlowRule grouped = new FlowRule(1, HOST_A, PRIORITY, 2, 7);
+        assertEquals(Arrays.asList(grouped), diff(1, HOST_A, grouped).getModifications());
+
+        // A grouped rule ignores its port, so only the group id matters
+        this.shadow.put(grouped);
+        assertTrue(diff(1, HOST_A, new FlowRule(1, HOST_A, PRIORITY, 9, 7)).isEmpty());
+        FlowRule regrouped = new FlowRule(1, HOST_A, PRIORITY, 2, 8);
+        assertEquals(Arrays.asList(regrouped), diff(1, HOST_A, regrouped).getModifications());
+        FlowRule ungrouped = new FlowRule(1, HOST_A, PRIORITY, 2);
+        assertEquals(Arrays.asList(ungrouped), diff(1, HOST_A, ungrouped).getModifications());
+    }
+
+    @Test
+    public void expectSwitchDeletesRulesNotListed() {
+        Map<FlowMatch, FlowRule> desired = new HashMap<FlowMatch, FlowRule>();
+        desired.put(HOST_A, new FlowRule(1, HOST_A, PRIORITY, 2));
+        desired.put(HOST_C, new FlowRule(1, HOST_C, PRIORITY, 4));
+        FlowRuleDiff diff = new FlowRuleDiff(this.shadow);
+        diff.expectSwitch(1, desired);
+        FlowRuleChanges changes = diff.getChanges();
+        assertEquals(Arrays.asList(desired.get(HOST_C)), changes.getAdditions());
+        assertTrue(changes.getModifications().isEmpty());
+        assertEquals(Arrays.asList(new FlowRule(1, HOST_B, PRIORITY, 3)), changes.getDeletions());
+
+        // Other switches are left alone, and the diff does not touch the shadow
+        assertEquals(3, this.shadow.size());
+        assertEquals(new FlowRule(1, HOST_B, PRIORITY, 3), this.shadow.get(1, HOST_B));
+        assertNull(this.shadow.get(1, HOST_C));
+    }
+
+    @Test
+    public void shadowDropsEmptySwitches() {
+        this.shadow.remove(2, HOST_A);
+        assertEquals(Collections.singleton(1L), this.shadow.getSwitches());
+        this.shadow.clearSwitch(1);
+        assertEquals(0, this.shadow.size());
+        assertTrue(this.shadow.getTable(1).isEmpty());
+    }
+
+    private FlowRuleChanges diff(long dpid, FlowMatch match, FlowRule desired) {
+        FlowRuleDiff diff = new FlowRuleDiff(this.shadow);
+        diff.expect(dpid, match, desired);
+        return diff.getChanges();
+    }
+}
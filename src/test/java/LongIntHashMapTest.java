@@ -0,0 +1,152 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongIntHashMapTest {
+    // Slots of a map made with the default expected size, which never grows
+    // below LOAD_FACTOR * SLOTS keys
+    private static final int SLOTS = 32;
+
+    @Test
+    public void zeroKeyIsStoredLikeAnyOther() {
+        LongIntHashMap map = new LongIntHashMap();
+        assertFalse(map.containsKey(0));
+        assertEquals(LongIntHashMap.MISSING, map.get(0));
+        assertEquals(LongIntHashMap.MISSING, map.remove(0));
+
+        assertEquals(LongIntHashMap.MISSING, map.put(0, 5));
+        map.put(7, 70);
+        assertTrue(map.containsKey(0));
+        assertEquals(5, map.get(0));
+        assertEquals(2, map.size());
+        long[] keys = map.keys();
+        Arrays.sort(keys);
+        assertArrayEquals(new long[] { 0, 7 }, keys);
+
+        assertEquals(5, map.put(0, 6));
+        assertEquals(2, map.size());
+        assertEquals(6, map.remove(0));
+        assertFalse(map.containsKey(0));
+        assertEquals(LongIntHashMap.MISSING, map.get(0));
+        assertEquals(1, map.size());
+        assertEquals(70, map.get(7));
+
+        map.put(0, 1);
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(0));
+    }
+
+    @Test
+    public void removalShiftsBackKeysProbedPastIt() {
+        // Three keys sharing a home slot, two homed on the next slot and one
+        // on the slot after, so removing from the front of the run must move
+        // later keys back without moving any before its home
+        List<Long> sameHome = keysHomedAt(10, 3);
+        List<Long> nextHome = keysHomedAt(11, 2);
+        List<Long> lastHome = keysHomedAt(12, 1);
+        List<Long> order = Arrays.asList(sameHome.get(0), nextHome.get(0), sameHome.get(1), lastHome.get(0),
+                sameHome.get(2), nextHome.get(1));
+        for (int removed = 0; removed < order.size(); removed++) {
+            LongIntHashMap map = new LongIntHashMap();
+            Map<Long, Integer> expected = new HashMap<Long, Integer>();
+            for (int i = 0; i < order.size(); i++) {
+                map.put(order.get(i), i);
+                expected.put(order.get(i), i);
+            }
+            assertEquals(removed, map.remove(order.get(removed)));
+            expected.remove(order.get(removed));
+            assertSameContents(expected, map);
+            for (long key : new ArrayList<Long>(expected.keySet())) {
+                assertEquals(expected.remove(key).intValue(), map.remove(key));
+                assertSameContents(expected, map);
+            }
+        }
+    }
+
+    @Test
+    public void removalShiftsBackAcrossTheEndOfTheTable() {
+        // A run starting on the last slot wraps round to the first ones
+        List<Long> lastSlot = keysHomedAt(SLOTS - 1, 3);
+        List<Long> firstSlot = keysHomedAt(0, 2);
+        LongIntHashMap map = new LongIntHashMap();
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        long[] order = { lastSlot.get(0), lastSlot.get(1), firstSlot.get(0), lastSlot.get(2), firstSlot.get(1) };
+        for (int i = 0; i < order.length; i++) {
+            map.put(order[i], i);
+            expected.put(order[i], i);
+        }
+        for (long key : order) {
+            assertEquals(expected.remove(key).intValue(), map.remove(key));
+            assertSameContents(expected, map);
+        }
+        assertTrue(map.isEmpty());
+    }
+
+    @Test
+    public void matchesHashMapUnderRandomPutsAndRemoves() {
+        Random random = new Random(1);
+        LongIntHashMap map = new LongIntHashMap(4);
+        Map<Long, Integer> expected = new HashMap<Long, Integer>();
+        for (int i = 0; i < 200000; i++) {
+            // A small key range keeps runs long and removals frequent
+            long key = random.nextInt(512) - 8;
+            if (random.nextInt(3) == 0) {
+                Integer previous = expected.remove(key);
+                assertEquals(previous == null ? LongIntHashMap.MISSING : previous.intValue(), map.remove(key));
+            } else {
+                int value = random.nextInt(1000);
+                Integer previous = expected.put(key, value);
+                assertEquals(previous == null ? LongIntHashMap.MISSING : previous.intValue(), map.put(key, value));
+            }
+            if (i % 1000 == 0) {
+                assertSameContents(expected, map);
+            }
+        }
+        assertSameContents(expected, map);
+    }
+
+    private static void assertSameContents(Map<Long, Integer> expected, LongIntHashMap map) {
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertTrue("missing " + entry.getKey(), map.containsKey(entry.getKey()));
+            assertEquals(entry.getValue().intValue(), map.get(entry.getKey()));
+        }
+        long[] keys = map.keys();
+        assertEquals(expected.size(), keys.length);
+        for (long key : keys) {
+            assertTrue("unexpected " + key, expected.containsKey(key));
+        }
+    }
+
+    /**
+     * Find non-zero keys whose home slot in a default-sized map is the given one.
+     */
+    private static List<Long> keysHomedAt(int slot, int count) {
+        List<Long> keys = new ArrayList<Long>();
+        for (long key = 1; keys.size() < count; key++) {
+            if ((mix(key) & (SLOTS - 1)) == slot) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    // Same mixing as LongIntHashMap, to place keys on chosen slots
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
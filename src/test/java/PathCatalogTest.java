@@ -0,0 +1,125 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that the paths the catalog keeps across topology changes are the
+ * ones computing them afresh gives, and that it keeps the pairs a change
+ * cannot affect.
+ */
+public class PathCatalogTest {
+    private static final int K = 3;
+
+    @Test
+    public void cachedPathsMatchFreshPathsAfterChanges() {
+        Random random = new Random(1);
+        long hits = 0;
+        for (int trial = 0; trial < 40; trial++) {
+            RandomTopology network = new RandomTopology(random, 3 + random.nextInt(8), random.nextInt(10), 5);
+            PathCatalog catalog = new PathCatalog(K, 1 << 16);
+            catalog.topologyChanged(network.build());
+            lookUpAll(catalog, network);
+            for (int step = 0; step < 20; step++) {
+                String change = network.change();
+                TopologyIndex after = network.build();
+                catalog.topologyChanged(after);
+                long hitsBefore = catalog.getHits();
+                String context = String.format("trial %d step %d (%s)", trial, step, change);
+                for (long src : network.getSwitches()) {
+                    for (long dst : network.getSwitches()) {
+                        List<SwitchPath> expected = new KShortestPaths(after)
+                                .compute(after.indexOf(src), after.indexOf(dst), K);
+                        assertSamePaths(context + String.format(" s%d to s%d", src, dst), after, expected,
+                                catalog.getPaths(src, dst));
+                    }
+                }
+                hits += catalog.getHits() - hitsBefore;
+            }
+        }
+        assertTrue("no pair was kept across a change", hits > 0);
+    }
+
+    @Test
+    public void improvedAdjacencyDropsOnlyPairsItCanShorten() {
+        // s1 - s2 - s3 - s4 in a line, one path per pair
+        TopologyIndex.Builder line = TopologyIndex.builder();
+        for (long dpid = 1; dpid <= 4; dpid++) {
+            line.addSwitch(dpid);
+        }
+        for (long dpid = 1; dpid < 4; dpid++) {
+            line.addLink(dpid, 2, dpid + 1, 1, 1);
+            line.addLink(dpid + 1, 1, dpid, 2, 1);
+        }
+        PathCatalog catalog = new PathCatalog(1, 16);
+        catalog.topologyChanged(line.build());
+        catalog.getPaths(1, 2);
+        catalog.getPaths(3, 4);
+        catalog.getPaths(1, 4);
+        assertEquals(3, catalog.size());
+
+        // A shortcut from s1 to s4 can only beat the path from s1 to s4:
+        // through it, s1 to s2 costs at least 1 + 1 + 2 and s3 to s4 at
+        // least 2 + 1 + 0, against 1 now
+        line.addLink(1, 3, 4, 3, 1);
+        TopologyIndex after = line.build();
+        catalog.topologyChanged(after);
+        assertEquals(1, catalog.getInvalidations());
+
+        long hits = catalog.getHits();
+        assertEquals(1, catalog.getPaths(1, 4).get(0).getHops());
+        assertEquals(hits, catalog.getHits());
+        catalog.getPaths(1, 2);
+        catalog.getPaths(3, 4);
+        assertEquals(hits + 2, catalog.getHits());
+        for (long[] pair : new long[][] { { 1, 2 }, { 3, 4 }, { 1, 4 } }) {
+            assertSamePaths("s" + pair[0] + " to s" + pair[1], after,
+                    new KShortestPaths(after).compute(after.indexOf(pair[0]), after.indexOf(pair[1]), 1),
+                    catalog.getPaths(pair[0], pair[1]));
+        }
+    }
+
+    private static void lookUpAll(PathCatalog catalog, RandomTopology network) {
+        for (long src : network.getSwitches()) {
+            for (long dst : network.getSwitches()) {
+                catalog.getPaths(src, dst);
+            }
+        }
+    }
+
+    /**
+     * Check that cached paths cost the same as fresh ones, path by path,
+     * and are all paths of the topology. Equal-cost paths may be found in a
+     * different order or instead of one another.
+     */
+    private static void assertSamePaths(String context, TopologyIndex topology, List<SwitchPath> expected,
+                                        List<SwitchPath> actual) {
+        assertEquals(context + " costs", costs(expected), costs(actual));
+        for (SwitchPath path : actual) {
+            long[] dpids = path.getDpids();
+            int[] ports = path.getPorts();
+            long cost = 0;
+            for (int i = 0; i < ports.length; i++) {
+                int edge = topology.findEdge(topology.indexOf(dpids[i]), topology.indexOf(dpids[i + 1]));
+                assertTrue(context + " " + path + " uses a missing link", edge != TopologyIndex.NONE);
+                assertEquals(context + " " + path + " port", topology.edgePort(edge), ports[i]);
+                cost += topology.edgeCost(edge);
+            }
+            assertEquals(context + " " + path + " cost", cost, path.getCost());
+        }
+    }
+
+    private static List<Long> costs(List<SwitchPath> paths) {
+        List<Long> costs = new ArrayList<Long>();
+        for (SwitchPath path : paths) {
+            costs.add(path.getCost());
+        }
+        return costs;
+    }
+}
@@ -0,0 +1,158 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A small random switch topology that tests change one step at a time:
+ * links go down and come up, get cheaper or more expensive, move ports and
+ * gain parallel links, and switches come and go. Every link is directed and
+ * has its own cost; links are added in both directions.
+ */
+final class RandomTopology {
+    private final Random random;
+    private final int maxCost;
+    private final List<Long> switches = new ArrayList<Long>();
+    private final List<Link> links = new ArrayList<Link>();
+    private final Map<Long, Integer> nextPorts = new HashMap<Long, Integer>();
+    private long nextDpid = 1;
+
+    /**
+     * @param switchCount switches to start with
+     * @param linkCount links to add in both directions, beyond a spanning path
+     * @param maxCost highest link cost; 1 for unit costs
+     */
+    RandomTopology(Random random, int switchCount, int linkCount, int maxCost) {
+        this.random = random;
+        this.maxCost = maxCost;
+        for (int i = 0; i < switchCount; i++) {
+            addSwitch();
+        }
+        for (int i = 1; i < switchCount; i++) {
+            connect(this.switches.get(i - 1), this.switches.get(i));
+        }
+        for (int i = 0; i < linkCount; i++) {
+            connectRandom();
+        }
+    }
+
+    List<Long> getSwitches() {
+        return this.switches;
+    }
+
+    TopologyIndex build() {
+        TopologyIndex.Builder builder = TopologyIndex.builder();
+        for (long dpid : this.switches) {
+            builder.addSwitch(dpid);
+        }
+        for (Link link : this.links) {
+            builder.addLink(link.src, link.srcPort, link.dst, link.dstPort, link.cost);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Make one random change, and describe it.
+     */
+    String change() {
+        switch (this.random.nextInt(7)) {
+            case 0:
+                if (this.links.size() > 2) {
+                    int i = this.random.nextInt(this.links.size() / 2) * 2;
+                    Link link = this.links.get(i);
+                    this.links.subList(i, i + 2).clear();
+                    return "remove " + link;
+                }
+                return "nothing";
+            case 1:
+                return "add " + connectRandom();
+            case 2:
+            case 3:
+                if (!this.links.isEmpty()) {
+                    Link link = this.links.get(this.random.nextInt(this.links.size()));
+                    link.cost = 1 + this.random.nextInt(this.maxCost);
+                    return "cost " + link;
+                }
+                return "nothing";
+            case 4:
+                if (!this.links.isEmpty()) {
+                    Link link = this.links.get(this.random.nextInt(this.links.size()));
+                    link.srcPort = nextPort(link.src);
+                    return "move " + link;
+                }
+                return "nothing";
+            case 5:
+                if (this.switches.size() > 2) {
+                    long dpid = this.switches.remove(this.random.nextInt(this.switches.size()));
+                    for (Iterator<Link> iterator = this.links.iterator(); iterator.hasNext(); ) {
+                        Link link = iterator.next();
+                        if (link.src == dpid || link.dst == dpid) {
+                            iterator.remove();
+                        }
+                    }
+                    return "remove s" + dpid;
+                }
+                return "nothing";
+            default:
+                long dpid = addSwitch();
+                connect(dpid, this.switches.get(this.random.nextInt(this.switches.size() - 1)));
+                return "add s" + dpid;
+        }
+    }
+
+    private long addSwitch() {
+        long dpid = this.nextDpid++;
+        this.switches.add(dpid);
+        return dpid;
+    }
+
+    private Link connectRandom() {
+        long src = this.switches.get(this.random.nextInt(this.switches.size()));
+        long dst = this.switches.get(this.random.nextInt(this.switches.size()));
+        if (src == dst) {
+            dst = this.switches.get((this.switches.indexOf(src) + 1) % this.switches.size());
+        }
+        return connect(src, dst);
+    }
+
+    private Link connect(long src, long dst) {
+        int srcPort = nextPort(src);
+        int dstPort = nextPort(dst);
+        Link forward = new Link(src, srcPort, dst, dstPort, 1 + this.random.nextInt(this.maxCost));
+        this.links.add(forward);
+        this.links.add(new Link(dst, dstPort, src, srcPort, 1 + this.random.nextInt(this.maxCost)));
+        return forward;
+    }
+
+    private int nextPort(long dpid) {
+        int port = this.nextPorts.containsKey(dpid) ? this.nextPorts.get(dpid) : 1;
+        this.nextPorts.put(dpid, port + 1);
+        return port;
+    }
+
+    private static final class Link {
+        private final long src;
+        private int srcPort;
+        private final long dst;
+        private final int dstPort;
+        private int cost;
+
+        Link(long src, int srcPort, long dst, int dstPort, int cost) {
+            this.src = src;
+            this.srcPort = srcPort;
+            this.dst = dst;
+            this.dstPort = dstPort;
+            this.cost = cost;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("s%d:%d -> s%d:%d (cost %d)", this.src, this.srcPort, this.dst, this.dstPort,
+                    this.cost);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Checks incremental tree maintenance against computing every tree afresh,
+ * over random sequences of topology changes.
+ */
+public class RouteComputerTest {
+    private static final int TOPOLOGIES = 60;
+    private static final int CHANGES = 25;
+
+    @Test
+    public void updateMatchesFullRecomputeWithUnitCosts() {
+        checkRandomChanges(new Random(1), 1, false);
+    }
+
+    @Test
+    public void updateMatchesFullRecomputeWithCosts() {
+        checkRandomChanges(new Random(2), 6, false);
+    }
+
+    @Test
+    public void multipathUpdateMatchesFullRecompute() {
+        checkRandomChanges(new Random(3), 3, true);
+    }
+
+    @Test
+    public void updateKeepsTreesOnlyForDestinations() {
+        Random random = new Random(4);
+        RouteComputer computer = new RouteComputer(PathEngine.forName("dijkstra"), 1);
+        RandomTopology network = new RandomTopology(random, 10, 8, 4);
+        ShortestPathTrees trees = computer.update(null, network.build(), dpid -> dpid % 2 == 0).getTrees();
+        for (int step = 0; step < CHANGES; step++) {
+            network.change();
+            TopologyIndex after = network.build();
+            trees = computer.update(trees, after, dpid -> dpid % 2 == 0).getTrees();
+            ShortestPathTrees expected = computer.computeAll(after);
+            for (int root = 0; root < after.size(); root++) {
+                if (after.dpid(root) % 2 == 0) {
+                    assertNotNull(trees.getTree(root));
+                    assertSameDistances("s" + after.dpid(root), after, expected.getTree(root), trees.getTree(root));
+                } else {
+                    assertNull(trees.getTree(root));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void unchangedTopologyKeepsEveryTree() {
+        RouteComputer computer = new RouteComputer(PathEngine.forName("auto"), 1);
+        RandomTopology network = new RandomTopology(new Random(5), 8, 6, 1);
+        ShortestPathTrees trees = computer.computeAll(network.build());
+        RouteUpdate update = computer.update(trees, network.build());
+        assertEquals(0, update.getRecomputedTrees());
+        assertTrue(update.getChanges().isEmpty());
+    }
+
+    private static void checkRandomChanges(Random random, int maxCost, boolean multipath) {
+        RouteComputer computer = new RouteComputer(PathEngine.forName("auto"), 1, multipath);
+        for (int trial = 0; trial < TOPOLOGIES; trial++) {
+            RandomTopology network = new RandomTopology(random, 3 + random.nextInt(10), random.nextInt(12), maxCost);
+            ShortestPathTrees trees = computer.computeAll(network.build());
+            for (int step = 0; step < CHANGES; step++) {
+                String change = network.change();
+                TopologyIndex after = network.build();
+                RouteUpdate update = computer.update(trees, after);
+                String context = String.format("trial %d step %d (%s)", trial, step, change);
+
+                ShortestPathTrees expected = computer.computeAll(after);
+                for (int root = 0; root < after.size(); root++) {
+                    assertSameDistances(context + " tree s" + after.dpid(root), after,
+                            expected.getTree(root), update.getTrees().getTree(root));
+                }
+                assertChangesReported(context, trees, update, multipath);
+                trees = update.getTrees();
+            }
+        }
+    }
+
+    /**
+     * Check that a tree has the expected distances, and that every next hop
+     * is an adjacent switch on a shortest path. Ties may be broken either way.
+     */
+    private static void assertSameDistances(String context, TopologyIndex topology, ShortestPathTree expected,
+                                            ShortestPathTree actual) {
+        assertEquals(context + " root", expected.getRoot(), actual.getRoot());
+        for (int u = 0; u < topology.size(); u++) {
+            assertEquals(context + " distance of s" + topology.dpid(u), expected.distance(u), actual.distance(u));
+            int next = actual.nextHop(u);
+            if (u == actual.getRoot() || !actual.isReachable(u)) {
+                assertEquals(context + " next hop of s" + topology.dpid(u), TopologyIndex.NONE, next);
+                continue;
+            }
+            int edge = topology.findEdge(u, next);
+            assertTrue(context + " s" + topology.dpid(u) + " is not linked to its next hop",
+                    edge != TopologyIndex.NONE);
+            assertEquals(context + " next hop of s" + topology.dpid(u) + " is not on a shortest path",
+                    (long) actual.distance(u), (long) actual.distance(next) + topology.edgeCost(edge));
+        }
+    }
+
+    /**
+     * Check that every (switch, destination) whose forwarding differs between
+     * the old and the new trees is reported, unless the change is full.
+     */
+    private static void assertChangesReported(String context, ShortestPathTrees before, RouteUpdate update,
+                                              boolean multipath) {
+        RouteChanges changes = update.getChanges();
+        if (changes.isFull()) {
+            return;
+        }
+        Set<String> reported = new HashSet<String>();
+        DpidPairList pairs = changes.getChangedRoutes();
+        for (int i = 0; i < pairs.size(); i++) {
+            reported.add(pairs.getSource(i) + ">" + pairs.getDestination(i));
+        }
+        ShortestPathTrees after = update.getTrees();
+        TopologyIndex topology = after.getTopology();
+        for (int root = 0; root < topology.size(); root++) {
+            for (int u = 0; u < topology.size(); u++) {
+                long dpid = topology.dpid(u);
+                long rootDpid = topology.dpid(root);
+                if (u == root) {
+                    continue;
+                }
+                String was = describeRoute(before, dpid, rootDpid, multipath);
+                String now = describeRoute(after, dpid, rootDpid, multipath);
+                if (!was.equals(now)) {
+                    assertTrue(String.format("%s: route from s%d to s%d changed from %s to %s but was not reported",
+                            context, dpid, rootDpid, was, now), reported.contains(dpid + ">" + rootDpid));
+                }
+            }
+        }
+    }
+
+    /**
+     * Describe how a switch forwards towards a destination: the next switch
+     * and port, or in multipath mode the equal-cost ports and the alternate.
+     */
+    private static String describeRoute(ShortestPathTrees trees, long dpid, long rootDpid, boolean multipath) {
+        TopologyIndex topology = trees.getTopology();
+        int u = topology.indexOf(dpid);
+        int root = topology.indexOf(rootDpid);
+        ShortestPathTree tree = root == TopologyIndex.NONE ? null : trees.getTree(root);
+        if (u == TopologyIndex.NONE || tree == null || !tree.isReachable(u)) {
+            return "none";
+        }
+        if (multipath) {
+            return Arrays.toString(tree.equalCostPorts(topology, u)) + " alternate "
+                    + tree.downstreamAlternatePort(topology, u);
+        }
+        return "s" + topology.dpid(tree.nextHop(u)) + ":" + tree.nextHopPort(topology, u);
+    }
+}
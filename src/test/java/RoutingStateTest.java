@@ -0,0 +1,127 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Checks that a saved routing state reads back as it was written, and that
+ * files which are cut short, are not routing states, or come from another
+ * version are refused rather than half read.
+ */
+public class RoutingStateTest {
+    // Offset of the version, after the magic
+    private static final int VERSION_OFFSET = 4;
+
+    @Test
+    public void savedStateLoadsBackTheSame() throws IOException {
+        RoutingState state = sampleState();
+        Path directory = Files.createTempDirectory("routing-state");
+        Path file = directory.resolve("state");
+        try {
+            state.save(file);
+            assertFalse(Files.exists(directory.resolve("state.tmp")));
+            assertSameState(state, RoutingState.load(file));
+
+            // Saving again replaces the file
+            RoutingState empty = new RoutingState(5L, new ArrayList<Long>(), new ArrayList<SwitchLink>(),
+                    new ArrayList<HostAttachment>(), new HashMap<Long, Integer>(), new ArrayList<GroupEntry>(),
+                    new ArrayList<FlowRule>());
+            empty.save(file);
+            assertSameState(empty, RoutingState.load(file));
+        } finally {
+            Files.deleteIfExists(file);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void truncatedStateIsRefused() throws IOException {
+        byte[] bytes = toBytes(sampleState());
+        for (int length = 0; length < bytes.length; length++) {
+            try {
+                RoutingState.read(new ByteArrayInputStream(Arrays.copyOf(bytes, length)));
+                fail("read a state cut short to " + length + " of " + bytes.length + " bytes");
+            } catch (IOException expected) {
+                // Cut short anywhere, the state must not load
+            }
+        }
+    }
+
+    @Test
+    public void badMagicIsRefused() throws IOException {
+        byte[] bytes = toBytes(sampleState());
+        bytes[0] ^= 1;
+        try {
+            RoutingState.read(new ByteArrayInputStream(bytes));
+            fail("read a state with bad magic");
+        } catch (IOException e) {
+            assertEquals("Not a routing state file", e.getMessage());
+        }
+    }
+
+    @Test
+    public void otherVersionIsRefused() throws IOException {
+        byte[] bytes = toBytes(sampleState());
+        bytes[VERSION_OFFSET + 3]++;
+        try {
+            RoutingState.read(new ByteArrayInputStream(bytes));
+            fail("read a state of another version");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Unsupported routing state version"));
+        }
+    }
+
+    private static RoutingState sampleState() {
+        List<Long> switches = Arrays.asList(1L, 2L, 0xfedcba9876543210L);
+        List<SwitchLink> links = Arrays.asList(new SwitchLink(1, 2, 2, 1), new SwitchLink(2, 1, 1, 2),
+                new SwitchLink(2, 3, 0xfedcba9876543210L, 0xfffffff0));
+        List<HostAttachment> hosts = Arrays.asList(new HostAttachment(0x0a0000000001L, 1, 1, 0x0a000001),
+                new HostAttachment(0x0a0000000002L, 0xfedcba9876543210L, 4, 0xc0a80102));
+        Map<Long, Integer> labels = new HashMap<Long, Integer>();
+        labels.put(1L, 16);
+        labels.put(0xfedcba9876543210L, 17);
+        List<GroupEntry> groups = Arrays.asList(new GroupEntry(1, 1, GroupEntry.Type.SELECT, new int[] { 2, 3 }),
+                new GroupEntry(2, 5, GroupEntry.Type.FAST_FAILOVER, new int[] { 1 }));
+        short priority = 1;
+        List<FlowRule> rules = Arrays.asList(
+                new FlowRule(1, FlowMatch.forHost(0x0a0000000002L), priority, 2),
+                new FlowRule(2, FlowMatch.forHost(0x0a0000000001L), priority, 1, 5),
+                new FlowRule(1, FlowMatch.forSwitchLabel(17), priority, 2, FlowRule.NO_GROUP,
+                        FlowMatch.ANY_LABEL, false),
+                new FlowRule(1, FlowMatch.forHost(0x0a0000000003L), priority, 2, FlowRule.NO_GROUP, 17, false),
+                new FlowRule(0xfedcba9876543210L, FlowMatch.forLabelledHost(0x0a0000000002L), priority, 4,
+                        FlowRule.NO_GROUP, FlowMatch.ANY_LABEL, true));
+        return new RoutingState(1234567890123L, switches, links, hosts, labels, groups, rules);
+    }
+
+    private static byte[] toBytes(RoutingState state) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        state.write(out);
+        return out.toByteArray();
+    }
+
+    private static void assertSameState(RoutingState expected, RoutingState actual) {
+        assertEquals(expected.getSavedAtMillis(), actual.getSavedAtMillis());
+        assertEquals(expected.getSwitches(), actual.getSwitches());
+        assertEquals(expected.getLinks(), actual.getLinks());
+        assertEquals(expected.getHosts(), actual.getHosts());
+        assertEquals(expected.getLabels(), actual.getLabels());
+        assertEquals(expected.getGroups(), actual.getGroups());
+        assertEquals(expected.getRules(), actual.getRules());
+    }
+}
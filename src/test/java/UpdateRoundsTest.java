@@ -0,0 +1,423 @@
+package edu.brown.cs.sdn.apps.sps;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Checks that consistent updates never let a rule send traffic to a switch
+ * whose rule for the same destination is still to come: every switch a rule
+ * forwards to, through its next hops or its alternate, has either had its
+ * rule for that destination applied in an earlier round, and been waited
+ * for since, or keeps the rule it had.
+ */
+public class UpdateRoundsTest {
+    private static final int NETWORKS = 30;
+    private static final int CHANGES = 20;
+
+    @Test
+    public void hostRulesFollowRounds() {
+        checkRandomUpdates(new Random(1), false, false, false);
+    }
+
+    @Test
+    public void multipathRulesFollowRounds() {
+        checkRandomUpdates(new Random(2), true, false, false);
+    }
+
+    @Test
+    public void fastFailoverRulesFollowRounds() {
+        checkRandomUpdates(new Random(3), false, true, false);
+    }
+
+    @Test
+    public void aggregatedRulesFollowRounds() {
+        checkRandomUpdates(new Random(4), false, false, true);
+    }
+
+    @Test
+    public void aggregatedFastFailoverRulesFollowRounds() {
+        checkRandomUpdates(new Random(5), false, true, true);
+    }
+
+    @Test
+    public void failedSwitchIsSkippedForTheRestOfTheUpdate() {
+        Random random = new Random(6);
+        int failures = 0;
+        for (int trial = 0; trial < NETWORKS; trial++) {
+            RandomNetwork network = new RandomNetwork(random);
+            RecordingSink sink = new RecordingSink(network.net);
+            RoutingCore core = newCore(network.net, sink, false, false, false);
+            network.start(core, sink);
+            for (int step = 0; step < CHANGES; step++) {
+                network.change(core, sink);
+                sink.failing.add(network.randomSwitch());
+                sink.events.clear();
+                core.processPendingEvents(0);
+                sink.failing.clear();
+
+                Set<Long> failed = new HashSet<Long>();
+                for (Event event : sink.events) {
+                    if (event.kind == Kind.WAIT) {
+                        for (long dpid : event.dpids) {
+                            assertFalse("waited again for failed s" + dpid, failed.contains(dpid));
+                        }
+                        failed.addAll(event.failed);
+                        failures += event.failed.size();
+                    } else if (event.kind == Kind.INSTALL || event.kind == Kind.DELETE) {
+                        assertFalse("sent a rule to failed s" + event.rule.getDpid(),
+                                failed.contains(event.rule.getDpid()));
+                    }
+                }
+            }
+        }
+        assertTrue("no switch was failed", failures > 0);
+    }
+
+    private static void checkRandomUpdates(Random random, boolean multipath, boolean fastFailover,
+                                           boolean aggregated) {
+        int checked = 0;
+        for (int trial = 0; trial < NETWORKS; trial++) {
+            RandomNetwork network = new RandomNetwork(random);
+            RecordingSink sink = new RecordingSink(network.net);
+            RoutingCore core = newCore(network.net, sink, multipath, fastFailover, aggregated);
+            network.start(core, sink);
+            for (int step = 0; step < CHANGES; step++) {
+                String change = network.change(core, sink);
+                sink.events.clear();
+                core.processPendingEvents(0);
+                checked += checkOrder(String.format("trial %d step %d (%s)", trial, step, change), network, sink);
+            }
+        }
+        assertTrue("no rule depended on another", checked > 0);
+    }
+
+    private static RoutingCore newCore(SimulatedNetwork net, FlowRuleSink sink, boolean multipath,
+                                       boolean fastFailover, boolean aggregated) {
+        RouteComputer computer = new RouteComputer(PathEngine.forName("auto"), 1, multipath || fastFailover);
+        return new RoutingCore(net, sink, computer, new UnitLinkCostProvider(), (short) 1, multipath, fastFailover,
+                aggregated, null, 65536, null, true, null);
+    }
+
+    /**
+     * Check the order of one update's messages.
+     *
+     * @return the number of dependencies between installs checked
+     */
+    private static int checkOrder(String context, RandomNetwork network, RecordingSink sink) {
+        List<Event> events = sink.events;
+        int checked = 0;
+        for (int i = 0; i < events.size(); i++) {
+            Event event = events.get(i);
+            if (event.kind != Kind.INSTALL) {
+                continue;
+            }
+            long destination = sink.getDestination(event.rule);
+            if (destination == 0) {
+                continue;
+            }
+            // Traffic leaves labelled or not, and only meets rules matching that
+            FlowRule rule = event.rule;
+            boolean labelled = rule.getPushLabel() != FlowMatch.ANY_LABEL
+                    || (rule.getMatch().getEthType() == FlowRule.ETH_TYPE_MPLS && !rule.isPopLabel());
+            short ethType = labelled ? FlowRule.ETH_TYPE_MPLS : FlowRule.ETH_TYPE_IPV4;
+            for (long next : network.nextSwitches(rule.getDpid(), event.ports)) {
+                for (int j = 0; j < events.size(); j++) {
+                    Event other = events.get(j);
+                    if (other.kind != Kind.INSTALL || other.rule.getDpid() != next
+                            || other.rule.getMatch().getEthType() != ethType
+                            || sink.getDestination(other.rule) != destination) {
+                        continue;
+                    }
+                    if (j > i || !isConfirmedBetween(events, next, j, i)) {
+                        fail(String.format("%s: %s sends to s%d before its %s is applied",
+                                context, rule, next, other.rule));
+                    }
+                    checked++;
+                }
+            }
+        }
+        return checked;
+    }
+
+    /**
+     * Check whether a switch's messages were flushed and then waited for
+     * between two points of an update.
+     */
+    private static boolean isConfirmedBetween(List<Event> events, long dpid, int from, int to) {
+        boolean flushed = false;
+        for (int k = from + 1; k < to; k++) {
+            Event event = events.get(k);
+            if (event.kind == Kind.FLUSH) {
+                flushed = true;
+            } else if (event.kind == Kind.WAIT && flushed && event.dpids.contains(dpid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private enum Kind {
+        INSTALL, DELETE, FLUSH, WAIT
+    }
+
+    private static final class Event {
+        private final Kind kind;
+        private final FlowRule rule;
+        private final int[] ports;
+        private final Set<Long> dpids;
+        private final Set<Long> failed;
+
+        Event(Kind kind, FlowRule rule, int[] ports, Set<Long> dpids, Set<Long> failed) {
+            this.kind = kind;
+            this.rule = rule;
+            this.ports = ports;
+            this.dpids = dpids;
+            this.failed = failed;
+        }
+    }
+
+    /**
+     * Records what the core sends, with the ports each rule sends out of,
+     * and fails the switches it is told to when they are waited for.
+     */
+    private static final class RecordingSink implements FlowRuleSink {
+        private final SimulatedNetwork net;
+        private final List<Event> events = new ArrayList<Event>();
+        private final Map<Long, Map<Integer, GroupEntry>> groups = new HashMap<Long, Map<Integer, GroupEntry>>();
+        private final Map<Integer, Long> labelSwitches = new HashMap<Integer, Long>();
+        private final Set<Long> failing = new HashSet<Long>();
+
+        RecordingSink(SimulatedNetwork net) {
+            this.net = net;
+        }
+
+        /**
+         * Get the switch a rule forwards towards, or 0 if it is not known.
+         */
+        long getDestination(FlowRule rule) {
+            FlowMatch match = rule.getMatch();
+            if (match.getEthDst() != FlowMatch.ANY_ETH_DST) {
+                HostAttachment host = this.net.getHost(match.getEthDst());
+                return host == null ? 0 : host.getDpid();
+            }
+            Long dpid = this.labelSwitches.get(match.getMplsLabel());
+            return dpid == null ? 0 : dpid;
+        }
+
+        @Override
+        public boolean isConnected(long dpid) {
+            return this.net.hasSwitch(dpid);
+        }
+
+        @Override
+        public void installRule(FlowRule rule) {
+            int[] ports = { rule.getOutPort() };
+            if (rule.hasGroup()) {
+                Map<Integer, GroupEntry> table = this.groups.get(rule.getDpid());
+                GroupEntry group = table == null ? null : table.get(rule.getGroupId());
+                assertTrue("rule sent before its group: " + rule, group != null);
+                ports = group.getPorts();
+            }
+            // Ingress rules tell which switch each label leads to
+            if (rule.getPushLabel() != FlowMatch.ANY_LABEL) {
+                HostAttachment host = this.net.getHost(rule.getMatch().getEthDst());
+                if (host != null) {
+                    this.labelSwitches.put(rule.getPushLabel(), host.getDpid());
+                }
+            }
+            this.events.add(new Event(Kind.INSTALL, rule, ports, null, null));
+        }
+
+        @Override
+        public void deleteRule(FlowRule rule) {
+            this.events.add(new Event(Kind.DELETE, rule, null, null, null));
+        }
+
+        @Override
+        public void installGroup(GroupEntry group) {
+            Map<Integer, GroupEntry> table = this.groups.get(group.getDpid());
+            if (table == null) {
+                table = new HashMap<Integer, GroupEntry>();
+                this.groups.put(group.getDpid(), table);
+            }
+            table.put(group.getGroupId(), group);
+        }
+
+        @Override
+        public void deleteGroup(long dpid, int groupId) {
+            Map<Integer, GroupEntry> table = this.groups.get(dpid);
+            if (table != null) {
+                table.remove(groupId);
+            }
+        }
+
+        @Override
+        public void resetSwitch(long dpid) {
+            this.groups.remove(dpid);
+        }
+
+        @Override
+        public void forgetSwitch(long dpid) {
+            this.groups.remove(dpid);
+        }
+
+        @Override
+        public int flush() {
+            this.events.add(new Event(Kind.FLUSH, null, null, null, null));
+            return 0;
+        }
+
+        @Override
+        public Set<Long> awaitFlushed(Set<Long> dpids) {
+            Set<Long> failed = new HashSet<Long>(dpids);
+            failed.retainAll(this.failing);
+            this.events.add(new Event(Kind.WAIT, null, null, new HashSet<Long>(dpids), failed));
+            return failed;
+        }
+    }
+
+    /**
+     * A random network of switches and hosts that changes one step at a time.
+     */
+    private static final class RandomNetwork {
+        private final Random random;
+        private final SimulatedNetwork net = new SimulatedNetwork();
+        private final List<Long> switches = new ArrayList<Long>();
+        private final List<Long> hosts = new ArrayList<Long>();
+        private final Map<Long, Integer> nextPorts = new HashMap<Long, Integer>();
+        private long nextDpid = 1;
+
+        RandomNetwork(Random random) {
+            this.random = random;
+        }
+
+        void start(RoutingCore core, FlowRuleSink sink) {
+            int switchCount = 3 + this.random.nextInt(8);
+            for (int i = 0; i < switchCount; i++) {
+                addSwitch(core);
+            }
+            for (int i = 1; i < switchCount; i++) {
+                connect(this.switches.get(i - 1), this.switches.get(i));
+            }
+            for (int i = this.random.nextInt(switchCount + 1); i > 0; i--) {
+                connect(randomSwitch(), randomSwitch());
+            }
+            for (int i = 0; i < switchCount; i++) {
+                long mac = 0x10 + i;
+                this.hosts.add(mac);
+                attach(mac, core);
+            }
+            core.topologyChanged();
+            core.processPendingEvents(0);
+        }
+
+        String change(RoutingCore core, FlowRuleSink sink) {
+            switch (this.random.nextInt(5)) {
+                case 0: {
+                    List<SwitchLink> links = new ArrayList<SwitchLink>(this.net.getLinks());
+                    if (links.isEmpty()) {
+                        return "nothing";
+                    }
+                    SwitchLink link = links.get(this.random.nextInt(links.size()));
+                    this.net.removeLink(link);
+                    this.net.removeLink(new SwitchLink(link.getDst(), link.getDstPort(), link.getSrc(),
+                            link.getSrcPort()));
+                    core.topologyChanged();
+                    return "remove " + link;
+                }
+                case 1: {
+                    long src = randomSwitch();
+                    long dst = randomSwitch();
+                    if (src == dst) {
+                        return "nothing";
+                    }
+                    connect(src, dst);
+                    core.topologyChanged();
+                    return "link s" + src + " s" + dst;
+                }
+                case 2: {
+                    long mac = this.hosts.get(this.random.nextInt(this.hosts.size()));
+                    attach(mac, core);
+                    return "move host " + mac;
+                }
+                case 3: {
+                    if (this.switches.size() <= 2) {
+                        return "nothing";
+                    }
+                    long dpid = this.switches.remove(this.random.nextInt(this.switches.size()));
+                    this.net.removeSwitch(dpid);
+                    sink.forgetSwitch(dpid);
+                    core.switchRemoved(dpid);
+                    return "remove s" + dpid;
+                }
+                default: {
+                    long existing = randomSwitch();
+                    long dpid = addSwitch(core);
+                    connect(dpid, existing);
+                    core.topologyChanged();
+                    return "add s" + dpid;
+                }
+            }
+        }
+
+        long randomSwitch() {
+            return this.switches.get(this.random.nextInt(this.switches.size()));
+        }
+
+        /**
+         * Get the switches a switch reaches out of some of its ports.
+         */
+        Set<Long> nextSwitches(long dpid, int[] ports) {
+            Set<Long> next = new HashSet<Long>();
+            for (SwitchLink link : this.net.getLinks()) {
+                for (int port : ports) {
+                    if (link.getSrc() == dpid && link.getSrcPort() == port) {
+                        next.add(link.getDst());
+                    }
+                }
+            }
+            return next;
+        }
+
+        private long addSwitch(RoutingCore core) {
+            long dpid = this.nextDpid++;
+            this.switches.add(dpid);
+            this.net.addSwitch(dpid);
+            core.switchAdded(dpid);
+            return dpid;
+        }
+
+        private void connect(long src, long dst) {
+            if (src == dst) {
+                return;
+            }
+            int srcPort = nextPort(src);
+            int dstPort = nextPort(dst);
+            this.net.updateLink(new SwitchLink(src, srcPort, dst, dstPort));
+            this.net.updateLink(new SwitchLink(dst, dstPort, src, srcPort));
+        }
+
+        private void attach(long mac, RoutingCore core) {
+            long dpid = randomSwitch();
+            this.net.attachHost(new HostAttachment(mac, dpid, nextPort(dpid), (int) mac));
+            core.hostChanged(mac);
+        }
+
+        private int nextPort(long dpid) {
+            int port = this.nextPorts.containsKey(dpid) ? this.nextPorts.get(dpid) : 1;
+            this.nextPorts.put(dpid, port + 1);
+            return port;
+        }
+    }
+}